@@ -40,14 +40,16 @@ public final class ASTPrinter {
         sb.append(ind).append("}\n");
       }
     } else if (s instanceof Statement.Loop loop) {
-      sb.append(ind).append("while ").append(printFactor(loop.cond())).append("\n");
+      sb.append(ind).append(loop.parallel() != null ? "parallel while " : "while ").append(printFactor(loop.cond()))
+          .append("\n");
       sb.append(ind).append("{\n");
       for (Statement t : loop.body())
         printStmt(ind + "  ", t, sb);
       sb.append(ind).append("}\n");
     } else if (s instanceof Statement.Decl d) {
       sb.append(ind).append("decl ").append(d.variable().getType()).append(stars(d.variable().getNReferences()))
-          .append(" ").append(d.variable().getName()).append("\n");
+          .append(" ").append(d.variable().getName())
+          .append(d.variable().isArray() ? "[" + d.variable().getArrayLength() + "]" : "").append("\n");
     } else if (s instanceof Statement.Call c) {
       sb.append(ind).append("call ").append(c.function().getName()).append("(");
       for (int i = 0; i < c.arguments().length; i++) {
@@ -103,6 +105,9 @@ public final class ASTPrinter {
       return "(" + printExpr(p.expression()) + ")";
     if (f instanceof Factor.Var v)
       return v.toString(); // uses Variable.toString()
+    if (f instanceof Factor.Index x)
+      return "^".repeat(x.element().getNReferences() - 1) + x.element().getVariable().getName() + "["
+          + printExpr(x.index()) + "]";
     if (f instanceof Factor.Call c) {
       StringBuilder sb = new StringBuilder();
       sb.append(c.fun().getName()).append("(");
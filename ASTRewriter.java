@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+
+/**
+ * Rewriting walker over the SHC AST.
+ *
+ * Rebuilds the tree bottom-up. Subclasses override the hooks for the nodes
+ * they transform and call {@code super} to rewrite the children first. Nodes
+ * whose children did not change are returned as-is, so an identity rewrite
+ * does not copy the tree.
+ */
+public class ASTRewriter {
+  /**
+   * Rewrite every statement of a body.
+   *
+   * @param body - statements to rewrite
+   * @return the rewritten statements
+   */
+  public Statement[] rewriteBody(Statement[] body) {
+    if (body == null) {
+      return null;
+    }
+    ArrayList<Statement> result = new ArrayList<>();
+    boolean changed = false;
+    for (Statement statement : body) {
+      Statement[] rewritten = rewriteStatement(statement);
+      if (rewritten.length != 1 || rewritten[0] != statement) {
+        changed = true;
+      }
+      for (Statement s : rewritten) {
+        result.add(s);
+      }
+    }
+    return changed ? result.toArray(Statement[]::new) : body;
+  }
+
+  /**
+   * Rewrite a statement.
+   *
+   * @param statement - statement to rewrite
+   * @return the statements replacing it, possibly none
+   */
+  public Statement[] rewriteStatement(Statement statement) {
+    Statement result = switch (statement) {
+      case Statement.If ifStatement -> {
+        Factor cond = rewriteFactor(ifStatement.cond());
+        Statement[] body = rewriteBody(ifStatement.body());
+        Statement[] otherBody = rewriteBody(ifStatement.otherBody());
+        if (cond == ifStatement.cond() && body == ifStatement.body() && otherBody == ifStatement.otherBody()) {
+          yield ifStatement;
+        }
+        yield new Statement.If(cond, body, otherBody, ifStatement.lineIdx(), ifStatement.charIdx());
+      }
+      case Statement.Loop loopStatement -> {
+        Factor cond = rewriteFactor(loopStatement.cond());
+        Statement[] body = rewriteBody(loopStatement.body());
+        if (cond == loopStatement.cond() && body == loopStatement.body()) {
+          yield loopStatement;
+        }
+        yield new Statement.Loop(cond, body, loopStatement.parallel(), loopStatement.lineIdx(),
+            loopStatement.charIdx());
+      }
+      case Statement.Decl declStatement -> declStatement;
+      case Statement.Call callStatement -> {
+        Expression[] arguments = rewriteArguments(callStatement.arguments());
+        if (arguments == callStatement.arguments()) {
+          yield callStatement;
+        }
+        yield new Statement.Call(callStatement.function(), arguments, callStatement.lineIdx(),
+            callStatement.charIdx());
+      }
+      case Statement.Jump jumpStatement -> {
+        if (!jumpStatement.hasValue()) {
+          yield jumpStatement;
+        }
+        Expression value = rewriteExpression(jumpStatement.value());
+        if (value == jumpStatement.value()) {
+          yield jumpStatement;
+        }
+        yield new Statement.Jump(jumpStatement.type(), value, jumpStatement.lineIdx(), jumpStatement.charIdx());
+      }
+      case Statement.Assign assignStatement -> {
+        Assignment assignment = rewriteAssignment(assignStatement.assignment());
+        if (assignment == assignStatement.assignment()) {
+          yield assignStatement;
+        }
+        yield new Statement.Assign(assignment, assignStatement.lineIdx(), assignStatement.charIdx());
+      }
+    };
+    return new Statement[] { result };
+  }
+
+  /**
+   * Rewrite the arguments of a call.
+   *
+   * @param arguments - arguments to rewrite
+   */
+  public Expression[] rewriteArguments(Expression[] arguments) {
+    Expression[] result = new Expression[arguments.length];
+    boolean changed = false;
+    for (int i = 0; i < arguments.length; i++) {
+      result[i] = rewriteExpression(arguments[i]);
+      changed |= result[i] != arguments[i];
+    }
+    return changed ? result : arguments;
+  }
+
+  /** Rewrite an expression. */
+  public Expression rewriteExpression(Expression expression) {
+    Assignment[] assignments = expression.getExpressions();
+    Assignment[] result = new Assignment[assignments.length];
+    boolean changed = false;
+    for (int i = 0; i < assignments.length; i++) {
+      result[i] = rewriteAssignment(assignments[i]);
+      changed |= result[i] != assignments[i];
+    }
+    if (!changed) {
+      return expression;
+    }
+    return new Expression(result, expression.getLineIdx(), expression.getCharIdx());
+  }
+
+  /** Rewrite an assignment. */
+  public Assignment rewriteAssignment(Assignment assignment) {
+    OrExpression value = rewriteOrExpression(assignment.getValue());
+    Expression index = assignment.hasIndex() ? rewriteExpression(assignment.getIndex()) : null;
+    Factor.Var assignee = assignment.hasAssignee() ? rewriteAssignee(assignment.getAssignee()) : null;
+    if (value == assignment.getValue() && index == assignment.getIndex()
+        && (!assignment.hasAssignee() || assignee == assignment.getAssignee())) {
+      return assignment;
+    }
+    if (index != null) {
+      return new Assignment(assignee, index, value, assignment.getLineIdx(), assignment.getCharIdx());
+    }
+    return new Assignment(assignee, value, assignment.getLineIdx(), assignment.getCharIdx());
+  }
+
+  /**
+   * Rewrite the target of an assignment.
+   *
+   * @param assignee - variable being written
+   */
+  public Factor.Var rewriteAssignee(Factor.Var assignee) {
+    return assignee;
+  }
+
+  /** Rewrite an or expression. */
+  public OrExpression rewriteOrExpression(OrExpression expression) {
+    AndExpression right = rewriteAndExpression(expression.getRight());
+    if (!expression.hasLeft()) {
+      return right == expression.getRight() ? expression
+          : new OrExpression(right, expression.getLineIdx(), expression.getCharIdx());
+    }
+    OrExpression left = rewriteOrExpression(expression.getLeft());
+    if (left == expression.getLeft() && right == expression.getRight()) {
+      return expression;
+    }
+    return new OrExpression(left, right, expression.getLineIdx(), expression.getCharIdx());
+  }
+
+  /** Rewrite an and expression. */
+  public AndExpression rewriteAndExpression(AndExpression expression) {
+    EqualityExpression right = rewriteEqualityExpression(expression.getRight());
+    if (!expression.hasLeft()) {
+      return right == expression.getRight() ? expression
+          : new AndExpression(right, expression.getLineIdx(), expression.getCharIdx());
+    }
+    AndExpression left = rewriteAndExpression(expression.getLeft());
+    if (left == expression.getLeft() && right == expression.getRight()) {
+      return expression;
+    }
+    return new AndExpression(left, right, expression.getLineIdx(), expression.getCharIdx());
+  }
+
+  /** Rewrite an equality expression. */
+  public EqualityExpression rewriteEqualityExpression(EqualityExpression expression) {
+    RelationalExpression right = rewriteRelationalExpression(expression.getRight());
+    if (!expression.hasLeft()) {
+      return right == expression.getRight() ? expression
+          : new EqualityExpression(right, expression.getLineIdx(), expression.getCharIdx());
+    }
+    EqualityExpression left = rewriteEqualityExpression(expression.getLeft());
+    if (left == expression.getLeft() && right == expression.getRight()) {
+      return expression;
+    }
+    return new EqualityExpression(left, expression.getOperator(), right, expression.getLineIdx(),
+        expression.getCharIdx());
+  }
+
+  /** Rewrite a relational expression. */
+  public RelationalExpression rewriteRelationalExpression(RelationalExpression expression) {
+    AdditiveExpression right = rewriteAdditiveExpression(expression.getRight());
+    if (!expression.hasLeft()) {
+      return right == expression.getRight() ? expression
+          : new RelationalExpression(right, expression.getLineIdx(), expression.getCharIdx());
+    }
+    RelationalExpression left = rewriteRelationalExpression(expression.getLeft());
+    if (left == expression.getLeft() && right == expression.getRight()) {
+      return expression;
+    }
+    return new RelationalExpression(left, expression.getOperator(), right, expression.getLineIdx(),
+        expression.getCharIdx());
+  }
+
+  /** Rewrite an additive expression. */
+  public AdditiveExpression rewriteAdditiveExpression(AdditiveExpression expression) {
+    MultiplicativeExpression right = rewriteMultiplicativeExpression(expression.getRight());
+    if (!expression.hasLeft()) {
+      return right == expression.getRight() ? expression
+          : new AdditiveExpression(right, expression.getLineIdx(), expression.getCharIdx());
+    }
+    AdditiveExpression left = rewriteAdditiveExpression(expression.getLeft());
+    if (left == expression.getLeft() && right == expression.getRight()) {
+      return expression;
+    }
+    return new AdditiveExpression(left, expression.getOperator(), right, expression.getLineIdx(),
+        expression.getCharIdx());
+  }
+
+  /** Rewrite a multiplicative expression. */
+  public MultiplicativeExpression rewriteMultiplicativeExpression(MultiplicativeExpression expression) {
+    UnaryExpression right = rewriteUnaryExpression(expression.getRight());
+    if (!expression.hasLeft()) {
+      return right == expression.getRight() ? expression
+          : new MultiplicativeExpression(right, expression.getLineIdx(), expression.getCharIdx());
+    }
+    MultiplicativeExpression left = rewriteMultiplicativeExpression(expression.getLeft());
+    if (left == expression.getLeft() && right == expression.getRight()) {
+      return expression;
+    }
+    return new MultiplicativeExpression(left, expression.getOperator(), right, expression.getLineIdx(),
+        expression.getCharIdx());
+  }
+
+  /** Rewrite a unary expression. */
+  public UnaryExpression rewriteUnaryExpression(UnaryExpression expression) {
+    if (expression.hasOperator()) {
+      UnaryExpression inner = rewriteUnaryExpression(expression.getUnaryExpression());
+      if (inner == expression.getUnaryExpression()) {
+        return expression;
+      }
+      return new UnaryExpression(expression.getOperator(), inner, expression.getLineIdx(), expression.getCharIdx());
+    }
+    Factor factor = rewriteFactor(expression.getFactor());
+    if (factor == expression.getFactor()) {
+      return expression;
+    }
+    return new UnaryExpression(factor, expression.getLineIdx(), expression.getCharIdx());
+  }
+
+  /** Rewrite a factor. */
+  public Factor rewriteFactor(Factor factor) {
+    return switch (factor) {
+      case Factor.Var varFactor -> rewriteVar(varFactor);
+      case Factor.Const constFactor -> constFactor;
+      case Factor.Str strFactor -> strFactor;
+      case Factor.Parentheses parenthesesFactor -> {
+        Expression expression = rewriteExpression(parenthesesFactor.expression());
+        if (expression == parenthesesFactor.expression()) {
+          yield parenthesesFactor;
+        }
+        yield new Factor.Parentheses(expression, parenthesesFactor.lineIdx(), parenthesesFactor.charIdx());
+      }
+      case Factor.Call callFactor -> {
+        Expression[] arguments = rewriteArguments(callFactor.arguments());
+        if (arguments == callFactor.arguments()) {
+          yield callFactor;
+        }
+        yield new Factor.Call(callFactor.fun(), arguments, callFactor.lineIdx(), callFactor.charIdx());
+      }
+      case Factor.Index indexFactor -> {
+        Expression index = rewriteExpression(indexFactor.index());
+        // the element stays a variable usage; a rewrite to anything else keeps the original
+        Factor element = rewriteVar(indexFactor.element());
+        Factor.Var var = element instanceof Factor.Var v ? v : indexFactor.element();
+        if (index == indexFactor.index() && var == indexFactor.element()) {
+          yield indexFactor;
+        }
+        yield new Factor.Index(var, index, indexFactor.lineIdx(), indexFactor.charIdx());
+      }
+    };
+  }
+
+  /**
+   * Rewrite a variable read.
+   *
+   * @param var - variable usage
+   */
+  public Factor rewriteVar(Factor.Var var) {
+    return var;
+  }
+}
@@ -0,0 +1,583 @@
+/**
+ * Helpers for inspecting and building SHC expressions.
+ *
+ * Every expression is a chain of precedence levels ({@code Expression} down to
+ * {@code Factor}); these helpers look through, or fill in, the levels that
+ * carry no operator.
+ */
+public final class ASTUtil {
+  private ASTUtil() {
+  }
+
+  /**
+   * Return the single factor an expression consists of, looking through
+   * parentheses, or null if the expression has an operator.
+   *
+   * @param expression - expression to unwrap
+   */
+  public static Factor asFactor(Expression expression) {
+    Assignment[] assignments = expression.getExpressions();
+    if (assignments.length != 1 || assignments[0].hasAssignee()) {
+      return null;
+    }
+    return asFactor(assignments[0].getValue());
+  }
+
+  /**
+   * Return the single factor an or expression consists of, looking through
+   * parentheses, or null if the expression has an operator.
+   *
+   * @param expression - expression to unwrap
+   */
+  public static Factor asFactor(OrExpression expression) {
+    if (expression.hasLeft()) {
+      return null;
+    }
+    AndExpression and = expression.getRight();
+    if (and.hasLeft()) {
+      return null;
+    }
+    EqualityExpression eq = and.getRight();
+    if (eq.hasLeft()) {
+      return null;
+    }
+    RelationalExpression rel = eq.getRight();
+    if (rel.hasLeft()) {
+      return null;
+    }
+    AdditiveExpression add = rel.getRight();
+    if (add.hasLeft()) {
+      return null;
+    }
+    MultiplicativeExpression mul = add.getRight();
+    if (mul.hasLeft()) {
+      return null;
+    }
+    UnaryExpression unary = mul.getRight();
+    if (unary.hasOperator()) {
+      return null;
+    }
+    return asFactor(unary.getFactor());
+  }
+
+  /**
+   * Return the additive expression an or expression consists of, or null if
+   * the expression has a logical or comparison operator.
+   *
+   * @param expression - expression to unwrap
+   */
+  public static AdditiveExpression asAdditive(OrExpression expression) {
+    if (expression.hasLeft() || expression.getRight().hasLeft() || expression.getRight().getRight().hasLeft()) {
+      return null;
+    }
+    RelationalExpression rel = expression.getRight().getRight().getRight();
+    return rel.hasLeft() ? null : rel.getRight();
+  }
+
+  /**
+   * Look through parentheses around a factor.
+   *
+   * @param factor - factor to unwrap
+   */
+  public static Factor asFactor(Factor factor) {
+    if (factor instanceof Factor.Parentheses parentheses) {
+      Factor inner = asFactor(parentheses.expression());
+      return inner == null ? factor : inner;
+    }
+    return factor;
+  }
+
+  /**
+   * Return the call an expression consists of, or null.
+   *
+   * @param expression - expression to inspect
+   */
+  public static Factor.Call asCall(Expression expression) {
+    return asFactor(expression) instanceof Factor.Call call ? call : null;
+  }
+
+  /**
+   * Return the variable usage an expression consists of, or null.
+   *
+   * @param expression - expression to inspect
+   */
+  public static Factor.Var asVar(Expression expression) {
+    return asFactor(expression) instanceof Factor.Var var ? var : null;
+  }
+
+  /** Wrap a factor as a unary expression. */
+  public static UnaryExpression unaryOf(Factor factor) {
+    Parsable at = positionOf(factor);
+    return new UnaryExpression(factor, at.getLineIdx(), at.getCharIdx());
+  }
+
+  /** Wrap a unary expression as a multiplicative expression. */
+  public static MultiplicativeExpression mulOf(UnaryExpression unary) {
+    return new MultiplicativeExpression(unary, unary.getLineIdx(), unary.getCharIdx());
+  }
+
+  /** Wrap a multiplicative expression as an additive expression. */
+  public static AdditiveExpression addOf(MultiplicativeExpression mul) {
+    return new AdditiveExpression(mul, mul.getLineIdx(), mul.getCharIdx());
+  }
+
+  /** Wrap a factor as an additive expression. */
+  public static AdditiveExpression addOf(Factor factor) {
+    return addOf(mulOf(unaryOf(factor)));
+  }
+
+  /** Wrap an additive expression as an or expression. */
+  public static OrExpression orOf(AdditiveExpression add) {
+    int line = add.getLineIdx(), col = add.getCharIdx();
+    RelationalExpression rel = new RelationalExpression(add, line, col);
+    EqualityExpression eq = new EqualityExpression(rel, line, col);
+    AndExpression and = new AndExpression(eq, line, col);
+    return new OrExpression(and, line, col);
+  }
+
+  /** Wrap a factor as an or expression. */
+  public static OrExpression orOf(Factor factor) {
+    return orOf(addOf(factor));
+  }
+
+  /** Wrap an or expression as a single-element expression. */
+  public static Expression expressionOf(OrExpression or) {
+    int line = or.getLineIdx(), col = or.getCharIdx();
+    return new Expression(new Assignment[] { new Assignment(null, or, line, col) }, line, col);
+  }
+
+  /** Wrap a factor as a single-element expression. */
+  public static Expression expressionOf(Factor factor) {
+    return expressionOf(orOf(factor));
+  }
+
+  /**
+   * Build the statement {@code target = value;}.
+   *
+   * @param target - variable to write, with its leading {@code ^} count
+   * @param value  - value to assign
+   */
+  public static Statement.Assign assign(Factor.Var target, OrExpression value) {
+    int line = target.getLineIdx(), col = target.getCharIdx();
+    return new Statement.Assign(new Assignment(target, value, line, col), line, col);
+  }
+
+  /**
+   * Build the logical negation of a condition. Comparisons are inverted
+   * directly; anything else becomes {@code (cond) == 0}.
+   *
+   * @param cond - condition to negate
+   */
+  public static Factor not(Factor cond) {
+    Parsable at = positionOf(cond);
+    int line = at.getLineIdx(), col = at.getCharIdx();
+    EqualityExpression inverted = invert(asEquality(cond));
+    if (inverted == null) {
+      RelationalExpression zero = new RelationalExpression(addOf(new Factor.Const(0, line, col)), line, col);
+      inverted = new EqualityExpression(equalityOf(cond), SHC.EQUAL, zero, line, col);
+    }
+    OrExpression or = new OrExpression(new AndExpression(inverted, line, col), line, col);
+    return new Factor.Parentheses(expressionOf(or), line, col);
+  }
+
+  /**
+   * Build {@code left && right}.
+   *
+   * @param left  - condition evaluated first
+   * @param right - condition evaluated only if {@code left} holds
+   */
+  public static Factor and(Factor left, Factor right) {
+    Parsable at = positionOf(left);
+    int line = at.getLineIdx(), col = at.getCharIdx();
+    AndExpression and = new AndExpression(new AndExpression(equalityOf(left), line, col), equalityOf(right), line,
+        col);
+    return new Factor.Parentheses(expressionOf(new OrExpression(and, line, col)), line, col);
+  }
+
+  /**
+   * Build {@code left || right}.
+   *
+   * @param left  - condition evaluated first
+   * @param right - condition evaluated only if {@code left} does not hold
+   */
+  public static Factor or(Factor left, Factor right) {
+    Parsable at = positionOf(left);
+    int line = at.getLineIdx(), col = at.getCharIdx();
+    OrExpression or = new OrExpression(orOf(left), new AndExpression(equalityOf(right), line, col), line, col);
+    return new Factor.Parentheses(expressionOf(or), line, col);
+  }
+
+  /**
+   * Build {@code (left op right)}.
+   *
+   * @param left     - left operand
+   * @param operator - comparison operator
+   * @param right    - right operand
+   */
+  public static Factor compare(AdditiveExpression left, SHC operator, AdditiveExpression right) {
+    int line = left.getLineIdx(), col = left.getCharIdx();
+    RelationalExpression test = new RelationalExpression(new RelationalExpression(left, line, col), operator, right,
+        line, col);
+    OrExpression or = new OrExpression(new AndExpression(new EqualityExpression(test, line, col), line, col), line,
+        col);
+    return new Factor.Parentheses(expressionOf(or), line, col);
+  }
+
+  /** Wrap a factor as an equality expression. */
+  private static EqualityExpression equalityOf(Factor factor) {
+    AdditiveExpression add = addOf(factor);
+    RelationalExpression rel = new RelationalExpression(add, add.getLineIdx(), add.getCharIdx());
+    return new EqualityExpression(rel, add.getLineIdx(), add.getCharIdx());
+  }
+
+  /**
+   * Return the equality expression a parenthesized condition consists of, or
+   * null if it has a logical operator or several parts.
+   */
+  private static EqualityExpression asEquality(Factor cond) {
+    if (!(cond instanceof Factor.Parentheses parentheses)) {
+      return null;
+    }
+    Assignment[] assignments = parentheses.expression().getExpressions();
+    if (assignments.length != 1 || assignments[0].hasAssignee()) {
+      return null;
+    }
+    OrExpression or = assignments[0].getValue();
+    if (or.hasLeft() || or.getRight().hasLeft()) {
+      return null;
+    }
+    return or.getRight().getRight();
+  }
+
+  /** Return the single comparison {@code eq} with its operator inverted, or null. */
+  private static EqualityExpression invert(EqualityExpression eq) {
+    if (eq == null) {
+      return null;
+    }
+    int line = eq.getLineIdx(), col = eq.getCharIdx();
+    if (eq.hasLeft()) {
+      SHC operator = eq.getOperator() == SHC.EQUAL ? SHC.NEQ : SHC.EQUAL;
+      return new EqualityExpression(eq.getLeft(), operator, eq.getRight(), line, col);
+    }
+    RelationalExpression rel = eq.getRight();
+    if (!rel.hasLeft()) {
+      return null;
+    }
+    SHC operator = switch (rel.getOperator()) {
+      case LESS -> SHC.GEQ;
+      case GEQ -> SHC.LESS;
+      case GREATER -> SHC.LEQ;
+      case LEQ -> SHC.GREATER;
+      default -> null;
+    };
+    if (operator == null) {
+      return null;
+    }
+    RelationalExpression flipped = new RelationalExpression(rel.getLeft(), operator, rel.getRight(), line, col);
+    return new EqualityExpression(flipped, line, col);
+  }
+
+  /**
+   * Return {@code end} if a loop condition is {@code (v < end)}, else null.
+   *
+   * @param cond     - condition to inspect
+   * @param variable - variable compared
+   */
+  public static AdditiveExpression upperBound(Factor cond, Variable variable) {
+    RelationalExpression rel = lessThan(cond);
+    return rel != null && isVariable(asFactor(orOf(rel.getLeft().getRight())), variable) ? rel.getRight() : null;
+  }
+
+  /**
+   * Return {@code v} if a loop condition is {@code (v < end)}, else null.
+   *
+   * @param cond - condition to inspect
+   */
+  public static Variable counterOf(Factor cond) {
+    RelationalExpression rel = lessThan(cond);
+    if (rel == null || !(asFactor(orOf(rel.getLeft().getRight())) instanceof Factor.Var var)
+        || var.getNReferences() != 0) {
+      return null;
+    }
+    return var.getVariable();
+  }
+
+  /** Return the comparison of a condition {@code (a < b)} with a single additive {@code a}, or null. */
+  private static RelationalExpression lessThan(Factor cond) {
+    if (!(cond instanceof Factor.Parentheses parentheses) || parentheses.expression().getExpressions().length != 1
+        || parentheses.expression().getExpressions()[0].hasAssignee()) {
+      return null;
+    }
+    OrExpression or = parentheses.expression().getExpressions()[0].getValue();
+    if (or.hasLeft() || or.getRight().hasLeft() || or.getRight().getRight().hasLeft()) {
+      return null;
+    }
+    RelationalExpression rel = or.getRight().getRight().getRight();
+    if (!rel.hasLeft() || rel.getOperator() != SHC.LESS || rel.getLeft().hasLeft()) {
+      return null;
+    }
+    return rel;
+  }
+
+  /**
+   * Return true iff a statement is {@code v = v + 1;}.
+   *
+   * @param statement - statement to inspect
+   * @param variable  - variable incremented
+   */
+  public static boolean isIncrement(Statement statement, Variable variable) {
+    Long step = stepOf(statement, variable);
+    return step != null && step == 1;
+  }
+
+  /**
+   * Return {@code c} if a statement is {@code v = v + c;} with a positive
+   * constant {@code c}, else null.
+   *
+   * @param statement - statement to inspect
+   * @param variable  - variable incremented
+   */
+  public static Long stepOf(Statement statement, Variable variable) {
+    if (!(statement instanceof Statement.Assign assign) || assign.assignment().hasIndex()
+        || !isVariable(assign.assignment().getAssignee(), variable)) {
+      return null;
+    }
+    AdditiveExpression sum = asAdditive(assign.assignment().getValue());
+    if (sum == null || !sum.hasLeft() || sum.getOperator() != SHC.ADD || sum.getLeft().hasLeft()
+        || !isVariable(asFactor(orOf(sum.getLeft())), variable)) {
+      return null;
+    }
+    Long step = constantValue(sum.getRight());
+    return step != null && step > 0 ? step : null;
+  }
+
+  /** Return true iff a factor is a plain read of {@code variable}, with no {@code ^}. */
+  public static boolean isVariable(Factor factor, Variable variable) {
+    return factor instanceof Factor.Var var && var.getNReferences() == 0 && var.getVariable() == variable;
+  }
+
+  /**
+   * Return a copy of a body that shares no node with it, for passes that
+   * duplicate code: facts are keyed by node, so no node may appear twice in a
+   * function. Variables and called functions are shared.
+   *
+   * @param body - statements to copy
+   */
+  public static Statement[] copy(Statement[] body) {
+    return new Copier().rewriteBody(body);
+  }
+
+  /**
+   * Return a copy of an expression that shares no node with it.
+   *
+   * @param expression - expression to copy
+   */
+  public static AdditiveExpression copy(AdditiveExpression expression) {
+    return new Copier().rewriteAdditiveExpression(expression);
+  }
+
+  /** Rebuilds every node it walks. */
+  private static final class Copier extends ASTRewriter {
+    @Override
+    public Statement[] rewriteStatement(Statement statement) {
+      // nodes without children are not rebuilt by the walk, so copy them here
+      if (statement instanceof Statement.Decl decl) {
+        return new Statement[] { new Statement.Decl(decl.variable(), decl.lineIdx(), decl.charIdx()) };
+      }
+      if (statement instanceof Statement.Jump jump && !jump.hasValue()) {
+        return new Statement[] { new Statement.Jump(jump.type(), jump.lineIdx(), jump.charIdx()) };
+      }
+      if (statement instanceof Statement.Call call && call.arguments().length == 0) {
+        return new Statement[] { new Statement.Call(call.function(), call.arguments(), call.lineIdx(),
+            call.charIdx()) };
+      }
+      return super.rewriteStatement(statement);
+    }
+
+    @Override
+    public Factor.Var rewriteAssignee(Factor.Var assignee) {
+      return new Factor.Var(assignee.getVariable(), assignee.getNReferences(), assignee.getLineIdx(),
+          assignee.getCharIdx());
+    }
+
+    @Override
+    public Factor rewriteVar(Factor.Var var) {
+      return rewriteAssignee(var);
+    }
+
+    @Override
+    public Factor rewriteFactor(Factor factor) {
+      if (factor instanceof Factor.Const c) {
+        return new Factor.Const(c.constant(), c.name(), c.lineIdx(), c.charIdx());
+      }
+      if (factor instanceof Factor.Str str) {
+        return new Factor.Str(str.string(), str.lineIdx(), str.charIdx());
+      }
+      if (factor instanceof Factor.Call call && call.arguments().length == 0) {
+        return new Factor.Call(call.fun(), call.arguments(), call.lineIdx(), call.charIdx());
+      }
+      return super.rewriteFactor(factor);
+    }
+  }
+
+  /** Return a node carrying the source position of a factor. */
+  private static Parsable positionOf(Factor factor) {
+    return switch (factor) {
+      case Factor.Var var -> var;
+      case Factor.Const c -> new Parsable(c.lineIdx(), c.charIdx());
+      case Factor.Str str -> new Parsable(str.lineIdx(), str.charIdx());
+      case Factor.Parentheses p -> new Parsable(p.lineIdx(), p.charIdx());
+      case Factor.Call call -> new Parsable(call.lineIdx(), call.charIdx());
+      case Factor.Index index -> new Parsable(index.lineIdx(), index.charIdx());
+    };
+  }
+
+  /**
+   * Evaluate a factor made only of constants, or return null.
+   * Values follow C {@code int} arithmetic; anything that would overflow or
+   * divide by zero is left unevaluated.
+   *
+   * @param factor - factor to evaluate
+   */
+  public static Long constantValue(Factor factor) {
+    return switch (factor) {
+      case Factor.Const constFactor -> (long) constFactor.constant();
+      case Factor.Parentheses parentheses -> constantValue(parentheses.expression());
+      default -> null;
+    };
+  }
+
+  /**
+   * Evaluate an expression made only of constants, or return null.
+   *
+   * @param expression - expression to evaluate
+   */
+  public static Long constantValue(Expression expression) {
+    Assignment[] assignments = expression.getExpressions();
+    Long value = null;
+    for (Assignment assignment : assignments) {
+      if (assignment.hasAssignee()) {
+        return null;
+      }
+      value = constantValue(assignment.getValue());
+      if (value == null) {
+        return null;
+      }
+    }
+    return value;
+  }
+
+  /** Evaluate a constant or expression, or return null. */
+  public static Long constantValue(OrExpression expression) {
+    Long right = constantValue(expression.getRight());
+    if (!expression.hasLeft()) {
+      return right;
+    }
+    Long left = constantValue(expression.getLeft());
+    if (left != null && left != 0) {
+      return 1L;
+    }
+    if (left == null || right == null) {
+      return null;
+    }
+    return right != 0 ? 1L : 0L;
+  }
+
+  /** Evaluate a constant and expression, or return null. */
+  public static Long constantValue(AndExpression expression) {
+    Long right = constantValue(expression.getRight());
+    if (!expression.hasLeft()) {
+      return right;
+    }
+    Long left = constantValue(expression.getLeft());
+    if (left != null && left == 0) {
+      return 0L;
+    }
+    if (left == null || right == null) {
+      return null;
+    }
+    return right != 0 ? 1L : 0L;
+  }
+
+  /** Evaluate a constant equality expression, or return null. */
+  public static Long constantValue(EqualityExpression expression) {
+    Long right = constantValue(expression.getRight());
+    if (!expression.hasLeft() || right == null) {
+      return right;
+    }
+    Long left = constantValue(expression.getLeft());
+    if (left == null) {
+      return null;
+    }
+    boolean equal = left.longValue() == right.longValue();
+    return (expression.getOperator() == SHC.EQUAL) == equal ? 1L : 0L;
+  }
+
+  /** Evaluate a constant relational expression, or return null. */
+  public static Long constantValue(RelationalExpression expression) {
+    Long right = constantValue(expression.getRight());
+    if (!expression.hasLeft() || right == null) {
+      return right;
+    }
+    Long left = constantValue(expression.getLeft());
+    if (left == null) {
+      return null;
+    }
+    boolean result = switch (expression.getOperator()) {
+      case LESS -> left < right;
+      case GREATER -> left > right;
+      case LEQ -> left <= right;
+      case GEQ -> left >= right;
+      default -> false;
+    };
+    return result ? 1L : 0L;
+  }
+
+  /** Evaluate a constant additive expression, or return null. */
+  public static Long constantValue(AdditiveExpression expression) {
+    Long right = constantValue(expression.getRight());
+    if (!expression.hasLeft() || right == null) {
+      return right;
+    }
+    Long left = constantValue(expression.getLeft());
+    if (left == null) {
+      return null;
+    }
+    return fitsInt(expression.getOperator() == SHC.ADD ? left + right : left - right);
+  }
+
+  /** Evaluate a constant multiplicative expression, or return null. */
+  public static Long constantValue(MultiplicativeExpression expression) {
+    Long right = constantValue(expression.getRight());
+    if (!expression.hasLeft() || right == null) {
+      return right;
+    }
+    Long left = constantValue(expression.getLeft());
+    if (left == null) {
+      return null;
+    }
+    return switch (expression.getOperator()) {
+      case MULTIPLY -> fitsInt(left * right);
+      case DIVIDE -> right == 0 ? null : fitsInt(left / right);
+      case MOD -> right == 0 ? null : fitsInt(left % right);
+      default -> null;
+    };
+  }
+
+  /** Evaluate a constant unary expression, or return null. */
+  public static Long constantValue(UnaryExpression expression) {
+    if (!expression.hasOperator()) {
+      return constantValue(expression.getFactor());
+    }
+    Long value = constantValue(expression.getUnaryExpression());
+    if (value == null) {
+      return null;
+    }
+    return expression.getOperator() == SHC.SUBTRACT ? fitsInt(-value) : value;
+  }
+
+  /** Return {@code value} if it is representable as a C int, else null. */
+  private static Long fitsInt(long value) {
+    return value < Integer.MIN_VALUE || value > Integer.MAX_VALUE ? null : value;
+  }
+}
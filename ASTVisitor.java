@@ -0,0 +1,216 @@
+/**
+ * Read-only walker over the SHC AST.
+ *
+ * Visits statements and expressions in source order. Subclasses override the
+ * hooks they care about and call {@code super} to keep descending.
+ */
+public class ASTVisitor {
+  /** number of loops enclosing the node currently being visited */
+  protected int loopDepth = 0;
+
+  /**
+   * Visit every statement of a body.
+   *
+   * @param body - statements to visit
+   */
+  public void visitBody(Statement[] body) {
+    if (body == null) {
+      return;
+    }
+    for (Statement statement : body) {
+      visitStatement(statement);
+    }
+  }
+
+  /**
+   * Visit a statement.
+   *
+   * @param statement - statement to visit
+   */
+  public void visitStatement(Statement statement) {
+    switch (statement) {
+      case Statement.If ifStatement:
+        visitFactor(ifStatement.cond());
+        visitBody(ifStatement.body());
+        visitBody(ifStatement.otherBody());
+        break;
+      case Statement.Loop loopStatement:
+        loopDepth++;
+        visitFactor(loopStatement.cond());
+        visitBody(loopStatement.body());
+        loopDepth--;
+        break;
+      case Statement.Decl declStatement:
+        visitDecl(declStatement.variable());
+        break;
+      case Statement.Call callStatement:
+        visitCall(callStatement.function().getName(), callStatement.arguments());
+        break;
+      case Statement.Jump jumpStatement:
+        if (jumpStatement.hasValue()) {
+          visitExpression(jumpStatement.value());
+        }
+        break;
+      case Statement.Assign assignStatement:
+        visitAssignment(assignStatement.assignment());
+        break;
+    }
+  }
+
+  /**
+   * Visit a declared variable.
+   *
+   * @param variable - variable being declared
+   */
+  public void visitDecl(Variable variable) {
+  }
+
+  /**
+   * Visit an expression.
+   *
+   * @param expression - expression to visit
+   */
+  public void visitExpression(Expression expression) {
+    for (Assignment assignment : expression.getExpressions()) {
+      visitAssignment(assignment);
+    }
+  }
+
+  /**
+   * Visit an assignment. The value is visited before the assignee's index,
+   * and the index before the assignee, matching evaluation order.
+   *
+   * @param assignment - assignment to visit
+   */
+  public void visitAssignment(Assignment assignment) {
+    visitOrExpression(assignment.getValue());
+    if (assignment.hasIndex()) {
+      visitExpression(assignment.getIndex());
+    }
+    if (assignment.hasAssignee()) {
+      visitAssignee(assignment.getAssignee());
+    }
+  }
+
+  /**
+   * Visit the target of an assignment.
+   *
+   * @param assignee - variable being written, with its leading {@code ^} count
+   */
+  public void visitAssignee(Factor.Var assignee) {
+  }
+
+  /** Visit an or expression. */
+  public void visitOrExpression(OrExpression expression) {
+    if (expression.hasLeft()) {
+      visitOrExpression(expression.getLeft());
+    }
+    visitAndExpression(expression.getRight());
+  }
+
+  /** Visit an and expression. */
+  public void visitAndExpression(AndExpression expression) {
+    if (expression.hasLeft()) {
+      visitAndExpression(expression.getLeft());
+    }
+    visitEqualityExpression(expression.getRight());
+  }
+
+  /** Visit an equality expression. */
+  public void visitEqualityExpression(EqualityExpression expression) {
+    if (expression.hasLeft()) {
+      visitEqualityExpression(expression.getLeft());
+    }
+    visitRelationalExpression(expression.getRight());
+  }
+
+  /** Visit a relational expression. */
+  public void visitRelationalExpression(RelationalExpression expression) {
+    if (expression.hasLeft()) {
+      visitRelationalExpression(expression.getLeft());
+    }
+    visitAdditiveExpression(expression.getRight());
+  }
+
+  /** Visit an additive expression. */
+  public void visitAdditiveExpression(AdditiveExpression expression) {
+    if (expression.hasLeft()) {
+      visitAdditiveExpression(expression.getLeft());
+    }
+    visitMultiplicativeExpression(expression.getRight());
+  }
+
+  /** Visit a multiplicative expression. */
+  public void visitMultiplicativeExpression(MultiplicativeExpression expression) {
+    if (expression.hasLeft()) {
+      visitMultiplicativeExpression(expression.getLeft());
+    }
+    visitUnaryExpression(expression.getRight());
+  }
+
+  /** Visit a unary expression. */
+  public void visitUnaryExpression(UnaryExpression expression) {
+    if (expression.hasOperator()) {
+      visitUnaryExpression(expression.getUnaryExpression());
+    } else {
+      visitFactor(expression.getFactor());
+    }
+  }
+
+  /**
+   * Visit a factor.
+   *
+   * @param factor - factor to visit
+   */
+  public void visitFactor(Factor factor) {
+    switch (factor) {
+      case Factor.Var varFactor:
+        visitVar(varFactor);
+        break;
+      case Factor.Const constFactor:
+        break;
+      case Factor.Str strFactor:
+        break;
+      case Factor.Parentheses parenthesesFactor:
+        visitExpression(parenthesesFactor.expression());
+        break;
+      case Factor.Call callFactor:
+        visitCall(callFactor.fun().getName(), callFactor.arguments());
+        break;
+      case Factor.Index indexFactor:
+        visitIndex(indexFactor);
+        break;
+    }
+  }
+
+  /**
+   * Visit a subscript: its index, then its element as a read through the
+   * variable.
+   *
+   * @param index - subscript to visit
+   */
+  public void visitIndex(Factor.Index index) {
+    visitExpression(index.index());
+    visitVar(index.element());
+  }
+
+  /**
+   * Visit a variable read.
+   *
+   * @param var - variable usage, with its leading {@code ^} count
+   */
+  public void visitVar(Factor.Var var) {
+  }
+
+  /**
+   * Visit a call, from either a call statement or a call factor.
+   *
+   * @param name      - name of the called function
+   * @param arguments - arguments to the call
+   */
+  public void visitCall(String name, Expression[] arguments) {
+    for (Expression argument : arguments) {
+      visitExpression(argument);
+    }
+  }
+}
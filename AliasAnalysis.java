@@ -0,0 +1,484 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Intraprocedural alias analysis for SHC pointers.
+ *
+ * Finds pointer parameters and locals that can be emitted as
+ * {@code restrict} because no other pointer in the function can reach the
+ * object they point to. Anything the analysis cannot see through (copies
+ * into other variables, stores into memory, returns, calls into
+ * user-defined or unknown functions) leaves the pointer plain, and the
+ * reason is kept for the report.
+ *
+ * A local qualifies when it only ever holds fresh allocations or offsets of
+ * itself, and its value never escapes. A parameter qualifies when its value
+ * never escapes, it is only reassigned from itself, and every memory access
+ * in the function is made through it or through a qualifying local. A
+ * parameter may point to any global whose address the program takes, or to
+ * an address-taken local of a caller, so no parameter qualifies in a
+ * function that reads or writes such a variable by name.
+ */
+public final class AliasAnalysis {
+  /** calls returning a pointer to a new object */
+  private static final Set<String> ALLOCATORS = Set.of("malloc", "calloc");
+  /** external functions that read their pointer arguments but never keep them */
+  private static final Set<String> READING_EXTERNALS = Set.of(
+      "puts", "printf", "strlen", "strcmp", "strncmp", "memcmp", "strchr", "strrchr", "strstr",
+      "fopen", "fputs", "fwrite", "atoi", "atol");
+  /** external functions that write through their pointer arguments but never keep them */
+  private static final Set<String> WRITING_EXTERNALS = Set.of(
+      "free", "memset", "memcpy", "memmove", "strcpy", "strncpy", "strcat", "fread", "fgets");
+  /** external functions that do not touch memory at all */
+  private static final Set<String> NON_MEMORY_EXTERNALS = Set.of(
+      "putchar", "isdigit", "isspace", "isalpha", "isalnum", "isupper", "islower", "isxdigit",
+      "toupper", "tolower", "abs", "labs", "exit", "abort", "fclose", "fseek", "ftell");
+
+  /** pointers proven not to alias, emitted as {@code restrict} */
+  private final HashSet<Variable> restrictPointers = new HashSet<>();
+  /** for each function, the verdict on each of its pointers */
+  private final LinkedHashMap<String, LinkedHashMap<Variable, String>> verdicts = new LinkedHashMap<>();
+
+  private AliasAnalysis() {
+  }
+
+  /**
+   * Analyze every function of a program.
+   *
+   * @param program - functions of the program
+   * @param globals - global variables
+   */
+  public static AliasAnalysis analyze(ArrayList<Function> program, ArrayList<Variable> globals) {
+    AliasAnalysis analysis = new AliasAnalysis();
+    CallGraph callGraph = new CallGraph(program);
+    HashSet<Variable> globalSet = new HashSet<>(globals);
+    HashSet<Variable> addressTakenGlobals = new HashSet<>();
+    for (Function function : program) {
+      addressTakenGlobals.addAll(LoopEffects.addressTaken(function.getBody()));
+    }
+    addressTakenGlobals.retainAll(globalSet);
+    for (Function function : program) {
+      analysis.analyzeFunction(function, callGraph, globalSet, addressTakenGlobals);
+    }
+    return analysis;
+  }
+
+  /** Return true iff {@code variable} may be emitted as {@code restrict}. */
+  public boolean isRestrict(Variable variable) {
+    return restrictPointers.contains(variable);
+  }
+
+  /**
+   * Return a human readable report of which pointers qualified, one line per
+   * function that has pointers.
+   */
+  public String report() {
+    StringBuilder report = new StringBuilder();
+    for (var entry : verdicts.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        continue;
+      }
+      report.append(entry.getKey()).append(":\n");
+      for (var verdict : entry.getValue().entrySet()) {
+        report.append("    ").append(verdict.getKey().getName()).append(": ").append(verdict.getValue()).append("\n");
+      }
+    }
+    return report.toString();
+  }
+
+  /**
+   * Analyze a single function.
+   *
+   * @param function  - function to analyze
+   * @param callGraph           - call graph of the program
+   * @param globals             - global variables
+   * @param addressTakenGlobals - globals whose address the program takes
+   */
+  private void analyzeFunction(Function function, CallGraph callGraph, Set<Variable> globals,
+      Set<Variable> addressTakenGlobals) {
+    LinkedHashMap<Variable, String> verdict = new LinkedHashMap<>();
+    verdicts.put(function.getName(), verdict);
+    boolean isMain = function.getName().equals("main");
+
+    HashSet<Variable> aliasable = LoopEffects.addressTaken(function.getBody());
+    aliasable.addAll(addressTakenGlobals);
+    Facts facts = new Facts(callGraph, globals, aliasable);
+    facts.visitBody(function.getBody());
+
+    ArrayList<Variable> params = new ArrayList<>();
+    for (Variable param : function.getArguments()) {
+      if (param.getNReferences() > 0 && !isMain) {
+        params.add(param);
+      }
+    }
+
+    // locals first: parameters may rely on accesses through qualifying locals
+    HashSet<Variable> basedOnFresh = new HashSet<>();
+    for (Variable local : facts.locals) {
+      if (local.getNReferences() == 0) {
+        continue;
+      }
+      HashSet<Variable> family = new HashSet<>();
+      String reason = checkFamily(local, facts, family);
+      if (local.isArray()) {
+        // an array is its own object: it is never restrict itself, but
+        // accesses through it cannot reach a parameter's object either
+        if (reason == null) {
+          basedOnFresh.addAll(family);
+        }
+        continue;
+      }
+      if (reason == null && !facts.freshSources.contains(local)) {
+        reason = "never holds a fresh allocation";
+      }
+      if (reason == null) {
+        basedOnFresh.addAll(family);
+        restrictPointers.add(local);
+        verdict.put(local, "restrict");
+      } else {
+        verdict.put(local, "plain (" + reason + ")");
+      }
+    }
+
+    for (Variable param : params) {
+      HashSet<Variable> family = new HashSet<>();
+      String reason = checkFamily(param, facts, family);
+      if (reason == null && facts.accessedByName != null) {
+        reason = "function also accesses `" + facts.accessedByName.getName() + "`, whose address is taken";
+      }
+      if (reason == null && facts.writesMemory) {
+        if (facts.opaqueCall != null) {
+          reason = "function calls `" + facts.opaqueCall + "`";
+        } else if (facts.accessesUnknown) {
+          reason = "memory is also accessed through pointers loaded from memory";
+        } else {
+          for (Variable accessed : facts.accessedThrough) {
+            if (!family.contains(accessed) && !basedOnFresh.contains(accessed)) {
+              reason = "memory is also accessed through `" + accessed.getName() + "`";
+              break;
+            }
+          }
+        }
+      }
+      if (reason == null) {
+        restrictPointers.add(param);
+        verdict.put(param, "restrict");
+      } else {
+        verdict.put(param, "plain (" + reason + ")");
+      }
+    }
+  }
+
+  /**
+   * Check that {@code pointer} is only assigned from itself or fresh
+   * allocations, and that its value only flows into locals that are based on
+   * it alone and never escape themselves.
+   *
+   * @param pointer - pointer to check
+   * @param facts   - facts about the function body
+   * @param family  - filled with {@code pointer} and every local based on it
+   * @return why the pointer does not qualify, or null if it does
+   */
+  private static String checkFamily(Variable pointer, Facts facts, HashSet<Variable> family) {
+    if (facts.unknownSources.contains(pointer)) {
+      return "assigned from a pointer of unknown origin";
+    }
+    for (Variable from : facts.sources.getOrDefault(pointer, new HashSet<>())) {
+      if (from != pointer) {
+        return "assigned from `" + from.getName() + "`";
+      }
+    }
+    ArrayList<Variable> worklist = new ArrayList<>();
+    family.add(pointer);
+    worklist.add(pointer);
+    while (!worklist.isEmpty()) {
+      Variable member = worklist.remove(worklist.size() - 1);
+      String escape = facts.escapes.get(member);
+      if (escape != null) {
+        return member == pointer ? escape : "based-on pointer `" + member.getName() + "` is " + escape;
+      }
+      for (Variable copy : facts.copies.getOrDefault(member, new HashSet<>())) {
+        if (copy == member || family.contains(copy)) {
+          continue;
+        }
+        if (!facts.locals.contains(copy)) {
+          return "copied into `" + copy.getName() + "`";
+        }
+        if (facts.unknownSources.contains(copy)) {
+          return "copied into `" + copy.getName() + "`, which also holds pointers of unknown origin";
+        }
+        family.add(copy);
+        worklist.add(copy);
+      }
+    }
+    for (Variable member : family) {
+      for (Variable from : facts.sources.getOrDefault(member, new HashSet<>())) {
+        if (!family.contains(from)) {
+          return "copied into `" + member.getName() + "`, which is also assigned from `" + from.getName() + "`";
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Where the value of an expression may come from.
+   */
+  private static final class Source {
+    /** variables whose value flows into the result */
+    final HashSet<Variable> vars = new HashSet<>();
+    /** the result may be a fresh allocation */
+    boolean fresh;
+    /** the result may come from somewhere the analysis cannot see */
+    boolean unknown;
+
+    void add(Source other) {
+      vars.addAll(other.vars);
+      fresh |= other.fresh;
+      unknown |= other.unknown;
+    }
+  }
+
+  /**
+   * Facts about the pointers of one function body.
+   */
+  private static final class Facts extends ASTVisitor {
+    private final CallGraph callGraph;
+    private final Set<Variable> globals;
+    /** variables whose address is taken, which pointers may reach */
+    private final Set<Variable> aliasable;
+
+    /** locals declared in the body */
+    final ArrayList<Variable> locals = new ArrayList<>();
+    /** why each escaping variable escapes */
+    final HashMap<Variable, String> escapes = new HashMap<>();
+    /** variables whose value is assigned into each variable */
+    final HashMap<Variable, HashSet<Variable>> sources = new HashMap<>();
+    /** variables whose value is assigned to each variable */
+    final HashMap<Variable, HashSet<Variable>> copies = new HashMap<>();
+    /** variables assigned pointers the analysis cannot trace */
+    final HashSet<Variable> unknownSources = new HashSet<>();
+    /** variables that are assigned a fresh allocation somewhere */
+    final HashSet<Variable> freshSources = new HashSet<>();
+    /** variables memory is accessed through */
+    final HashSet<Variable> accessedThrough = new HashSet<>();
+    /** memory is accessed through a pointer loaded from memory */
+    boolean accessesUnknown;
+    /** whether anything in the body may modify memory */
+    boolean writesMemory;
+    /** a call the analysis cannot see into, or null */
+    String opaqueCall;
+    /** an address-taken variable the body reads or writes by name, or null */
+    Variable accessedByName;
+
+    Facts(CallGraph callGraph, Set<Variable> globals, Set<Variable> aliasable) {
+      this.callGraph = callGraph;
+      this.globals = globals;
+      this.aliasable = aliasable;
+    }
+
+    private void escape(Source source, String reason) {
+      for (Variable variable : source.vars) {
+        escapes.putIfAbsent(variable, reason);
+      }
+    }
+
+    @Override
+    public void visitDecl(Variable variable) {
+      locals.add(variable);
+    }
+
+    @Override
+    public void visitStatement(Statement statement) {
+      switch (statement) {
+        case Statement.Assign assign -> {
+          Assignment assignment = assign.assignment();
+          Factor.Var target = assignment.getAssignee();
+          Variable variable = target.getVariable();
+          Source source = sourceOf(assignment.getValue());
+          if (target.getNReferences() == 0) {
+            for (Variable from : source.vars) {
+              sources.computeIfAbsent(variable, k -> new HashSet<>()).add(from);
+              copies.computeIfAbsent(from, k -> new HashSet<>()).add(variable);
+            }
+            if (source.unknown) {
+              unknownSources.add(variable);
+            }
+            if (source.fresh) {
+              freshSources.add(variable);
+            }
+          } else {
+            escape(source, "stored into memory");
+            writesMemory = true;
+          }
+        }
+        case Statement.Jump jump -> {
+          if (jump.hasValue()) {
+            escape(sourceOf(jump.value()), "returned");
+          }
+        }
+        default -> {
+        }
+      }
+      super.visitStatement(statement);
+    }
+
+    @Override
+    public void visitVar(Factor.Var var) {
+      Variable variable = var.getVariable();
+      if (var.getNReferences() == 0 && aliasable.contains(variable) && accessedByName == null) {
+        accessedByName = variable;
+      }
+      if (var.getNReferences() > 0 && variable.getNReferences() > 0) {
+        accessedThrough.add(variable);
+        if (var.getNReferences() > 1) {
+          accessesUnknown = true;
+        }
+      } else if (globals.contains(variable) && variable.getNReferences() > 0) {
+        accessedThrough.add(variable);
+      }
+    }
+
+    @Override
+    public void visitAssignee(Factor.Var assignee) {
+      Variable variable = assignee.getVariable();
+      if (assignee.getNReferences() == 0 && aliasable.contains(variable) && accessedByName == null) {
+        accessedByName = variable;
+      }
+      if (assignee.getNReferences() > 0) {
+        accessedThrough.add(variable);
+        if (assignee.getNReferences() > 1) {
+          accessesUnknown = true;
+        }
+      }
+    }
+
+    @Override
+    public void visitCall(String name, Expression[] arguments) {
+      boolean reads = READING_EXTERNALS.contains(name);
+      boolean writes = WRITING_EXTERNALS.contains(name);
+      boolean known = !callGraph.isDefined(name) && (reads || writes || NON_MEMORY_EXTERNALS.contains(name)
+          || ALLOCATORS.contains(name));
+      if (!known) {
+        writesMemory = true;
+        if (opaqueCall == null) {
+          opaqueCall = name;
+        }
+      }
+      if (writes) {
+        writesMemory = true;
+      }
+      for (Expression argument : arguments) {
+        Source source = sourceOf(argument);
+        if (!known) {
+          escape(source, "passed to `" + name + "`");
+        } else {
+          accessedThrough.addAll(source.vars);
+          if (source.unknown) {
+            accessesUnknown = true;
+          }
+        }
+      }
+      super.visitCall(name, arguments);
+    }
+  }
+
+  /** Return where the value of an expression may come from. */
+  private static Source sourceOf(Expression expression) {
+    Source source = new Source();
+    Assignment[] assignments = expression.getExpressions();
+    // the value of a comma expression is its last element
+    Assignment last = assignments[assignments.length - 1];
+    if (last.hasAssignee()) {
+      source.unknown = true;
+    } else {
+      source.add(sourceOf(last.getValue()));
+    }
+    return source;
+  }
+
+  /** Return where the value of an or expression may come from. */
+  private static Source sourceOf(OrExpression expression) {
+    if (expression.hasLeft()) {
+      return new Source();
+    }
+    AndExpression and = expression.getRight();
+    if (and.hasLeft()) {
+      return new Source();
+    }
+    EqualityExpression eq = and.getRight();
+    if (eq.hasLeft()) {
+      return new Source();
+    }
+    RelationalExpression rel = eq.getRight();
+    if (rel.hasLeft()) {
+      return new Source();
+    }
+    return sourceOf(rel.getRight());
+  }
+
+  /** Return where the value of an additive expression may come from. */
+  private static Source sourceOf(AdditiveExpression expression) {
+    Source source = sourceOf(expression.getRight());
+    if (expression.hasLeft()) {
+      source.add(sourceOf(expression.getLeft()));
+    }
+    return source;
+  }
+
+  /** Return where the value of a multiplicative expression may come from. */
+  private static Source sourceOf(MultiplicativeExpression expression) {
+    Source source = sourceOf(expression.getRight());
+    if (expression.hasLeft()) {
+      source.add(sourceOf(expression.getLeft()));
+    }
+    return source;
+  }
+
+  /** Return where the value of a unary expression may come from. */
+  private static Source sourceOf(UnaryExpression expression) {
+    if (expression.hasOperator()) {
+      return sourceOf(expression.getUnaryExpression());
+    }
+    return sourceOf(expression.getFactor());
+  }
+
+  /** Return where the value of a factor may come from. */
+  private static Source sourceOf(Factor factor) {
+    Source source = new Source();
+    switch (factor) {
+      case Factor.Var var -> {
+        int varRefs = var.getVariable().getNReferences();
+        int usageRefs = var.getNReferences();
+        if ((usageRefs == 0 && varRefs > 0) || (varRefs == 0 && usageRefs == 1)) {
+          // a pointer variable itself, or the address of a variable
+          source.vars.add(var.getVariable());
+        } else if (usageRefs < varRefs) {
+          // a pointer loaded from memory
+          source.unknown = true;
+        }
+      }
+      case Factor.Call call -> {
+        if (ALLOCATORS.contains(call.fun().getName())) {
+          source.fresh = true;
+        } else {
+          source.unknown = true;
+        }
+      }
+      case Factor.Parentheses parentheses -> source.add(sourceOf(parentheses.expression()));
+      case Factor.Index index -> {
+        Factor.Var element = index.element();
+        if (element.getNReferences() < element.getVariable().getNReferences()) {
+          // a pointer loaded from memory
+          source.unknown = true;
+        }
+      }
+      default -> {
+      }
+    }
+    return source;
+  }
+}
@@ -0,0 +1,1702 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Compiles SHC to GNU as x86-64 assembly for Linux, without going through C.
+ *
+ * The traversal follows {@link Compiler}, one method per statement and
+ * expression level, but each function is first lowered to a list of
+ * {@link Instruction}s over virtual registers. Expressions are typed the
+ * way {@link BytecodeCompiler} types them, so the program keeps the meaning
+ * of the C the other backend emits. {@link LinearScan} then assigns machine
+ * registers and stack slots, and the instructions are printed in AT&T
+ * syntax.
+ *
+ * Calls follow the System V ABI, so libc provides {@code malloc},
+ * {@code puts} and the rest, and the output is linked with
+ * {@code cc file.shc.s}.
+ */
+public final class AssemblyCompiler {
+  /** absent register operand */
+  private static final int NONE = -1;
+
+  /** allocatable registers; the first {@code N_CALLEE_SAVED} survive calls */
+  private static final String[] REGISTERS = { "%rbx", "%r12", "%r13", "%r14", "%r15",
+      "%rcx", "%r8", "%r9", "%r10", "%rsi", "%rdi" };
+  private static final int N_CALLEE_SAVED = 5;
+  /** registers for the first integer arguments of a call */
+  private static final String[] ARGUMENTS = { "%rdi", "%rsi", "%rdx", "%rcx", "%r8", "%r9" };
+  /** scratch register for breaking cycles in parallel moves; %rax and %rdx are the others */
+  private static final String SCRATCH = "%r11";
+
+  /** operations of the lowered code */
+  private enum Op {
+    /** dest = left */
+    MOV,
+    /** dest = immediate */
+    CONST,
+    /** dest = address of symbol */
+    ADDRESS,
+    /** dest = address of frame slot immediate */
+    FRAME,
+    ADD, SUB, MUL,
+    /** dest = left + immediate */
+    ADDI,
+    /** dest = left * immediate */
+    MULI,
+    /** dest = left >> immediate, arithmetic */
+    SARI,
+    /** 64 bit unsigned division and remainder */
+    DIVU, REMU,
+    /** 32 bit signed division and remainder */
+    DIV, REM,
+    NEG,
+    /** sign-extend the low 8, 16 or 32 bits */
+    I8, I16, I32,
+    /** zero-extend the low 8 or 32 bits */
+    U8, U32,
+    /** dest = left (condition symbol) right, or immediate if right is NONE */
+    SET,
+    /** goto label */
+    JUMP,
+    /** if left (condition symbol) right, or immediate, goto label */
+    BRANCH,
+    LABEL,
+    /** dest = *left; 16 and 32 bit loads sign-extend */
+    LD8, LD16, LD32, LD64,
+    /** *left = right */
+    ST8, ST16, ST32, ST64,
+    /** dest = symbol */
+    GLD8, GLD64,
+    /** symbol = right */
+    GST8, GST64,
+    /** dest = symbol(values...) */
+    CALL,
+    /** return left, or nothing if NONE */
+    RET,
+    /** values = the function's parameters */
+    PARAMS
+  }
+
+  /**
+   * An instruction over virtual registers. Unused fields are
+   * {@code NONE}, 0 or null.
+   */
+  private record Instruction(Op op, int dest, int left, int right, long immediate, String symbol, int label,
+      int[] values) {
+  }
+
+  /**
+   * A lowered expression.
+   *
+   * @param register - virtual register holding its value
+   * @param type     - its C type
+   */
+  private record Value(int register, Types.Type type) {
+  }
+
+  private final Reporter reporter;
+  private final HashMap<String, Function> functions = new HashMap<>();
+  private final IdentityHashMap<Variable, String> globals = new IdentityHashMap<>();
+  private final LinkedHashMap<String, String> strings = new LinkedHashMap<>();
+  private final StringBuilder out = new StringBuilder();
+  private int nLabels;
+
+  // state of the function being lowered
+
+  private Function function;
+  private final ArrayList<Instruction> code = new ArrayList<>();
+  private final IdentityHashMap<Variable, Integer> registers = new IdentityHashMap<>();
+  private final IdentityHashMap<Variable, Integer> frameSlots = new IdentityHashMap<>();
+  private int nFrameSlots;
+  /** first virtual register that is not a local */
+  private int firstTemporary;
+  private int nValues;
+  /** index of the last instruction if its destination may be rewritten, else -1 */
+  private int lastInstruction = -1;
+  private int breakLabel = -1;
+  private int continueLabel = -1;
+
+  // state of the function being emitted
+
+  private int[] locations;
+  private int nSaved;
+
+  private AssemblyCompiler(ArrayList<Function> program, ArrayList<Variable> globalVariables, Reporter reporter) {
+    this.reporter = reporter;
+    for (Function function : program) {
+      functions.put(function.getName(), function);
+    }
+    for (Variable variable : globalVariables) {
+      globals.put(variable, variable.getName());
+    }
+  }
+
+  /**
+   * Compile a list of functions to assembly.
+   *
+   * @param program  - the program to compile
+   * @param globals  - global variables
+   * @param filename - the filename to output to
+   * @param reporter - reporter for errors
+   */
+  public static void compile(ArrayList<Function> program, ArrayList<Variable> globals, String filename,
+      Reporter reporter) {
+    AssemblyCompiler compiler = new AssemblyCompiler(program, globals, reporter);
+    compiler.out.append("\t.text\n");
+    for (Function function : program) {
+      compiler.compileFunction(function);
+    }
+    compiler.compileData(globals);
+    try (FileOutputStream stream = new FileOutputStream(filename)) {
+      stream.write(compiler.out.toString().getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      reporter.printError("Failed to open `" + filename + "`");
+      System.exit(1);
+    }
+  }
+
+  /** Emit string literals and global variables. */
+  private void compileData(ArrayList<Variable> globalVariables) {
+    if (!strings.isEmpty()) {
+      out.append("\t.section .rodata\n");
+      for (var entry : strings.entrySet()) {
+        out.append(entry.getValue()).append(":\n");
+        out.append("\t.string \"").append(escape(entry.getKey())).append("\"\n");
+      }
+    }
+    if (!globalVariables.isEmpty()) {
+      out.append("\t.bss\n\t.p2align 3\n");
+      for (Variable variable : globalVariables) {
+        int size = variable.isArray() ? (Types.sizeOfArray(variable) + 7) & ~7 : 8;
+        out.append(variable.getName()).append(":\n\t.zero ").append(size).append("\n");
+      }
+    }
+    out.append("\t.section .note.GNU-stack,\"\",@progbits\n");
+  }
+
+  /** Escape a string for a {@code .string} directive. */
+  private static String escape(String string) {
+    StringBuilder result = new StringBuilder();
+    for (byte b : string.getBytes(StandardCharsets.UTF_8)) {
+      int c = b & 0xff;
+      if (c == '"' || c == '\\') {
+        result.append('\\').append((char) c);
+      } else if (c >= 0x20 && c < 0x7f) {
+        result.append((char) c);
+      } else {
+        result.append(String.format("\\%03o", c));
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Report an error in the program and stop, as the C compiler would.
+   *
+   * @param message - what is wrong
+   */
+  private void error(String message) {
+    reporter.printError(message + " in `" + function.getName() + "`");
+    System.exit(1);
+  }
+
+  // ===================== functions =====================
+
+  /**
+   * Compile a function.
+   *
+   * @param function - function to compile
+   */
+  private void compileFunction(Function function) {
+    this.function = function;
+    code.clear();
+    registers.clear();
+    frameSlots.clear();
+    nFrameSlots = 0;
+    nValues = 0;
+    lastInstruction = -1;
+
+    HashSet<Variable> addressTaken = new HashSet<>();
+    new ASTVisitor() {
+      @Override
+      public void visitVar(Factor.Var var) {
+        if (var.getVariable().getNReferences() == 0 && var.getNReferences() == 1) {
+          addressTaken.add(var.getVariable());
+        }
+      }
+    }.visitBody(function.getBody());
+    Variable[] parameters = function.getArguments();
+    for (Variable parameter : parameters) {
+      allocate(parameter, addressTaken);
+    }
+    new ASTVisitor() {
+      @Override
+      public void visitDecl(Variable variable) {
+        allocate(variable, addressTaken);
+      }
+
+      @Override
+      public void visitVar(Factor.Var var) {
+        allocate(var.getVariable(), addressTaken);
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        allocate(assignee.getVariable(), addressTaken);
+      }
+    }.visitBody(function.getBody());
+    firstTemporary = nValues;
+
+    // parameters arrive as 64 bit values; keep them at their C width
+    int[] incoming = new int[parameters.length];
+    for (int i = 0; i < parameters.length; i++) {
+      Integer register = registers.get(parameters[i]);
+      incoming[i] = register != null ? register : temporary();
+    }
+    code.add(new Instruction(Op.PARAMS, NONE, NONE, NONE, 0, null, NONE, incoming));
+    boolean isMain = function.getName().equals("main");
+    for (int i = 0; i < parameters.length; i++) {
+      Types.Type type = Types.of(parameters[i]);
+      if (convertOp(type) != null) {
+        emit(convertOp(type), incoming[i], incoming[i], NONE);
+      } else if (isMain && i == 0) {
+        // main's argc is a C int
+        emit(Op.I32, incoming[i], incoming[i], NONE);
+      }
+      Integer slot = frameSlots.get(parameters[i]);
+      if (slot != null) {
+        int address = temporary();
+        emitImmediate(Op.FRAME, address, NONE, slot);
+        emit(storeOp(type), NONE, address, incoming[i]);
+      }
+    }
+
+    for (Statement statement : function.getBody()) {
+      compileStatement(statement);
+    }
+    int zero = temporary();
+    emitImmediate(Op.CONST, zero, NONE, 0);
+    emit(Op.RET, NONE, zero, NONE);
+
+    allocateRegisters();
+    emitFunction();
+  }
+
+  /**
+   * Give a local its virtual register, a frame slot if its address is taken,
+   * or a run of frame slots if it is an array.
+   */
+  private void allocate(Variable variable, HashSet<Variable> addressTaken) {
+    if (globals.containsKey(variable) || registers.containsKey(variable) || frameSlots.containsKey(variable)) {
+      return;
+    }
+    if (variable.isArray()) {
+      // slots grow downwards, so the array starts at its last slot
+      int nSlots = (Types.sizeOfArray(variable) + 7) / 8;
+      frameSlots.put(variable, nFrameSlots + nSlots - 1);
+      nFrameSlots += nSlots;
+    } else if (addressTaken.contains(variable)) {
+      frameSlots.put(variable, nFrameSlots++);
+    } else {
+      registers.put(variable, nValues++);
+    }
+  }
+
+  // ===================== statements =====================
+
+  /**
+   * Compile a statement.
+   *
+   * @param statement - statement to compile
+   */
+  private void compileStatement(Statement statement) {
+    switch (statement) {
+      case Statement.If ifStatement:
+        compileIfStatement(ifStatement);
+        break;
+      case Statement.Loop loopStatement:
+        compileLoopStatement(loopStatement);
+        break;
+      case Statement.Decl declStatement:
+        break;
+      case Statement.Call callStatement:
+        compileCall(callStatement.function().getName(), callStatement.arguments());
+        break;
+      case Statement.Jump jumpStatement:
+        compileJumpStatement(jumpStatement);
+        break;
+      case Statement.Assign assignStatement:
+        compileAssignment(assignStatement.assignment(), false);
+        break;
+    }
+  }
+
+  /**
+   * Compile a list of statements.
+   *
+   * @param body - statements to compile, or null
+   */
+  private void compileBody(Statement[] body) {
+    if (body == null) {
+      return;
+    }
+    for (Statement statement : body) {
+      compileStatement(statement);
+    }
+  }
+
+  /**
+   * Compile an if statement.
+   *
+   * @param statement - statement to compile
+   */
+  private void compileIfStatement(Statement.If statement) {
+    int otherwise = newLabel();
+    compileBranch(statement.cond(), false, otherwise);
+    compileBody(statement.body());
+    if (statement.otherBody() == null || statement.otherBody().length == 0) {
+      place(otherwise);
+      return;
+    }
+    int end = newLabel();
+    jump(end);
+    place(otherwise);
+    compileBody(statement.otherBody());
+    place(end);
+  }
+
+  /**
+   * Compile a loop statement, with the test at the bottom so each iteration
+   * takes one branch.
+   *
+   * @param statement - statement to compile
+   */
+  private void compileLoopStatement(Statement.Loop statement) {
+    int outerBreak = breakLabel;
+    int outerContinue = continueLabel;
+    int top = newLabel();
+    breakLabel = newLabel();
+    continueLabel = newLabel();
+    jump(continueLabel);
+    place(top);
+    compileBody(statement.body());
+    place(continueLabel);
+    compileBranch(statement.cond(), true, top);
+    place(breakLabel);
+    breakLabel = outerBreak;
+    continueLabel = outerContinue;
+  }
+
+  /**
+   * Compile a jump statement.
+   *
+   * @param statement - statement to compile
+   */
+  private void compileJumpStatement(Statement.Jump statement) {
+    switch (statement.type()) {
+      case BREAK:
+        jump(breakLabel);
+        break;
+      case CONTINUE:
+        jump(continueLabel);
+        break;
+      default:
+        if (!statement.hasValue()) {
+          emit(Op.RET, NONE, NONE, NONE);
+          break;
+        }
+        Value value = compileExpression(statement.value());
+        int result = value.register();
+        Op convert = convertOp(new Types.Type(function.getReturnType(), function.getNReturnReferences()));
+        if (convert != null) {
+          result = temporary();
+          emitValue(convert, result, value.register(), NONE);
+        }
+        emit(Op.RET, NONE, result, NONE);
+    }
+  }
+
+  // ===================== conditions =====================
+
+  /** Jump to {@code label} iff the truth of {@code condition} is {@code when}. */
+  private void compileBranch(Factor condition, boolean when, int label) {
+    if (condition instanceof Factor.Parentheses parentheses) {
+      Assignment[] assignments = parentheses.expression().getExpressions();
+      if (assignments.length == 1 && !assignments[0].hasAssignee()) {
+        compileBranch(assignments[0].getValue(), when, label);
+        return;
+      }
+    }
+    Value value = compileFactor(condition);
+    branch(when ? "ne" : "e", value.register(), NONE, 0, label);
+  }
+
+  private void compileBranch(OrExpression expression, boolean when, int label) {
+    Long constant = ASTUtil.constantValue(expression);
+    if (constant != null) {
+      if ((constant != 0) == when) {
+        jump(label);
+      }
+      return;
+    }
+    if (!expression.hasLeft()) {
+      compileBranch(expression.getRight(), when, label);
+    } else if (when) {
+      compileBranch(expression.getLeft(), true, label);
+      compileBranch(expression.getRight(), true, label);
+    } else {
+      int skip = newLabel();
+      compileBranch(expression.getLeft(), true, skip);
+      compileBranch(expression.getRight(), false, label);
+      place(skip);
+    }
+  }
+
+  private void compileBranch(AndExpression expression, boolean when, int label) {
+    if (!expression.hasLeft()) {
+      compileBranch(expression.getRight(), when, label);
+    } else if (!when) {
+      compileBranch(expression.getLeft(), false, label);
+      compileBranch(expression.getRight(), false, label);
+    } else {
+      int skip = newLabel();
+      compileBranch(expression.getLeft(), false, skip);
+      compileBranch(expression.getRight(), true, label);
+      place(skip);
+    }
+  }
+
+  private void compileBranch(EqualityExpression expression, boolean when, int label) {
+    if (!expression.hasLeft()) {
+      RelationalExpression relational = expression.getRight();
+      if (relational.hasLeft()) {
+        compileBranch(relational, when, label);
+      } else {
+        Value value = compileAdditiveExpression(relational.getRight());
+        branch(when ? "ne" : "e", value.register(), NONE, 0, label);
+      }
+      return;
+    }
+    boolean equal = (expression.getOperator() == SHC.EQUAL) == when;
+    Value left = stable(compileEqualityExpression(expression.getLeft()),
+        v -> v.visitRelationalExpression(expression.getRight()));
+    Long constant = ASTUtil.constantValue(expression.getRight());
+    if (isImmediate(left, constant)) {
+      branch(equal ? "e" : "ne", left.register(), NONE, constant, label);
+      return;
+    }
+    Value right = compileRelationalExpression(expression.getRight());
+    branch(equal ? "e" : "ne", operand(left, right), operand(right, left), 0, label);
+  }
+
+  private void compileBranch(RelationalExpression expression, boolean when, int label) {
+    Value left = stable(compileRelationalExpression(expression.getLeft()),
+        v -> v.visitAdditiveExpression(expression.getRight()));
+    Long constant = ASTUtil.constantValue(expression.getRight());
+    if (isImmediate(left, constant)) {
+      String condition = condition(expression.getOperator(), Types.isUnsigned(left.type()));
+      branch(when ? condition : negate(condition), left.register(), NONE, constant, label);
+      return;
+    }
+    Value right = compileAdditiveExpression(expression.getRight());
+    String condition = condition(expression.getOperator(),
+        Types.isUnsigned(left.type()) || Types.isUnsigned(right.type()));
+    branch(when ? condition : negate(condition), operand(left, right), operand(right, left), 0, label);
+  }
+
+  /** Return the condition code of a relational operator. */
+  private static String condition(SHC operator, boolean unsigned) {
+    return switch (operator) {
+      case LESS -> unsigned ? "b" : "l";
+      case LEQ -> unsigned ? "be" : "le";
+      case GREATER -> unsigned ? "a" : "g";
+      default -> unsigned ? "ae" : "ge";
+    };
+  }
+
+  /** Return the condition code that holds iff {@code condition} does not. */
+  private static String negate(String condition) {
+    return switch (condition) {
+      case "e" -> "ne";
+      case "ne" -> "e";
+      case "l" -> "ge";
+      case "ge" -> "l";
+      case "le" -> "g";
+      case "g" -> "le";
+      case "b" -> "ae";
+      case "ae" -> "b";
+      case "be" -> "a";
+      default -> "be";
+    };
+  }
+
+  /** Return true iff {@code constant} can be a 32 bit immediate. */
+  private static boolean isImmediate(Long constant) {
+    return constant != null && constant == (int) (long) constant;
+  }
+
+  /**
+   * Return true iff {@code constant} can be compared with {@code left} as a
+   * 32 bit immediate; a negative one compared with a {@code u32} is first
+   * converted to a {@code u32}, which the sign-extended immediate is not.
+   */
+  private static boolean isImmediate(Value left, Long constant) {
+    return isImmediate(constant) && !(left.type().isUnsigned32() && constant < 0);
+  }
+
+  // ===================== expressions =====================
+
+  /**
+   * Compile an expression.
+   *
+   * @param expression - expression to compile
+   */
+  private Value compileExpression(Expression expression) {
+    Value value = null;
+    Assignment[] assignments = expression.getExpressions();
+    for (int i = 0; i < assignments.length; i++) {
+      value = compileAssignment(assignments[i], i == assignments.length - 1);
+    }
+    return value;
+  }
+
+  /**
+   * Compile an assignment.
+   *
+   * @param assignment - assignment to compile
+   * @param needValue  - whether its value is used
+   */
+  private Value compileAssignment(Assignment assignment, boolean needValue) {
+    Value value = compileOrExpression(assignment.getValue());
+    if (!assignment.hasAssignee()) {
+      return value;
+    }
+    if (assignment.hasIndex()) {
+      return storeElement(assignment.getAssignee(), assignment.getIndex(), value, needValue);
+    }
+    return store(assignment.getAssignee(), value, needValue);
+  }
+
+  /**
+   * Compile an or expression.
+   *
+   * @param expression - expression to compile
+   */
+  private Value compileOrExpression(OrExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileAndExpression(expression.getRight());
+    }
+    int result = temporary();
+    int end = newLabel();
+    emitImmediate(Op.CONST, result, NONE, 1);
+    compileBranch(expression.getLeft(), true, end);
+    compileBranch(expression.getRight(), true, end);
+    emitImmediate(Op.CONST, result, NONE, 0);
+    place(end);
+    return new Value(result, Types.C_INT);
+  }
+
+  /**
+   * Compile an and expression.
+   *
+   * @param expression - expression to compile
+   */
+  private Value compileAndExpression(AndExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileEqualityExpression(expression.getRight());
+    }
+    int result = temporary();
+    int end = newLabel();
+    emitImmediate(Op.CONST, result, NONE, 0);
+    compileBranch(expression.getLeft(), false, end);
+    compileBranch(expression.getRight(), false, end);
+    emitImmediate(Op.CONST, result, NONE, 1);
+    place(end);
+    return new Value(result, Types.C_INT);
+  }
+
+  /**
+   * Compile an equality expression.
+   *
+   * @param expression - expression to compile
+   */
+  private Value compileEqualityExpression(EqualityExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileRelationalExpression(expression.getRight());
+    }
+    String condition = expression.getOperator() == SHC.EQUAL ? "e" : "ne";
+    Value left = stable(compileEqualityExpression(expression.getLeft()),
+        v -> v.visitRelationalExpression(expression.getRight()));
+    int result = temporary();
+    Long constant = ASTUtil.constantValue(expression.getRight());
+    if (isImmediate(left, constant)) {
+      emitCompare(Op.SET, condition, result, left.register(), NONE, constant);
+    } else {
+      Value right = compileRelationalExpression(expression.getRight());
+      emitCompare(Op.SET, condition, result, operand(left, right), operand(right, left), 0);
+    }
+    return new Value(result, Types.C_INT);
+  }
+
+  /**
+   * Compile a relational expression.
+   *
+   * @param expression - expression to compile
+   */
+  private Value compileRelationalExpression(RelationalExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileAdditiveExpression(expression.getRight());
+    }
+    Value left = stable(compileRelationalExpression(expression.getLeft()),
+        v -> v.visitAdditiveExpression(expression.getRight()));
+    int result = temporary();
+    Long constant = ASTUtil.constantValue(expression.getRight());
+    if (isImmediate(left, constant)) {
+      emitCompare(Op.SET, condition(expression.getOperator(), Types.isUnsigned(left.type())), result,
+          left.register(), NONE, constant);
+    } else {
+      Value right = compileAdditiveExpression(expression.getRight());
+      boolean unsigned = Types.isUnsigned(left.type()) || Types.isUnsigned(right.type());
+      emitCompare(Op.SET, condition(expression.getOperator(), unsigned), result, operand(left, right),
+          operand(right, left), 0);
+    }
+    return new Value(result, Types.C_INT);
+  }
+
+  /**
+   * Compile an additive expression.
+   *
+   * @param expression - expression to compile
+   */
+  private Value compileAdditiveExpression(AdditiveExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileMultiplicativeExpression(expression.getRight());
+    }
+    boolean add = expression.getOperator() == SHC.ADD;
+    Value left = stable(compileAdditiveExpression(expression.getLeft()),
+        v -> v.visitMultiplicativeExpression(expression.getRight()));
+    Long constant = ASTUtil.constantValue(expression.getRight());
+
+    if (constant != null) {
+      long offset = left.type().isPointer() ? constant * width(left.type().pointee()) : constant;
+      offset = add ? offset : -offset;
+      if (offset == (int) offset) {
+        int result = temporary();
+        emitValue(Op.ADDI, result, left.register(), NONE, offset);
+        return left.type().isPointer() ? new Value(result, left.type()) : arithmetic(result, left.type(), Types.C_INT);
+      }
+    }
+
+    Value right = compileMultiplicativeExpression(expression.getRight());
+    int result = temporary();
+    if (left.type().isPointer() && right.type().isPointer()) {
+      emitValue(Op.SUB, result, left.register(), right.register());
+      int shift = Integer.numberOfTrailingZeros(width(left.type().pointee()));
+      if (shift > 0) {
+        emitValue(Op.SARI, result, result, NONE, shift);
+      }
+      return new Value(result, Types.INT);
+    }
+    if (left.type().isPointer()) {
+      emitValue(add ? Op.ADD : Op.SUB, result, left.register(), scaled(right.register(), left.type().pointee()));
+      return new Value(result, left.type());
+    }
+    if (right.type().isPointer()) {
+      emitValue(Op.ADD, result, right.register(), scaled(left.register(), right.type().pointee()));
+      return new Value(result, right.type());
+    }
+    emitValue(add ? Op.ADD : Op.SUB, result, left.register(), right.register());
+    return arithmetic(result, left.type(), right.type());
+  }
+
+  /** Return a register holding an index scaled to the size of {@code pointee}. */
+  private int scaled(int register, Types.Type pointee) {
+    if (width(pointee) == 1) {
+      return register;
+    }
+    int result = temporary();
+    emitValue(Op.MULI, result, register, NONE, width(pointee));
+    return result;
+  }
+
+  /**
+   * Compile a multiplicative expression.
+   *
+   * @param expression - expression to compile
+   */
+  private Value compileMultiplicativeExpression(MultiplicativeExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileUnaryExpression(expression.getRight());
+    }
+    SHC operator = expression.getOperator();
+    Value left = stable(compileMultiplicativeExpression(expression.getLeft()),
+        v -> v.visitUnaryExpression(expression.getRight()));
+    Long constant = ASTUtil.constantValue(expression.getRight());
+    if (left.type().isPointer()) {
+      error("arithmetic on a pointer");
+    }
+
+    if (isImmediate(constant) && operator == SHC.MULTIPLY) {
+      int result = temporary();
+      emitValue(Op.MULI, result, left.register(), NONE, constant);
+      return arithmetic(result, left.type(), Types.C_INT);
+    }
+
+    Value right = compileUnaryExpression(expression.getRight());
+    if (!left.type().isWide() && !right.type().isWide()
+        && (left.type().isUnsigned32() || right.type().isUnsigned32())) {
+      // both zero-extended to 64 bits, where unsigned division matches u32's
+      int a = operand(left, right), b = operand(right, left);
+      int result = temporary();
+      Op op = switch (operator) {
+        case MULTIPLY -> Op.MUL;
+        case DIVIDE -> Op.DIVU;
+        default -> Op.REMU;
+      };
+      emitValue(op, result, a, b);
+      return arithmetic(result, left.type(), right.type());
+    }
+    int result = temporary();
+    if (left.type().isWide() || right.type().isWide()) {
+      Op op = switch (operator) {
+        case MULTIPLY -> Op.MUL;
+        case DIVIDE -> Op.DIVU;
+        default -> Op.REMU;
+      };
+      emitValue(op, result, left.register(), right.register());
+      return new Value(result, Types.INT);
+    }
+    switch (operator) {
+      case MULTIPLY -> {
+        emitValue(Op.MUL, result, left.register(), right.register());
+        emitValue(Op.I32, result, result, NONE);
+      }
+      case DIVIDE -> emitValue(Op.DIV, result, left.register(), right.register());
+      default -> emitValue(Op.REM, result, left.register(), right.register());
+    }
+    return new Value(result, Types.C_INT);
+  }
+
+  /**
+   * Compile a unary expression.
+   *
+   * @param expression - expression to compile
+   */
+  private Value compileUnaryExpression(UnaryExpression expression) {
+    if (!expression.hasOperator()) {
+      return compileFactor(expression.getFactor());
+    }
+    Long constant = ASTUtil.constantValue(expression);
+    if (constant != null) {
+      int result = temporary();
+      emitValue(Op.CONST, result, NONE, NONE, (int) (long) constant);
+      return new Value(result, Types.C_INT);
+    }
+    Value value = compileUnaryExpression(expression.getUnaryExpression());
+    if (value.type().isPointer()) {
+      error("unary operator on a pointer");
+    }
+    if (expression.getOperator() != SHC.SUBTRACT) {
+      return new Value(value.register(), Types.promote(value.type()));
+    }
+    int result = temporary();
+    emitValue(Op.NEG, result, value.register(), NONE);
+    return arithmetic(result, value.type(), value.type());
+  }
+
+  /**
+   * Compile a factor.
+   *
+   * @param factor - factor to compile
+   */
+  private Value compileFactor(Factor factor) {
+    return switch (factor) {
+      case Factor.Var varFactor -> load(varFactor);
+      case Factor.Const constFactor -> {
+        int result = temporary();
+        emitValue(Op.CONST, result, NONE, NONE, constFactor.constant());
+        yield new Value(result, Types.C_INT);
+      }
+      case Factor.Str strFactor -> {
+        String label = strings.computeIfAbsent(strFactor.string(), s -> ".LS" + strings.size());
+        int result = temporary();
+        emitValue(Op.ADDRESS, result, label);
+        yield new Value(result, new Types.Type(SHC.CHAR, 1));
+      }
+      case Factor.Parentheses parenthesesFactor -> compileExpression(parenthesesFactor.expression());
+      case Factor.Call callFactor -> compileCall(callFactor.fun().getName(), callFactor.arguments());
+      case Factor.Index indexFactor -> {
+        Value address = elementAddress(indexFactor.element(), indexFactor.index());
+        Types.Type current = address.type();
+        int value = address.register();
+        for (int i = 0; i < indexFactor.element().getNReferences(); i++) {
+          current = current.pointee();
+          emitLoad(value, value, current);
+        }
+        yield new Value(value, current);
+      }
+    };
+  }
+
+  /**
+   * Compile a call, to a function of the program or to libc.
+   *
+   * @param name      - called function
+   * @param arguments - arguments to pass
+   */
+  private Value compileCall(String name, Expression[] arguments) {
+    int[] values = new int[arguments.length];
+    for (int i = 0; i < arguments.length; i++) {
+      int index = i;
+      Value value = stable(compileExpression(arguments[i]), v -> {
+        for (int j = index + 1; j < arguments.length; j++) {
+          v.visitExpression(arguments[j]);
+        }
+      });
+      values[i] = value.register();
+    }
+    int result = temporary();
+    Function callee = functions.get(name);
+    if (callee != null) {
+      code.add(new Instruction(Op.CALL, result, NONE, NONE, 0, name, NONE, values));
+      lastInstruction = code.size() - 1;
+      return new Value(result, new Types.Type(callee.getReturnType(), callee.getNReturnReferences()));
+    }
+    if (CRuntime.builtinName(name) != null) {
+      error("`" + name + "` needs the C runtime, which the assembly backend does not provide");
+    }
+    Types.Type type = Builtins.typeOf(name);
+    code.add(new Instruction(Op.CALL, result, NONE, NONE, 1, name + "@PLT", NONE, values));
+    lastInstruction = code.size() - 1;
+    if (type == Types.C_INT) {
+      emitValue(Op.I32, result, result, NONE);
+    }
+    return new Value(result, type);
+  }
+
+  /**
+   * Truncate an integer result to its C type: 64 bits if either operand is
+   * an SHC {@code int}, 32 bits unsigned if either is a {@code u32}, else a
+   * 32 bit C {@code int}.
+   */
+  private Value arithmetic(int result, Types.Type left, Types.Type right) {
+    Types.Type type = Types.arithmetic(left, right);
+    if (!type.isWide()) {
+      emitValue(convertOp(type), result, result, NONE);
+    }
+    return new Value(result, type);
+  }
+
+  /**
+   * Return the register holding an operand of a comparison or division with
+   * {@code other}: a narrower signed operand meeting a {@code u32} is
+   * converted to {@code u32} first, as C does.
+   */
+  private int operand(Value value, Value other) {
+    if (!other.type().isUnsigned32() || Types.isUnsigned(value.type())) {
+      return value.register();
+    }
+    int result = temporary();
+    emitValue(Op.U32, result, value.register(), NONE);
+    return result;
+  }
+
+  /**
+   * Return {@code left}, copied to a temporary if it is a variable's register
+   * and the right operand, visited by {@code right}, may assign to it.
+   */
+  private Value stable(Value left, Consumer<ASTVisitor> right) {
+    if (left.register() >= firstTemporary) {
+      return left;
+    }
+    boolean[] assigns = { false };
+    right.accept(new ASTVisitor() {
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        assigns[0] = true;
+      }
+    });
+    if (!assigns[0]) {
+      return left;
+    }
+    int copy = temporary();
+    emitValue(Op.MOV, copy, left.register(), NONE);
+    return new Value(copy, left.type());
+  }
+
+  // ===================== variables =====================
+
+  /** Compile a variable usage: its value, an address, or a dereference. */
+  private Value load(Factor.Var var) {
+    Variable variable = var.getVariable();
+    int usageRefs = var.getNReferences();
+    if (variable.getNReferences() == 0 && usageRefs == 1) {
+      int result = temporary();
+      Integer slot = frameSlots.get(variable);
+      if (slot != null) {
+        emitValue(Op.FRAME, result, NONE, NONE, slot);
+      } else {
+        emitValue(Op.ADDRESS, result, symbol(variable));
+      }
+      return new Value(result, new Types.Type(variable.getType(), 1));
+    }
+    if (usageRefs > variable.getNReferences()) {
+      error("`" + variable.getName() + "` is not a pointer");
+    }
+    Types.Type current = Types.of(variable);
+    int value = read(variable);
+    for (int i = 0; i < usageRefs; i++) {
+      current = current.pointee();
+      int result = value >= firstTemporary ? value : temporary();
+      emitLoad(result, value, current);
+      value = result;
+    }
+    return new Value(value, current);
+  }
+
+  /** Return a register holding a variable's value; an array's is the address of its elements. */
+  private int read(Variable variable) {
+    Integer register = registers.get(variable);
+    if (register != null) {
+      return register;
+    }
+    Types.Type type = Types.of(variable);
+    int result = temporary();
+    Integer slot = frameSlots.get(variable);
+    if (variable.isArray()) {
+      if (slot != null) {
+        emitValue(Op.FRAME, result, NONE, NONE, slot);
+      } else {
+        emitValue(Op.ADDRESS, result, symbol(variable));
+      }
+      return result;
+    }
+    if (slot != null) {
+      emitValue(Op.FRAME, result, NONE, NONE, slot);
+      emitLoad(result, result, type);
+    } else if (width(type) == 8 || type.base() == SHC.CHAR) {
+      emitValue(width(type) == 1 ? Op.GLD8 : Op.GLD64, result, symbol(variable));
+    } else {
+      emitValue(Op.ADDRESS, result, symbol(variable));
+      emitLoad(result, result, type);
+    }
+    return result;
+  }
+
+  /**
+   * Store a value through an assignee.
+   *
+   * @param target    - assignee
+   * @param value     - value to store
+   * @param needValue - whether the value of the assignment is used
+   * @return the stored value, truncated to the target's type
+   */
+  private Value store(Factor.Var target, Value value, boolean needValue) {
+    Variable variable = target.getVariable();
+    int usageRefs = target.getNReferences();
+    if (variable.getNReferences() == 0 && usageRefs == 1) {
+      error("cannot assign to the address of `" + variable.getName() + "`");
+    }
+    if (usageRefs > variable.getNReferences()) {
+      error("`" + variable.getName() + "` is not a pointer");
+    }
+    Types.Type current = Types.of(variable);
+    for (int i = 0; i < usageRefs; i++) {
+      current = current.pointee();
+    }
+    Op convert = convertOp(current);
+
+    if (usageRefs == 0) {
+      Integer register = registers.get(variable);
+      if (register != null) {
+        if (convert != null) {
+          emitValue(convert, register, value.register(), NONE);
+        } else {
+          move(register, value.register());
+        }
+        return new Value(register, current);
+      }
+      Integer slot = frameSlots.get(variable);
+      if (slot != null) {
+        int address = temporary();
+        emitValue(Op.FRAME, address, NONE, NONE, slot);
+        emit(storeOp(current), NONE, address, value.register());
+      } else if (width(current) == 1 || width(current) == 8) {
+        code.add(new Instruction(width(current) == 1 ? Op.GST8 : Op.GST64, NONE, NONE, value.register(), 0,
+            symbol(variable), NONE, null));
+        lastInstruction = -1;
+      } else {
+        int address = temporary();
+        emitValue(Op.ADDRESS, address, symbol(variable));
+        emit(storeOp(current), NONE, address, value.register());
+      }
+    } else {
+      int address = read(variable);
+      for (int i = 1; i < usageRefs; i++) {
+        int next = address >= firstTemporary ? address : temporary();
+        emitValue(Op.LD64, next, address, NONE);
+        address = next;
+      }
+      emit(storeOp(current), NONE, address, value.register());
+    }
+    if (!needValue || convert == null) {
+      return new Value(value.register(), current);
+    }
+    int result = temporary();
+    emitValue(convert, result, value.register(), NONE);
+    return new Value(result, current);
+  }
+
+  /**
+   * Store a value through a subscripted assignee.
+   *
+   * @param target    - assignee, as in {@code Factor.Index}
+   * @param index     - element index
+   * @param value     - value to store
+   * @param needValue - whether the value of the assignment is used
+   * @return the stored value, truncated to the element's type
+   */
+  private Value storeElement(Factor.Var target, Expression index, Value value, boolean needValue) {
+    value = stable(value, v -> v.visitExpression(index));
+    Value element = elementAddress(target, index);
+    Types.Type current = element.type().pointee();
+    int address = element.register();
+    for (int i = 1; i < target.getNReferences(); i++) {
+      emitValue(Op.LD64, address, address, NONE);
+      current = current.pointee();
+    }
+    Op convert = convertOp(current);
+    emit(storeOp(current), NONE, address, value.register());
+    if (!needValue || convert == null) {
+      return new Value(value.register(), current);
+    }
+    int result = temporary();
+    emitValue(convert, result, value.register(), NONE);
+    return new Value(result, current);
+  }
+
+  /**
+   * Return a temporary holding the address of the element a subscript reads
+   * or writes before its further dereferences: the variable's value offset
+   * by the index.
+   *
+   * @param element - the subscripted variable usage
+   * @param index   - the element index
+   */
+  private Value elementAddress(Factor.Var element, Expression index) {
+    Variable variable = element.getVariable();
+    if (element.getNReferences() > variable.getNReferences()) {
+      error("`" + variable.getName() + "` is not a pointer");
+    }
+    Value base = stable(new Value(read(variable), Types.of(variable)), v -> v.visitExpression(index));
+    Value offset = compileExpression(index);
+    if (offset.type().isPointer()) {
+      error("array index is a pointer");
+    }
+    int result = temporary();
+    emitValue(Op.ADD, result, base.register(), scaled(offset.register(), base.type().pointee()));
+    return new Value(result, base.type());
+  }
+
+  /** Return the symbol of a global variable. */
+  private String symbol(Variable variable) {
+    String symbol = globals.get(variable);
+    if (symbol == null) {
+      error("unknown variable `" + variable.getName() + "`");
+    }
+    return symbol;
+  }
+
+  private static int width(Types.Type type) {
+    return Types.sizeOf(type);
+  }
+
+  /**
+   * Load a value of {@code type} from the address in a register, leaving it
+   * extended as the type holds it.
+   */
+  private void emitLoad(int result, int address, Types.Type type) {
+    emitValue(switch (width(type)) {
+      case 1 -> Op.LD8;
+      case 2 -> Op.LD16;
+      case 4 -> Op.LD32;
+      default -> Op.LD64;
+    }, result, address, NONE);
+    // LD8 zero-extends and LD32 sign-extends
+    if (!type.isPointer() && (type.base() == SHC.I8 || type.base() == SHC.U32)) {
+      emitValue(convertOp(type), result, result, NONE);
+    }
+  }
+
+  /** Return the operation storing a value of {@code type} through the address in a register. */
+  private static Op storeOp(Types.Type type) {
+    return switch (width(type)) {
+      case 1 -> Op.ST8;
+      case 2 -> Op.ST16;
+      case 4 -> Op.ST32;
+      default -> Op.ST64;
+    };
+  }
+
+  /**
+   * Return the operation truncating and extending a register to the way a
+   * value of {@code type} holds it, or null if every 64 bit value already is
+   * one.
+   */
+  private static Op convertOp(Types.Type type) {
+    if (type.isPointer()) {
+      return null;
+    }
+    return switch (type.base()) {
+      case CHAR -> Op.U8;
+      case I8 -> Op.I8;
+      case I16 -> Op.I16;
+      case I32, INT_LITERAL -> Op.I32;
+      case U32 -> Op.U32;
+      default -> null;
+    };
+  }
+
+  // ===================== lowering =====================
+
+  private int temporary() {
+    return nValues++;
+  }
+
+  private int newLabel() {
+    return nLabels++;
+  }
+
+  private void place(int label) {
+    code.add(new Instruction(Op.LABEL, NONE, NONE, NONE, 0, null, label, null));
+    lastInstruction = -1;
+  }
+
+  private void jump(int label) {
+    code.add(new Instruction(Op.JUMP, NONE, NONE, NONE, 0, null, label, null));
+    lastInstruction = -1;
+  }
+
+  /** Emit a jump on comparing {@code left} with {@code right}, or with {@code immediate} if right is NONE. */
+  private void branch(String condition, int left, int right, long immediate, int label) {
+    code.add(new Instruction(Op.BRANCH, NONE, left, right, immediate, condition, label, null));
+    lastInstruction = -1;
+  }
+
+  private void emitCompare(Op op, String condition, int dest, int left, int right, long immediate) {
+    code.add(new Instruction(op, dest, left, right, immediate, condition, NONE, null));
+    lastInstruction = code.size() - 1;
+  }
+
+  private void emit(Op op, int dest, int left, int right) {
+    code.add(new Instruction(op, dest, left, right, 0, null, NONE, null));
+    lastInstruction = -1;
+  }
+
+  private void emitImmediate(Op op, int dest, int left, long immediate) {
+    code.add(new Instruction(op, dest, left, NONE, immediate, null, NONE, null));
+    lastInstruction = -1;
+  }
+
+  /** Emit an instruction whose destination {@link #move} may rewrite. */
+  private void emitValue(Op op, int dest, int left, int right) {
+    emitValue(op, dest, left, right, 0);
+  }
+
+  private void emitValue(Op op, int dest, int left, int right, long immediate) {
+    code.add(new Instruction(op, dest, left, right, immediate, null, NONE, null));
+    lastInstruction = code.size() - 1;
+  }
+
+  private void emitValue(Op op, int dest, String symbol) {
+    code.add(new Instruction(op, dest, NONE, NONE, 0, symbol, NONE, null));
+    lastInstruction = code.size() - 1;
+  }
+
+  /** Copy {@code source} to {@code target}, retargeting the instruction that computed it if possible. */
+  private void move(int target, int source) {
+    if (target == source) {
+      return;
+    }
+    if (lastInstruction >= 0 && source >= firstTemporary && code.get(lastInstruction).dest() == source) {
+      Instruction last = code.get(lastInstruction);
+      code.set(lastInstruction, new Instruction(last.op(), target, last.left(), last.right(), last.immediate(),
+          last.symbol(), last.label(), last.values()));
+      lastInstruction = -1;
+      return;
+    }
+    emitValue(Op.MOV, target, source, NONE);
+  }
+
+  // ===================== register allocation =====================
+
+  private void allocateRegisters() {
+    int n = code.size();
+    int[][] defs = new int[n][];
+    int[][] uses = new int[n][];
+    int[][] successors = new int[n][];
+    BitSet calls = new BitSet(n);
+    HashMap<Integer, Integer> labelIndices = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      if (code.get(i).op() == Op.LABEL) {
+        labelIndices.put(code.get(i).label(), i);
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      Instruction instruction = code.get(i);
+      int next = i + 1 < n ? i + 1 : -1;
+      switch (instruction.op()) {
+        case PARAMS -> {
+          defs[i] = instruction.values();
+          uses[i] = new int[0];
+        }
+        case CALL -> {
+          defs[i] = new int[] { instruction.dest() };
+          uses[i] = instruction.values();
+          calls.set(i);
+        }
+        default -> {
+          defs[i] = instruction.dest() == NONE ? new int[0] : new int[] { instruction.dest() };
+          if (instruction.left() != NONE && instruction.right() != NONE) {
+            uses[i] = new int[] { instruction.left(), instruction.right() };
+          } else if (instruction.left() != NONE) {
+            uses[i] = new int[] { instruction.left() };
+          } else if (instruction.right() != NONE) {
+            uses[i] = new int[] { instruction.right() };
+          } else {
+            uses[i] = new int[0];
+          }
+        }
+      }
+      successors[i] = switch (instruction.op()) {
+        case RET -> new int[0];
+        case JUMP -> new int[] { labelIndices.get(instruction.label()) };
+        case BRANCH -> next < 0 ? new int[] { labelIndices.get(instruction.label()) }
+            : new int[] { labelIndices.get(instruction.label()), next };
+        default -> next < 0 ? new int[0] : new int[] { next };
+      };
+    }
+    locations = LinearScan.allocate(nValues, defs, uses, successors, calls, REGISTERS.length, N_CALLEE_SAVED);
+  }
+
+  // ===================== emitting =====================
+
+  private void emitFunction() {
+    boolean[] saved = new boolean[N_CALLEE_SAVED];
+    int nSpills = 0;
+    for (int location : locations) {
+      if (location >= 0 && location < N_CALLEE_SAVED) {
+        saved[location] = true;
+      } else if (location < 0) {
+        nSpills = Math.max(nSpills, ~location + 1);
+      }
+    }
+    nSaved = 0;
+    for (boolean s : saved) {
+      nSaved += s ? 1 : 0;
+    }
+    int frameSize = 8 * (nFrameSlots + nSpills);
+    if ((8 * nSaved + frameSize) % 16 != 0) {
+      frameSize += 8;
+    }
+
+    String name = function.getName();
+    if (name.equals("main")) {
+      out.append("\t.globl main\n");
+    }
+    out.append("\t.type ").append(name).append(", @function\n");
+    out.append(name).append(":\n");
+    line("pushq %rbp");
+    line("movq %rsp, %rbp");
+    for (int r = 0; r < N_CALLEE_SAVED; r++) {
+      if (saved[r]) {
+        line("pushq " + REGISTERS[r]);
+      }
+    }
+    if (frameSize > 0) {
+      line("subq $" + frameSize + ", %rsp");
+    }
+    for (int i = 0; i < code.size(); i++) {
+      emitInstruction(code.get(i), i + 1 < code.size() ? code.get(i + 1) : null, saved);
+    }
+    out.append("\t.size ").append(name).append(", .-").append(name).append("\n");
+  }
+
+  private void emitInstruction(Instruction instruction, Instruction next, boolean[] saved) {
+    int d = instruction.dest();
+    int l = instruction.left();
+    int r = instruction.right();
+    switch (instruction.op()) {
+      case MOV -> move(location(d), location(l));
+      case CONST -> {
+        long value = instruction.immediate();
+        if (value == 0 && isRegister(d)) {
+          line("xorl " + low32(location(d)) + ", " + low32(location(d)));
+        } else if (value == (int) value) {
+          line("movq $" + value + ", " + location(d));
+        } else {
+          line("movabsq $" + value + ", " + target(d));
+          writeBack(d);
+        }
+      }
+      case ADDRESS -> {
+        line("leaq " + instruction.symbol() + "(%rip), " + target(d));
+        writeBack(d);
+      }
+      case FRAME -> {
+        line("leaq " + slot((int) instruction.immediate()) + ", " + target(d));
+        writeBack(d);
+      }
+      case ADD -> binary("addq", true, d, l, r);
+      case SUB -> binary("subq", false, d, l, r);
+      case MUL -> binary("imulq", true, d, l, r);
+      case ADDI -> {
+        String t = target(d);
+        if (t.equals(location(l))) {
+          line("addq $" + instruction.immediate() + ", " + t);
+        } else if (isRegister(l)) {
+          line("leaq " + instruction.immediate() + "(" + location(l) + "), " + t);
+        } else {
+          line("movq " + location(l) + ", " + t);
+          line("addq $" + instruction.immediate() + ", " + t);
+        }
+        writeBack(d);
+      }
+      case MULI -> {
+        line("imulq $" + instruction.immediate() + ", " + location(l) + ", " + target(d));
+        writeBack(d);
+      }
+      case SARI -> unary("sarq $" + instruction.immediate() + ",", d, l);
+      case NEG -> unary("negq", d, l);
+      case I32 -> {
+        line("movslq " + low32(location(l)) + ", " + target(d));
+        writeBack(d);
+      }
+      case I8 -> {
+        line("movsbq " + low8(location(l)) + ", " + target(d));
+        writeBack(d);
+      }
+      case I16 -> {
+        line("movswq " + low16(location(l)) + ", " + target(d));
+        writeBack(d);
+      }
+      case U8 -> {
+        line("movzbl " + low8(location(l)) + ", " + low32(target(d)));
+        writeBack(d);
+      }
+      case U32 -> {
+        line("movl " + low32(location(l)) + ", " + low32(target(d)));
+        writeBack(d);
+      }
+      case DIVU, REMU -> {
+        line("movq " + location(l) + ", %rax");
+        line("xorl %edx, %edx");
+        line("divq " + location(r));
+        move(location(d), instruction.op() == Op.DIVU ? "%rax" : "%rdx");
+      }
+      case DIV, REM -> {
+        line("movq " + location(l) + ", %rax");
+        line("cltd");
+        line("idivl " + low32(location(r)));
+        String result = instruction.op() == Op.DIV ? "%rax" : "%rdx";
+        line("movslq " + low32(result) + ", " + result);
+        move(location(d), result);
+      }
+      case SET -> {
+        compare(l, r, instruction.immediate());
+        line("set" + instruction.symbol() + " %al");
+        line("movzbl %al, %eax");
+        move(location(d), "%rax");
+      }
+      case JUMP -> {
+        if (next == null || next.op() != Op.LABEL || next.label() != instruction.label()) {
+          line("jmp .L" + instruction.label());
+        }
+      }
+      case BRANCH -> {
+        compare(l, r, instruction.immediate());
+        line("j" + instruction.symbol() + " .L" + instruction.label());
+      }
+      case LABEL -> out.append(".L").append(instruction.label()).append(":\n");
+      case LD8 -> {
+        line("movzbl (" + register(l, "%rax") + "), " + low32(target(d)));
+        writeBack(d);
+      }
+      case LD16 -> {
+        line("movswq (" + register(l, "%rax") + "), " + target(d));
+        writeBack(d);
+      }
+      case LD32 -> {
+        line("movslq (" + register(l, "%rax") + "), " + target(d));
+        writeBack(d);
+      }
+      case LD64 -> {
+        line("movq (" + register(l, "%rax") + "), " + target(d));
+        writeBack(d);
+      }
+      case ST8 -> line("movb " + low8(register(r, "%rdx")) + ", (" + register(l, "%rax") + ")");
+      case ST16 -> line("movw " + low16(register(r, "%rdx")) + ", (" + register(l, "%rax") + ")");
+      case ST32 -> line("movl " + low32(register(r, "%rdx")) + ", (" + register(l, "%rax") + ")");
+      case ST64 -> line("movq " + register(r, "%rdx") + ", (" + register(l, "%rax") + ")");
+      case GLD8 -> {
+        line("movzbl " + instruction.symbol() + "(%rip), " + low32(target(d)));
+        writeBack(d);
+      }
+      case GLD64 -> {
+        line("movq " + instruction.symbol() + "(%rip), " + target(d));
+        writeBack(d);
+      }
+      case GST8 -> line("movb " + low8(register(r, "%rax")) + ", " + instruction.symbol() + "(%rip)");
+      case GST64 -> line("movq " + register(r, "%rax") + ", " + instruction.symbol() + "(%rip)");
+      case CALL -> emitCall(instruction);
+      case RET -> {
+        if (l != NONE) {
+          move("%rax", location(l));
+        }
+        if (nSaved == 0) {
+          line("leave");
+        } else {
+          line("leaq " + (-8 * nSaved) + "(%rbp), %rsp");
+          for (int i = N_CALLEE_SAVED - 1; i >= 0; i--) {
+            if (saved[i]) {
+              line("popq " + REGISTERS[i]);
+            }
+          }
+          line("popq %rbp");
+        }
+        line("ret");
+      }
+      case PARAMS -> {
+        int[] values = instruction.values();
+        String[] targets = new String[values.length];
+        String[] sources = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+          targets[i] = location(values[i]);
+          sources[i] = i < ARGUMENTS.length ? ARGUMENTS[i] : (16 + 8 * (i - ARGUMENTS.length)) + "(%rbp)";
+        }
+        parallelMove(targets, sources);
+      }
+    }
+  }
+
+  /**
+   * Emit a System V call: arguments past the sixth are pushed right to left,
+   * the first six are moved into their registers at once.
+   */
+  private void emitCall(Instruction instruction) {
+    int[] values = instruction.values();
+    int nStack = Math.max(0, values.length - ARGUMENTS.length);
+    int pad = nStack % 2 == 1 ? 8 : 0;
+    if (pad > 0) {
+      line("subq $8, %rsp");
+    }
+    for (int i = values.length - 1; i >= ARGUMENTS.length; i--) {
+      line("pushq " + location(values[i]));
+    }
+    int nRegisters = Math.min(values.length, ARGUMENTS.length);
+    String[] targets = new String[nRegisters];
+    String[] sources = new String[nRegisters];
+    for (int i = 0; i < nRegisters; i++) {
+      targets[i] = ARGUMENTS[i];
+      sources[i] = location(values[i]);
+    }
+    parallelMove(targets, sources);
+    if (instruction.immediate() != 0) {
+      // no vector arguments, in case the callee is variadic
+      line("xorl %eax, %eax");
+    }
+    line("call " + instruction.symbol());
+    if (nStack > 0 || pad > 0) {
+      line("addq $" + (8 * nStack + pad) + ", %rsp");
+    }
+    move(location(instruction.dest()), "%rax");
+  }
+
+  /**
+   * Copy {@code sources[i]} to {@code targets[i]} for every {@code i} at
+   * once, ordering the moves so no source is overwritten before it is read.
+   */
+  private void parallelMove(String[] targets, String[] sources) {
+    ArrayList<String[]> pending = new ArrayList<>();
+    for (int i = 0; i < targets.length; i++) {
+      if (!targets[i].equals(sources[i])) {
+        pending.add(new String[] { targets[i], sources[i] });
+      }
+    }
+    while (!pending.isEmpty()) {
+      String[] ready = null;
+      for (String[] candidate : pending) {
+        boolean read = false;
+        for (String[] other : pending) {
+          read |= other != candidate && other[1].equals(candidate[0]);
+        }
+        if (!read) {
+          ready = candidate;
+          break;
+        }
+      }
+      if (ready == null) {
+        // every target is still to be read: park one in the scratch register
+        String[] first = pending.get(0);
+        line("movq " + first[0] + ", " + SCRATCH);
+        for (String[] other : pending) {
+          if (other[1].equals(first[0])) {
+            other[1] = SCRATCH;
+          }
+        }
+        continue;
+      }
+      move(ready[0], ready[1]);
+      pending.remove(ready);
+    }
+  }
+
+  /** Emit {@code d = l op r} for a two-operand instruction. */
+  private void binary(String mnemonic, boolean commutative, int d, int l, int r) {
+    String t = target(d);
+    String a = location(l);
+    String b = location(r);
+    if (t.equals(b) && !t.equals(a)) {
+      if (!commutative) {
+        line("movq " + a + ", %rax");
+        line(mnemonic + " " + b + ", %rax");
+        move(location(d), "%rax");
+        return;
+      }
+      b = a;
+      a = t;
+    }
+    if (!t.equals(a)) {
+      line("movq " + a + ", " + t);
+    }
+    line(mnemonic + " " + b + ", " + t);
+    writeBack(d);
+  }
+
+  /** Emit {@code d = op l} for a one-operand instruction. */
+  private void unary(String mnemonic, int d, int l) {
+    String t = target(d);
+    if (!t.equals(location(l))) {
+      line("movq " + location(l) + ", " + t);
+    }
+    line(mnemonic + " " + t);
+    writeBack(d);
+  }
+
+  /** Compare {@code l} with {@code r}, or with {@code immediate} if r is NONE, setting the flags. */
+  private void compare(int l, int r, long immediate) {
+    String a = location(l);
+    if (r == NONE) {
+      if (immediate == 0 && isRegister(l)) {
+        line("testq " + a + ", " + a);
+      } else {
+        line("cmpq $" + immediate + ", " + a);
+      }
+      return;
+    }
+    String b = location(r);
+    if (!isRegister(l) && !isRegister(r)) {
+      line("movq " + a + ", %rax");
+      a = "%rax";
+    }
+    line("cmpq " + b + ", " + a);
+  }
+
+  /** Copy between two locations, going through %rax if both are in memory. */
+  private void move(String target, String source) {
+    if (target.equals(source)) {
+      return;
+    }
+    if (!target.startsWith("%") && !source.startsWith("%")) {
+      line("movq " + source + ", %rax");
+      source = "%rax";
+    }
+    line("movq " + source + ", " + target);
+  }
+
+  private boolean isRegister(int value) {
+    return locations[value] >= 0;
+  }
+
+  /** Return the register or stack slot of a virtual register. */
+  private String location(int value) {
+    int location = locations[value];
+    return location >= 0 ? REGISTERS[location] : slot(nFrameSlots + ~location);
+  }
+
+  /** Return the address of a frame slot, below the saved registers. */
+  private String slot(int index) {
+    return -8 * (nSaved + 1 + index) + "(%rbp)";
+  }
+
+  /** Return the register an instruction should compute {@code d} in. */
+  private String target(int d) {
+    return isRegister(d) ? location(d) : "%rax";
+  }
+
+  /** Store {@code d} to its stack slot if it was computed in %rax. */
+  private void writeBack(int d) {
+    if (!isRegister(d)) {
+      line("movq %rax, " + location(d));
+    }
+  }
+
+  /** Return a register holding {@code value}, loading it into {@code scratch} if spilled. */
+  private String register(int value, String scratch) {
+    if (isRegister(value)) {
+      return location(value);
+    }
+    line("movq " + location(value) + ", " + scratch);
+    return scratch;
+  }
+
+  /** Return the 32 bit name of a register, or the same memory operand. */
+  private static String low32(String operand) {
+    if (!operand.startsWith("%")) {
+      return operand;
+    }
+    if (operand.matches("%r\\d+")) {
+      return operand + "d";
+    }
+    return "%e" + operand.substring(2);
+  }
+
+  /** Return the 16 bit name of a register, or the same memory operand. */
+  private static String low16(String operand) {
+    if (!operand.startsWith("%")) {
+      return operand;
+    }
+    if (operand.matches("%r\\d+")) {
+      return operand + "w";
+    }
+    return "%" + operand.substring(2);
+  }
+
+  /** Return the 8 bit name of a register, or the same memory operand. */
+  private static String low8(String operand) {
+    if (!operand.startsWith("%")) {
+      return operand;
+    }
+    if (operand.matches("%r\\d+")) {
+      return operand + "b";
+    }
+    return switch (operand) {
+      case "%rsi" -> "%sil";
+      case "%rdi" -> "%dil";
+      default -> "%" + operand.charAt(2) + "l";
+    };
+  }
+
+  private void line(String text) {
+    out.append('\t').append(text).append('\n');
+  }
+}
@@ -2,12 +2,17 @@
  * Assignment class for SHC language.
  *
  * LHS is a Factor.Var (so it can carry the caret count), RHS is an
- * OrExpression.
+ * OrExpression. A subscripted LHS {@code a[i] = v} also carries the index,
+ * and its assignee has one more caret than written, as in
+ * {@link Factor.Index}.
  */
 public final class Assignment extends Parsable {
   /** thing to assign to (with its leading ^ count) */
   private Factor.Var assignee;
 
+  /** element index of a subscripted assignee, or null */
+  private Expression index;
+
   /** value to assign with */
   private OrExpression value;
 
@@ -25,6 +30,20 @@ public final class Assignment extends Parsable {
     this.value = value;
   }
 
+  /**
+   * Constructor for an assignment to an array element.
+   *
+   * @param assignee - the element's variable usage, as in {@code Factor.Index}
+   * @param index    - the element index
+   * @param value    - the value of the expression (OrExpression)
+   * @param lineIdx  - index of the line {@code Parsable} starts at
+   * @param charIdx  - char index in the line {@code Parsable} starts at
+   */
+  public Assignment(Factor.Var assignee, Expression index, OrExpression value, int lineIdx, int charIdx) {
+    this(assignee, value, lineIdx, charIdx);
+    this.index = index;
+  }
+
   /** Getter for assignee */
   public Factor.Var getAssignee() {
     if (assignee == null) {
@@ -38,8 +57,29 @@ public final class Assignment extends Parsable {
     return assignee != null;
   }
 
+  /** Is the assignee subscripted? */
+  public boolean hasIndex() {
+    return index != null;
+  }
+
+  /** Getter for the assignee's element index, or null */
+  public Expression getIndex() {
+    return index;
+  }
+
   /** Getter for RHS value */
   public OrExpression getValue() {
     return value;
   }
+
+  @Override
+  public String toString() {
+    if (hasIndex()) {
+      return new Factor.Index(assignee, index, getLineIdx(), getCharIdx()) + " = " + value.toString();
+    }
+    if (hasAssignee()) {
+      return assignee.toString() + " = " + value.toString();
+    }
+    return value.toString();
+  }
 }
@@ -0,0 +1,158 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times one SHC program on every backend: the tree-walking
+ * {@link Interpreter}, the bytecode {@link VirtualMachine}, JVM classes run
+ * by the {@link JvmRuntime}, the assembly the {@link AssemblyCompiler}
+ * emits, and the C the {@link Compiler} emits, built with the system C
+ * compiler ({@code $CC}, default {@code cc}) at {@code -O2}, both as is and
+ * with {@code --stdout=buffered}, and with {@code -fopenmp} if the program
+ * has a {@code parfor}.
+ *
+ * Each backend runs the same optimized AST several times and the best wall
+ * time is reported, including JIT warm-up for the in-process backends and
+ * process start-up for the native one. The table goes to standard error so
+ * the program's own output can be discarded:
+ *
+ * <pre>
+ * javac *.java
+ * java Benchmark -n 5 examples/benchmark.shc > /dev/null
+ * </pre>
+ */
+public final class Benchmark {
+  /** default number of runs per backend */
+  private static final int DEFAULT_RUNS = 3;
+
+  /**
+   * Timing of one backend.
+   *
+   * @param name   - backend name
+   * @param status - exit status of the last run, or null if it failed
+   * @param best   - best wall time in milliseconds
+   * @param error  - why it failed, or null
+   */
+  private record Result(String name, Integer status, double best, String error) {
+  }
+
+  /** A run of a program on one backend. */
+  private interface Backend {
+    int run() throws IOException, InterruptedException;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int runs = DEFAULT_RUNS;
+    int first = 0;
+    if (args.length >= 2 && "-n".equals(args[0])) {
+      runs = Integer.parseInt(args[1]);
+      first = 2;
+    }
+    if (args.length <= first) {
+      System.err.println("Usage: java Benchmark [-n runs] <file.shc> [arguments ...]");
+      System.exit(1);
+    }
+    String filename = args[first];
+    List<String> arguments = List.of(args).subList(first, args.length);
+
+    Parser parser = new Parser(filename);
+    ArrayList<Function> funs = parser.parseProgram();
+    ArrayList<Variable> globals = parser.getGlobalVariables();
+    Reporter reporter = new Reporter(filename);
+    Options options = new Options();
+    ArrayList<Function> optimized = Optimizer.optimize(funs, globals, options, reporter);
+
+    ArrayList<Result> results = new ArrayList<>();
+    results.add(time("interpreter", runs, () -> Interpreter.run(optimized, globals, arguments)));
+    results.add(time("vm", runs, () -> VirtualMachine.run(optimized, globals, arguments)));
+    results.add(time("jvm", runs, () -> JvmRuntime.run(optimized, globals, arguments)));
+
+    Path directory = Files.createTempDirectory("shc_benchmark_");
+    try {
+      String cc = System.getenv().getOrDefault("CC", "cc");
+      Path assembly = directory.resolve("program.s");
+      AssemblyCompiler.compile(optimized, globals, assembly.toString(), reporter);
+      results.add(timeNative("asm", runs, arguments, directory.resolve("program_asm"), cc, assembly.toString()));
+      Options buffered = new Options();
+      buffered.parse("--stdout=buffered");
+      Path bufferedSource = directory.resolve("program_buffered.c");
+      Compiler.compile(optimized, globals, bufferedSource.toString(), reporter, buffered);
+      results.add(timeNative("buffered", runs, arguments, directory.resolve("program_buffered"), cc, "-O2",
+          bufferedSource.toString()));
+      Path source = directory.resolve("program.c");
+      Compiler.compile(optimized, globals, source.toString(), reporter, options);
+      if (Compiler.usesOpenMP(optimized)) {
+        results.add(timeNative("openmp", runs, arguments, directory.resolve("program_openmp"), cc, "-O2",
+            "-fopenmp", source.toString()));
+      }
+      results.add(timeNative("native", runs, arguments, directory.resolve("program"), cc, "-O2", source.toString()));
+    } finally {
+      for (File file : directory.toFile().listFiles()) {
+        file.delete();
+      }
+      Files.delete(directory);
+    }
+
+    print(filename, runs, results);
+  }
+
+  /**
+   * Build an executable with the C compiler and time it.
+   *
+   * @param name       - backend name
+   * @param runs       - number of runs
+   * @param arguments  - program arguments, starting with the program name
+   * @param executable - executable to build
+   * @param command    - compiler and its arguments, ending with the input file
+   */
+  private static Result timeNative(String name, int runs, List<String> arguments, Path executable, String... command)
+      throws IOException, InterruptedException {
+    ArrayList<String> build = new ArrayList<>(List.of(command));
+    build.addAll(1, List.of("-w", "-o", executable.toString()));
+    if (new ProcessBuilder(build).inheritIO().start().waitFor() != 0) {
+      return new Result(name, null, 0, build.get(0) + " failed");
+    }
+    ArrayList<String> run = new ArrayList<>(arguments);
+    run.set(0, executable.toString());
+    return time(name, runs, () -> new ProcessBuilder(run)
+        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start().waitFor());
+  }
+
+  /** Run a backend {@code runs} times and keep its best time. */
+  private static Result time(String name, int runs, Backend backend) {
+    double best = Double.MAX_VALUE;
+    Integer status = null;
+    for (int i = 0; i < runs; i++) {
+      long start = System.nanoTime();
+      try {
+        status = backend.run();
+      } catch (ExecutionError e) {
+        return new Result(name, null, 0, "runtime error at " + e.getMessage());
+      } catch (IOException | InterruptedException e) {
+        return new Result(name, null, 0, e.getMessage());
+      }
+      best = Math.min(best, (System.nanoTime() - start) / 1e6);
+    }
+    return new Result(name, status, best, null);
+  }
+
+  private static void print(String filename, int runs, ArrayList<Result> results) {
+    Result reference = results.get(results.size() - 1);
+    System.err.printf("%s, best of %d:%n", filename, runs);
+    for (Result result : results) {
+      if (result.error() != null) {
+        System.err.printf("  %-12s failed: %s%n", result.name(), result.error());
+        continue;
+      }
+      String ratio = reference.error() == null && result != reference
+          ? String.format("  %7.1fx native", result.best() / reference.best())
+          : "";
+      System.err.printf("  %-12s %10.1f ms  exit %d%s%n", result.name(), result.best(), result.status(), ratio);
+    }
+  }
+}
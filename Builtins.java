@@ -0,0 +1,249 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * The part of the C library SHC programs call, implemented over
+ * {@link Memory} for running programs in-process.
+ *
+ * Arguments and results are raw 64 bit values, exactly as the C the
+ * compiler emits would pass them. {@code FILE *} handles are addresses of
+ * small blocks on the heap, so they compare and print like real pointers.
+ */
+public final class Builtins {
+  /** names of the functions implemented here */
+  private static final Set<String> NAMES = Set.of(
+      "malloc", "calloc", "realloc", "free",
+      "puts", "putchar", "exit", "abs", "labs",
+      "strlen", "strcmp", "memset", "memcpy", "memmove",
+      "fopen", "fread", "fwrite", "fclose", "fseek", "ftell",
+      "isdigit", "isspace", "isalpha", "isalnum", "mapFile");
+
+  /**
+   * Thrown by {@code exit} to unwind the program.
+   */
+  public static final class Exit extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    /**
+     * Constructor for the {@code Exit} class.
+     *
+     * @param status - exit status
+     */
+    public Exit(int status) {
+      super(null, null, false, false);
+      this.status = status;
+    }
+
+    /** Getter method for {@code status} */
+    public int getStatus() {
+      return status;
+    }
+  }
+
+  private final Memory memory;
+  private final OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16);
+  /** open files, by handle */
+  private final HashMap<Long, RandomAccessFile> files = new HashMap<>();
+
+  /**
+   * Constructor for the {@code Builtins} class.
+   *
+   * @param memory - memory the program runs in
+   */
+  public Builtins(Memory memory) {
+    this.memory = memory;
+  }
+
+  /** Return true iff {@code name} is implemented here. */
+  public static boolean isBuiltin(String name) {
+    return NAMES.contains(name);
+  }
+
+  /**
+   * Return the C type of a builtin's result; anything not listed in
+   * {@link Types} returns C {@code int}.
+   *
+   * @param name - function name
+   */
+  public static Types.Type typeOf(String name) {
+    Types.Type type = Types.ofExternal(name);
+    return type != null ? type : Types.C_INT;
+  }
+
+  /**
+   * Call a builtin.
+   *
+   * @param name      - function name
+   * @param arguments - argument values
+   * @return the result, or 0 for {@code void} functions
+   */
+  public long call(String name, long[] arguments) {
+    try {
+      return switch (name) {
+        case "malloc" -> memory.malloc(arguments[0]);
+        case "calloc" -> memory.calloc(arguments[0] * arguments[1]);
+        case "realloc" -> memory.realloc(arguments[0], arguments[1]);
+        case "free" -> {
+          memory.free(arguments[0]);
+          yield 0;
+        }
+        case "puts" -> {
+          long length = memory.stringLength(arguments[0]);
+          out.write(memory.read(arguments[0], length));
+          out.write('\n');
+          yield 0;
+        }
+        case "putchar" -> {
+          out.write((int) arguments[0]);
+          yield arguments[0] & 0xFF;
+        }
+        case "exit" -> throw new Exit((int) arguments[0]);
+        case "abs" -> Math.abs((int) arguments[0]);
+        case "labs" -> Math.abs(arguments[0]);
+        case "strlen" -> memory.stringLength(arguments[0]);
+        case "strcmp" -> strcmp(arguments[0], arguments[1]);
+        case "memset" -> {
+          memory.fill(arguments[0], (int) arguments[1], arguments[2]);
+          yield arguments[0];
+        }
+        case "memcpy", "memmove" -> {
+          memory.copy(arguments[0], arguments[1], arguments[2]);
+          yield arguments[0];
+        }
+        case "fopen" -> fopen(memory.readString(arguments[0]), memory.readString(arguments[1]));
+        case "fread" -> fread(arguments[0], arguments[1], arguments[2], file(arguments[3]));
+        case "fwrite" -> fwrite(arguments[0], arguments[1], arguments[2], file(arguments[3]));
+        case "fclose" -> {
+          file(arguments[0]).close();
+          files.remove(arguments[0]);
+          memory.free(arguments[0]);
+          yield 0;
+        }
+        case "fseek" -> {
+          RandomAccessFile file = file(arguments[0]);
+          long base = switch ((int) arguments[2]) {
+            case 1 -> file.getFilePointer();
+            case 2 -> file.length();
+            default -> 0;
+          };
+          file.seek(base + arguments[1]);
+          yield 0;
+        }
+        case "ftell" -> file(arguments[0]).getFilePointer();
+        case "isdigit" -> Character.isDigit((int) arguments[0]) && arguments[0] < 128 ? 1 : 0;
+        case "isspace" -> " \t\n\r\f\u000b".indexOf((int) arguments[0]) >= 0 && arguments[0] != 0 ? 1 : 0;
+        case "isalpha" -> Character.isLetter((int) arguments[0]) && arguments[0] < 128 ? 1 : 0;
+        case "isalnum" -> Character.isLetterOrDigit((int) arguments[0]) && arguments[0] < 128 ? 1 : 0;
+        case "mapFile" -> mapFile(memory.readString(arguments[0]), arguments[1]);
+        default -> throw new ExecutionError("call to undefined function `" + name + "`");
+      };
+    } catch (IOException e) {
+      throw new ExecutionError(name + ": " + e.getMessage());
+    }
+  }
+
+  /** Flush buffered output. Call before the program's output is needed. */
+  public void flush() {
+    try {
+      out.flush();
+    } catch (IOException e) {
+      throw new ExecutionError("cannot write output: " + e.getMessage());
+    }
+  }
+
+  private long strcmp(long left, long right) {
+    for (long i = 0;; i++) {
+      int a = memory.loadByte(left + i);
+      int b = memory.loadByte(right + i);
+      if (a != b || a == 0) {
+        return a - b;
+      }
+    }
+  }
+
+  private long fopen(String path, String mode) throws IOException {
+    RandomAccessFile file;
+    try {
+      if (mode.startsWith("r")) {
+        file = new RandomAccessFile(path, mode.contains("+") ? "rw" : "r");
+      } else {
+        file = new RandomAccessFile(path, "rw");
+        if (mode.startsWith("w")) {
+          file.setLength(0);
+        } else {
+          file.seek(file.length());
+        }
+      }
+    } catch (IOException e) {
+      return Memory.NULL;
+    }
+    long handle = memory.malloc(8);
+    files.put(handle, file);
+    return handle;
+  }
+
+  /**
+   * Read a whole file into a new NUL-terminated block, the in-process
+   * counterpart of the {@code mmap} the C backend emits.
+   *
+   * @param path   - file to read
+   * @param length - where to store the file's length, or {@code NULL}
+   * @return the block, or {@code NULL} if the file cannot be read
+   */
+  private long mapFile(String path, long length) {
+    byte[] data;
+    try {
+      data = Files.readAllBytes(Path.of(path));
+    } catch (IOException | InvalidPathException e) {
+      return Memory.NULL;
+    }
+    long block = memory.malloc(data.length + 1L);
+    memory.write(block, data, data.length);
+    memory.storeByte(block + data.length, 0);
+    if (length != Memory.NULL) {
+      memory.store(length, 8, data.length);
+    }
+    return block;
+  }
+
+  private long fread(long buffer, long size, long count, RandomAccessFile file) throws IOException {
+    if (size == 0 || count == 0) {
+      return 0;
+    }
+    byte[] data = new byte[(int) (size * count)];
+    int total = 0;
+    while (total < data.length) {
+      int n = file.read(data, total, data.length - total);
+      if (n < 0) {
+        break;
+      }
+      total += n;
+    }
+    memory.write(buffer, data, total);
+    return total / size;
+  }
+
+  private long fwrite(long buffer, long size, long count, RandomAccessFile file) throws IOException {
+    file.write(memory.read(buffer, size * count));
+    return count;
+  }
+
+  private RandomAccessFile file(long handle) {
+    RandomAccessFile file = files.get(handle);
+    if (file == null) {
+      throw new ExecutionError(String.format("invalid FILE pointer 0x%x", handle));
+    }
+    return file;
+  }
+}
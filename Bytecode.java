@@ -0,0 +1,182 @@
+/**
+ * Register bytecode for the {@link VirtualMachine}.
+ *
+ * A function compiles to one {@link Chunk}: an {@code int[]} of
+ * instructions over the function's registers, which are 64 bit slots in a
+ * window of the machine's register file. Every instruction starts with a
+ * word holding the opcode in its low 8 bits and the first operand above
+ * them; the remaining operands follow one word each. Operands named
+ * {@code d}, {@code a}, {@code b} and {@code v} are registers, {@code imm}
+ * is an immediate, {@code k} indexes the constant pool and {@code t} is a
+ * jump target in the same chunk.
+ *
+ * Values are kept in registers exactly as the C the compiler emits would
+ * hold them: a C {@code int}, {@code i8}, {@code i16} or {@code i32}
+ * sign-extended, a {@code char} or {@code u32} zero-extended, an SHC
+ * {@code int} or pointer as its 64 bits.
+ */
+public final class Bytecode {
+  /** {@code d = a} */
+  public static final int MOV = 0;
+  /** {@code d = imm} */
+  public static final int CONST = 1;
+  /** {@code d = constants[k]} */
+  public static final int LOADK = 2;
+  /** {@code d = a + b} */
+  public static final int ADD = 3;
+  /** {@code d = a - b} */
+  public static final int SUB = 4;
+  /** {@code d = a * b} */
+  public static final int MUL = 5;
+  /** {@code d = a + imm} */
+  public static final int ADDI = 6;
+  /** {@code d = a * imm} */
+  public static final int MULI = 7;
+  /** {@code d = a / imm}, signed */
+  public static final int DIVI = 8;
+  /** {@code d = a / b}, unsigned 64 bit */
+  public static final int DIVU = 9;
+  /** {@code d = a % b}, unsigned 64 bit */
+  public static final int REMU = 10;
+  /** {@code d = a / b}, signed 32 bit */
+  public static final int DIV = 11;
+  /** {@code d = a % b}, signed 32 bit */
+  public static final int REM = 12;
+  /** {@code d = -a} */
+  public static final int NEG = 13;
+  /** {@code d = (int) a}, sign-extending */
+  public static final int I32 = 14;
+  /** {@code d = a & 0xFF} */
+  public static final int U8 = 15;
+  /** {@code d = a == b} */
+  public static final int EQ = 16;
+  /** {@code d = a != b} */
+  public static final int NE = 17;
+  /** {@code d = a < b}, signed */
+  public static final int LT = 18;
+  /** {@code d = a <= b}, signed */
+  public static final int LE = 19;
+  /** {@code d = a < b}, unsigned */
+  public static final int LTU = 20;
+  /** {@code d = a <= b}, unsigned */
+  public static final int LEU = 21;
+  /** {@code goto t} */
+  public static final int JMP = 22;
+  /** {@code if (a == 0) goto t} */
+  public static final int JZ = 23;
+  /** {@code if (a != 0) goto t} */
+  public static final int JNZ = 24;
+  /** {@code if (a == b) goto t} */
+  public static final int JEQ = 25;
+  /** {@code if (a != b) goto t} */
+  public static final int JNE = 26;
+  /** {@code if (a < b) goto t}, signed */
+  public static final int JLT = 27;
+  /** {@code if (a >= b) goto t}, signed */
+  public static final int JGE = 28;
+  /** {@code if (a < b) goto t}, unsigned */
+  public static final int JLTU = 29;
+  /** {@code if (a >= b) goto t}, unsigned */
+  public static final int JGEU = 30;
+  /** {@code d = *(uint8_t *) a} */
+  public static final int LD8 = 31;
+  /** {@code d = *(uint64_t *) a} */
+  public static final int LD64 = 32;
+  /** {@code *(uint8_t *) a = v} */
+  public static final int ST8 = 33;
+  /** {@code *(uint64_t *) a = v} */
+  public static final int ST64 = 34;
+  /** {@code d = *(uint8_t *) imm}, for globals */
+  public static final int GLD8 = 35;
+  /** {@code d = *(uint64_t *) imm}, for globals */
+  public static final int GLD64 = 36;
+  /** {@code *(uint8_t *) imm = v}, for globals. Operands {@code v imm}. */
+  public static final int GST8 = 37;
+  /** {@code *(uint64_t *) imm = v}, for globals. Operands {@code v imm}. */
+  public static final int GST64 = 38;
+  /** {@code d = frame + imm}: address of a local kept in memory */
+  public static final int FRAME = 39;
+  /**
+   * {@code d = chunks[imm](a, ..., a + n - 1)}: the callee's registers start
+   * at {@code a}, so the arguments are already its parameters. Operands
+   * {@code d imm a n}.
+   */
+  public static final int CALL = 40;
+  /** {@code d = names[k](a, ..., a + n - 1)}, a {@link Builtins} call. Operands {@code d k a n}. */
+  public static final int CALLB = 41;
+  /** {@code return a} */
+  public static final int RET = 42;
+  /** throw an {@link ExecutionError} with the message {@code names[k]} */
+  public static final int FAIL = 43;
+  /** {@code d = *(int16_t *) a}, sign-extending */
+  public static final int LD16 = 44;
+  /** {@code d = *(int32_t *) a}, sign-extending */
+  public static final int LD32 = 45;
+  /** {@code *(uint16_t *) a = v} */
+  public static final int ST16 = 46;
+  /** {@code *(uint32_t *) a = v} */
+  public static final int ST32 = 47;
+  /** {@code d = (int8_t) a}, sign-extending */
+  public static final int I8 = 48;
+  /** {@code d = (int16_t) a}, sign-extending */
+  public static final int I16 = 49;
+  /** {@code d = a & 0xFFFFFFFF} */
+  public static final int U32 = 50;
+
+  /** bits of the first word holding the opcode */
+  public static final int OPCODE_BITS = 8;
+  /** mask selecting the opcode */
+  public static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+  /** words taken by an instruction with each opcode */
+  private static final int[] LENGTHS = {
+      2, 2, 2, 3, 3, 3, 3, 3, 3, 3, 3, 3, 3, 2, 2, 2, 3, 3, 3, 3, 3, 3,
+      1, 2, 2, 3, 3, 3, 3, 3, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 4, 4, 1, 1,
+      2, 2, 2, 2, 2, 2, 2 };
+
+  /**
+   * Code of one function.
+   *
+   * @param name        - function name, for errors
+   * @param code        - instructions
+   * @param lines       - source line of each instruction word
+   * @param nParameters - number of parameters, in registers 0 to n - 1
+   * @param nRegisters  - size of the register window
+   * @param frameSize   - bytes of memory for locals whose address is taken
+   */
+  public record Chunk(String name, int[] code, int[] lines, int nParameters, int nRegisters, int frameSize) {
+  }
+
+  /**
+   * A whole program.
+   *
+   * @param chunks    - code of each function; {@code CALL} refers to them by index
+   * @param constants - constant pool
+   * @param names     - builtin names and error messages
+   * @param main      - index of {@code main}, or -1
+   */
+  public record Program(Chunk[] chunks, long[] constants, String[] names, int main) {
+  }
+
+  private Bytecode() {
+  }
+
+  /**
+   * Return the first word of an instruction.
+   *
+   * @param opcode  - opcode
+   * @param operand - first operand
+   */
+  public static int encode(int opcode, int operand) {
+    return opcode | operand << OPCODE_BITS;
+  }
+
+  /**
+   * Return the number of words an instruction takes.
+   *
+   * @param word - first word of the instruction
+   */
+  public static int length(int word) {
+    return LENGTHS[word & OPCODE_MASK];
+  }
+}
@@ -0,0 +1,1073 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Lowers optimized SHC functions to register {@link Bytecode} for the
+ * {@link VirtualMachine}.
+ *
+ * Parameters take the first registers of a function and every other local
+ * gets a register of its own, unless its address is taken with {@code ^},
+ * in which case it lives in the function's memory frame. Globals and
+ * string literals are placed in {@link Memory} while lowering, so their
+ * addresses are immediates. Temporaries are allocated above the locals as a
+ * stack, which lets a call pass its arguments in place: they are evaluated
+ * into consecutive registers that become the callee's parameters.
+ *
+ * The meaning of every expression is that of the {@link Interpreter}; the
+ * C types it tracks at run time are computed here once, so the machine
+ * only sees sized loads and stores and explicit truncations.
+ */
+public final class BytecodeCompiler {
+  /** largest operand that fits in the first word of an instruction */
+  private static final int MAX_FIRST_OPERAND = (1 << (32 - Bytecode.OPCODE_BITS)) - 1;
+
+  /**
+   * A lowered expression.
+   *
+   * @param register - register holding its value
+   * @param type     - its C type
+   */
+  private record Value(int register, Types.Type type) {
+  }
+
+  private final Memory memory;
+  private final HashMap<String, Function> functions = new HashMap<>();
+  private final HashMap<String, Integer> chunkIndices = new HashMap<>();
+  private final IdentityHashMap<Variable, Long> globals = new IdentityHashMap<>();
+  private final ArrayList<Long> constants = new ArrayList<>();
+  private final HashMap<Long, Integer> constantIndices = new HashMap<>();
+  private final ArrayList<String> names = new ArrayList<>();
+  private final HashMap<String, Integer> nameIndices = new HashMap<>();
+
+  // state of the function being lowered
+
+  private Function function;
+  private int[] code = new int[256];
+  private int[] lines = new int[256];
+  private int size;
+  private final IdentityHashMap<Variable, Integer> registers = new IdentityHashMap<>();
+  private final IdentityHashMap<Variable, Integer> frameOffsets = new IdentityHashMap<>();
+  /** first register that is not a local */
+  private int firstTemporary;
+  /** next free temporary */
+  private int nextRegister;
+  /** registers the function needs */
+  private int nRegisters;
+  /** code position of each label, or -1 until it is placed */
+  private int[] labels = new int[16];
+  private int nLabels;
+  /**
+   * code positions holding a label number instead of a target; the
+   * complement of the position if it is the first operand of a {@code JMP}
+   */
+  private final ArrayList<Integer> fixups = new ArrayList<>();
+  /** start of the last instruction if its destination may be rewritten, else -1 */
+  private int lastInstruction = -1;
+  private int breakLabel = -1;
+  private int continueLabel = -1;
+  private int line;
+
+  private BytecodeCompiler(ArrayList<Function> program, ArrayList<Variable> globalVariables, Memory memory) {
+    this.memory = memory;
+    for (int i = 0; i < program.size(); i++) {
+      functions.put(program.get(i).getName(), program.get(i));
+      chunkIndices.put(program.get(i).getName(), i);
+    }
+    for (Variable variable : globalVariables) {
+      globals.put(variable, memory.allocate(variable.isArray() ? Types.sizeOfArray(variable) : 8));
+    }
+  }
+
+  /**
+   * Lower a program. Its globals and string literals are allocated in
+   * {@code memory}, which the program must then run in.
+   *
+   * @param program - functions of the program
+   * @param globals - global variables
+   * @param memory  - memory the program will run in
+   * @return the program's bytecode
+   */
+  public static Bytecode.Program compile(ArrayList<Function> program, ArrayList<Variable> globals, Memory memory) {
+    BytecodeCompiler compiler = new BytecodeCompiler(program, globals, memory);
+    Bytecode.Chunk[] chunks = new Bytecode.Chunk[program.size()];
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = compiler.compileFunction(program.get(i));
+    }
+    long[] constants = new long[compiler.constants.size()];
+    for (int i = 0; i < constants.length; i++) {
+      constants[i] = compiler.constants.get(i);
+    }
+    Integer main = compiler.chunkIndices.get("main");
+    return new Bytecode.Program(chunks, constants, compiler.names.toArray(new String[0]),
+        main == null ? -1 : main);
+  }
+
+  // ===================== functions =====================
+
+  private Bytecode.Chunk compileFunction(Function function) {
+    this.function = function;
+    size = 0;
+    nLabels = 0;
+    fixups.clear();
+    registers.clear();
+    frameOffsets.clear();
+    lastInstruction = -1;
+    line = function.getLineIdx();
+
+    HashSet<Variable> addressTaken = addressTaken(function);
+    int frameSize = 0;
+    Variable[] parameters = function.getArguments();
+    for (int i = 0; i < parameters.length; i++) {
+      if (addressTaken.contains(parameters[i])) {
+        frameOffsets.put(parameters[i], frameSize);
+        frameSize += 8;
+      } else {
+        registers.put(parameters[i], i);
+      }
+    }
+    int[] count = { parameters.length };
+    int[] frame = { frameSize };
+    new ASTVisitor() {
+      @Override
+      public void visitDecl(Variable variable) {
+        add(variable);
+      }
+
+      @Override
+      public void visitVar(Factor.Var var) {
+        add(var.getVariable());
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        add(assignee.getVariable());
+      }
+
+      private void add(Variable variable) {
+        if (globals.containsKey(variable) || registers.containsKey(variable) || frameOffsets.containsKey(variable)) {
+          return;
+        }
+        if (variable.isArray()) {
+          // the array's elements live in the frame, 8 byte aligned
+          frameOffsets.put(variable, frame[0]);
+          frame[0] += (Types.sizeOfArray(variable) + 7) & ~7;
+        } else if (addressTaken.contains(variable)) {
+          frameOffsets.put(variable, frame[0]);
+          frame[0] += 8;
+        } else {
+          registers.put(variable, count[0]++);
+        }
+      }
+    }.visitBody(function.getBody());
+    firstTemporary = count[0];
+    nextRegister = firstTemporary;
+    nRegisters = firstTemporary;
+
+    // parameters arrive as 64 bit values; store them at their C width
+    for (int i = 0; i < parameters.length; i++) {
+      Types.Type type = Types.of(parameters[i]);
+      Integer offset = frameOffsets.get(parameters[i]);
+      if (offset != null) {
+        int address = temporary();
+        emit(Bytecode.FRAME, address, offset);
+        emit(storeOpcode(type), address, i);
+        nextRegister = firstTemporary;
+      } else if (convertOpcode(type) >= 0) {
+        emit(convertOpcode(type), i, i);
+      }
+    }
+
+    compileBody(function.getBody());
+    int zero = temporary();
+    emit(Bytecode.CONST, zero, 0);
+    emit(Bytecode.RET, zero);
+
+    for (int fixup : fixups) {
+      if (fixup < 0) {
+        code[~fixup] = Bytecode.encode(Bytecode.JMP, labels[code[~fixup] >>> Bytecode.OPCODE_BITS]);
+      } else {
+        code[fixup] = labels[code[fixup]];
+      }
+    }
+    return new Bytecode.Chunk(function.getName(), Arrays.copyOf(code, size), Arrays.copyOf(lines, size),
+        parameters.length, nRegisters, frame[0]);
+  }
+
+  /** Return the variables {@code function} takes the address of. */
+  private static HashSet<Variable> addressTaken(Function function) {
+    HashSet<Variable> result = new HashSet<>();
+    new ASTVisitor() {
+      @Override
+      public void visitVar(Factor.Var var) {
+        if (var.getVariable().getNReferences() == 0 && var.getNReferences() == 1) {
+          result.add(var.getVariable());
+        }
+      }
+    }.visitBody(function.getBody());
+    return result;
+  }
+
+  // ===================== statements =====================
+
+  private void compileBody(Statement[] body) {
+    if (body == null) {
+      return;
+    }
+    for (Statement statement : body) {
+      compileStatement(statement);
+    }
+  }
+
+  private void compileStatement(Statement statement) {
+    line = ControlFlowGraph.lineOf(statement);
+    nextRegister = firstTemporary;
+    switch (statement) {
+      case Statement.If ifStatement -> {
+        int otherwise = newLabel();
+        branch(ifStatement.cond(), false, otherwise);
+        compileBody(ifStatement.body());
+        if (ifStatement.otherBody() != null && ifStatement.otherBody().length > 0) {
+          int end = newLabel();
+          jump(Bytecode.JMP, end);
+          place(otherwise);
+          compileBody(ifStatement.otherBody());
+          place(end);
+        } else {
+          place(otherwise);
+        }
+      }
+      case Statement.Loop loop -> {
+        // test at the bottom, so each iteration takes one branch
+        int outerBreak = breakLabel;
+        int outerContinue = continueLabel;
+        int top = newLabel();
+        breakLabel = newLabel();
+        continueLabel = newLabel();
+        jump(Bytecode.JMP, continueLabel);
+        place(top);
+        compileBody(loop.body());
+        place(continueLabel);
+        line = loop.lineIdx();
+        nextRegister = firstTemporary;
+        branch(loop.cond(), true, top);
+        place(breakLabel);
+        breakLabel = outerBreak;
+        continueLabel = outerContinue;
+      }
+      case Statement.Decl decl -> {
+      }
+      case Statement.Call call -> compileCall(call.function().getName(), call.arguments());
+      case Statement.Jump jump -> {
+        if (jump.type() == SHC.BREAK) {
+          jump(Bytecode.JMP, breakLabel);
+        } else if (jump.type() == SHC.CONTINUE) {
+          jump(Bytecode.JMP, continueLabel);
+        } else {
+          compileReturn(jump);
+        }
+      }
+      case Statement.Assign assign -> compileAssignment(assign.assignment(), false);
+    }
+  }
+
+  private void compileReturn(Statement.Jump jump) {
+    if (!jump.hasValue()) {
+      int zero = temporary();
+      emit(Bytecode.CONST, zero, 0);
+      emit(Bytecode.RET, zero);
+      return;
+    }
+    Value value = compileExpression(jump.value());
+    int result = value.register();
+    int convert = convertOpcode(new Types.Type(function.getReturnType(), function.getNReturnReferences()));
+    if (convert >= 0) {
+      result = temporary();
+      emitValue(convert, result, value.register());
+    }
+    emit(Bytecode.RET, result);
+  }
+
+  // ===================== conditions =====================
+
+  /** Jump to {@code label} iff the truth of {@code condition} is {@code when}. */
+  private void branch(Factor condition, boolean when, int label) {
+    if (condition instanceof Factor.Parentheses parentheses) {
+      Assignment[] assignments = parentheses.expression().getExpressions();
+      if (assignments.length == 1 && !assignments[0].hasAssignee()) {
+        branch(assignments[0].getValue(), when, label);
+        return;
+      }
+    }
+    int mark = nextRegister;
+    Value value = compileFactor(condition);
+    jump(when ? Bytecode.JNZ : Bytecode.JZ, value.register(), label);
+    nextRegister = mark;
+  }
+
+  private void branch(OrExpression expression, boolean when, int label) {
+    Long constant = ASTUtil.constantValue(expression);
+    if (constant != null) {
+      if ((constant != 0) == when) {
+        jump(Bytecode.JMP, label);
+      }
+      return;
+    }
+    if (!expression.hasLeft()) {
+      branch(expression.getRight(), when, label);
+    } else if (when) {
+      branch(expression.getLeft(), true, label);
+      branch(expression.getRight(), true, label);
+    } else {
+      int skip = newLabel();
+      branch(expression.getLeft(), true, skip);
+      branch(expression.getRight(), false, label);
+      place(skip);
+    }
+  }
+
+  private void branch(AndExpression expression, boolean when, int label) {
+    if (!expression.hasLeft()) {
+      branch(expression.getRight(), when, label);
+    } else if (!when) {
+      branch(expression.getLeft(), false, label);
+      branch(expression.getRight(), false, label);
+    } else {
+      int skip = newLabel();
+      branch(expression.getLeft(), false, skip);
+      branch(expression.getRight(), true, label);
+      place(skip);
+    }
+  }
+
+  private void branch(EqualityExpression expression, boolean when, int label) {
+    int mark = nextRegister;
+    if (!expression.hasLeft()) {
+      RelationalExpression relational = expression.getRight();
+      if (relational.hasLeft()) {
+        branch(relational, when, label);
+      } else {
+        Value value = compileAdditive(relational.getRight());
+        jump(when ? Bytecode.JNZ : Bytecode.JZ, value.register(), label);
+      }
+    } else {
+      Value left = stable(compileEquality(expression.getLeft()), v -> v.visitRelationalExpression(expression.getRight()));
+      Value right = compileRelational(expression.getRight());
+      boolean equal = (expression.getOperator() == SHC.EQUAL) == when;
+      jump(equal ? Bytecode.JEQ : Bytecode.JNE, operand(left, right), operand(right, left), label);
+    }
+    nextRegister = mark;
+  }
+
+  private void branch(RelationalExpression expression, boolean when, int label) {
+    Value left = stable(compileRelational(expression.getLeft()), v -> v.visitAdditiveExpression(expression.getRight()));
+    Value right = compileAdditive(expression.getRight());
+    boolean unsigned = Types.isUnsigned(left.type()) || Types.isUnsigned(right.type());
+    int a = operand(left, right), b = operand(right, left);
+    // a > b is b < a, a <= b is !(b < a), a >= b is !(a < b)
+    SHC operator = expression.getOperator();
+    boolean swap = operator == SHC.GREATER || operator == SHC.LEQ;
+    boolean negate = operator == SHC.LEQ || operator == SHC.GEQ;
+    int opcode = when != negate ? (unsigned ? Bytecode.JLTU : Bytecode.JLT) : (unsigned ? Bytecode.JGEU : Bytecode.JGE);
+    jump(opcode, swap ? b : a, swap ? a : b, label);
+  }
+
+  // ===================== expressions =====================
+
+  private Value compileExpression(Expression expression) {
+    Value value = null;
+    Assignment[] assignments = expression.getExpressions();
+    for (int i = 0; i < assignments.length; i++) {
+      value = compileAssignment(assignments[i], i == assignments.length - 1);
+    }
+    return value;
+  }
+
+  /**
+   * Lower an assignment.
+   *
+   * @param assignment - assignment to lower
+   * @param needValue  - whether its value is used
+   */
+  private Value compileAssignment(Assignment assignment, boolean needValue) {
+    int mark = nextRegister;
+    Value value = compileOr(assignment.getValue());
+    if (!assignment.hasAssignee()) {
+      return value;
+    }
+    Value result = assignment.hasIndex()
+        ? storeElement(assignment.getAssignee(), assignment.getIndex(), value, needValue)
+        : store(assignment.getAssignee(), value, needValue);
+    if (!needValue) {
+      nextRegister = mark;
+    }
+    return result;
+  }
+
+  private Value compileOr(OrExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileAnd(expression.getRight());
+    }
+    int result = temporary();
+    int end = newLabel();
+    emit(Bytecode.CONST, result, 1);
+    branch(expression.getLeft(), true, end);
+    branch(expression.getRight(), true, end);
+    emit(Bytecode.CONST, result, 0);
+    place(end);
+    return new Value(result, Types.C_INT);
+  }
+
+  private Value compileAnd(AndExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileEquality(expression.getRight());
+    }
+    int result = temporary();
+    int end = newLabel();
+    emit(Bytecode.CONST, result, 0);
+    branch(expression.getLeft(), false, end);
+    branch(expression.getRight(), false, end);
+    emit(Bytecode.CONST, result, 1);
+    place(end);
+    return new Value(result, Types.C_INT);
+  }
+
+  private Value compileEquality(EqualityExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileRelational(expression.getRight());
+    }
+    int mark = nextRegister;
+    Value left = stable(compileEquality(expression.getLeft()), v -> v.visitRelationalExpression(expression.getRight()));
+    Value right = compileRelational(expression.getRight());
+    int a = operand(left, right), b = operand(right, left);
+    nextRegister = mark;
+    int result = temporary();
+    emitValue(expression.getOperator() == SHC.EQUAL ? Bytecode.EQ : Bytecode.NE, result, a, b);
+    return new Value(result, Types.C_INT);
+  }
+
+  private Value compileRelational(RelationalExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileAdditive(expression.getRight());
+    }
+    int mark = nextRegister;
+    Value left = stable(compileRelational(expression.getLeft()), v -> v.visitAdditiveExpression(expression.getRight()));
+    Value right = compileAdditive(expression.getRight());
+    int a = operand(left, right), b = operand(right, left);
+    nextRegister = mark;
+    boolean unsigned = Types.isUnsigned(left.type()) || Types.isUnsigned(right.type());
+    SHC operator = expression.getOperator();
+    boolean swap = operator == SHC.GREATER || operator == SHC.GEQ;
+    boolean strict = operator == SHC.LESS || operator == SHC.GREATER;
+    int opcode = strict ? (unsigned ? Bytecode.LTU : Bytecode.LT) : (unsigned ? Bytecode.LEU : Bytecode.LE);
+    int result = temporary();
+    emitValue(opcode, result, swap ? b : a, swap ? a : b);
+    return new Value(result, Types.C_INT);
+  }
+
+  private Value compileAdditive(AdditiveExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileMultiplicative(expression.getRight());
+    }
+    int mark = nextRegister;
+    boolean add = expression.getOperator() == SHC.ADD;
+    Value left = stable(compileAdditive(expression.getLeft()),
+        v -> v.visitMultiplicativeExpression(expression.getRight()));
+    Long constant = ASTUtil.constantValue(expression.getRight());
+
+    if (constant != null) {
+      long offset = left.type().isPointer() ? constant * width(left.type().pointee()) : constant;
+      offset = add ? offset : -offset;
+      if (offset == (int) offset) {
+        nextRegister = mark;
+        int result = temporary();
+        emitValue(Bytecode.ADDI, result, left.register(), (int) offset);
+        return left.type().isPointer() ? new Value(result, left.type()) : arithmetic(result, left.type(), Types.C_INT);
+      }
+    }
+
+    Value right = compileMultiplicative(expression.getRight());
+    if (left.type().isPointer() && right.type().isPointer()) {
+      nextRegister = mark;
+      int result = temporary();
+      emitValue(Bytecode.SUB, result, left.register(), right.register());
+      int scale = width(left.type().pointee());
+      if (scale != 1) {
+        emitValue(Bytecode.DIVI, result, result, scale);
+      }
+      return new Value(result, Types.INT);
+    }
+    if (left.type().isPointer()) {
+      int offset = scaled(right.register(), width(left.type().pointee()));
+      nextRegister = mark;
+      int result = temporary();
+      emitValue(add ? Bytecode.ADD : Bytecode.SUB, result, left.register(), offset);
+      return new Value(result, left.type());
+    }
+    if (right.type().isPointer()) {
+      int offset = scaled(left.register(), width(right.type().pointee()));
+      nextRegister = mark;
+      int result = temporary();
+      emitValue(Bytecode.ADD, result, right.register(), offset);
+      return new Value(result, right.type());
+    }
+    nextRegister = mark;
+    int result = temporary();
+    emitValue(add ? Bytecode.ADD : Bytecode.SUB, result, left.register(), right.register());
+    return arithmetic(result, left.type(), right.type());
+  }
+
+  /** Return a register holding {@code register * scale}. */
+  private int scaled(int register, int scale) {
+    if (scale == 1) {
+      return register;
+    }
+    int result = temporary();
+    emitValue(Bytecode.MULI, result, register, scale);
+    return result;
+  }
+
+  private Value compileMultiplicative(MultiplicativeExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileUnary(expression.getRight());
+    }
+    int mark = nextRegister;
+    SHC operator = expression.getOperator();
+    Value left = stable(compileMultiplicative(expression.getLeft()), v -> v.visitUnaryExpression(expression.getRight()));
+    Long constant = ASTUtil.constantValue(expression.getRight());
+    boolean wide = left.type().isWide();
+
+    if (constant != null && operator == SHC.MULTIPLY) {
+      nextRegister = mark;
+      int result = temporary();
+      emitValue(Bytecode.MULI, result, left.register(), (int) (long) constant);
+      return arithmetic(result, left.type(), Types.C_INT);
+    }
+    // a C int, char or u32 fits in 32 bits, so 64 bit division by a nonzero constant matches C;
+    // a u32 divided by a negative one divides by the constant converted to u32
+    if (constant != null && constant != 0 && operator == SHC.DIVIDE && !wide && !left.type().isPointer()
+        && (constant > 0 || !left.type().isUnsigned32())) {
+      nextRegister = mark;
+      int result = temporary();
+      emitValue(Bytecode.DIVI, result, left.register(), (int) (long) constant);
+      return arithmetic(result, left.type(), Types.C_INT);
+    }
+
+    Value right = compileUnary(expression.getRight());
+    if (!wide && !right.type().isWide() && (left.type().isUnsigned32() || right.type().isUnsigned32())) {
+      // both zero-extended to 64 bits, where unsigned division matches u32's
+      int a = operand(left, right), b = operand(right, left);
+      nextRegister = mark;
+      int result = temporary();
+      int opcode = switch (operator) {
+        case MULTIPLY -> Bytecode.MUL;
+        case DIVIDE -> Bytecode.DIVU;
+        default -> Bytecode.REMU;
+      };
+      emitValue(opcode, result, a, b);
+      return arithmetic(result, left.type(), right.type());
+    }
+    nextRegister = mark;
+    int result = temporary();
+    if (wide || right.type().isWide()) {
+      int opcode = switch (operator) {
+        case MULTIPLY -> Bytecode.MUL;
+        case DIVIDE -> Bytecode.DIVU;
+        default -> Bytecode.REMU;
+      };
+      emitValue(opcode, result, left.register(), right.register());
+      return new Value(result, Types.INT);
+    }
+    switch (operator) {
+      case MULTIPLY -> {
+        emitValue(Bytecode.MUL, result, left.register(), right.register());
+        emitValue(Bytecode.I32, result, result);
+      }
+      case DIVIDE -> emitValue(Bytecode.DIV, result, left.register(), right.register());
+      default -> emitValue(Bytecode.REM, result, left.register(), right.register());
+    }
+    return new Value(result, Types.C_INT);
+  }
+
+  private Value compileUnary(UnaryExpression expression) {
+    if (!expression.hasOperator()) {
+      return compileFactor(expression.getFactor());
+    }
+    Long constant = ASTUtil.constantValue(expression);
+    if (constant != null) {
+      int result = temporary();
+      emitValue(Bytecode.CONST, result, (int) (long) constant);
+      return new Value(result, Types.C_INT);
+    }
+    int mark = nextRegister;
+    Value value = compileUnary(expression.getUnaryExpression());
+    if (value.type().isPointer()) {
+      return fail("unary operator on a pointer", Types.C_INT);
+    }
+    if (expression.getOperator() != SHC.SUBTRACT) {
+      return new Value(value.register(), Types.promote(value.type()));
+    }
+    nextRegister = mark;
+    int result = temporary();
+    emitValue(Bytecode.NEG, result, value.register());
+    return arithmetic(result, value.type(), value.type());
+  }
+
+  private Value compileFactor(Factor factor) {
+    return switch (factor) {
+      case Factor.Var var -> load(var);
+      case Factor.Const constant -> {
+        int result = temporary();
+        emitValue(Bytecode.CONST, result, constant.constant());
+        yield new Value(result, Types.C_INT);
+      }
+      case Factor.Str string -> {
+        int result = temporary();
+        constant(result, memory.intern(string.string()));
+        yield new Value(result, new Types.Type(SHC.CHAR, 1));
+      }
+      case Factor.Parentheses parentheses -> compileExpression(parentheses.expression());
+      case Factor.Call call -> compileCall(call.fun().getName(), call.arguments());
+      case Factor.Index index -> {
+        Value address = elementAddress(index.element(), index.index());
+        Types.Type current = address.type();
+        int value = address.register();
+        for (int i = 0; i < index.element().getNReferences(); i++) {
+          current = current.pointee();
+          emitLoad(value, value, current);
+        }
+        yield new Value(value, current);
+      }
+    };
+  }
+
+  /**
+   * Lower a call. The arguments are evaluated into consecutive registers
+   * from the first free one, which then become the callee's parameters.
+   */
+  private Value compileCall(String name, Expression[] arguments) {
+    int first = nextRegister;
+    for (Expression argument : arguments) {
+      int target = temporary();
+      Value value = compileExpression(argument);
+      move(target, value.register());
+      nextRegister = target + 1;
+    }
+    nextRegister = first;
+    int result = temporary();
+    Function function = functions.get(name);
+    if (function != null) {
+      emitValue(Bytecode.CALL, result, chunkIndices.get(name), first, arguments.length);
+      return new Value(result, new Types.Type(function.getReturnType(), function.getNReturnReferences()));
+    }
+    if (!Builtins.isBuiltin(name)) {
+      return fail("call to undefined function `" + name + "`", Types.C_INT);
+    }
+    emitValue(Bytecode.CALLB, result, name(name), first, arguments.length);
+    Types.Type type = Builtins.typeOf(name);
+    if (type == Types.C_INT) {
+      emitValue(Bytecode.I32, result, result);
+    }
+    return new Value(result, type);
+  }
+
+  /**
+   * Truncate an integer result to its C type: 64 bits if either operand is
+   * an SHC {@code int}, 32 bits unsigned if either is a {@code u32}, else a
+   * 32 bit C {@code int}.
+   */
+  private Value arithmetic(int result, Types.Type left, Types.Type right) {
+    Types.Type type = Types.arithmetic(left, right);
+    if (!type.isWide()) {
+      emitValue(convertOpcode(type), result, result);
+    }
+    return new Value(result, type);
+  }
+
+  /**
+   * Return the register holding an operand of a comparison or division with
+   * {@code other}: a narrower signed operand meeting a {@code u32} is
+   * converted to {@code u32} first, as C does.
+   */
+  private int operand(Value value, Value other) {
+    Types.Type type = value.type();
+    if (!other.type().isUnsigned32() || Types.isUnsigned(type)) {
+      return value.register();
+    }
+    int result = temporary();
+    emitValue(Bytecode.U32, result, value.register());
+    return result;
+  }
+
+  /**
+   * Return {@code left}, copied to a temporary if it is a variable's register
+   * and the right operand, visited by {@code right}, may assign to it.
+   */
+  private Value stable(Value left, Consumer<ASTVisitor> right) {
+    if (left.register() >= firstTemporary) {
+      return left;
+    }
+    boolean[] assigns = { false };
+    right.accept(new ASTVisitor() {
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        assigns[0] = true;
+      }
+    });
+    if (!assigns[0]) {
+      return left;
+    }
+    int copy = temporary();
+    emitValue(Bytecode.MOV, copy, left.register());
+    return new Value(copy, left.type());
+  }
+
+  // ===================== variables =====================
+
+  private Value load(Factor.Var var) {
+    Variable variable = var.getVariable();
+    int usageRefs = var.getNReferences();
+    if (variable.getNReferences() == 0 && usageRefs == 1) {
+      int result = temporary();
+      Integer offset = frameOffsets.get(variable);
+      if (offset != null) {
+        emitValue(Bytecode.FRAME, result, offset);
+      } else {
+        constant(result, globals.get(variable));
+      }
+      return new Value(result, new Types.Type(variable.getType(), 1));
+    }
+    if (usageRefs > variable.getNReferences()) {
+      return fail("`" + variable.getName() + "` is not a pointer", Types.of(variable));
+    }
+    Types.Type current = Types.of(variable);
+    int value = read(variable);
+    for (int i = 0; i < usageRefs; i++) {
+      current = current.pointee();
+      int result = value >= firstTemporary ? value : temporary();
+      emitLoad(result, value, current);
+      value = result;
+    }
+    return new Value(value, current);
+  }
+
+  /** Return a register holding a variable's value; an array's is the address of its elements. */
+  private int read(Variable variable) {
+    Integer register = registers.get(variable);
+    if (register != null) {
+      return register;
+    }
+    Types.Type type = Types.of(variable);
+    int result = temporary();
+    Integer offset = frameOffsets.get(variable);
+    if (variable.isArray()) {
+      if (offset != null) {
+        emitValue(Bytecode.FRAME, result, offset);
+      } else {
+        constant(result, globals.get(variable));
+      }
+      return result;
+    }
+    if (offset != null) {
+      emit(Bytecode.FRAME, result, offset);
+      emitLoad(result, result, type);
+    } else if (width(type) == 1 || width(type) == 8) {
+      emitValue(width(type) == 1 ? Bytecode.GLD8 : Bytecode.GLD64, result, address(variable));
+      if (type.base() == SHC.I8 && !type.isPointer()) {
+        emitValue(Bytecode.I8, result, result);
+      }
+    } else {
+      constant(result, globals.get(variable));
+      emitLoad(result, result, type);
+    }
+    return result;
+  }
+
+  /**
+   * Store a value through an assignee.
+   *
+   * @param target    - assignee
+   * @param value     - value to store
+   * @param needValue - whether the value of the assignment is used
+   * @return the stored value, truncated to the target's type
+   */
+  private Value store(Factor.Var target, Value value, boolean needValue) {
+    Variable variable = target.getVariable();
+    int usageRefs = target.getNReferences();
+    if (variable.getNReferences() == 0 && usageRefs == 1) {
+      return fail("cannot assign to the address of `" + variable.getName() + "`", Types.of(variable));
+    }
+    if (usageRefs > variable.getNReferences()) {
+      return fail("`" + variable.getName() + "` is not a pointer", Types.of(variable));
+    }
+    Types.Type current = Types.of(variable);
+    for (int i = 0; i < usageRefs; i++) {
+      current = current.pointee();
+    }
+    int convert = convertOpcode(current);
+
+    if (usageRefs == 0) {
+      Integer register = registers.get(variable);
+      if (register != null) {
+        if (convert >= 0) {
+          emitValue(convert, register, value.register());
+        } else {
+          move(register, value.register());
+        }
+        return new Value(register, current);
+      }
+      Integer offset = frameOffsets.get(variable);
+      if (offset != null) {
+        int address = temporary();
+        emit(Bytecode.FRAME, address, offset);
+        emit(storeOpcode(current), address, value.register());
+      } else if (width(current) == 1 || width(current) == 8) {
+        emit(width(current) == 1 ? Bytecode.GST8 : Bytecode.GST64, value.register(), address(variable));
+      } else {
+        int address = temporary();
+        constant(address, globals.get(variable));
+        emit(storeOpcode(current), address, value.register());
+      }
+    } else {
+      int address = read(variable);
+      for (int i = 1; i < usageRefs; i++) {
+        int next = address >= firstTemporary ? address : temporary();
+        emitValue(Bytecode.LD64, next, address);
+        address = next;
+      }
+      emit(storeOpcode(current), address, value.register());
+    }
+    if (!needValue || convert < 0) {
+      return new Value(value.register(), current);
+    }
+    int result = temporary();
+    emitValue(convert, result, value.register());
+    return new Value(result, current);
+  }
+
+  /**
+   * Store a value through a subscripted assignee.
+   *
+   * @param target    - assignee, as in {@code Factor.Index}
+   * @param index     - element index
+   * @param value     - value to store
+   * @param needValue - whether the value of the assignment is used
+   * @return the stored value, truncated to the element's type
+   */
+  private Value storeElement(Factor.Var target, Expression index, Value value, boolean needValue) {
+    value = stable(value, v -> v.visitExpression(index));
+    Value element = elementAddress(target, index);
+    Types.Type current = element.type().pointee();
+    int address = element.register();
+    for (int i = 1; i < target.getNReferences(); i++) {
+      emitValue(Bytecode.LD64, address, address);
+      current = current.pointee();
+    }
+    int convert = convertOpcode(current);
+    emit(storeOpcode(current), address, value.register());
+    if (!needValue || convert < 0) {
+      return new Value(value.register(), current);
+    }
+    int result = temporary();
+    emitValue(convert, result, value.register());
+    return new Value(result, current);
+  }
+
+  /**
+   * Return a temporary holding the address of the element a subscript reads
+   * or writes before its further dereferences: the variable's value offset
+   * by the index.
+   *
+   * @param element - the subscripted variable usage
+   * @param index   - the element index
+   */
+  private Value elementAddress(Factor.Var element, Expression index) {
+    Variable variable = element.getVariable();
+    if (element.getNReferences() > variable.getNReferences()) {
+      return fail("`" + variable.getName() + "` is not a pointer", Types.of(variable));
+    }
+    int mark = nextRegister;
+    Value base = stable(new Value(read(variable), Types.of(variable)), v -> v.visitExpression(index));
+    Value offset = compileExpression(index);
+    if (offset.type().isPointer()) {
+      return fail("array index is a pointer", base.type());
+    }
+    int scaled = scaled(offset.register(), width(base.type().pointee()));
+    nextRegister = mark;
+    int result = temporary();
+    emitValue(Bytecode.ADD, result, base.register(), scaled);
+    return new Value(result, base.type());
+  }
+
+  /** Return the address of a global as an immediate. */
+  private int address(Variable variable) {
+    Long address = globals.get(variable);
+    if (address == null) {
+      throw new ExecutionError("unknown variable `" + variable.getName() + "`");
+    }
+    return Math.toIntExact(address);
+  }
+
+  private static int width(Types.Type type) {
+    return Types.sizeOf(type);
+  }
+
+  /**
+   * Load a value of {@code type} from the address in a register, leaving it
+   * extended as the type holds it.
+   */
+  private void emitLoad(int result, int address, Types.Type type) {
+    emitValue(switch (width(type)) {
+      case 1 -> Bytecode.LD8;
+      case 2 -> Bytecode.LD16;
+      case 4 -> Bytecode.LD32;
+      default -> Bytecode.LD64;
+    }, result, address);
+    // LD8 zero-extends and LD32 sign-extends
+    if (!type.isPointer() && (type.base() == SHC.I8 || type.base() == SHC.U32)) {
+      emitValue(convertOpcode(type), result, result);
+    }
+  }
+
+  /** Return the opcode storing a value of {@code type} through the address in a register. */
+  private static int storeOpcode(Types.Type type) {
+    return switch (width(type)) {
+      case 1 -> Bytecode.ST8;
+      case 2 -> Bytecode.ST16;
+      case 4 -> Bytecode.ST32;
+      default -> Bytecode.ST64;
+    };
+  }
+
+  /**
+   * Return the opcode truncating and extending a register to the way a value
+   * of {@code type} holds it, or -1 if every 64 bit value already is one.
+   */
+  private static int convertOpcode(Types.Type type) {
+    if (type.isPointer()) {
+      return -1;
+    }
+    return switch (type.base()) {
+      case CHAR -> Bytecode.U8;
+      case I8 -> Bytecode.I8;
+      case I16 -> Bytecode.I16;
+      case I32, INT_LITERAL -> Bytecode.I32;
+      case U32 -> Bytecode.U32;
+      default -> -1;
+    };
+  }
+
+  // ===================== emitting =====================
+
+  private int temporary() {
+    int register = nextRegister++;
+    nRegisters = Math.max(nRegisters, nextRegister);
+    return register;
+  }
+
+  /** Lower a run-time error; the value is never produced. */
+  private Value fail(String message, Types.Type type) {
+    emit(Bytecode.FAIL, name(message));
+    return new Value(temporary(), type);
+  }
+
+  /** Copy {@code source} to {@code target}, retargeting the instruction that computed it if possible. */
+  private void move(int target, int source) {
+    if (target == source) {
+      return;
+    }
+    if (lastInstruction >= 0 && source >= firstTemporary && code[lastInstruction] >>> Bytecode.OPCODE_BITS == source) {
+      code[lastInstruction] = Bytecode.encode(code[lastInstruction] & Bytecode.OPCODE_MASK, target);
+      lastInstruction = -1;
+      return;
+    }
+    emitValue(Bytecode.MOV, target, source);
+  }
+
+  /** Load a 64 bit constant, from the pool if it does not fit an immediate. */
+  private void constant(int target, long value) {
+    if (value == (int) value) {
+      emitValue(Bytecode.CONST, target, (int) value);
+      return;
+    }
+    Integer index = constantIndices.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantIndices.put(value, index);
+    }
+    emitValue(Bytecode.LOADK, target, index);
+  }
+
+  private int name(String name) {
+    Integer index = nameIndices.get(name);
+    if (index == null) {
+      index = names.size();
+      names.add(name);
+      nameIndices.put(name, index);
+    }
+    return index;
+  }
+
+  /** Emit an instruction that writes its first operand. */
+  private void emitValue(int opcode, int... operands) {
+    int start = size;
+    emit(opcode, operands);
+    lastInstruction = start;
+  }
+
+  private void emit(int opcode, int... operands) {
+    if (operands.length > 0 && (operands[0] < 0 || operands[0] > MAX_FIRST_OPERAND)) {
+      throw new ExecutionError("function too large for the bytecode format");
+    }
+    lastInstruction = -1;
+    word(Bytecode.encode(opcode, operands.length > 0 ? operands[0] : 0));
+    for (int i = 1; i < operands.length; i++) {
+      word(operands[i]);
+    }
+  }
+
+  /** Emit {@code goto label}; the target is filled in once the function is lowered. */
+  private void jump(int opcode, int label) {
+    emit(opcode, label);
+    fixups.add(~(size - 1));
+  }
+
+  /** Emit a conditional jump on one register. */
+  private void jump(int opcode, int register, int label) {
+    emit(opcode, register, label);
+    fixups.add(size - 1);
+  }
+
+  /** Emit a conditional jump comparing two registers. */
+  private void jump(int opcode, int left, int right, int label) {
+    emit(opcode, left, right, label);
+    fixups.add(size - 1);
+  }
+
+  private void word(int value) {
+    if (size == code.length) {
+      code = Arrays.copyOf(code, size * 2);
+      lines = Arrays.copyOf(lines, size * 2);
+    }
+    code[size] = value;
+    lines[size] = line;
+    size++;
+  }
+
+  private int newLabel() {
+    if (nLabels == labels.length) {
+      labels = Arrays.copyOf(labels, nLabels * 2);
+    }
+    labels[nLabels] = -1;
+    return nLabels++;
+  }
+
+  private void place(int label) {
+    labels[label] = size;
+    lastInstruction = -1;
+  }
+}
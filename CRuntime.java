@@ -0,0 +1,516 @@
+import java.util.List;
+import java.util.Set;
+
+/**
+ * C support code the {@link Compiler} bundles into generated programs when
+ * an option or a builtin the program calls asks for it.
+ *
+ * Each part comes as definitions, emitted once per program, and matching
+ * declarations for the header shared by split translation units. The
+ * definitions take a storage class, {@code static} for a single file and
+ * empty when other units call them.
+ */
+public final class CRuntime {
+  /** allocation functions redirected to the arena by {@code --alloc=arena} */
+  private static final Set<String> ARENA_FUNCTIONS = Set.of("malloc", "calloc", "realloc", "free");
+  /** output functions redirected to the buffer by {@code --stdout=buffered} */
+  private static final Set<String> OUTPUT_FUNCTIONS = Set.of("puts", "putchar", "printf", "fflush");
+
+  private CRuntime() {
+  }
+
+  /** Return true iff calls to {@code name} go to the arena with {@code --alloc=arena}. */
+  public static boolean isArenaFunction(String name) {
+    return ARENA_FUNCTIONS.contains(name);
+  }
+
+  /** Return the name of the arena's replacement for {@code name}. */
+  public static String arenaName(String name) {
+    return "shc_arena_" + name;
+  }
+
+  /** Return true iff calls to {@code name} go to the output buffer with {@code --stdout=buffered}. */
+  public static boolean isOutputFunction(String name) {
+    return OUTPUT_FUNCTIONS.contains(name);
+  }
+
+  /** Return the name of the output buffer's replacement for {@code name}. */
+  public static String outputName(String name) {
+    return "shc_out_" + name;
+  }
+
+  /** Return the name of the C function {@code name} is lowered to, if the runtime provides it. */
+  public static String builtinName(String name) {
+    return name.equals("mapFile") ? "shc_map_file" : null;
+  }
+
+  /** Return the declarations of the arena allocator. */
+  public static String arenaDeclarations() {
+    return """
+        void *shc_arena_malloc(size_t size);
+        void *shc_arena_calloc(size_t count, size_t size);
+        void *shc_arena_realloc(void *pointer, size_t size);
+        void shc_arena_free(void *pointer);
+
+        """;
+  }
+
+  /**
+   * Return the definitions of the arena allocator.
+   *
+   * Blocks are carved out of chunks obtained from {@code malloc}, which
+   * double in size from 64 KiB up to 16 MiB; a request too large for a
+   * chunk gets one of its own. Each block is preceded by a 16-byte header
+   * holding its size, so {@code realloc} can copy it, and sizes are rounded
+   * up to 16 bytes, so blocks are as aligned as {@code malloc}'s. {@code free} only gives back the most
+   * recent block of the current chunk, which makes short-lived buffers
+   * cheap; everything else is released when the program exits. The counts
+   * are printed to standard error at exit.
+   *
+   * @param storage - storage class of the functions, e.g. {@code "static "}, or empty
+   */
+  public static String arena(String storage) {
+    return """
+        #include <string.h>
+
+        /* arena allocator (--alloc=arena) */
+        typedef struct shc_arena_chunk {
+            struct shc_arena_chunk *next;
+            size_t size;
+            size_t used;
+            _Alignas(16) unsigned char data[];
+        } shc_arena_chunk;
+
+        static shc_arena_chunk *shc_arena_current;
+        static size_t shc_arena_chunk_size = (size_t)1 << 16;
+        static unsigned long long shc_arena_allocations, shc_arena_requested, shc_arena_frees, shc_arena_reclaimed,
+            shc_arena_chunks, shc_arena_reserved;
+
+        static void shc_arena_report(void) {
+            fprintf(stderr, "arena: %llu allocations (%llu bytes), %llu frees (%llu bytes reclaimed), "
+                "%llu chunks (%llu bytes reserved)\\n", shc_arena_allocations, shc_arena_requested, shc_arena_frees,
+                shc_arena_reclaimed, shc_arena_chunks, shc_arena_reserved);
+        }
+
+        STORAGEvoid *shc_arena_malloc(size_t size) {
+            size_t need = ((size + 15) & ~(size_t)15) + 16;
+            shc_arena_chunk *chunk = shc_arena_current;
+            if (need < size) {
+                return NULL;
+            }
+            if (chunk == NULL || chunk->size - chunk->used < need) {
+                size_t chunk_size = need > shc_arena_chunk_size / 4 ? need : shc_arena_chunk_size;
+                chunk = malloc(sizeof(shc_arena_chunk) + chunk_size);
+                if (chunk == NULL) {
+                    return NULL;
+                }
+                if (shc_arena_chunks++ == 0) {
+                    atexit(shc_arena_report);
+                }
+                shc_arena_reserved += chunk_size;
+                chunk->size = chunk_size;
+                chunk->used = 0;
+                if (chunk_size == shc_arena_chunk_size || shc_arena_current == NULL) {
+                    chunk->next = shc_arena_current;
+                    shc_arena_current = chunk;
+                    if (shc_arena_chunk_size < ((size_t)1 << 24)) {
+                        shc_arena_chunk_size *= 2;
+                    }
+                } else {
+                    /* a large block: keep filling the current chunk */
+                    chunk->next = shc_arena_current->next;
+                    shc_arena_current->next = chunk;
+                }
+            }
+            unsigned char *block = chunk->data + chunk->used + 16;
+            chunk->used += need;
+            ((uint64_t *)block)[-1] = size;
+            shc_arena_allocations++;
+            shc_arena_requested += size;
+            return block;
+        }
+
+        STORAGEvoid *shc_arena_calloc(size_t count, size_t size) {
+            if (size != 0 && count > (size_t)-1 / size) {
+                return NULL;
+            }
+            void *pointer = shc_arena_malloc(count * size);
+            if (pointer != NULL) {
+                memset(pointer, 0, count * size);
+            }
+            return pointer;
+        }
+
+        /* true iff pointer is the most recent block of the current chunk */
+        static int shc_arena_is_last(void *pointer) {
+            shc_arena_chunk *chunk = shc_arena_current;
+            size_t size = ((uint64_t *)pointer)[-1];
+            return chunk != NULL && (unsigned char *)pointer + ((size + 15) & ~(size_t)15) == chunk->data + chunk->used;
+        }
+
+        STORAGEvoid shc_arena_free(void *pointer) {
+            if (pointer == NULL) {
+                return;
+            }
+            shc_arena_frees++;
+            if (shc_arena_is_last(pointer)) {
+                size_t need = ((((uint64_t *)pointer)[-1] + 15) & ~(size_t)15) + 16;
+                shc_arena_current->used -= need;
+                shc_arena_reclaimed += need;
+            }
+        }
+
+        STORAGEvoid *shc_arena_realloc(void *pointer, size_t size) {
+            if (pointer == NULL) {
+                return shc_arena_malloc(size);
+            }
+            size_t old = ((uint64_t *)pointer)[-1];
+            if (shc_arena_is_last(pointer)) {
+                shc_arena_chunk *chunk = shc_arena_current;
+                size_t start = (unsigned char *)pointer - chunk->data;
+                size_t rounded = (size + 15) & ~(size_t)15;
+                if (rounded >= size && rounded <= chunk->size - start) {
+                    chunk->used = start + rounded;
+                    ((uint64_t *)pointer)[-1] = size;
+                    return pointer;
+                }
+            } else if (size <= old) {
+                return pointer;
+            }
+            void *moved = shc_arena_malloc(size);
+            if (moved != NULL) {
+                memcpy(moved, pointer, old < size ? old : size);
+                shc_arena_free(pointer);
+            }
+            return moved;
+        }
+
+        """.replace("STORAGE", storage);
+  }
+
+  /** Return the declarations of the output buffer. */
+  public static String outputDeclarations() {
+    return """
+        int shc_out_puts(const char *string);
+        int shc_out_putchar(int c);
+        int shc_out_printf(const char *format, ...);
+        int shc_out_fflush(FILE *stream);
+
+        """;
+  }
+
+  /**
+   * Return the definitions of the output buffer.
+   *
+   * Standard output is collected in a 64 KiB buffer that only the program's
+   * thread touches, so writing a line is a copy instead of a locked stdio
+   * call, and the buffer is handed to {@code fwrite} when it fills up, when
+   * the program calls {@code fflush}, and at exit. Output is therefore not
+   * line buffered even on a terminal. If the program dies of a signal such
+   * as {@code SIGSEGV} or {@code SIGABRT}, the buffer is written out before
+   * the signal takes its default action, so crash output is not lost.
+   *
+   * @param storage - storage class of the functions, e.g. {@code "static "}, or empty
+   */
+  public static String output(String storage) {
+    return """
+        #include <signal.h>
+        #include <stdarg.h>
+        #include <string.h>
+        #include <unistd.h>
+
+        /* buffered standard output (--stdout=buffered) */
+        static char shc_out_buffer[1 << 16];
+        static size_t shc_out_length;
+        static int shc_out_registered;
+
+        static void shc_out_flush(void) {
+            if (shc_out_length > 0) {
+                fwrite(shc_out_buffer, 1, shc_out_length, stdout);
+                shc_out_length = 0;
+            }
+            fflush(stdout);
+        }
+
+        /* a crashing program still shows what it printed */
+        static void shc_out_crash(int signal_number) {
+            size_t written = 0;
+            while (written < shc_out_length) {
+                ssize_t n = write(STDOUT_FILENO, shc_out_buffer + written, shc_out_length - written);
+                if (n <= 0) {
+                    break;
+                }
+                written += (size_t)n;
+            }
+            signal(signal_number, SIG_DFL);
+            raise(signal_number);
+        }
+
+        static void shc_out_register(void) {
+            if (!shc_out_registered) {
+                shc_out_registered = 1;
+                atexit(shc_out_flush);
+                signal(SIGSEGV, shc_out_crash);
+                signal(SIGABRT, shc_out_crash);
+                signal(SIGFPE, shc_out_crash);
+                signal(SIGILL, shc_out_crash);
+                signal(SIGBUS, shc_out_crash);
+            }
+        }
+
+        static void shc_out_write(const char *data, size_t length) {
+            shc_out_register();
+            if (length > sizeof shc_out_buffer - shc_out_length) {
+                shc_out_flush();
+                if (length > sizeof shc_out_buffer) {
+                    fwrite(data, 1, length, stdout);
+                    return;
+                }
+            }
+            memcpy(shc_out_buffer + shc_out_length, data, length);
+            shc_out_length += length;
+        }
+
+        STORAGEint shc_out_puts(const char *string) {
+            shc_out_write(string, strlen(string));
+            shc_out_write("\\n", 1);
+            return 1;
+        }
+
+        STORAGEint shc_out_putchar(int c) {
+            char byte = (char)c;
+            shc_out_write(&byte, 1);
+            return (unsigned char)c;
+        }
+
+        STORAGEint shc_out_printf(const char *format, ...) {
+            va_list arguments;
+            va_start(arguments, format);
+            size_t room = sizeof shc_out_buffer - shc_out_length;
+            int length = vsnprintf(shc_out_buffer + shc_out_length, room, format, arguments);
+            va_end(arguments);
+            if (length < 0 || (size_t)length < room) {
+                if (length > 0) {
+                    shc_out_register();
+                    shc_out_length += length;
+                }
+                return length;
+            }
+            /* did not fit: format again into a buffer of the right size */
+            char *text = malloc((size_t)length + 1);
+            if (text == NULL) {
+                return -1;
+            }
+            va_start(arguments, format);
+            vsnprintf(text, (size_t)length + 1, format, arguments);
+            va_end(arguments);
+            shc_out_write(text, (size_t)length);
+            free(text);
+            return length;
+        }
+
+        STORAGEint shc_out_fflush(FILE *stream) {
+            if (stream == NULL || stream == stdout) {
+                shc_out_flush();
+            }
+            return fflush(stream);
+        }
+
+        """.replace("STORAGE", storage);
+  }
+
+  /** Return the declaration of {@code mapFile}. */
+  public static String mapFileDeclaration() {
+    return """
+        uint8_t *shc_map_file(uint8_t *path, uint64_t *length);
+
+        """;
+  }
+
+  /**
+   * Return the definition of {@code mapFile(path, ^length)}, which returns
+   * the whole contents of a file, NUL-terminated, and stores its length.
+   *
+   * A regular file is mapped with {@code mmap} over an anonymous mapping one
+   * byte longer, so the byte after the text reads as zero without copying
+   * the file; pages are private, so the program may write into them. Pipes
+   * and other files that cannot be mapped are read into a {@code malloc}'d
+   * buffer instead. Returns {@code NULL} if the file cannot be opened.
+   *
+   * @param storage - storage class of the function, e.g. {@code "static "}, or empty
+   */
+  public static String mapFile(String storage) {
+    return """
+        #include <fcntl.h>
+        #include <sys/mman.h>
+        #include <sys/stat.h>
+        #include <unistd.h>
+
+        /* whole-file input (mapFile) */
+        static uint8_t *shc_read_file(int fd, uint64_t *length) {
+            size_t size = 0, capacity = 1 << 16;
+            uint8_t *buffer = malloc(capacity);
+            while (buffer != NULL) {
+                if (capacity - size < 2) {
+                    uint8_t *grown = realloc(buffer, capacity * 2);
+                    if (grown == NULL) {
+                        free(buffer);
+                        return NULL;
+                    }
+                    buffer = grown;
+                    capacity *= 2;
+                }
+                ssize_t n = read(fd, buffer + size, capacity - size - 1);
+                if (n < 0) {
+                    free(buffer);
+                    return NULL;
+                }
+                if (n == 0) {
+                    buffer[size] = 0;
+                    if (length != NULL) {
+                        *length = size;
+                    }
+                    break;
+                }
+                size += (size_t)n;
+            }
+            return buffer;
+        }
+
+        STORAGEuint8_t *shc_map_file(uint8_t *path, uint64_t *length) {
+            int fd = open((const char *)path, O_RDONLY);
+            if (fd < 0) {
+                return NULL;
+            }
+            struct stat status;
+            if (fstat(fd, &status) != 0 || !S_ISREG(status.st_mode)) {
+                uint8_t *text = shc_read_file(fd, length);
+                close(fd);
+                return text;
+            }
+            size_t size = (size_t)status.st_size;
+            size_t page = (size_t)sysconf(_SC_PAGESIZE);
+            size_t total = (size + page) / page * page;
+            uint8_t *text = mmap(NULL, total, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_ANONYMOUS, -1, 0);
+            if (text == MAP_FAILED) {
+                close(fd);
+                return NULL;
+            }
+            if (size > 0 && mmap(text, size, PROT_READ | PROT_WRITE, MAP_PRIVATE | MAP_FIXED, fd, 0) == MAP_FAILED) {
+                munmap(text, total);
+                text = shc_read_file(fd, length);
+                close(fd);
+                return text;
+            }
+            close(fd);
+            if (size > 0) {
+                madvise(text, size, MADV_SEQUENTIAL);
+            }
+            if (length != NULL) {
+                *length = size;
+            }
+            return text;
+        }
+
+        """.replace("STORAGE", storage);
+  }
+
+  /**
+   * Return the counter macro every instrumented condition expands to. It
+   * evaluates the condition once, counts it in {@code shc_profile_branches}
+   * and yields it as 0 or 1.
+   */
+  private static String profileBranch() {
+    return """
+        /* profile counters (--instrument) */
+        #define SHC_PROFILE_BRANCH(site, cond) __extension__({ \\
+            int shc_profile_taken = !!(cond); \\
+            shc_profile_branches[site][shc_profile_taken]++; \\
+            shc_profile_taken; \\
+        })
+        """;
+  }
+
+  /** Return the declarations of the profile counters. */
+  public static String profileDeclarations() {
+    return profileBranch() + """
+        extern uint64_t shc_profile_calls[];
+        extern uint64_t shc_profile_branches[][2];
+        void shc_profile_start(void);
+
+        """;
+  }
+
+  /**
+   * Return the definitions of the profile counters of {@code --instrument}.
+   *
+   * Each function counts its calls in {@code shc_profile_calls}, and each
+   * condition whether it was false or true in {@code shc_profile_branches}.
+   * {@code main} calls {@code shc_profile_start}, which writes them in the
+   * format {@link Profile} reads to {@code $SHC_PROFILE}, or to
+   * {@code shc.profile} in the working directory, when the program exits.
+   * A program killed by a signal writes nothing. The counters are plain
+   * increments, so an instrumented program runs {@code parfor} loops
+   * sequentially.
+   *
+   * @param storage   - storage class of the functions, e.g. {@code "static "}, or empty
+   * @param functions - name and hash of each function, by call counter
+   * @param sites     - function index and site of each branch, by branch counter
+   */
+  public static String profile(String storage, List<String[]> functions, List<int[]> sites) {
+    StringBuilder names = new StringBuilder();
+    for (String[] function : functions) {
+      names.append("    {\"").append(function[0]).append("\", \"").append(function[1]).append("\"},\n");
+    }
+    StringBuilder branches = new StringBuilder();
+    for (int[] site : sites) {
+      branches.append("    {").append(site[0]).append(", ").append(site[1]).append("},\n");
+    }
+    if (sites.isEmpty()) {
+      branches.append("    {0, 0},\n");
+    }
+    return profileBranch() + """
+        uint64_t shc_profile_calls[NFUNCTIONS];
+        uint64_t shc_profile_branches[NSITES][2];
+        static const char *const shc_profile_functions[NFUNCTIONS][2] = {
+        FUNCTIONS};
+        static const int shc_profile_sites[NSITES][2] = {
+        SITES};
+
+        static void shc_profile_dump(void) {
+            const char *path = getenv("SHC_PROFILE");
+            if (path == NULL) {
+                path = "shc.profile";
+            }
+            FILE *file = fopen(path, "w");
+            if (file == NULL) {
+                fprintf(stderr, "cannot write profile %s\\n", path);
+                return;
+            }
+            fprintf(file, "shc-profile 1\\n");
+            for (int i = 0; i < NFUNCTIONS; i++) {
+                fprintf(file, "function %s %s %llu\\n", shc_profile_functions[i][0], shc_profile_functions[i][1],
+                        (unsigned long long)shc_profile_calls[i]);
+            }
+            for (int i = 0; i < NBRANCHES; i++) {
+                fprintf(file, "branch %s %d %llu %llu\\n", shc_profile_functions[shc_profile_sites[i][0]][0],
+                        shc_profile_sites[i][1], (unsigned long long)shc_profile_branches[i][1],
+                        (unsigned long long)shc_profile_branches[i][0]);
+            }
+            fclose(file);
+        }
+
+        STORAGEvoid shc_profile_start(void) {
+            static int started;
+            if (!started) {
+                started = 1;
+                atexit(shc_profile_dump);
+            }
+        }
+
+        """.replace("STORAGE", storage).replace("NFUNCTIONS", String.valueOf(functions.size()))
+        .replace("NSITES", String.valueOf(Math.max(sites.size(), 1)))
+        .replace("NBRANCHES", String.valueOf(sites.size())).replace("FUNCTIONS", names)
+        .replace("SITES", branches);
+  }
+}
@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Call graph for an SHC program.
+ *
+ * Calls in the AST only carry the callee's name, so edges are resolved by
+ * name. Callees that are not defined in the program (libc functions such as
+ * {@code malloc} or {@code puts}) are kept as external nodes.
+ */
+public final class CallGraph {
+  /** functions defined in the program, by name, in source order */
+  private final LinkedHashMap<String, Function> functions = new LinkedHashMap<>();
+  /** names called by each function */
+  private final HashMap<String, LinkedHashSet<String>> callees = new HashMap<>();
+  /** names of the functions calling each name */
+  private final HashMap<String, LinkedHashSet<String>> callers = new HashMap<>();
+  /** names called from inside a loop body somewhere in the program */
+  private final LinkedHashSet<String> calledInLoop = new LinkedHashSet<>();
+
+  /**
+   * Constructor for the {@code CallGraph} class.
+   *
+   * @param program - functions of the program
+   */
+  public CallGraph(ArrayList<Function> program) {
+    for (Function function : program) {
+      functions.put(function.getName(), function);
+    }
+    for (Function function : program) {
+      String caller = function.getName();
+      LinkedHashSet<String> called = callees.computeIfAbsent(caller, k -> new LinkedHashSet<>());
+      new ASTVisitor() {
+        @Override
+        public void visitCall(String name, Expression[] arguments) {
+          called.add(name);
+          callers.computeIfAbsent(name, k -> new LinkedHashSet<>()).add(caller);
+          if (loopDepth > 0) {
+            calledInLoop.add(name);
+          }
+          super.visitCall(name, arguments);
+        }
+      }.visitBody(function.getBody());
+    }
+  }
+
+  /** Return true iff {@code name} is defined in the program. */
+  public boolean isDefined(String name) {
+    return functions.containsKey(name);
+  }
+
+  /** Return the definition of {@code name}, or null if it is external. */
+  public Function getFunction(String name) {
+    return functions.get(name);
+  }
+
+  /** Return the defined functions by name. */
+  public Map<String, Function> getFunctionsByName() {
+    return Collections.unmodifiableMap(functions);
+  }
+
+  /** Getter method for the defined functions, in source order. */
+  public Iterable<Function> getFunctions() {
+    return functions.values();
+  }
+
+  /** Return the names called by {@code name}. */
+  public Set<String> getCallees(String name) {
+    return Collections.unmodifiableSet(callees.getOrDefault(name, new LinkedHashSet<>()));
+  }
+
+  /** Return the names of the functions calling {@code name}. */
+  public Set<String> getCallers(String name) {
+    return Collections.unmodifiableSet(callers.getOrDefault(name, new LinkedHashSet<>()));
+  }
+
+  /** Return true iff {@code name} is called from inside some loop body. */
+  public boolean isCalledInLoop(String name) {
+    return calledInLoop.contains(name);
+  }
+
+  /** Return true iff {@code name} calls itself directly. */
+  public boolean isSelfRecursive(String name) {
+    return getCallees(name).contains(name);
+  }
+}
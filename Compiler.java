@@ -1,18 +1,99 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 
 import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class Compiler {
   private static final String RED = "\u001B[31m";
   private static final String RESET = "\u001B[0m";
 
+  /**
+   * version of the C generated for a function, part of every cache key; bump
+   * it whenever the code generated from the same input changes
+   */
+  private static final int CACHE_VERSION = 1;
+
   /** output stream for this */
-  private static FileOutputStream outputFileOutputStream;
+  private static OutputStream outputFileOutputStream;
+
+  /** whether output is also printed to the screen */
+  private static boolean echo = true;
 
   /** reporter */
   private static Reporter reporter;
 
+  /** options for this compilation */
+  private static Options options = new Options();
+
+  /** inferred attributes of every function, by name */
+  private static HashMap<String, FunctionAttributes> functionAttributes = new HashMap<>();
+
+  /** functions called from another translation unit, which cannot be {@code static} */
+  private static HashSet<String> external = new HashSet<>();
+
+  /** directory of cached function definitions, or null if caching is off */
+  private static Path cacheDirectory;
+
+  /** functions copied from the cache and generated, for the report */
+  private static int nCached;
+  private static int nGenerated;
+
+  /** self tail calls of the function being compiled, and that function */
+  private static Set<Statement.Jump> tailCalls = Set.of();
+  private static Function tailFunction;
+
+  /** parameters of functions with self tail calls */
+  private static Set<Variable> tailCallParameters = Set.of();
+
+  /** pointers that are emitted as {@code restrict} */
+  private static AliasAnalysis aliasAnalysis;
+
+  /** constant-size allocations that are emitted as arrays in the frame */
+  private static EscapeAnalysis escapeAnalysis;
+
+  /** arrays backing the stack allocations of the function being compiled */
+  private static Map<Statement.Assign, String> stackArrays = Map.of();
+
+  /** the program being compiled, for lowering calls to SSA form */
+  private static ArrayList<Function> program = new ArrayList<>();
+
+  /** the {@code <string.h>} functions programs call, e.g. from {@link LoopIdioms} */
+  private static final List<String> STRING_FUNCTIONS = List.of("strlen", "strcmp", "memset", "memcpy", "memmove");
+
+  /** global variables of the program being compiled */
+  private static ArrayList<Variable> globals = new ArrayList<>();
+
+  /** profile guiding the C with {@code --profile-use}, or null */
+  private static Profile profile;
+
+  /** hash of every function, as recorded in profiles */
+  private static HashMap<String, String> profileHashes = new HashMap<>();
+
+  /** call counter of every function, and its first branch counter, with {@code --instrument} */
+  private static HashMap<String, Integer> callCounters = new HashMap<>();
+  private static HashMap<String, Integer> branchCounters = new HashMap<>();
+
+  /** the function being compiled, and the profile sites of its branches */
+  private static Function profileFunction;
+  private static IdentityHashMap<Statement, Integer> branchSites = new IdentityHashMap<>();
+
   /**
    * Safely output text.
    *
@@ -23,10 +104,14 @@ public class Compiler {
     try {
       for (int i = 0; i < nTabs; i++) {
         outputFileOutputStream.write("    ".getBytes());
-        System.out.print("    ");
+        if (echo) {
+          System.out.print("    ");
+        }
       }
       outputFileOutputStream.write(str.getBytes());
-      System.out.print(str);
+      if (echo) {
+        System.out.print(str);
+      }
     } catch (IOException e) {
       reporter.printError("failed to write to output file");
     }
@@ -42,55 +127,663 @@ public class Compiler {
   }
 
   /**
-   * Compile a list of functions.
+   * Compile a list of functions with default options.
    *
    * @param program  - the program to compile
    * @param globals  - global variables
    * @param filename - the filename to output to
    */
   public static void compile(ArrayList<Function> program, ArrayList<Variable> globals, String filename, Reporter reporter) {
+    compile(program, globals, filename, reporter, new Options());
+  }
+
+  /**
+   * Compile a list of functions.
+   *
+   * @param program  - the program to compile
+   * @param globals  - global variables
+   * @param filename - the filename to output to
+   * @param options  - command line options
+   */
+  public static void compile(ArrayList<Function> program, ArrayList<Variable> globals, String filename, Reporter reporter,
+      Options options) {
+    analyze(program, globals, reporter, options);
+    openCache(filename);
+    if (cacheDirectory != null) {
+      // buffered, so an unchanged program leaves the previous output file untouched
+      outputFileOutputStream = new ByteArrayOutputStream();
+    } else {
+      try {
+        outputFileOutputStream = new FileOutputStream(filename);
+      } catch (IOException e) {
+        System.out.println(RED + "ERROR: " + RESET + "Failed to open `" + filename + "`");
+        System.exit(1);
+      }
+    }
+
+    compileProgram(program, globals);
+    if (outputFileOutputStream instanceof ByteArrayOutputStream buffer) {
+      writeIfChanged(filename, buffer.toByteArray());
+    }
+    reportCache();
+  }
+
+  /**
+   * Compile a list of functions to a stream, without printing the C.
+   *
+   * @param program - the program to compile
+   * @param globals - global variables
+   * @param out     - stream the C is written to
+   * @param options - command line options
+   */
+  public static void compile(ArrayList<Function> program, ArrayList<Variable> globals, OutputStream out,
+      Reporter reporter, Options options) {
+    analyze(program, globals, reporter, options);
+    cacheDirectory = null;
+    outputFileOutputStream = out;
+    echo = false;
+    try {
+      compileProgram(program, globals);
+    } finally {
+      echo = true;
+    }
+  }
+
+  /** Compile the headers, globals, declarations and definitions of a program as one file. */
+  private static void compileProgram(ArrayList<Function> program, ArrayList<Variable> globals) {
+    compileIncludes();
+    compileRuntime("static __attribute__((unused)) ");
+    compileConstants();
+
+    // Output global variables
+    compileGlobals(globals, "");
+    if (globals.size() > 0) {
+      output("\n");
+    }
+
+    // Output forward declarations for all functions
+    for (Function function : program) {
+      compileFunctionDeclaration(function);
+    }
+    output("\n");
+
+    // Output function definitions
+    for (Function function : program) {
+      compileFunction(function);
+    }
+  }
+
+  /**
+   * Compile a program into {@code options.getSplit()} translation units that
+   * {@code make -j} can build in parallel: {@code base.0.c}, {@code base.1.c},
+   * ..., a header {@code base.h} declaring the globals and every function
+   * called across units, and a Makefile fragment {@code base.mk}. Functions
+   * are ordered so callees follow their callers and cut into units of similar
+   * size, so most calls stay within a unit, where the callee remains
+   * {@code static} and can be inlined. Files whose text did not change are
+   * not rewritten, so {@code make} only rebuilds the units an edit touched.
+   *
+   * @param program - the program to compile
+   * @param globals - global variables
+   * @param base    - path the output file names start with
+   * @param options - command line options
+   */
+  public static void compileSplit(ArrayList<Function> program, ArrayList<Variable> globals, String base,
+      Reporter reporter, Options options) {
+    analyze(program, globals, reporter, options);
+    openCache(base);
+    ArrayList<ArrayList<Function>> units = partition(program, options.getSplit());
+    HashMap<String, Integer> unitOf = new HashMap<>();
+    for (int i = 0; i < units.size(); i++) {
+      for (Function function : units.get(i)) {
+        unitOf.put(function.getName(), i);
+      }
+    }
+    CallGraph callGraph = new CallGraph(program);
+    external = new HashSet<>();
+    for (Function function : program) {
+      for (String callee : callGraph.getCallees(function.getName())) {
+        Integer unit = unitOf.get(callee);
+        if (unit != null && !unit.equals(unitOf.get(function.getName()))) {
+          external.add(callee);
+        }
+      }
+      if (function.getName().equals("main")) {
+        external.add("main");
+      }
+    }
+
+    String name = new File(base).getName();
+    String guard = "SHC_" + name.replaceAll("[^A-Za-z0-9]", "_").toUpperCase() + "_H";
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    outputFileOutputStream = buffer;
+    output("#ifndef " + guard + "\n");
+    output("#define " + guard + "\n\n");
+    compileIncludes();
+    compileRuntimeDeclarations();
+    compileConstants();
+    compileGlobals(globals, "extern ");
+    if (globals.size() > 0) {
+      output("\n");
+    }
+    for (Function function : program) {
+      if (external.contains(function.getName())) {
+        compileFunctionDeclaration(function);
+      }
+    }
+    output("\n#endif\n");
+    writeIfChanged(base + ".h", buffer.toByteArray());
+
+    StringBuilder makefile = new StringBuilder("# generated from " + name + "; include it and run make -j\n");
+    String objects = name.replaceAll("[^A-Za-z0-9]", "_").toUpperCase() + "_OBJECTS";
+    makefile.append(objects).append(" =");
+    for (int i = 0; i < units.size(); i++) {
+      makefile.append(" ").append(base).append(".").append(i).append(".o");
+    }
+    makefile.append("\n\n");
+
+    for (int i = 0; i < units.size(); i++) {
+      buffer = new ByteArrayOutputStream();
+      outputFileOutputStream = buffer;
+      output("#include \"" + name + ".h\"\n\n");
+      if (i == 0) {
+        compileRuntime("");
+      }
+      if (i == 0 && globals.size() > 0) {
+        compileGlobals(globals, "");
+        output("\n");
+      }
+      boolean declared = false;
+      for (Function function : units.get(i)) {
+        if (!external.contains(function.getName())) {
+          compileFunctionDeclaration(function);
+          declared = true;
+        }
+      }
+      if (declared) {
+        output("\n");
+      }
+      for (Function function : units.get(i)) {
+        compileFunction(function);
+      }
+      writeIfChanged(base + "." + i + ".c", buffer.toByteArray());
+      makefile.append(base).append(".").append(i).append(".o: ").append(base).append(".").append(i)
+          .append(".c ").append(base).append(".h\n");
+    }
+
+    String executable = base.endsWith(".shc") ? base.substring(0, base.length() - 4) : base + ".out";
+    makefile.append("\n");
+    if (usesOpenMP(program)) {
+      // inherited by the objects built for the executable
+      makefile.append(executable).append(": CFLAGS += -fopenmp\n");
+    }
+    makefile.append(executable).append(": $(").append(objects).append(")\n")
+        .append("\t$(CC) $(CFLAGS) -o $@ $(").append(objects).append(") $(LDLIBS)\n");
+    writeIfChanged(base + ".mk", makefile.toString().getBytes());
+    external = new HashSet<>();
+    reportCache();
+  }
+
+  /**
+   * Enable the code generation cache if requested: the C generated for each
+   * function is stored in {@code .shc-cache} next to the output, named by the
+   * function's {@link StructuralHash}, and reused while the hash is unchanged.
+   *
+   * @param path - output file the cache directory is placed next to
+   */
+  private static void openCache(String path) {
+    cacheDirectory = null;
+    nCached = 0;
+    nGenerated = 0;
+    if (!options.isCache()) {
+      return;
+    }
+    Path directory = Path.of(path).toAbsolutePath().resolveSibling(".shc-cache");
     try {
-      outputFileOutputStream = new FileOutputStream(filename);
+      Files.createDirectories(directory);
+      cacheDirectory = directory;
     } catch (IOException e) {
-      System.out.println(RED + "ERROR: " + RESET + "Failed to open `" + filename + "`");
-      System.exit(1);
+      reporter.printWarning("cannot create `" + directory + "`, generating every function");
+    }
+  }
+
+  /** Report how many functions came from the cache. */
+  private static void reportCache() {
+    if (cacheDirectory != null && options.isReport()) {
+      reporter.printNote("code generation cache: reused " + nCached + " of " + (nCached + nGenerated)
+          + " functions");
     }
+  }
 
+  /**
+   * Return everything besides its AST and its callees' signatures that the C
+   * generated for a function depends on.
+   *
+   * @param function - function being compiled
+   */
+  private static String codegenContext(Function function) {
+    StringBuilder context = new StringBuilder();
+    context.append("v").append(CACHE_VERSION).append(";");
+    context.append(options.isSsa() ? "ssa;" : "ast;");
+    context.append(options.isArena() ? "arena;" : "malloc;");
+    context.append(options.isBufferedStdout() ? "buffered;" : "stdio;");
+    context.append("tail ").append(tailCallsOf(function).size()).append(";");
+    FunctionAttributes attributes = functionAttributes.get(function.getName());
+    if (attributes != null) {
+      context.append(attributes.toCPrefix(external.contains(function.getName())));
+    }
+    if (options.isInstrument()) {
+      context.append(";instrument ").append(callCounters.get(function.getName())).append(" ")
+          .append(branchCounters.get(function.getName()));
+    }
+    if (profile != null) {
+      context.append(";expect");
+      int nSites = options.isSsa() ? 0 : Profile.sitesOf(function).size();
+      for (int site = 0; site < nSites; site++) {
+        context.append(" ").append(expected(function, site));
+      }
+    }
+    context.append(";restrict");
+    ArrayList<Variable> variables = new ArrayList<>(List.of(function.getArguments()));
+    new ASTVisitor() {
+      @Override
+      public void visitDecl(Variable variable) {
+        variables.add(variable);
+      }
+    }.visitBody(function.getBody());
+    for (Variable variable : variables) {
+      if (isRestrict(variable)) {
+        context.append(" ").append(variable.getName());
+      }
+    }
+    if (!options.isSsa()) {
+      context.append(";stack");
+      for (EscapeAnalysis.Allocation allocation : escapeAnalysis.getAllocations(function)) {
+        context.append(" ").append(allocation.pointer().getName()).append(":").append(allocation.size());
+      }
+    }
+    return context.toString();
+  }
+
+  /** Set up the analyses shared by every function of a program. */
+  private static void analyze(ArrayList<Function> program, ArrayList<Variable> globals, Reporter reporter,
+      Options options) {
+    Compiler.reporter = reporter;
+    Compiler.options = options;
+    Compiler.program = program;
+    Compiler.globals = globals;
+    analyzeProfile();
+    functionAttributes = FunctionAttributes.infer(program, globals, profile);
+    aliasAnalysis = AliasAnalysis.analyze(program, globals);
+    escapeAnalysis = EscapeAnalysis.analyze(program, globals);
+    tailCallParameters = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Function function : program) {
+      if (!tailCallsOf(function).isEmpty()) {
+        tailCallParameters.addAll(List.of(function.getArguments()));
+      }
+    }
+    if (options.isReport()) {
+      if (!aliasAnalysis.report().isEmpty()) {
+        reporter.printNote("alias analysis:\n" + aliasAnalysis.report());
+      }
+      if (!escapeAnalysis.report().isEmpty()) {
+        reporter.printNote("escape analysis:\n" + escapeAnalysis.report());
+      }
+      if (options.getOptimizationLevel() > 0) {
+        TailCalls.report(program, reporter);
+      }
+    }
+  }
+
+  /**
+   * Return the self tail calls of a function that are compiled as jumps,
+   * none at {@code -O0}.
+   *
+   * @param function - function being compiled
+   */
+  private static Set<Statement.Jump> tailCallsOf(Function function) {
+    return options.getOptimizationLevel() > 0 ? TailCalls.find(function) : Set.of();
+  }
+
+  /**
+   * Number the counters of {@code --instrument}, or read the profile of
+   * {@code --profile-use} and warn about the functions it is stale for.
+   * Branches are only counted and predicted in C generated from the AST.
+   */
+  private static void analyzeProfile() {
+    profile = null;
+    profileHashes = new HashMap<>();
+    callCounters = new HashMap<>();
+    branchCounters = new HashMap<>();
+    if (!options.isInstrument() && options.getProfileUse() == null) {
+      return;
+    }
+    Map<String, Function> functions = new CallGraph(program).getFunctionsByName();
+    int nBranches = 0;
+    for (Function function : program) {
+      profileHashes.put(function.getName(), Profile.hashOf(function, functions, globals));
+      callCounters.put(function.getName(), callCounters.size());
+      branchCounters.put(function.getName(), nBranches);
+      nBranches += options.isSsa() ? 0 : Profile.sitesOf(function).size();
+    }
+    if (options.getProfileUse() == null) {
+      return;
+    }
+    if (options.isInstrument()) {
+      reporter.printWarning("--profile-use is ignored with --instrument");
+      return;
+    }
+    profile = Profile.read(options.getProfileUse(), reporter);
+    if (profile == null) {
+      return;
+    }
+    ArrayList<String> stale = new ArrayList<>();
+    for (Function function : program) {
+      String name = function.getName();
+      if (profile.getCalls(name) != null && !profile.matches(name, profileHashes.get(name))) {
+        stale.add("`" + name + "`");
+      }
+    }
+    if (!stale.isEmpty()) {
+      reporter.printWarning("profile `" + options.getProfileUse() + "` does not match " + String.join(", ", stale)
+          + ", ignoring their branches");
+    }
+    if (options.isReport()) {
+      for (Function function : program) {
+        int nSites = options.isSsa() ? 0 : Profile.sitesOf(function).size();
+        int nPredicted = 0;
+        for (int site = 0; site < nSites; site++) {
+          nPredicted += expected(function, site) != null ? 1 : 0;
+        }
+        if (nPredicted > 0) {
+          reporter.printNote("profile: `" + function.getName() + "`: predicted " + nPredicted + " of " + nSites
+              + " branches");
+        }
+      }
+    }
+  }
+
+  /**
+   * Return the outcome the profile predicts for a branch of a function, or
+   * null if it has none.
+   *
+   * @param function - function the branch is in
+   * @param site     - its site, from {@link Profile#sitesOf}
+   */
+  private static Boolean expected(Function function, int site) {
+    String name = function.getName();
+    if (profile == null || !profile.matches(name, profileHashes.get(name))) {
+      return null;
+    }
+    return profile.expected(name, site);
+  }
+
+  /**
+   * Return true iff a variable is emitted as {@code restrict}. Parameters
+   * reassigned by tail calls are not, since a call may pass pointers that
+   * alias each other.
+   */
+  private static boolean isRestrict(Variable variable) {
+    return aliasAnalysis != null && aliasAnalysis.isRestrict(variable) && !tailCallParameters.contains(variable);
+  }
+
+  /**
+   * Return the C function a call to {@code name} goes to: the bundled
+   * arena's allocation functions replace the library's with
+   * {@code --alloc=arena}, the output buffer's replace the library's
+   * output functions with {@code --stdout=buffered}, and builtins such as
+   * {@code mapFile} go to the runtime, unless the program defines its own.
+   */
+  private static String callName(String name) {
+    if (program.stream().anyMatch(function -> function.getName().equals(name))) {
+      return name;
+    }
+    if (options.isArena() && CRuntime.isArenaFunction(name)) {
+      return CRuntime.arenaName(name);
+    }
+    if (options.isBufferedStdout() && CRuntime.isOutputFunction(name)) {
+      return CRuntime.outputName(name);
+    }
+    String builtin = CRuntime.builtinName(name);
+    return builtin != null ? builtin : name;
+  }
+
+  /**
+   * Return true iff a program has a {@code parfor}, so its C needs
+   * {@code -fopenmp} to run in parallel.
+   *
+   * @param program - the program's functions
+   */
+  public static boolean usesOpenMP(List<Function> program) {
+    boolean[] found = { false };
+    ASTVisitor finder = new ASTVisitor() {
+      @Override
+      public void visitStatement(Statement statement) {
+        found[0] |= statement instanceof Statement.Loop loop && loop.parallel() != null;
+        super.visitStatement(statement);
+      }
+    };
+    for (Function function : program) {
+      finder.visitBody(function.getBody());
+    }
+    return found[0];
+  }
+
+  /** Return true iff the program calls {@code mapFile} without defining it. */
+  private static boolean usesMapFile() {
+    CallGraph callGraph = new CallGraph(program);
+    return !callGraph.isDefined("mapFile") && !callGraph.getCallers("mapFile").isEmpty();
+  }
+
+  /**
+   * Compile the parts of the bundled runtime the program and the options
+   * need.
+   *
+   * @param storage - storage class of the runtime's functions
+   */
+  private static void compileRuntime(String storage) {
+    if (options.isArena()) {
+      output(CRuntime.arena(storage));
+    }
+    if (options.isBufferedStdout()) {
+      output(CRuntime.output(storage));
+    }
+    if (usesMapFile()) {
+      output(CRuntime.mapFile(storage));
+    }
+    if (options.isInstrument()) {
+      ArrayList<String[]> functions = new ArrayList<>();
+      ArrayList<int[]> sites = new ArrayList<>();
+      for (Function function : program) {
+        functions.add(new String[] { function.getName(), profileHashes.get(function.getName()) });
+        int nSites = options.isSsa() ? 0 : Profile.sitesOf(function).size();
+        for (int site = 0; site < nSites; site++) {
+          sites.add(new int[] { functions.size() - 1, site });
+        }
+      }
+      output(CRuntime.profile(storage, functions, sites));
+    }
+  }
+
+  /** Compile the declarations of the parts of the bundled runtime in use. */
+  private static void compileRuntimeDeclarations() {
+    if (options.isArena()) {
+      output(CRuntime.arenaDeclarations());
+    }
+    if (options.isBufferedStdout()) {
+      output(CRuntime.outputDeclarations());
+    }
+    if (usesMapFile()) {
+      output(CRuntime.mapFileDeclaration());
+    }
+    if (options.isInstrument()) {
+      output(CRuntime.profileDeclarations());
+    }
+  }
+
+  /**
+   * Declare the {@code const}s the program uses as an enum, in order of first
+   * use, so their uses keep their names and stay integer constant
+   * expressions.
+   */
+  private static void compileConstants() {
+    LinkedHashMap<String, Integer> constants = new LinkedHashMap<>();
+    ASTVisitor collector = new ASTVisitor() {
+      @Override
+      public void visitFactor(Factor factor) {
+        if (factor instanceof Factor.Const constant && constant.name() != null) {
+          constants.putIfAbsent(constant.name(), constant.constant());
+        }
+        super.visitFactor(factor);
+      }
+    };
+    for (Function function : program) {
+      collector.visitBody(function.getBody());
+    }
+    if (constants.isEmpty()) {
+      return;
+    }
+    output("enum {\n");
+    int i = 0;
+    for (Map.Entry<String, Integer> entry : constants.entrySet()) {
+      output("    " + entry.getKey() + " = " + entry.getValue() + (++i < constants.size() ? ",\n" : "\n"));
+    }
+    output("};\n\n");
+  }
+
+  /** Compile the headers every output file needs. */
+  private static void compileIncludes() {
     output("#include <stdio.h>\n");
     output("#include <stdlib.h>\n");
-    output("#include <stdint.h>\n\n");
+    output("#include <stdint.h>\n");
+    if (usesStringFunctions()) {
+      output("#include <string.h>\n");
+    }
+    output("\n");
+  }
 
-    // Output global variables
+  /**
+   * Return true iff the program calls one of {@link #STRING_FUNCTIONS} and
+   * defines none of them, so {@code <string.h>} can declare them.
+   */
+  private static boolean usesStringFunctions() {
+    CallGraph callGraph = new CallGraph(program);
+    boolean called = false;
+    for (String name : STRING_FUNCTIONS) {
+      if (callGraph.isDefined(name)) {
+        return false;
+      }
+      called |= !callGraph.getCallers(name).isEmpty();
+    }
+    return called;
+  }
+
+  /**
+   * Compile the global variable definitions or declarations.
+   *
+   * @param globals - global variables
+   * @param storage - storage class, e.g. {@code "extern "}, or empty
+   */
+  private static void compileGlobals(ArrayList<Variable> globals, String storage) {
     for (Variable var : globals) {
-      switch (var.getType()) {
-        case INT:
-          output("uint64_t");
-          break;
-        case CHAR:
-          output("uint8_t");
-          break;
-        case VOID:
-          output("void");
-          break;
+      output(storage);
+      output(cBase(var.getType()));
+      if (var.isArray()) {
+        output(" *".repeat(var.getNReferences() - 1));
+        output(" " + var.getName() + "[" + var.getArrayLength() + "];\n");
+        continue;
       }
       for (int i = 0; i < var.getNReferences(); i++) {
         output(" *");
       }
       output(" " + var.getName() + ";\n");
     }
-    if (globals.size() > 0) {
-      output("\n");
-    }
+  }
 
-    // Output forward declarations for all functions
+  /**
+   * Order the functions depth first along the call graph from {@code main},
+   * then cut the order into at most {@code n} runs of similar size.
+   *
+   * @param program - functions of the program
+   * @param n       - number of translation units wanted
+   * @return the functions of each translation unit
+   */
+  private static ArrayList<ArrayList<Function>> partition(ArrayList<Function> program, int n) {
+    CallGraph callGraph = new CallGraph(program);
+    LinkedHashSet<String> order = new LinkedHashSet<>();
+    ArrayList<String> roots = new ArrayList<>();
+    roots.add("main");
     for (Function function : program) {
-      compileFunctionDeclaration(function);
+      roots.add(function.getName());
+    }
+    for (String root : roots) {
+      ArrayDeque<String> stack = new ArrayDeque<>();
+      stack.push(root);
+      while (!stack.isEmpty()) {
+        String name = stack.pop();
+        if (!callGraph.isDefined(name) || !order.add(name)) {
+          continue;
+        }
+        ArrayList<String> callees = new ArrayList<>(callGraph.getCallees(name));
+        for (int i = callees.size() - 1; i >= 0; i--) {
+          stack.push(callees.get(i));
+        }
+      }
     }
-    output("\n");
 
-    // Output function definitions
+    HashMap<String, Integer> sizes = new HashMap<>();
+    long total = 0;
     for (Function function : program) {
-      compileFunction(function);
+      int[] size = { 1 };
+      new ASTVisitor() {
+        @Override
+        public void visitStatement(Statement statement) {
+          size[0]++;
+          super.visitStatement(statement);
+        }
+
+        @Override
+        public void visitFactor(Factor factor) {
+          size[0]++;
+          super.visitFactor(factor);
+        }
+      }.visitBody(function.getBody());
+      sizes.put(function.getName(), size[0]);
+      total += size[0];
+    }
+
+    ArrayList<ArrayList<Function>> units = new ArrayList<>();
+    units.add(new ArrayList<>());
+    long target = (total + n - 1) / n;
+    long filled = 0;
+    for (String name : order) {
+      if (filled >= target && units.size() < n) {
+        units.add(new ArrayList<>());
+        filled = 0;
+      }
+      units.get(units.size() - 1).add(callGraph.getFunction(name));
+      filled += sizes.get(name);
+    }
+    return units;
+  }
+
+  /**
+   * Write a generated file unless it already has exactly this content, so
+   * its modification time only changes when it does.
+   *
+   * @param path    - file to write
+   * @param content - its new content
+   */
+  private static void writeIfChanged(String path, byte[] content) {
+    try {
+      Path file = Path.of(path);
+      if (Files.isRegularFile(file) && Arrays.equals(Files.readAllBytes(file), content)) {
+        return;
+      }
+      Files.write(file, content);
+    } catch (IOException e) {
+      System.out.println(RED + "ERROR: " + RESET + "Failed to write `" + path + "`");
+      System.exit(1);
     }
   }
 
@@ -100,24 +793,17 @@ public class Compiler {
    * @param function - function to declare
    */
   public static void compileFunctionDeclaration(Function function) {
+    compileFunctionAttributes(function);
     // Special case: main() should return int for C standards compliance
     if (function.getName().equals("main") && function.getReturnType() == SHC.INT) {
       output("int ");
     } else {
-      switch (function.getReturnType()) {
-        case VOID:
-          output("void ");
-          break;
-        case CHAR:
-          output("uint8_t ");
-          break;
-        case INT:
-          output("uint64_t ");
-          break;
-        default:
-          reporter.printError("bad function return type");
-          System.exit(1);
+      String base = cBase(function.getReturnType());
+      if (base == null) {
+        reporter.printError("bad function return type");
+        System.exit(1);
       }
+      output(base + " ");
     }
 
     for (int i = 0; i < function.getNReturnReferences(); i++) {
@@ -155,29 +841,80 @@ public class Compiler {
   }
 
   /**
-   * Compile a function.
+   * Compile the storage class and GNU attributes inferred for a function.
+   *
+   * @param function - function whose declaration is being compiled
+   */
+  public static void compileFunctionAttributes(Function function) {
+    FunctionAttributes attributes = functionAttributes.get(function.getName());
+    if (attributes != null) {
+      output(attributes.toCPrefix(external.contains(function.getName())));
+    }
+  }
+
+  /**
+   * Compile a function, or copy its C from the cache if it is unchanged.
    *
    * @param function - function to compile
    */
   public static void compileFunction(Function function) {
+    if (cacheDirectory == null) {
+      compileFunctionDefinition(function);
+      return;
+    }
+    HashMap<String, Function> functions = new HashMap<>();
+    for (Function f : program) {
+      functions.put(f.getName(), f);
+    }
+    String hash = StructuralHash.of(function, functions, globals, codegenContext(function));
+    Path cached = cacheDirectory.resolve(hash + ".c");
+    if (Files.isRegularFile(cached)) {
+      try {
+        output(Files.readString(cached));
+        nCached++;
+        return;
+      } catch (IOException e) {
+        // regenerate below
+      }
+    }
+    OutputStream file = outputFileOutputStream;
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    outputFileOutputStream = buffer;
+    compileFunctionDefinition(function);
+    outputFileOutputStream = file;
+    nGenerated++;
+    try {
+      file.write(buffer.toByteArray());
+    } catch (IOException e) {
+      reporter.printError("failed to write to output file");
+    }
+    try {
+      // written aside and renamed, so a concurrent build never reads half a definition
+      Path partial = cacheDirectory.resolve(hash + ".c.tmp");
+      Files.write(partial, buffer.toByteArray());
+      Files.move(partial, cached, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      reporter.printWarning("cannot write `" + cached + "`");
+    }
+  }
+
+  /**
+   * Compile the definition of a function.
+   *
+   * @param function - function to compile
+   */
+  public static void compileFunctionDefinition(Function function) {
+    compileFunctionAttributes(function);
     // Special case: main() should return int for C standards compliance
     if (function.getName().equals("main") && function.getReturnType() == SHC.INT) {
       output("int ");
     } else {
-      switch (function.getReturnType()) {
-        case VOID:
-          output("void ");
-          break;
-        case CHAR:
-          output("uint8_t ");
-          break;
-        case INT:
-          output("uint64_t ");
-          break;
-        default:
-          reporter.printError("bad function return type");
-          System.exit(1);
+      String base = cBase(function.getReturnType());
+      if (base == null) {
+        reporter.printError("bad function return type");
+        System.exit(1);
       }
+      output(base + " ");
     }
 
     for (int i = 0; i < function.getNReturnReferences(); i++) {
@@ -212,13 +949,290 @@ public class Compiler {
     }
     output(")");
     output(" {\n");
-    for (Statement statement : function.getBody()) {
-      compileStatement(statement, 1);
+    if (options.isInstrument()) {
+      if (isMain) {
+        output("shc_profile_start();\n", 1);
+      }
+      output("shc_profile_calls[" + callCounters.get(function.getName()) + "]++;\n", 1);
+    }
+    if (options.isSsa()) {
+      compileSsaBody(function);
+    } else {
+      tailCalls = tailCallsOf(function);
+      tailFunction = function;
+      profileFunction = function;
+      branchSites = Profile.sitesOf(function);
+      stackArrays = new IdentityHashMap<>();
+      List<EscapeAnalysis.Allocation> allocations = escapeAnalysis.getAllocations(function);
+      String stackPrefix = unusedPrefix(function, "stack");
+      for (int i = 0; i < allocations.size(); i++) {
+        // as aligned as anything malloc returns
+        output("_Alignas(16) uint8_t " + stackPrefix + i + "[" + allocations.get(i).size() + "];\n", 1);
+        stackArrays.put(allocations.get(i).statement(), stackPrefix + i);
+      }
+      if (!tailCalls.isEmpty()) {
+        output("tail_call:;\n");
+      }
+      for (Statement statement : function.getBody()) {
+        compileStatement(statement, 1);
+      }
+      tailCalls = Set.of();
+      stackArrays = Map.of();
+      branchSites = new IdentityHashMap<>();
     }
 
     output("}\n");
   }
 
+  /**
+   * Compile the body of a function from its SSA form: every value becomes a
+   * temporary, every block a label, and phis become copies on the edges
+   * into their block.
+   *
+   * @param function - function whose body to compile
+   */
+  public static void compileSsaBody(Function function) {
+    SsaFunction ssa = null;
+    try {
+      ssa = SsaBuilder.build(function, program, globals, options.getOptimizationLevel() > 0);
+    } catch (IllegalArgumentException e) {
+      reporter.printError("in `" + function.getName() + "`: " + e.getMessage());
+      System.exit(1);
+    }
+    ArrayList<String> problems = SsaVerifier.verify(ssa);
+    if (!problems.isEmpty()) {
+      reporter.printError("invalid SSA form:\n" + String.join("\n", problems));
+      System.exit(1);
+    }
+    if (options.isReport()) {
+      reporter.printNote("SSA form:\n" + ssa.dump());
+    }
+
+    // declare the temporaries, and the slots of address-taken locals
+    List<SsaFunction.Block> blocks = ssa.getBlocks();
+    HashSet<SsaFunction.Instruction> used = new HashSet<>();
+    HashSet<SsaFunction.Block> labelled = new HashSet<>();
+    for (int b = 0; b < blocks.size(); b++) {
+      SsaFunction.Block block = blocks.get(b);
+      for (SsaFunction.Instruction phi : block.getPhis()) {
+        used.addAll(phi.getOperands());
+        output(ssaType(phi.getType()) + "t" + phi.getId() + ";\n", 1);
+        if (needsShadows(block)) {
+          output(ssaType(phi.getType()) + "u" + phi.getId() + ";\n", 1);
+        }
+      }
+      for (SsaFunction.Instruction instruction : block.getInstructions()) {
+        used.addAll(instruction.getOperands());
+        if (instruction.getOp() == SsaFunction.Op.ALLOCA && instruction.getVariable().isArray()) {
+          output(ssaType(instruction.getType().pointee()) + "s" + instruction.getId() + "["
+              + instruction.getVariable().getArrayLength() + "];\n", 1);
+        } else if (instruction.getOp() == SsaFunction.Op.ALLOCA) {
+          output(ssaType(instruction.getType().pointee()) + "s" + instruction.getId() + " = 0;\n", 1);
+        } else if (instruction.hasValue() && !isSsaOperand(instruction)) {
+          output(ssaType(instruction.getType()) + "t" + instruction.getId() + ";\n", 1);
+        }
+      }
+      SsaFunction.Block next = b + 1 < blocks.size() ? blocks.get(b + 1) : null;
+      for (SsaFunction.Block successor : block.getSuccessors()) {
+        if (successor != next || block.getTerminator().getOp() == SsaFunction.Op.BRANCH) {
+          labelled.add(successor);
+        }
+      }
+    }
+
+    for (int b = 0; b < blocks.size(); b++) {
+      SsaFunction.Block block = blocks.get(b);
+      SsaFunction.Block next = b + 1 < blocks.size() ? blocks.get(b + 1) : null;
+      if (labelled.contains(block)) {
+        output("L" + block.getId() + ":;\n");
+      }
+      for (SsaFunction.Instruction instruction : block.getInstructions()) {
+        compileSsaInstruction(instruction, used.contains(instruction), next);
+      }
+    }
+  }
+
+  /**
+   * Compile one instruction of a function in SSA form.
+   *
+   * @param instruction - instruction to compile
+   * @param used        - whether any instruction reads its value
+   * @param next        - block emitted after this one, which a jump may fall through to
+   */
+  public static void compileSsaInstruction(SsaFunction.Instruction instruction, boolean used,
+      SsaFunction.Block next) {
+    if (isSsaOperand(instruction)) {
+      return;
+    }
+    List<SsaFunction.Instruction> operands = instruction.getOperands();
+    String result = "t" + instruction.getId() + " = ";
+    switch (instruction.getOp()) {
+      case ADD, SUB, MUL, DIV, REM, EQ, NE, LT, LE, GT, GE -> {
+        String operator = switch (instruction.getOp()) {
+          case ADD -> " + ";
+          case SUB -> " - ";
+          case MUL -> " * ";
+          case DIV -> " / ";
+          case REM -> " % ";
+          case EQ -> " == ";
+          case NE -> " != ";
+          case LT -> " < ";
+          case LE -> " <= ";
+          case GT -> " > ";
+          default -> " >= ";
+        };
+        output(result + ssaOperand(operands.get(0)) + operator + ssaOperand(operands.get(1)) + ";\n", 1);
+      }
+      case NEG -> output(result + "-" + ssaOperand(operands.get(0)) + ";\n", 1);
+      case CONVERT -> output(result + "(" + ssaType(instruction.getType()).trim() + ")"
+          + ssaOperand(operands.get(0)) + ";\n", 1);
+      case LOAD -> output(result + "*" + ssaOperand(operands.get(0)) + ";\n", 1);
+      case STORE -> output("*" + ssaOperand(operands.get(0)) + " = " + ssaOperand(operands.get(1)) + ";\n", 1);
+      case CALL -> {
+        StringBuilder call = new StringBuilder(callName(instruction.getName())).append("(");
+        for (int i = 0; i < operands.size(); i++) {
+          call.append(i > 0 ? ", " : "").append(ssaOperand(operands.get(i)));
+        }
+        output((used && instruction.hasValue() ? result : "") + call + ");\n", 1);
+      }
+      case RETURN -> output(operands.isEmpty() ? "return;\n" : "return " + ssaOperand(operands.get(0)) + ";\n", 1);
+      case JUMP -> {
+        SsaFunction.Block target = instruction.getTargets().get(0);
+        compilePhiCopies(instruction.getBlock(), target, 1);
+        if (target != next) {
+          output("goto L" + target.getId() + ";\n", 1);
+        }
+      }
+      case BRANCH -> {
+        SsaFunction.Block yes = instruction.getTargets().get(0);
+        SsaFunction.Block no = instruction.getTargets().get(1);
+        output("if (" + ssaOperand(operands.get(0)) + ") {\n", 1);
+        compilePhiCopies(instruction.getBlock(), yes, 2);
+        output("goto L" + yes.getId() + ";\n", 2);
+        output("}\n", 1);
+        compilePhiCopies(instruction.getBlock(), no, 1);
+        if (no != next) {
+          output("goto L" + no.getId() + ";\n", 1);
+        }
+      }
+      default -> {
+        reporter.printError("bad SSA instruction `" + SsaFunction.dump(instruction) + "`");
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Compile the copies into the phis of {@code target} on the edge from
+   * {@code source}. If a phi reads another phi of the same block, every
+   * operand is first copied to a shadow, so no phi is overwritten before it
+   * is read.
+   *
+   * @param source - block the edge leaves
+   * @param target - block the edge enters
+   * @param nTabs  - number of tabs to print
+   */
+  public static void compilePhiCopies(SsaFunction.Block source, SsaFunction.Block target, int nTabs) {
+    int index = target.getPredecessors().indexOf(source);
+    boolean shadows = needsShadows(target);
+    for (SsaFunction.Instruction phi : target.getPhis()) {
+      String destination = (shadows ? "u" : "t") + phi.getId();
+      output(destination + " = " + ssaOperand(phi.getOperand(index)) + ";\n", nTabs);
+    }
+    if (shadows) {
+      for (SsaFunction.Instruction phi : target.getPhis()) {
+        output("t" + phi.getId() + " = u" + phi.getId() + ";\n", nTabs);
+      }
+    }
+  }
+
+  /** Return true iff a phi of {@code block} reads another of its phis. */
+  private static boolean needsShadows(SsaFunction.Block block) {
+    List<SsaFunction.Instruction> phis = block.getPhis();
+    if (phis.size() < 2) {
+      return false;
+    }
+    for (SsaFunction.Instruction phi : phis) {
+      for (SsaFunction.Instruction operand : phi.getOperands()) {
+        if (operand != phi && phis.contains(operand)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Return true iff an instruction is spelled inline where it is used rather than computed into a temporary. */
+  private static boolean isSsaOperand(SsaFunction.Instruction instruction) {
+    return switch (instruction.getOp()) {
+      case CONST, UNDEF, PARAM, GLOBAL, STRING, ALLOCA -> true;
+      default -> false;
+    };
+  }
+
+  /** Return the C spelling of a value used as an operand. */
+  private static String ssaOperand(SsaFunction.Instruction value) {
+    return switch (value.getOp()) {
+      case CONST, UNDEF -> {
+        long constant = value.getOp() == SsaFunction.Op.CONST ? value.getConstant() : 0;
+        if (!value.getType().equals(Types.C_INT)) {
+          yield "((" + ssaType(value.getType()).trim() + ")" + constant + ")";
+        }
+        yield constant < 0 ? "(" + constant + ")" : "" + constant;
+      }
+      case PARAM -> {
+        // main's argv is declared char **
+        boolean argv = value.getConstant() == 1 && isMainArgument(value.getVariable());
+        yield argv ? "((uint8_t **)" + value.getName() + ")" : value.getName();
+      }
+      // an array's slot is the array itself, which decays to its first element's address
+      case GLOBAL -> value.getVariable().isArray() ? value.getName() : "(&" + value.getName() + ")";
+      case STRING -> "\"" + value.getName()
+          .replace("\\", "\\\\")
+          .replace("\n", "\\n")
+          .replace("\r", "\\r")
+          .replace("\t", "\\t")
+          .replace("\"", "\\\"") + "\"";
+      case ALLOCA -> value.getVariable().isArray() ? "s" + value.getId() : "(&s" + value.getId() + ")";
+      default -> "t" + value.getId();
+    };
+  }
+
+  /** Return true iff {@code variable} is a parameter of {@code main}. */
+  private static boolean isMainArgument(Variable variable) {
+    for (Function function : program) {
+      if (function.getName().equals("main")) {
+        for (Variable argument : function.getArguments()) {
+          if (argument == variable) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Return the C spelling of a base type, or null if it has none. */
+  private static String cBase(SHC base) {
+    return switch (base) {
+      case INT_LITERAL -> "int";
+      case INT -> "uint64_t";
+      case CHAR -> "uint8_t";
+      case I8 -> "int8_t";
+      case I16 -> "int16_t";
+      case I32 -> "int32_t";
+      case U32 -> "uint32_t";
+      case VOID -> "void";
+      default -> null;
+    };
+  }
+
+  /** Return the C spelling of a type in a declaration, followed by a space. */
+  private static String ssaType(Types.Type type) {
+    String base = cBase(type.base());
+    return (base == null ? "void" : base) + " " + "*".repeat(type.nReferences());
+  }
+
   /**
    * Compile a statement.
    *
@@ -237,12 +1251,19 @@ public class Compiler {
         compileDeclStatement(declStatement, nTabs);
         break;
       case Statement.Call callStatement:
-        compileCallStatement(callStatement, nTabs);
+        if (!escapeAnalysis.isRemovedFree(callStatement)) {
+          compileCallStatement(callStatement, nTabs);
+        }
         break;
       case Statement.Jump jumpStatement:
         compileJumpStatement(jumpStatement, nTabs);
         break;
       case Statement.Assign assignStatement:
+        if (stackArrays.containsKey(assignStatement)) {
+          output(assignStatement.assignment().getAssignee().getVariable().getName() + " = (void *)"
+              + stackArrays.get(assignStatement) + ";\n", nTabs);
+          break;
+        }
         output("", nTabs);
         compileAssignment(assignStatement.assignment());
         output(";\n");
@@ -257,25 +1278,69 @@ public class Compiler {
    * @param nTabs     - number of tabs to print
    */
   public static void compileIfStatement(Statement.If statement, int nTabs) {
+    Statement[] body = statement.body();
+    Statement[] otherBody = statement.otherBody();
+    // the profile says the else branch is the likely one: make it the then branch
+    boolean swap = !options.isInstrument() && otherBody != null && otherBody.length > 0
+        && Boolean.FALSE.equals(expected(statement));
+    if (swap) {
+      body = otherBody;
+      otherBody = statement.body();
+    }
     output("if (", nTabs);
-    compileFactor(statement.cond());
+    compileCondition(statement, statement.cond(), swap);
     output(")");
     output(" {\n");
-    for (Statement subStatement : statement.body()) {
+    for (Statement subStatement : body) {
       compileStatement(subStatement, nTabs + 1);
     }
     // Only generate else block if it has statements
-    if (statement.otherBody() == null || statement.otherBody().length == 0) {
+    if (otherBody == null || otherBody.length == 0) {
       output("}\n", nTabs);
     } else {
       output("} else {\n", nTabs);
-      for (Statement subStatement : statement.otherBody()) {
+      for (Statement subStatement : otherBody) {
         compileStatement(subStatement, nTabs + 1);
       }
       output("}\n", nTabs);
     }
   }
 
+  /**
+   * Compile the condition of an {@code if} or a loop: counted with
+   * {@code --instrument}, or wrapped in {@code __builtin_expect} when the
+   * profile predicts it.
+   *
+   * @param statement - statement the condition belongs to
+   * @param cond      - the condition
+   * @param negate    - whether to compile its negation
+   */
+  private static void compileCondition(Statement statement, Factor cond, boolean negate) {
+    Integer site = branchSites.get(statement);
+    if (options.isInstrument() && site != null) {
+      output("SHC_PROFILE_BRANCH(" + (branchCounters.get(profileFunction.getName()) + site) + ", ");
+      compileFactor(cond);
+      output(")");
+      return;
+    }
+    Boolean expected = expected(statement);
+    // a factor compiles to a primary or unary expression, so it needs no parentheses after !
+    if (expected == null) {
+      output(negate ? "!" : "");
+      compileFactor(cond);
+      return;
+    }
+    output("__builtin_expect(" + (negate ? "!" : "!!"));
+    compileFactor(cond);
+    output(", " + (expected != negate ? 1 : 0) + ")");
+  }
+
+  /** Return the outcome the profile predicts for a branch of the function being compiled, or null. */
+  private static Boolean expected(Statement statement) {
+    Integer site = branchSites.get(statement);
+    return site != null ? expected(profileFunction, site) : null;
+  }
+
   /**
    * Compile a loop statement.
    *
@@ -283,8 +1348,11 @@ public class Compiler {
    * @param nTabs     - number of tabs to print
    */
   public static void compileLoopStatement(Statement.Loop statement, int nTabs) {
+    if (statement.parallel() != null && !options.isInstrument() && compileParallelLoop(statement, nTabs)) {
+      return;
+    }
     output("while (", nTabs);
-    compileFactor(statement.cond());
+    compileCondition(statement, statement.cond(), false);
     output(")");
     output(" {\n");
     for (Statement subStatement : statement.body()) {
@@ -293,6 +1361,122 @@ public class Compiler {
     output("}\n", nTabs);
   }
 
+  /**
+   * Compile a {@code parfor} as an OpenMP loop. The parser lowered it to
+   * {@code while (i < end) { body i = i + 1; }} after {@code i = start;}, so
+   * the start is whatever {@code i} holds on entry:
+   *
+   * <pre>
+   * {
+   *     __typeof__(i) start = i;
+   *     #pragma omp parallel for reduction(+:sum) lastprivate(i, t)
+   *     for (i = start; i < end; i = i + 1) { body }
+   * }
+   * </pre>
+   *
+   * Locals the body assigns, besides the reduced ones, are private to each
+   * iteration and keep the last iteration's values. Without
+   * {@code -fopenmp} the pragma is ignored and the loop runs sequentially.
+   *
+   * @param statement - loop tagged by a {@code parfor}
+   * @param nTabs     - number of tabs to print
+   * @return false, having printed nothing, if the loop must run sequentially
+   */
+  private static boolean compileParallelLoop(Statement.Loop statement, int nTabs) {
+    Statement.Parallel parallel = statement.parallel();
+    Variable induction = parallel.induction();
+    Statement[] body = statement.body();
+    AdditiveExpression end = ASTUtil.upperBound(statement.cond(), induction);
+    if (end == null || body.length == 0 || !ASTUtil.isIncrement(body[body.length - 1], induction)) {
+      return false;
+    }
+    String unsafe = threadUnsafeCall(body);
+    if (unsafe != null) {
+      reporter.printWarning("parfor on line " + statement.lineIdx() + " runs sequentially: it calls `"
+          + unsafe + "`, which " + (options.isArena() ? "--alloc=arena" : "--stdout=buffered")
+          + " does not make thread-safe");
+      return false;
+    }
+
+    LinkedHashSet<Variable> assigned = new LinkedHashSet<>();
+    HashSet<Variable> declared = new HashSet<>();
+    new ASTVisitor() {
+      @Override
+      public void visitDecl(Variable variable) {
+        declared.add(variable);
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        if (assignee.getNReferences() == 0) {
+          assigned.add(assignee.getVariable());
+        }
+      }
+    }.visitBody(body);
+    StringBuilder lastPrivate = new StringBuilder(induction.getName());
+    for (Variable variable : assigned) {
+      if (variable != induction && !declared.contains(variable) && !globals.contains(variable)
+          && !List.of(parallel.reductions()).contains(variable)) {
+        lastPrivate.append(", ").append(variable.getName());
+      }
+    }
+
+    String start = unusedPrefix(tailFunction, "start");
+    String name = induction.getName();
+    output("{\n", nTabs);
+    output("__typeof__(" + name + ") " + start + " = " + name + ";\n", nTabs + 1);
+    output("#pragma omp parallel for", nTabs + 1);
+    if (parallel.reductions().length > 0) {
+      output(" reduction(+:");
+      for (int i = 0; i < parallel.reductions().length; i++) {
+        output((i > 0 ? ", " : "") + parallel.reductions()[i].getName());
+      }
+      output(")");
+    }
+    output(" lastprivate(" + lastPrivate + ")\n");
+    output("for (" + name + " = " + start + "; " + name + " < ", nTabs + 1);
+    compileAdditiveExpression(end);
+    output("; " + name + " = " + name + " + 1) {\n");
+    for (int i = 0; i < body.length - 1; i++) {
+      compileStatement(body[i], nTabs + 2);
+    }
+    output("}\n", nTabs + 1);
+    output("}\n", nTabs);
+    return true;
+  }
+
+  /**
+   * Return a function the body of a {@code parfor} may call that the bundled
+   * runtime replaces with one that is not thread-safe, or null.
+   */
+  private static String threadUnsafeCall(Statement[] body) {
+    if (!options.isArena() && !options.isBufferedStdout()) {
+      return null;
+    }
+    CallGraph callGraph = new CallGraph(program);
+    ArrayDeque<String> pending = new ArrayDeque<>();
+    HashSet<String> seen = new HashSet<>();
+    new ASTVisitor() {
+      @Override
+      public void visitCall(String name, Expression[] arguments) {
+        pending.add(name);
+        super.visitCall(name, arguments);
+      }
+    }.visitBody(body);
+    while (!pending.isEmpty()) {
+      String name = pending.poll();
+      if (!seen.add(name)) {
+        continue;
+      }
+      if (!callName(name).equals(name)
+          && (CRuntime.isArenaFunction(name) || CRuntime.isOutputFunction(name))) {
+        return name;
+      }
+      pending.addAll(callGraph.getCallees(name));
+    }
+    return null;
+  }
+
   /**
    * Compile a declaration statement.
    *
@@ -312,7 +1496,7 @@ public class Compiler {
    * @param nTabs     - number of tabs to print
    */
   public static void compileCallStatement(Statement.Call statement, int nTabs) {
-    output(statement.function().getName(), nTabs);
+    output(callName(statement.function().getName()), nTabs);
     output("(");
     Expression[] arguments = statement.arguments();
     for (int i = 0; i < arguments.length; i++) {
@@ -333,7 +1517,9 @@ public class Compiler {
   public static void compileJumpStatement(Statement.Jump statement, int nTabs) {
     switch (statement.type()) {
       case RETURN:
-        if (statement.hasValue()) {
+        if (tailCalls.contains(statement)) {
+          compileTailCall(statement, nTabs);
+        } else if (statement.hasValue()) {
           output("return ", nTabs);
           compileExpression(statement.value());
           output(";\n");
@@ -352,6 +1538,67 @@ public class Compiler {
         System.exit(1);
     }
   }
+  /**
+   * Compile a self tail call as assignments to the parameters and a jump back
+   * to the start of the function. With several parameters, every argument
+   * is evaluated before any parameter changes.
+   *
+   * @param statement - {@code return f(...)} inside {@code f}
+   * @param nTabs     - number of tabs to print
+   */
+  public static void compileTailCall(Statement.Jump statement, int nTabs) {
+    Variable[] parameters = tailFunction.getArguments();
+    Expression[] arguments = TailCalls.arguments(tailFunction, statement);
+    output("{\n", nTabs);
+    if (parameters.length == 1) {
+      output(parameters[0].getName() + " = ", nTabs + 1);
+      compileExpression(arguments[0]);
+      output(";\n");
+    } else if (parameters.length > 1) {
+      String prefix = unusedPrefix(tailFunction, "tail");
+      for (int i = 0; i < parameters.length; i++) {
+        output(ssaType(Types.of(parameters[i])) + prefix + i + " = ", nTabs + 1);
+        compileExpression(arguments[i]);
+        output(";\n");
+      }
+      for (int i = 0; i < parameters.length; i++) {
+        output(parameters[i].getName() + " = " + prefix + i + ";\n", nTabs + 1);
+      }
+    }
+    output("goto tail_call;\n", nTabs + 1);
+    output("}\n", nTabs);
+  }
+
+  /**
+   * Return a prefix for numbered temporaries that names no variable the
+   * function can see, starting from {@code prefix}.
+   */
+  private static String unusedPrefix(Function function, String prefix) {
+    HashSet<String> names = new HashSet<>();
+    for (Variable variable : globals) {
+      names.add(variable.getName());
+    }
+    for (Variable variable : function.getArguments()) {
+      names.add(variable.getName());
+    }
+    new ASTVisitor() {
+      @Override
+      public void visitDecl(Variable variable) {
+        names.add(variable.getName());
+      }
+    }.visitBody(function.getBody());
+    while (true) {
+      boolean clash = false;
+      for (String name : names) {
+        clash |= name.startsWith(prefix) && name.substring(prefix.length()).chars().allMatch(Character::isDigit);
+      }
+      if (!clash) {
+        return prefix;
+      }
+      prefix = "_" + prefix;
+    }
+  }
+
 
   /**
    * Compile an expression.
@@ -376,6 +1623,13 @@ public class Compiler {
   public static void compileAssignment(Assignment assignment) {
     if (assignment.hasAssignee()) {
       var assignee = assignment.getAssignee();
+      if (assignment.hasIndex()) {
+        compileFactor(new Factor.Index(assignee, assignment.getIndex(), assignment.getLineIdx(),
+            assignment.getCharIdx()));
+        output(" = ");
+        compileOrExpression(assignment.getValue());
+        return;
+      }
       // Same logic as Factor.Var: number of stars = assigneeRefs
       // Examples:
       // - `temp = value` where `temp : ^char` → C: `temp = value` (0 stars)
@@ -546,8 +1800,19 @@ public class Compiler {
 
         output(varFactor.getVariable().getName());
         break;
+      case Factor.Index indexFactor:
+        // `a[i]` is a C subscript; the element carries one `^` for it, and
+        // any further ones dereference the element: `^a[i]` → C: `*a[i]`
+        for (int i = 1; i < indexFactor.element().getNReferences(); i++) {
+          output("*");
+        }
+        output(indexFactor.element().getVariable().getName());
+        output("[");
+        compileExpression(indexFactor.index());
+        output("]");
+        break;
       case Factor.Const constFactor:
-        output("" + constFactor.constant());
+        output(constFactor.name() != null ? constFactor.name() : "" + constFactor.constant());
         break;
       case Factor.Str strFactor:
         // Escape special characters for C string literal
@@ -565,7 +1830,7 @@ public class Compiler {
         output(")");
         break;
       case Factor.Call callFactor:
-        output(callFactor.fun().getName());
+        output(callName(callFactor.fun().getName()));
         var arguments = callFactor.arguments();
         output("(");
         for (int i = 0; i < arguments.length; i++) {
@@ -585,23 +1850,24 @@ public class Compiler {
    * @param variable - variable to compile
    */
   public static void compileVariable(Variable variable) {
-    switch (variable.getType()) {
-      case VOID:
-        output("void ");
-        break;
-      case CHAR:
-        output("uint8_t ");
-        break;
-      case INT:
-        output("uint64_t ");
-        break;
-      default:
-        reporter.printError("bad variable type");
-        System.exit(1);
+    String base = cBase(variable.getType());
+    if (base == null) {
+      reporter.printError("bad variable type");
+      System.exit(1);
+    }
+    output(base + " ");
+    if (variable.isArray()) {
+      // an array is typed as a pointer to its first element
+      output("*".repeat(variable.getNReferences() - 1));
+      output(variable.getName() + "[" + variable.getArrayLength() + "]");
+      return;
     }
     for (int i = 0; i < variable.getNReferences(); i++) {
       output("*");
     }
+    if (isRestrict(variable)) {
+      output("restrict ");
+    }
     output(variable.getName());
   }
 }
@@ -0,0 +1,352 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Control-flow graph of a function body.
+ *
+ * Every simple statement (assignment, declaration, call, jump) is a node, and
+ * every {@code if} and {@code while} contributes one node for its condition.
+ * Edges follow SHC semantics: a condition node branches to its body and to
+ * what follows, {@code break} and {@code continue} jump to the end and the
+ * condition of the innermost loop, and {@code return} jumps to the exit node.
+ *
+ * Each node also records what it reads and writes, which is all the dataflow
+ * analyses need to know about it.
+ */
+public final class ControlFlowGraph {
+  /** Kind of a node. */
+  public enum Kind {
+    ENTRY, EXIT, STATEMENT, BRANCH, LOOP
+  }
+
+  /**
+   * A node of the graph.
+   */
+  public static final class Node {
+    private final int id;
+    private final Kind kind;
+    private final Statement statement;
+    private final ArrayList<Node> successors = new ArrayList<>();
+    private final ArrayList<Node> predecessors = new ArrayList<>();
+    /** for a jump, the node control would reach if the jump were removed */
+    private Node fallthrough;
+
+    /** variables whose value the node reads */
+    private final LinkedHashSet<Variable> uses = new LinkedHashSet<>();
+    /** variable the node overwrites as a whole, or null */
+    private Variable def;
+    /** the node calls a function that is not {@code const} */
+    private boolean calls;
+    /** the node calls a function that may have side effects */
+    private boolean callsImpure;
+    /** the node reads memory through a pointer */
+    private boolean readsMemory;
+    /** the node writes memory through a pointer */
+    private boolean writesMemory;
+
+    private Node(int id, Kind kind, Statement statement) {
+      this.id = id;
+      this.kind = kind;
+      this.statement = statement;
+    }
+
+    /** Getter method for {@code id}, the node's index in {@link #getNodes()} */
+    public int getId() {
+      return id;
+    }
+
+    /** Getter method for {@code kind} */
+    public Kind getKind() {
+      return kind;
+    }
+
+    /**
+     * Return the statement the node stands for: the statement itself, or the
+     * {@code if}/{@code while} whose condition it evaluates. Null for the
+     * entry and exit nodes.
+     */
+    public Statement getStatement() {
+      return statement;
+    }
+
+    /** Getter method for {@code successors} */
+    public List<Node> getSuccessors() {
+      return Collections.unmodifiableList(successors);
+    }
+
+    /** Getter method for {@code predecessors} */
+    public List<Node> getPredecessors() {
+      return Collections.unmodifiableList(predecessors);
+    }
+
+    /**
+     * Return the node control would reach if this jump were removed, or null
+     * if the node is not a jump.
+     */
+    public Node getFallthrough() {
+      return fallthrough;
+    }
+
+    /** Getter method for {@code uses} */
+    public Set<Variable> getUses() {
+      return Collections.unmodifiableSet(uses);
+    }
+
+    /** Getter method for {@code def} */
+    public Variable getDef() {
+      return def;
+    }
+
+    /** Return true iff the node calls a function that is not {@code const}. */
+    public boolean calls() {
+      return calls;
+    }
+
+    /** Return true iff the node calls a function that may have side effects. */
+    public boolean callsImpure() {
+      return callsImpure;
+    }
+
+    /** Getter method for {@code readsMemory} */
+    public boolean readsMemory() {
+      return readsMemory;
+    }
+
+    /** Getter method for {@code writesMemory} */
+    public boolean writesMemory() {
+      return writesMemory;
+    }
+
+    /** Return the variable declared by this node, or null. */
+    public Variable getDeclared() {
+      return statement instanceof Statement.Decl decl && kind == Kind.STATEMENT ? decl.variable() : null;
+    }
+
+    /**
+     * Visit the expressions evaluated by this node, but not the bodies of the
+     * statement it stands for.
+     *
+     * @param visitor - visitor to run
+     */
+    public void accept(ASTVisitor visitor) {
+      switch (kind) {
+        case BRANCH -> visitor.visitFactor(((Statement.If) statement).cond());
+        case LOOP -> visitor.visitFactor(((Statement.Loop) statement).cond());
+        case STATEMENT -> visitor.visitStatement(statement);
+        default -> {
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return kind + "#" + id + (statement == null ? "" : " (line " + lineOf(statement) + ")");
+    }
+  }
+
+  private final Function function;
+  private final ArrayList<Node> nodes = new ArrayList<>();
+  private final HashSet<Variable> escaping;
+  private final HashMap<String, FunctionAttributes> attributes;
+  private final Node entry;
+  private final Node exit;
+  private final HashSet<Node> reachable = new HashSet<>();
+
+  private ControlFlowGraph(Function function, Set<Variable> globals, HashMap<String, FunctionAttributes> attributes) {
+    this.function = function;
+    this.attributes = attributes;
+    this.escaping = new HashSet<>(globals);
+    this.escaping.addAll(LoopEffects.addressTaken(function.getBody()));
+    this.entry = newNode(Kind.ENTRY, null);
+    this.exit = newNode(Kind.EXIT, null);
+    addEdge(entry, build(function.getBody(), exit, null, null));
+    markReachable(entry);
+  }
+
+  /**
+   * Build the graph of a function.
+   *
+   * @param function   - function to build the graph of
+   * @param globals    - global variables
+   * @param attributes - attributes of the program's functions
+   */
+  public static ControlFlowGraph build(Function function, Set<Variable> globals,
+      HashMap<String, FunctionAttributes> attributes) {
+    return new ControlFlowGraph(function, globals, attributes);
+  }
+
+  /** Getter method for {@code function} */
+  public Function getFunction() {
+    return function;
+  }
+
+  /** Getter method for {@code entry} */
+  public Node getEntry() {
+    return entry;
+  }
+
+  /** Getter method for {@code exit} */
+  public Node getExit() {
+    return exit;
+  }
+
+  /** Return every node, indexed by {@link Node#getId()}. */
+  public List<Node> getNodes() {
+    return Collections.unmodifiableList(nodes);
+  }
+
+  /** Return true iff {@code node} can be reached from the entry. */
+  public boolean isReachable(Node node) {
+    return reachable.contains(node);
+  }
+
+  /**
+   * Return the variables that may be read or written behind the function's
+   * back: globals, and locals whose address is taken. Calls, pointer
+   * accesses and returns may touch any of them.
+   */
+  public Set<Variable> getEscaping() {
+    return Collections.unmodifiableSet(escaping);
+  }
+
+  /**
+   * Build the nodes for a body, back to front.
+   *
+   * @param body           - statements to build
+   * @param next           - node control reaches after the body
+   * @param breakTarget    - node a {@code break} jumps to, or null outside loops
+   * @param continueTarget - node a {@code continue} jumps to, or null outside loops
+   * @return the first node of the body, or {@code next} if it is empty
+   */
+  private Node build(Statement[] body, Node next, Node breakTarget, Node continueTarget) {
+    if (body == null) {
+      return next;
+    }
+    for (int i = body.length - 1; i >= 0; i--) {
+      next = build(body[i], next, breakTarget, continueTarget);
+    }
+    return next;
+  }
+
+  private Node build(Statement statement, Node next, Node breakTarget, Node continueTarget) {
+    switch (statement) {
+      case Statement.If ifStatement -> {
+        Node branch = newNode(Kind.BRANCH, statement);
+        addEdge(branch, build(ifStatement.body(), next, breakTarget, continueTarget));
+        addEdge(branch, build(ifStatement.otherBody(), next, breakTarget, continueTarget));
+        return branch;
+      }
+      case Statement.Loop loopStatement -> {
+        Node loop = newNode(Kind.LOOP, statement);
+        addEdge(loop, build(loopStatement.body(), loop, next, loop));
+        addEdge(loop, next);
+        return loop;
+      }
+      case Statement.Jump jumpStatement -> {
+        Node jump = newNode(Kind.STATEMENT, statement);
+        jump.fallthrough = next;
+        Node target = switch (jumpStatement.type()) {
+          case SHC.BREAK -> breakTarget;
+          case SHC.CONTINUE -> continueTarget;
+          default -> exit;
+        };
+        // a break outside any loop is not valid C; treat it as leaving the function
+        addEdge(jump, target == null ? exit : target);
+        return jump;
+      }
+      default -> {
+        Node node = newNode(Kind.STATEMENT, statement);
+        addEdge(node, next);
+        return node;
+      }
+    }
+  }
+
+  private Node newNode(Kind kind, Statement statement) {
+    Node node = new Node(nodes.size(), kind, statement);
+    nodes.add(node);
+    if (kind == Kind.STATEMENT || kind == Kind.BRANCH || kind == Kind.LOOP) {
+      summarize(node);
+    }
+    return node;
+  }
+
+  private static void addEdge(Node from, Node to) {
+    if (!from.successors.contains(to)) {
+      from.successors.add(to);
+      to.predecessors.add(from);
+    }
+  }
+
+  private void markReachable(Node start) {
+    ArrayList<Node> worklist = new ArrayList<>();
+    worklist.add(start);
+    while (!worklist.isEmpty()) {
+      Node node = worklist.remove(worklist.size() - 1);
+      if (reachable.add(node)) {
+        worklist.addAll(node.successors);
+      }
+    }
+  }
+
+  /** Record what a node reads and writes. */
+  private void summarize(Node node) {
+    node.accept(new ASTVisitor() {
+      @Override
+      public void visitVar(Factor.Var var) {
+        Variable variable = var.getVariable();
+        if (variable.getNReferences() == 0 && var.getNReferences() == 1) {
+          // address-of reads nothing
+          return;
+        }
+        node.uses.add(variable);
+        if (var.getNReferences() > 0) {
+          node.readsMemory = true;
+        }
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        Variable variable = assignee.getVariable();
+        if (assignee.getNReferences() == 0) {
+          node.def = variable;
+        } else {
+          if (variable.getNReferences() > 0) {
+            node.uses.add(variable);
+          }
+          node.writesMemory = true;
+        }
+      }
+
+      @Override
+      public void visitCall(String name, Expression[] arguments) {
+        FunctionAttributes callee = attributes.get(name);
+        if (callee == null || !callee.isConst()) {
+          node.calls = true;
+        }
+        if (!FunctionAttributes.isSideEffectFree(name, attributes)) {
+          node.callsImpure = true;
+          node.writesMemory = true;
+        }
+        super.visitCall(name, arguments);
+      }
+    });
+  }
+
+  /** Return the line of a statement, for reports. */
+  static int lineOf(Statement statement) {
+    return switch (statement) {
+      case Statement.If s -> s.lineIdx();
+      case Statement.Loop s -> s.lineIdx();
+      case Statement.Decl s -> s.lineIdx();
+      case Statement.Call s -> s.lineIdx();
+      case Statement.Jump s -> s.lineIdx();
+      case Statement.Assign s -> s.lineIdx();
+    };
+  }
+}
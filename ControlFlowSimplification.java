@@ -0,0 +1,205 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Control-flow simplification.
+ *
+ * Uses the {@link ControlFlowGraph} to delete statements no path reaches and
+ * jumps that go where control would fall anyway ({@code continue} at the end
+ * of a loop, {@code return;} at the end of a function), then tidies the
+ * structure:
+ * <ul>
+ * <li>{@code if} and {@code while} with a constant condition are folded;</li>
+ * <li>{@code if (c) {} else {B}} becomes {@code if (!c) {B}}, and an
+ * {@code if} with two empty bodies is dropped;</li>
+ * <li>{@code if (a) { if (b) {B} }} becomes {@code if (a && b) {B}};</li>
+ * <li>{@code while (1) { if (c) break; B }} becomes {@code while (!c) {B}}.</li>
+ * </ul>
+ * Each change can expose another, so the pass runs until nothing changes.
+ */
+public final class ControlFlowSimplification {
+  /** give up after this many rounds */
+  private static final int MAX_ROUNDS = 8;
+
+  private ControlFlowSimplification() {
+  }
+
+  /**
+   * Run the pass over a program.
+   *
+   * @param program  - functions of the program
+   * @param globals  - global variables
+   * @param options  - command line options
+   * @param reporter - reporter for the report
+   * @return the transformed functions
+   */
+  public static ArrayList<Function> run(ArrayList<Function> program, ArrayList<Variable> globals, Options options,
+      Reporter reporter) {
+    HashMap<String, FunctionAttributes> attributes = FunctionAttributes.infer(program, globals);
+    HashSet<Variable> globalSet = new HashSet<>(globals);
+    ArrayList<Function> result = new ArrayList<>();
+    for (Function function : program) {
+      ArrayList<String> changes = new ArrayList<>();
+      for (int round = 0; round < MAX_ROUNDS; round++) {
+        Function next = simplify(function, globalSet, attributes, changes);
+        if (next == function) {
+          break;
+        }
+        function = next;
+      }
+      result.add(function);
+      if (options.isReport() && !changes.isEmpty()) {
+        reporter.printNote("cfg: `" + function.getName() + "`: " + String.join(", ", changes));
+      }
+    }
+    return result;
+  }
+
+  /** Run one round over a function, or return it unchanged. */
+  private static Function simplify(Function function, Set<Variable> globals,
+      HashMap<String, FunctionAttributes> attributes, ArrayList<String> changes) {
+    ControlFlowGraph graph = ControlFlowGraph.build(function, globals, attributes);
+    Set<Statement> unreachable = Collections.newSetFromMap(new IdentityHashMap<>());
+    Set<Statement> redundant = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (ControlFlowGraph.Node node : graph.getNodes()) {
+      Statement statement = node.getStatement();
+      if (statement == null) {
+        continue;
+      }
+      if (!graph.isReachable(node)) {
+        // declarations stay; dead-store elimination drops the unused ones
+        if (!(statement instanceof Statement.Decl)) {
+          unreachable.add(statement);
+        }
+      } else if (node.getFallthrough() != null && node.getSuccessors().get(0) == node.getFallthrough()
+          && !(statement instanceof Statement.Jump jump && jump.hasValue())) {
+        redundant.add(statement);
+      }
+    }
+
+    HashMap<String, Integer> declarations = new HashMap<>();
+    for (Variable argument : function.getArguments()) {
+      declarations.merge(argument.getName(), 1, Integer::sum);
+    }
+    new ASTVisitor() {
+      @Override
+      public void visitDecl(Variable variable) {
+        declarations.merge(variable.getName(), 1, Integer::sum);
+      }
+    }.visitBody(function.getBody());
+
+    Statement[] body = new ASTRewriter() {
+      @Override
+      public Statement[] rewriteStatement(Statement statement) {
+        if (unreachable.contains(statement)) {
+          changes.add("removed unreachable code (line " + ControlFlowGraph.lineOf(statement) + ")");
+          return new Statement[0];
+        }
+        if (redundant.contains(statement)) {
+          changes.add("removed redundant jump (line " + ControlFlowGraph.lineOf(statement) + ")");
+          return new Statement[0];
+        }
+        Statement[] rewritten = super.rewriteStatement(statement);
+        return switch (rewritten[0]) {
+          case Statement.If ifStatement -> simplifyIf(ifStatement, rewritten, declarations, attributes, changes);
+          case Statement.Loop loop -> simplifyLoop(loop, rewritten, changes);
+          default -> rewritten;
+        };
+      }
+    }.rewriteBody(function.getBody());
+    return body == function.getBody() ? function : function.withBody(body);
+  }
+
+  private static Statement[] simplifyIf(Statement.If statement, Statement[] unchanged,
+      HashMap<String, Integer> declarations, HashMap<String, FunctionAttributes> attributes,
+      ArrayList<String> changes) {
+    int line = statement.lineIdx(), col = statement.charIdx();
+    Statement[] body = statement.body() == null ? new Statement[0] : statement.body();
+    Statement[] otherBody = statement.otherBody() == null ? new Statement[0] : statement.otherBody();
+
+    Long value = ASTUtil.constantValue(statement.cond());
+    if (value != null) {
+      Statement[] taken = value != 0 ? body : otherBody;
+      if (canSplice(taken, declarations)) {
+        changes.add("folded `if` (line " + line + ")");
+        return taken;
+      }
+      return unchanged;
+    }
+    if (body.length == 0 && otherBody.length == 0) {
+      if (isSideEffectFree(statement.cond(), attributes)) {
+        changes.add("removed empty `if` (line " + line + ")");
+        return new Statement[0];
+      }
+      return unchanged;
+    }
+    if (body.length == 0) {
+      changes.add("inverted `if` with empty body (line " + line + ")");
+      return new Statement[] { new Statement.If(ASTUtil.not(statement.cond()), otherBody, new Statement[0], line,
+          col) };
+    }
+    if (otherBody.length == 0 && body.length == 1 && body[0] instanceof Statement.If inner
+        && (inner.otherBody() == null || inner.otherBody().length == 0)) {
+      // the inner condition only runs when the outer one holds, just like &&
+      changes.add("merged nested `if` (line " + line + ")");
+      return new Statement[] { new Statement.If(ASTUtil.and(statement.cond(), inner.cond()), inner.body(),
+          new Statement[0], line, col) };
+    }
+    return unchanged;
+  }
+
+  private static Statement[] simplifyLoop(Statement.Loop loop, Statement[] unchanged, ArrayList<String> changes) {
+    int line = loop.lineIdx(), col = loop.charIdx();
+    Long value = ASTUtil.constantValue(loop.cond());
+    if (value == null) {
+      return unchanged;
+    }
+    if (value == 0) {
+      changes.add("removed `while (0)` (line " + line + ")");
+      return new Statement[0];
+    }
+    Statement[] body = loop.body();
+    if (body != null && body.length > 0 && body[0] instanceof Statement.If exit
+        && (exit.otherBody() == null || exit.otherBody().length == 0) && exit.body() != null
+        && exit.body().length == 1 && exit.body()[0] instanceof Statement.Jump jump && jump.type() == SHC.BREAK) {
+      Statement[] rest = new Statement[body.length - 1];
+      System.arraycopy(body, 1, rest, 0, rest.length);
+      changes.add("turned `while (1) { if (c) break; ... }` into `while (!c)` (line " + line + ")");
+      return new Statement[] { new Statement.Loop(ASTUtil.not(exit.cond()), rest, line, col) };
+    }
+    return unchanged;
+  }
+
+  /**
+   * Return true iff a body can replace the {@code if} around it. SHC allows
+   * the same name to be declared in sibling blocks; those declarations must
+   * keep their own C block.
+   */
+  private static boolean canSplice(Statement[] body, HashMap<String, Integer> declarations) {
+    for (Statement statement : body) {
+      if (statement instanceof Statement.Decl decl && declarations.get(decl.variable().getName()) > 1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Return true iff evaluating {@code cond} has no effect besides its value. */
+  private static boolean isSideEffectFree(Factor cond, HashMap<String, FunctionAttributes> attributes) {
+    boolean[] result = { true };
+    new ASTVisitor() {
+      @Override
+      public void visitCall(String name, Expression[] arguments) {
+        if (!FunctionAttributes.isSideEffectFree(name, attributes)) {
+          result[0] = false;
+        }
+        super.visitCall(name, arguments);
+      }
+    }.visitFactor(cond);
+    return result[0];
+  }
+}
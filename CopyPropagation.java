@@ -0,0 +1,178 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Copy propagation.
+ *
+ * After a copy {@code x = y} between two locals of the same type, reads of
+ * {@code x} are replaced with {@code y} as long as neither has been written
+ * since on any path. The copy itself is then often dead, and
+ * {@link DeadStoreElimination} removes it.
+ */
+public final class CopyPropagation {
+  private CopyPropagation() {
+  }
+
+  /**
+   * Copies available before each node: a must analysis over the copy
+   * statements of a function.
+   */
+  private static final class AvailableCopies extends DataflowAnalysis {
+    /** copy statements, by index */
+    final ArrayList<ControlFlowGraph.Node> copies = new ArrayList<>();
+    /** source variable of each copy */
+    final ArrayList<Variable> sources = new ArrayList<>();
+    private final HashMap<ControlFlowGraph.Node, Integer> indices = new HashMap<>();
+    /** copies mentioning each variable */
+    private final HashMap<Variable, BitSet> mentioning = new HashMap<>();
+
+    AvailableCopies(ControlFlowGraph graph) {
+      super(graph);
+      for (ControlFlowGraph.Node node : graph.getNodes()) {
+        Variable source = sourceOf(node, graph);
+        if (source != null) {
+          int index = copies.size();
+          copies.add(node);
+          sources.add(source);
+          indices.put(node, index);
+          mentioning.computeIfAbsent(node.getDef(), v -> new BitSet()).set(index);
+          mentioning.computeIfAbsent(source, v -> new BitSet()).set(index);
+        }
+      }
+    }
+
+    @Override
+    protected Direction direction() {
+      return Direction.FORWARD;
+    }
+
+    @Override
+    protected boolean isMust() {
+      return true;
+    }
+
+    @Override
+    protected int universeSize() {
+      return copies.size();
+    }
+
+    @Override
+    protected BitSet transfer(ControlFlowGraph.Node node, BitSet available) {
+      Variable written = node.getDef() != null ? node.getDef() : node.getDeclared();
+      if (written != null && mentioning.containsKey(written)) {
+        available.andNot(mentioning.get(written));
+      }
+      Integer index = indices.get(node);
+      if (index != null) {
+        available.set(index);
+      }
+      return available;
+    }
+  }
+
+  /**
+   * Return {@code y} if {@code node} is a copy {@code x = y} between locals of
+   * the same type, else null.
+   */
+  private static Variable sourceOf(ControlFlowGraph.Node node, ControlFlowGraph graph) {
+    Variable target = node.getDef();
+    if (target == null || !(node.getStatement() instanceof Statement.Assign assign)
+        || graph.getEscaping().contains(target)) {
+      return null;
+    }
+    if (!(ASTUtil.asFactor(assign.assignment().getValue()) instanceof Factor.Var var) || var.getNReferences() != 0) {
+      return null;
+    }
+    Variable source = var.getVariable();
+    if (source == target || graph.getEscaping().contains(source)
+        || !Types.of(source).equals(Types.of(target))) {
+      return null;
+    }
+    return source;
+  }
+
+  /**
+   * Run the pass over a program.
+   *
+   * @param program  - functions of the program
+   * @param globals  - global variables
+   * @param options  - command line options
+   * @param reporter - reporter for the report
+   * @return the transformed functions
+   */
+  public static ArrayList<Function> run(ArrayList<Function> program, ArrayList<Variable> globals, Options options,
+      Reporter reporter) {
+    HashMap<String, FunctionAttributes> attributes = FunctionAttributes.infer(program, globals);
+    HashSet<Variable> globalSet = new HashSet<>(globals);
+    ArrayList<Function> result = new ArrayList<>();
+    for (Function function : program) {
+      ControlFlowGraph graph = ControlFlowGraph.build(function, globalSet, attributes);
+      AvailableCopies available = new AvailableCopies(graph);
+      available.solve();
+
+      Map<Factor.Var, Variable> replacements = new IdentityHashMap<>();
+      ArrayList<String> replaced = new ArrayList<>();
+      for (ControlFlowGraph.Node node : graph.getNodes()) {
+        if (!graph.isReachable(node)) {
+          continue;
+        }
+        HashMap<Variable, Variable> copyOf = new HashMap<>();
+        available.getIn(node).stream().forEach(i -> copyOf.put(available.copies.get(i).getDef(),
+            available.sources.get(i)));
+        if (copyOf.isEmpty()) {
+          continue;
+        }
+        node.accept(new ASTVisitor() {
+          @Override
+          public void visitVar(Factor.Var var) {
+            Variable source = copyOf.get(var.getVariable());
+            if (source != null) {
+              replacements.put(var, source);
+              replaced.add("`" + var.getVariable().getName() + "` -> `" + source.getName() + "` (line "
+                  + var.getLineIdx() + ")");
+            }
+          }
+
+          @Override
+          public void visitAssignee(Factor.Var assignee) {
+            if (assignee.getNReferences() > 0) {
+              visitVar(assignee);
+            }
+          }
+        });
+      }
+      if (replacements.isEmpty()) {
+        result.add(function);
+        continue;
+      }
+      Statement[] body = new ASTRewriter() {
+        @Override
+        public Factor.Var rewriteAssignee(Factor.Var assignee) {
+          return replace(assignee);
+        }
+
+        @Override
+        public Factor rewriteVar(Factor.Var var) {
+          return replace(var);
+        }
+
+        private Factor.Var replace(Factor.Var var) {
+          Variable source = replacements.get(var);
+          if (source == null) {
+            return var;
+          }
+          return new Factor.Var(source, var.getNReferences(), var.getLineIdx(), var.getCharIdx());
+        }
+      }.rewriteBody(function.getBody());
+      result.add(function.withBody(body));
+      if (options.isReport()) {
+        reporter.printNote("copyprop: `" + function.getName() + "`: " + String.join(", ", replaced));
+      }
+    }
+    return result;
+  }
+}
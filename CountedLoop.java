@@ -0,0 +1,106 @@
+import java.util.Set;
+
+/**
+ * A counted loop: {@code while (i < end) { ... }} where the counter
+ * {@code i} is an induction variable of the loop and {@code end} is a
+ * constant or a loop invariant variable.
+ *
+ * An induction variable is a local {@code int} that the body changes only by
+ * statements {@code i = i + c} directly in the body, each with a positive
+ * constant {@code c}. Every iteration then advances it by the same amount, so
+ * its value at each statement is an affine function of the iteration number.
+ * Shared by {@link LoopUnrolling} and {@link StrengthReduction}.
+ *
+ * @param counter - induction variable compared in the condition
+ * @param end     - bound of the condition
+ * @param step    - total the counter advances by in one iteration
+ */
+public record CountedLoop(Variable counter, AdditiveExpression end, long step) {
+  /**
+   * Recognize a counted loop. {@code parfor} loops are not, since their
+   * iterations do not run in order.
+   *
+   * @param loop         - loop to inspect
+   * @param effects      - effects of the loop
+   * @param globals      - global variables
+   * @param addressTaken - variables whose address the program takes
+   * @return the loop's counter and bound, or null
+   */
+  public static CountedLoop of(Statement.Loop loop, LoopEffects effects, Set<Variable> globals,
+      Set<Variable> addressTaken) {
+    Variable counter = ASTUtil.counterOf(loop.cond());
+    if (loop.parallel() != null || counter == null) {
+      return null;
+    }
+    AdditiveExpression end = ASTUtil.upperBound(loop.cond(), counter);
+    Long step = stepOf(loop, counter, globals, addressTaken);
+    if (step == null || !isBound(end, Types.INT, effects)) {
+      return null;
+    }
+    return new CountedLoop(counter, end, step);
+  }
+
+  /**
+   * Return how much an induction variable advances in one iteration of a
+   * loop, or null if {@code variable} is not one.
+   *
+   * @param loop         - loop to inspect
+   * @param variable     - variable to check
+   * @param globals      - global variables
+   * @param addressTaken - variables whose address the program takes
+   */
+  public static Long stepOf(Statement.Loop loop, Variable variable, Set<Variable> globals,
+      Set<Variable> addressTaken) {
+    if (variable.isArray() || !Types.of(variable).equals(Types.INT) || globals.contains(variable)
+        || addressTaken.contains(variable)) {
+      return null;
+    }
+    int increments = 0;
+    long step = 0;
+    for (Statement statement : loop.body()) {
+      Long c = ASTUtil.stepOf(statement, variable);
+      if (c != null) {
+        increments++;
+        step += c;
+      }
+    }
+    int[] writes = { 0 };
+    new ASTVisitor() {
+      @Override
+      public void visitDecl(Variable declared) {
+        writes[0] += declared == variable ? 1 : 0;
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        writes[0] += ASTUtil.isVariable(assignee, variable) ? 1 : 0;
+      }
+    }.visitBody(loop.body());
+    if (increments == 0 || writes[0] != increments || step > Integer.MAX_VALUE) {
+      return null;
+    }
+    return step;
+  }
+
+  /**
+   * Return true iff a bound is a constant or an invariant variable of the
+   * given type.
+   *
+   * @param end     - bound to check
+   * @param type    - type of the variable compared with it
+   * @param effects - effects of the loop
+   */
+  public static boolean isBound(AdditiveExpression end, Types.Type type, LoopEffects effects) {
+    Factor factor = end == null ? null : ASTUtil.asFactor(ASTUtil.orOf(end));
+    if (factor instanceof Factor.Const) {
+      return type.equals(Types.INT);
+    }
+    return factor instanceof Factor.Var var && var.getNReferences() == 0 && !var.getVariable().isArray()
+        && type.equals(Types.of(var.getVariable())) && effects.check(factor).invariant();
+  }
+
+  /** Return the constant value of the bound, or null if it is a variable. */
+  public Long constantEnd() {
+    return ASTUtil.constantValue(end);
+  }
+}
@@ -0,0 +1,141 @@
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Iterative dataflow solver over a {@link ControlFlowGraph}.
+ *
+ * Facts are bit sets over a universe the subclass chooses (variables,
+ * definitions, copies, ...). Subclasses give the direction, the transfer
+ * function, the value at the boundary, and whether paths meet by union (a
+ * "may" analysis) or intersection (a "must" analysis); {@link #solve()} runs a
+ * worklist to the fixed point.
+ */
+public abstract class DataflowAnalysis {
+  /** Direction facts flow in. */
+  public enum Direction {
+    FORWARD, BACKWARD
+  }
+
+  protected final ControlFlowGraph graph;
+  private final BitSet[] in;
+  private final BitSet[] out;
+
+  /**
+   * Constructor for the {@code DataflowAnalysis} class.
+   *
+   * @param graph - graph to analyze
+   */
+  protected DataflowAnalysis(ControlFlowGraph graph) {
+    this.graph = graph;
+    this.in = new BitSet[graph.getNodes().size()];
+    this.out = new BitSet[graph.getNodes().size()];
+  }
+
+  /** Return the direction facts flow in. */
+  protected abstract Direction direction();
+
+  /** Return true iff paths meet by intersection rather than union. */
+  protected boolean isMust() {
+    return false;
+  }
+
+  /** Return the number of facts in the universe. */
+  protected abstract int universeSize();
+
+  /**
+   * Return the facts holding at the boundary: before the entry for a
+   * forward analysis, after the exit for a backward one.
+   */
+  protected BitSet boundary() {
+    return new BitSet();
+  }
+
+  /**
+   * Apply a node's effect to the facts flowing into it.
+   *
+   * @param node  - node to apply
+   * @param facts - facts before the node, in the analysis' direction; may be
+   *              modified and returned
+   * @return the facts after the node
+   */
+  protected abstract BitSet transfer(ControlFlowGraph.Node node, BitSet facts);
+
+  /** Run the analysis to its fixed point. */
+  public void solve() {
+    int n = graph.getNodes().size();
+    BitSet top = new BitSet();
+    if (isMust()) {
+      top.set(0, universeSize());
+    }
+    for (int i = 0; i < n; i++) {
+      in[i] = (BitSet) top.clone();
+      out[i] = (BitSet) top.clone();
+    }
+    boolean forward = direction() == Direction.FORWARD;
+    ControlFlowGraph.Node start = forward ? graph.getEntry() : graph.getExit();
+
+    ArrayDeque<ControlFlowGraph.Node> worklist = new ArrayDeque<>();
+    boolean[] queued = new boolean[n];
+    // seed in an order close to the direction of flow, so few passes are needed
+    List<ControlFlowGraph.Node> nodes = graph.getNodes();
+    for (int i = 0; i < n; i++) {
+      ControlFlowGraph.Node node = nodes.get(forward ? i : n - 1 - i);
+      worklist.add(node);
+      queued[node.getId()] = true;
+    }
+    while (!worklist.isEmpty()) {
+      ControlFlowGraph.Node node = worklist.poll();
+      queued[node.getId()] = false;
+      List<ControlFlowGraph.Node> sources = forward ? node.getPredecessors() : node.getSuccessors();
+      BitSet before;
+      if (node == start) {
+        before = boundary();
+      } else if (sources.isEmpty()) {
+        before = new BitSet();
+      } else {
+        before = null;
+        for (ControlFlowGraph.Node source : sources) {
+          BitSet facts = forward ? out[source.getId()] : in[source.getId()];
+          if (before == null) {
+            before = (BitSet) facts.clone();
+          } else if (isMust()) {
+            before.and(facts);
+          } else {
+            before.or(facts);
+          }
+        }
+      }
+      BitSet after = transfer(node, (BitSet) before.clone());
+      if (forward) {
+        in[node.getId()] = before;
+      } else {
+        out[node.getId()] = before;
+      }
+      BitSet previous = forward ? out[node.getId()] : in[node.getId()];
+      if (!after.equals(previous)) {
+        if (forward) {
+          out[node.getId()] = after;
+        } else {
+          in[node.getId()] = after;
+        }
+        for (ControlFlowGraph.Node target : forward ? node.getSuccessors() : node.getPredecessors()) {
+          if (!queued[target.getId()]) {
+            worklist.add(target);
+            queued[target.getId()] = true;
+          }
+        }
+      }
+    }
+  }
+
+  /** Return the facts holding before {@code node} executes. */
+  public BitSet getIn(ControlFlowGraph.Node node) {
+    return (BitSet) in[node.getId()].clone();
+  }
+
+  /** Return the facts holding after {@code node} executes. */
+  public BitSet getOut(ControlFlowGraph.Node node) {
+    return (BitSet) out[node.getId()].clone();
+  }
+}
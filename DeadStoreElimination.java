@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Dead-store elimination.
+ *
+ * Removes assignments to local variables that no path reads before the next
+ * write (see {@link Liveness}). A dead assignment whose value is a call with
+ * side effects is kept as a call statement. Declarations of locals that are
+ * no longer mentioned anywhere are dropped as well.
+ */
+public final class DeadStoreElimination {
+  /** give up after this many rounds; each round can expose more dead stores */
+  private static final int MAX_ROUNDS = 8;
+
+  private DeadStoreElimination() {
+  }
+
+  /**
+   * Run the pass over a program.
+   *
+   * @param program  - functions of the program
+   * @param globals  - global variables
+   * @param options  - command line options
+   * @param reporter - reporter for the report
+   * @return the transformed functions
+   */
+  public static ArrayList<Function> run(ArrayList<Function> program, ArrayList<Variable> globals, Options options,
+      Reporter reporter) {
+    HashMap<String, FunctionAttributes> attributes = FunctionAttributes.infer(program, globals);
+    HashSet<Variable> globalSet = new HashSet<>(globals);
+    ArrayList<Function> result = new ArrayList<>();
+    for (Function function : program) {
+      ArrayList<String> removed = new ArrayList<>();
+      for (int round = 0; round < MAX_ROUNDS; round++) {
+        Function next = removeDeadStores(function, globalSet, attributes, removed);
+        if (next == function) {
+          break;
+        }
+        function = next;
+      }
+      Function pruned = removeUnusedDecls(function, removed);
+      result.add(pruned);
+      if (options.isReport() && !removed.isEmpty()) {
+        reporter.printNote("dse: `" + function.getName() + "`: removed " + String.join(", ", removed));
+      }
+    }
+    return result;
+  }
+
+  /** Remove the stores that are dead in {@code function}, or return it unchanged. */
+  private static Function removeDeadStores(Function function, Set<Variable> globals,
+      HashMap<String, FunctionAttributes> attributes, ArrayList<String> removed) {
+    ControlFlowGraph graph = ControlFlowGraph.build(function, globals, attributes);
+    Liveness liveness = Liveness.of(graph, globals);
+    Map<Statement, Statement[]> replacements = new IdentityHashMap<>();
+    for (ControlFlowGraph.Node node : graph.getNodes()) {
+      Variable written = node.getDef();
+      if (!(node.getStatement() instanceof Statement.Assign assign) || node.getKind() != ControlFlowGraph.Kind.STATEMENT
+          || written == null || graph.getEscaping().contains(written) || liveness.isLiveOut(node, written)) {
+        continue;
+      }
+      if (!node.callsImpure()) {
+        replacements.put(assign, new Statement[0]);
+      } else if (ASTUtil.asFactor(assign.assignment().getValue()) instanceof Factor.Call call) {
+        Statement kept = new Statement.Call(call.fun(), call.arguments(), assign.lineIdx(), assign.charIdx());
+        replacements.put(assign, new Statement[] { kept });
+      } else {
+        continue;
+      }
+      removed.add("`" + assign.assignment() + "` (line " + assign.lineIdx() + ")");
+    }
+    if (replacements.isEmpty()) {
+      return function;
+    }
+    Statement[] body = new ASTRewriter() {
+      @Override
+      public Statement[] rewriteStatement(Statement statement) {
+        Statement[] replacement = replacements.get(statement);
+        return replacement != null ? replacement : super.rewriteStatement(statement);
+      }
+    }.rewriteBody(function.getBody());
+    return function.withBody(body);
+  }
+
+  /** Drop declarations of locals the body no longer mentions. */
+  private static Function removeUnusedDecls(Function function, ArrayList<String> removed) {
+    Set<Variable> mentioned = Collections.newSetFromMap(new IdentityHashMap<>());
+    new ASTVisitor() {
+      @Override
+      public void visitVar(Factor.Var var) {
+        mentioned.add(var.getVariable());
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        mentioned.add(assignee.getVariable());
+      }
+    }.visitBody(function.getBody());
+    Statement[] body = new ASTRewriter() {
+      @Override
+      public Statement[] rewriteStatement(Statement statement) {
+        if (statement instanceof Statement.Decl decl && !mentioned.contains(decl.variable())) {
+          removed.add("declaration of `" + decl.variable().getName() + "` (line " + decl.lineIdx() + ")");
+          return new Statement[0];
+        }
+        return super.rewriteStatement(statement);
+      }
+    }.rewriteBody(function.getBody());
+    return body == function.getBody() ? function : function.withBody(body);
+  }
+}
@@ -0,0 +1,79 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class DifferentialTest {
+  public static void main(String[] args) throws IOException, InterruptedException {
+    // Configurations compared with the first one, the unoptimized interpreter
+    String[][] configs = {
+        { "-O0", "--run" },
+        { "-O1", "--run" },
+        { "-O1", "--unroll=4", "--run" },
+        { "-O0", "--vm" },
+        { "-O1", "--vm" },
+        { "-O0", "--jvm" },
+        { "-O1", "--jvm" }
+    };
+
+    // The examples, and small programs for the cases the optimizer got wrong
+    ArrayList<Path> programs = new ArrayList<>();
+    for (String directory : new String[] { "examples", "tests" }) {
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(Path.of(directory), "*.shc")) {
+        files.forEach(programs::add);
+      }
+    }
+    Collections.sort(programs);
+
+    int failures = 0;
+    for (Path program : programs) {
+      System.out.println("\n=== Test: " + program + " ===");
+      String expected = null;
+      for (String[] config : configs) {
+        String actual = run(program, config);
+        System.out.println(String.join(" ", config) + ": " + actual.lines().reduce((a, b) -> b).orElse(""));
+        if (expected == null) {
+          expected = actual;
+        } else if (!actual.equals(expected)) {
+          System.out.println("DIFF: output differs from " + String.join(" ", configs[0]));
+          failures++;
+        }
+      }
+    }
+
+    System.out.println("\n" + failures + " difference(s)");
+    if (failures > 0) {
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Run a program in a fresh directory, so no backend sees another one's
+   * output files, and return what it printed followed by its exit code.
+   */
+  private static String run(Path program, String[] config) throws IOException, InterruptedException {
+    Path directory = Files.createTempDirectory("shc");
+    Path copy = directory.resolve(program.getFileName());
+    Files.copy(program, copy);
+
+    // the compiler runs in the new directory, so its class path must be absolute
+    StringJoiner classPath = new StringJoiner(File.pathSeparator);
+    for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      classPath.add(Path.of(entry).toAbsolutePath().toString());
+    }
+    ArrayList<String> command = new ArrayList<>(List.of(
+        Path.of(System.getProperty("java.home"), "bin", "java").toString(), "--enable-preview",
+        "-cp", classPath.toString(), "Main"));
+    command.addAll(List.of(config));
+    command.add(copy.getFileName().toString());
+
+    Process process = new ProcessBuilder(command).directory(directory.toFile()).redirectErrorStream(true).start();
+    process.getOutputStream().close();
+    String output = new String(process.getInputStream().readAllBytes());
+    int exitCode = process.waitFor();
+
+    try (var files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+    return output + "exit " + exitCode;
+  }
+}
@@ -0,0 +1,442 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Escape analysis for constant-size heap allocations.
+ *
+ * Finds {@code p = malloc(<constant>)} whose result never outlives the
+ * call of the function making it: it is never stored into memory or a
+ * global, returned, or passed to a callee that may keep or free it. Such an
+ * allocation is emitted as an array in the function's frame, and the
+ * {@code free(p)} calls releasing it are dropped.
+ *
+ * The analysis is flow-insensitive. A pointer's family is the pointer and
+ * every local its value is copied into, even through arithmetic; anything
+ * that happens to one member counts against the whole family. User-defined
+ * callees are summarized by which of their parameters may escape, computed
+ * as a least fixed point over the program, so recursion is handled. An
+ * allocation is only moved when it runs at most once per call (not in a
+ * loop, not in a function whose tail calls become loops), its function
+ * cannot recurse into itself, and it fits the size limits.
+ */
+public final class EscapeAnalysis {
+  /** largest allocation moved to the stack, in bytes */
+  public static final long MAX_SIZE = 1024;
+  /** largest total of allocations moved into one frame, in bytes */
+  public static final long MAX_FRAME = 4096;
+
+  /** external functions that use their pointer arguments without keeping them */
+  private static final Set<String> NON_CAPTURING_EXTERNALS = Set.of(
+      "puts", "printf", "strlen", "strcmp", "strncmp", "memcmp", "fputs", "fwrite", "atoi", "atol",
+      "memset", "memcpy", "memmove", "strcpy", "strncpy", "strcat", "fread", "fgets", "fopen");
+  /** external functions above that return neither of their pointer arguments */
+  private static final Set<String> NON_RETURNING_EXTERNALS = Set.of(
+      "puts", "printf", "strlen", "strcmp", "strncmp", "memcmp", "fputs", "fwrite", "atoi", "atol", "fread",
+      "fopen");
+
+  /** an allocation moved to the stack */
+  public record Allocation(Statement.Assign statement, Variable pointer, long size) {
+  }
+
+  /** allocations moved to the stack, by function name, in source order */
+  private final HashMap<String, ArrayList<Allocation>> allocations = new HashMap<>();
+  /** the allocation each moved {@code malloc} statement became */
+  private final Map<Statement.Assign, Allocation> byStatement = new IdentityHashMap<>();
+  /** {@code free} statements of moved allocations */
+  private final Set<Statement.Call> removedFrees = Collections.newSetFromMap(new IdentityHashMap<>());
+  /** for each function, the verdict on each of its constant-size allocations */
+  private final LinkedHashMap<String, LinkedHashMap<String, String>> verdicts = new LinkedHashMap<>();
+
+  private EscapeAnalysis() {
+  }
+
+  /**
+   * Analyze every function of a program.
+   *
+   * @param program - functions of the program
+   * @param globals - global variables
+   */
+  public static EscapeAnalysis analyze(ArrayList<Function> program, ArrayList<Variable> globals) {
+    EscapeAnalysis analysis = new EscapeAnalysis();
+    CallGraph callGraph = new CallGraph(program);
+    Set<Variable> globalSet = Collections.newSetFromMap(new IdentityHashMap<>());
+    globalSet.addAll(globals);
+
+    LinkedHashMap<String, Facts> facts = new LinkedHashMap<>();
+    for (Function function : program) {
+      if (function.getBody() != null) {
+        Facts f = new Facts(callGraph, globalSet);
+        f.visitBody(function.getBody());
+        facts.put(function.getName(), f);
+      }
+    }
+
+    // parameters that may escape; starts empty and only grows
+    HashMap<String, boolean[]> escaping = new HashMap<>();
+    for (Function function : program) {
+      escaping.put(function.getName(), new boolean[function.getArguments().length]);
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Function function : program) {
+        Facts f = facts.get(function.getName());
+        boolean[] summary = escaping.get(function.getName());
+        Variable[] params = function.getArguments();
+        for (int i = 0; i < params.length; i++) {
+          if (!summary[i] && (f == null || f.escape(params[i], null, callGraph, escaping) != null)) {
+            summary[i] = true;
+            changed = true;
+          }
+        }
+      }
+    }
+
+    for (Function function : program) {
+      Facts f = facts.get(function.getName());
+      if (f != null) {
+        analysis.analyzeFunction(function, f, callGraph, escaping);
+      }
+    }
+    return analysis;
+  }
+
+  /** Return the allocations of a function that are moved to the stack, in source order. */
+  public List<Allocation> getAllocations(Function function) {
+    return Collections.unmodifiableList(allocations.getOrDefault(function.getName(), new ArrayList<>()));
+  }
+
+  /** Return the stack allocation {@code statement} became, or null if it stays on the heap. */
+  public Allocation getAllocation(Statement.Assign statement) {
+    return byStatement.get(statement);
+  }
+
+  /** Return true iff {@code statement} frees a stack allocation and is dropped. */
+  public boolean isRemovedFree(Statement.Call statement) {
+    return removedFrees.contains(statement);
+  }
+
+  /**
+   * Return a human readable report of which allocations were moved, one
+   * line per function with constant-size allocations.
+   */
+  public String report() {
+    StringBuilder report = new StringBuilder();
+    for (var entry : verdicts.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        continue;
+      }
+      report.append(entry.getKey()).append(":\n");
+      for (var verdict : entry.getValue().entrySet()) {
+        report.append("    ").append(verdict.getKey()).append(": ").append(verdict.getValue()).append("\n");
+      }
+    }
+    return report.toString();
+  }
+
+  /**
+   * Decide which constant-size allocations of a function move to the stack.
+   *
+   * @param function  - function to analyze
+   * @param facts     - facts about its body
+   * @param callGraph - call graph of the program
+   * @param escaping  - parameters of each function that may escape
+   */
+  private void analyzeFunction(Function function, Facts facts, CallGraph callGraph,
+      HashMap<String, boolean[]> escaping) {
+    LinkedHashMap<String, String> verdict = new LinkedHashMap<>();
+    verdicts.put(function.getName(), verdict);
+    String functionReason = null;
+    if (!TailCalls.find(function).isEmpty()) {
+      functionReason = "tail calls become a loop";
+    } else if (isRecursive(function.getName(), callGraph)) {
+      functionReason = "function is recursive";
+    }
+
+    long frame = 0;
+    for (Facts.Candidate candidate : facts.candidates) {
+      Variable pointer = candidate.pointer();
+      String key = pointer.getName() + " = malloc(" + candidate.size() + ")";
+      String reason = functionReason;
+      if (reason == null && candidate.inLoop()) {
+        reason = "allocated in a loop";
+      } else if (reason == null && candidate.size() <= 0) {
+        reason = "empty";
+      } else if (reason == null && candidate.size() > MAX_SIZE) {
+        reason = "larger than " + MAX_SIZE + " bytes";
+      } else if (reason == null && frame + candidate.size() > MAX_FRAME) {
+        reason = "frame would exceed " + MAX_FRAME + " bytes";
+      } else if (reason == null && (!facts.locals.contains(pointer) || pointer.getNReferences() == 0)) {
+        reason = "not a local pointer";
+      } else if (reason == null && facts.nAssignments.getOrDefault(pointer, 0) != 1) {
+        reason = "`" + pointer.getName() + "` is assigned more than once";
+      }
+      if (reason == null) {
+        reason = facts.escape(pointer, pointer, callGraph, escaping);
+      }
+      if (reason != null) {
+        verdict.put(key, "heap (" + reason + ")");
+        continue;
+      }
+      frame += candidate.size();
+      Allocation allocation = new Allocation(candidate.statement(), pointer, candidate.size());
+      allocations.computeIfAbsent(function.getName(), k -> new ArrayList<>()).add(allocation);
+      byStatement.put(candidate.statement(), allocation);
+      removedFrees.addAll(facts.frees.getOrDefault(pointer, new ArrayList<>()));
+      verdict.put(key, "stack");
+    }
+  }
+
+  /** Return true iff {@code name} can call itself, directly or through other functions. */
+  private static boolean isRecursive(String name, CallGraph callGraph) {
+    HashSet<String> seen = new HashSet<>();
+    ArrayList<String> worklist = new ArrayList<>(callGraph.getCallees(name));
+    while (!worklist.isEmpty()) {
+      String callee = worklist.remove(worklist.size() - 1);
+      if (callee.equals(name)) {
+        return true;
+      }
+      if (callGraph.isDefined(callee) && seen.add(callee)) {
+        worklist.addAll(callGraph.getCallees(callee));
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A call passing pointers: the callee, the argument position, and the
+   * variables whose value flows into the argument.
+   */
+  private record CallSite(String name, int index, Set<Variable> vars) {
+  }
+
+  /**
+   * Facts about the pointers of one function body.
+   */
+  private static final class Facts extends ASTVisitor {
+    /** a {@code p = malloc(<constant>)} statement */
+    record Candidate(Statement.Assign statement, Variable pointer, long size, boolean inLoop) {
+    }
+
+    private final CallGraph callGraph;
+    private final Set<Variable> globals;
+
+    /** locals declared in the body */
+    final Set<Variable> locals = Collections.newSetFromMap(new IdentityHashMap<>());
+    /** constant-size allocations, in source order */
+    final ArrayList<Candidate> candidates = new ArrayList<>();
+    /** number of plain assignments to each variable */
+    final Map<Variable, Integer> nAssignments = new IdentityHashMap<>();
+    /** locals the value of each variable is copied into */
+    final Map<Variable, Set<Variable>> copies = new IdentityHashMap<>();
+    /** why each escaping variable escapes, regardless of callees */
+    final Map<Variable, String> escapes = new IdentityHashMap<>();
+    /** {@code free(v)} statements of each variable */
+    final Map<Variable, ArrayList<Statement.Call>> frees = new IdentityHashMap<>();
+    /** calls passing each variable */
+    final ArrayList<CallSite> calls = new ArrayList<>();
+
+    Facts(CallGraph callGraph, Set<Variable> globals) {
+      this.callGraph = callGraph;
+      this.globals = globals;
+    }
+
+    /**
+     * Return why the family of {@code pointer} escapes, or null if it does
+     * not.
+     *
+     * @param pointer   - pointer to check
+     * @param allocated - the local whose own {@code free} calls are allowed, or null
+     * @param callGraph - call graph of the program
+     * @param escaping  - parameters of each function that may escape
+     */
+    String escape(Variable pointer, Variable allocated, CallGraph callGraph, HashMap<String, boolean[]> escaping) {
+      Set<Variable> family = Collections.newSetFromMap(new IdentityHashMap<>());
+      ArrayList<Variable> worklist = new ArrayList<>();
+      family.add(pointer);
+      worklist.add(pointer);
+      while (!worklist.isEmpty()) {
+        Variable member = worklist.remove(worklist.size() - 1);
+        String reason = escapes.get(member);
+        if (reason == null && member != allocated && frees.containsKey(member)) {
+          reason = "freed";
+        }
+        if (reason != null) {
+          return member == pointer ? reason : "copy `" + member.getName() + "` is " + reason;
+        }
+        for (Variable copy : copies.getOrDefault(member, Set.of())) {
+          if (family.add(copy)) {
+            worklist.add(copy);
+          }
+        }
+      }
+      for (CallSite call : calls) {
+        if (Collections.disjoint(family, call.vars())) {
+          continue;
+        }
+        boolean keeps;
+        if (callGraph.isDefined(call.name())) {
+          boolean[] summary = escaping.get(call.name());
+          keeps = call.index() >= summary.length || summary[call.index()];
+        } else {
+          keeps = !NON_CAPTURING_EXTERNALS.contains(call.name());
+        }
+        if (keeps) {
+          return "passed to `" + call.name() + "`";
+        }
+      }
+      return null;
+    }
+
+    private void escape(Set<Variable> vars, String reason) {
+      for (Variable variable : vars) {
+        escapes.putIfAbsent(variable, reason);
+      }
+    }
+
+    @Override
+    public void visitDecl(Variable variable) {
+      locals.add(variable);
+    }
+
+    @Override
+    public void visitStatement(Statement statement) {
+      if (statement instanceof Statement.Call call && call.function().getName().equals("free")
+          && call.arguments().length == 1) {
+        Factor.Var var = ASTUtil.asVar(call.arguments()[0]);
+        if (var != null && var.getNReferences() == 0) {
+          frees.computeIfAbsent(var.getVariable(), k -> new ArrayList<>()).add(call);
+          return;
+        }
+      }
+      if (statement instanceof Statement.Assign assign) {
+        Assignment assignment = assign.assignment();
+        Factor.Call call = ASTUtil.asCall(ASTUtil.expressionOf(assignment.getValue()));
+        if (call != null && call.fun().getName().equals("malloc") && call.arguments().length == 1
+            && assignment.getAssignee().getNReferences() == 0) {
+          Long size = ASTUtil.constantValue(call.arguments()[0]);
+          if (size != null) {
+            candidates.add(new Candidate(assign, assignment.getAssignee().getVariable(), size, loopDepth > 0));
+          }
+        }
+      }
+      if (statement instanceof Statement.Jump jump && jump.hasValue()) {
+        escape(sourceOf(jump.value()), "returned");
+      }
+      super.visitStatement(statement);
+    }
+
+    @Override
+    public void visitAssignment(Assignment assignment) {
+      if (assignment.hasAssignee()) {
+        Factor.Var target = assignment.getAssignee();
+        Variable variable = target.getVariable();
+        Set<Variable> source = sourceOf(assignment.getValue());
+        if (target.getNReferences() > 0) {
+          escape(source, "stored into memory");
+        } else if (globals.contains(variable)) {
+          escape(source, "stored into global `" + variable.getName() + "`");
+        } else {
+          nAssignments.merge(variable, 1, Integer::sum);
+          for (Variable from : source) {
+            copies.computeIfAbsent(from, k -> Collections.newSetFromMap(new IdentityHashMap<>())).add(variable);
+          }
+        }
+      }
+      super.visitAssignment(assignment);
+    }
+
+    @Override
+    public void visitVar(Factor.Var var) {
+      if (var.getVariable().getNReferences() == 0 && var.getNReferences() == 1) {
+        // a copy of a pointer in an integer could be read back through its address
+        escapes.putIfAbsent(var.getVariable(), "address taken");
+      }
+    }
+
+    @Override
+    public void visitCall(String name, Expression[] arguments) {
+      for (int i = 0; i < arguments.length; i++) {
+        Set<Variable> source = sourceOf(arguments[i]);
+        if (name.equals("free")) {
+          // free(v) statements are collected above; anything else frees an unknown pointer
+          escape(source, "freed");
+        } else if (!source.isEmpty()) {
+          calls.add(new CallSite(name, i, source));
+        }
+      }
+      super.visitCall(name, arguments);
+    }
+
+    /**
+     * Return the variables whose value may flow into the value of an
+     * expression. Comparisons and logic only yield truth values; a call may
+     * return any of its arguments, unless it is a library function known
+     * not to.
+     */
+    private Set<Variable> sourceOf(Expression expression) {
+      Set<Variable> vars = Collections.newSetFromMap(new IdentityHashMap<>());
+      Assignment[] assignments = expression.getExpressions();
+      // the value of a comma expression is its last element
+      vars.addAll(sourceOf(assignments[assignments.length - 1].getValue()));
+      return vars;
+    }
+
+    private Set<Variable> sourceOf(OrExpression expression) {
+      Set<Variable> vars = Collections.newSetFromMap(new IdentityHashMap<>());
+      if (expression.hasLeft() || expression.getRight().hasLeft() || expression.getRight().getRight().hasLeft()
+          || expression.getRight().getRight().getRight().hasLeft()) {
+        return vars;
+      }
+      sourceOf(expression.getRight().getRight().getRight().getRight(), vars);
+      return vars;
+    }
+
+    private void sourceOf(AdditiveExpression expression, Set<Variable> vars) {
+      if (expression.hasLeft()) {
+        sourceOf(expression.getLeft(), vars);
+      }
+      sourceOf(expression.getRight(), vars);
+    }
+
+    private void sourceOf(MultiplicativeExpression expression, Set<Variable> vars) {
+      if (expression.hasLeft()) {
+        sourceOf(expression.getLeft(), vars);
+      }
+      sourceOf(expression.getRight(), vars);
+    }
+
+    private void sourceOf(UnaryExpression expression, Set<Variable> vars) {
+      if (expression.hasOperator()) {
+        sourceOf(expression.getUnaryExpression(), vars);
+        return;
+      }
+      switch (expression.getFactor()) {
+        case Factor.Var var -> {
+          if (var.getNReferences() == 0) {
+            vars.add(var.getVariable());
+          }
+        }
+        case Factor.Call call -> {
+          String name = call.fun().getName();
+          if (callGraph.isDefined(name)
+              || !name.equals("malloc") && !NON_RETURNING_EXTERNALS.contains(name)) {
+            for (Expression argument : call.arguments()) {
+              vars.addAll(sourceOf(argument));
+            }
+          }
+        }
+        case Factor.Parentheses parentheses -> vars.addAll(sourceOf(parentheses.expression()));
+        default -> {
+        }
+      }
+    }
+  }
+}
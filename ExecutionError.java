@@ -0,0 +1,16 @@
+/**
+ * Error raised while running an SHC program in-process, such as an invalid
+ * memory access or a call to a function that does not exist.
+ */
+public class ExecutionError extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Constructor for the {@code ExecutionError} class.
+   *
+   * @param message - description of the error
+   */
+  public ExecutionError(String message) {
+    super(message);
+  }
+}
@@ -23,4 +23,15 @@ public final class Expression extends Parsable {
 	public Assignment[] getExpressions() {
 		return expressions;
 	}
+
+	@Override
+	public String toString() {
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < expressions.length; i++) {
+			if (i > 0)
+				value.append(", ");
+			value.append(expressions[i].toString());
+		}
+		return value.toString();
+	}
 }
@@ -1,4 +1,4 @@
-public sealed interface Factor permits Factor.Var, Factor.Const, Factor.Str, Factor.Parentheses, Factor.Call {
+public sealed interface Factor permits Factor.Var, Factor.Const, Factor.Str, Factor.Parentheses, Factor.Call, Factor.Index {
   final class Var extends Parsable implements Factor {
     /** variable */
     private Variable variable;
@@ -31,7 +31,18 @@ public sealed interface Factor permits Factor.Var, Factor.Const, Factor.Str, Fac
     }
   }
 
-  public record Const(int constant, int lineIdx, int charIdx) implements Factor {
+  /**
+   * An integer constant: a literal, or a use of a {@code const} declaration,
+   * which the parser replaces by its value.
+   *
+   * @param constant - value
+   * @param name     - name of the {@code const}, or null for a literal
+   */
+  public record Const(int constant, String name, int lineIdx, int charIdx) implements Factor {
+    public Const(int constant, int lineIdx, int charIdx) {
+      this(constant, null, lineIdx, charIdx);
+    }
+
     @Override
     public String toString() {
       return "" + constant;
@@ -65,4 +76,17 @@ public sealed interface Factor permits Factor.Var, Factor.Const, Factor.Str, Fac
       return value.toString();
     }
   }
+
+  /**
+   * Subscript {@code ^..a[i]}. {@code element} is the variable usage with one
+   * more {@code ^} than written: the element is read through the variable's
+   * value like {@code ^a}, offset by {@code index} elements, and any written
+   * carets then dereference the element.
+   */
+  public record Index(Var element, Expression index, int lineIdx, int charIdx) implements Factor {
+    @Override
+    public String toString() {
+      return "^".repeat(element.getNReferences() - 1) + element.getVariable() + "[" + index + "]";
+    }
+  }
 }
@@ -54,4 +54,10 @@ public final class Function extends Parsable {
   public Statement[] getBody() {
     return body;
   }
+
+  /** Return a copy of this function with a different body. */
+  public Function withBody(Statement[] newBody) {
+    return new Function(returnType, nReturnReferences, name, arguments, localVariables, newBody, getLineIdx(),
+        getCharIdx());
+  }
 }
@@ -0,0 +1,384 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Attributes inferred for a function, emitted into the generated C so the C
+ * compiler can optimize across calls.
+ *
+ * SHC has no separate compilation, so every function except {@code main} is
+ * {@code static}, unless the C output is split into several translation
+ * units and other units call it. The remaining attributes come from a whole-program analysis
+ * over the AST and the {@link CallGraph}:
+ * <ul>
+ * <li>{@code const} - reads no memory and no globals, has no side effects</li>
+ * <li>{@code pure} - may read memory and globals, but has no side effects</li>
+ * <li>{@code noreturn} - can never return to its caller</li>
+ * <li>{@code cold} - always exits, so it only runs on error paths</li>
+ * <li>{@code hot} - a small leaf function called from inside a loop</li>
+ * <li>{@code inline} - a small non-recursive function</li>
+ * </ul>
+ *
+ * With a {@link Profile}, {@code hot} and {@code cold} come from what the
+ * training run measured instead: the functions doing most of the work are
+ * hot, those it never called are cold. Larger functions that most calls go
+ * to are also marked {@code inline}, and cold ones never are.
+ */
+public final class FunctionAttributes {
+  /** external functions that only depend on their arguments */
+  private static final Set<String> CONST_EXTERNALS = Set.of("abs", "labs");
+  /** external functions that read memory but have no side effects */
+  private static final Set<String> PURE_EXTERNALS = Set.of(
+      "strlen", "strcmp", "strncmp", "memcmp", "strchr", "strrchr", "strstr",
+      "isdigit", "isspace", "isalpha", "isalnum", "isupper", "islower", "isxdigit",
+      "toupper", "tolower", "atoi", "atol");
+  /** external functions that never return */
+  private static final Set<String> NORETURN_EXTERNALS = Set.of("exit", "abort", "_exit");
+  /** largest body, in statements, that is marked {@code inline} */
+  private static final int INLINE_MAX_STATEMENTS = 3;
+  /** largest body, in statements, that is marked {@code inline} if the profile shows it is called often */
+  private static final int PROFILE_INLINE_MAX_STATEMENTS = 12;
+
+  private boolean isStatic;
+  private boolean isInline;
+  private boolean isConst;
+  private boolean isPure;
+  private boolean isNoReturn;
+  private boolean isCold;
+  private boolean isHot;
+  private boolean isLeaf;
+
+  private FunctionAttributes() {
+  }
+
+  /** Getter method for {@code isStatic} */
+  public boolean isStatic() {
+    return isStatic;
+  }
+
+  /** Getter method for {@code isInline} */
+  public boolean isInline() {
+    return isInline;
+  }
+
+  /** Getter method for {@code isConst} */
+  public boolean isConst() {
+    return isConst;
+  }
+
+  /** Getter method for {@code isPure} */
+  public boolean isPure() {
+    return isPure;
+  }
+
+  /** Getter method for {@code isNoReturn} */
+  public boolean isNoReturn() {
+    return isNoReturn;
+  }
+
+  /** Getter method for {@code isCold} */
+  public boolean isCold() {
+    return isCold;
+  }
+
+  /** Getter method for {@code isHot} */
+  public boolean isHot() {
+    return isHot;
+  }
+
+  /** Getter method for {@code isLeaf} */
+  public boolean isLeaf() {
+    return isLeaf;
+  }
+
+  /**
+   * Return true iff a call to {@code name} has no side effects.
+   *
+   * @param name       - called function
+   * @param attributes - attributes of the functions defined in the program
+   */
+  public static boolean isSideEffectFree(String name, HashMap<String, FunctionAttributes> attributes) {
+    FunctionAttributes callee = attributes.get(name);
+    if (callee != null) {
+      return callee.isPure || callee.isConst;
+    }
+    return CONST_EXTERNALS.contains(name) || PURE_EXTERNALS.contains(name);
+  }
+
+  /**
+   * Return the C declaration specifiers for these attributes, e.g.
+   * {@code "static inline __attribute__((const)) "}.
+   */
+  public String toCPrefix() {
+    return toCPrefix(false);
+  }
+
+  /**
+   * Return the C declaration specifiers for these attributes.
+   *
+   * @param external - whether the function is called from other translation
+   *                 units, so it can be neither {@code static} nor {@code inline}
+   */
+  public String toCPrefix(boolean external) {
+    StringBuilder prefix = new StringBuilder();
+    if (isStatic && !external) {
+      prefix.append("static ");
+    }
+    if (isInline && !external) {
+      prefix.append("inline ");
+    }
+    ArrayList<String> gnu = new ArrayList<>();
+    if (isConst) {
+      gnu.add("const");
+    } else if (isPure) {
+      gnu.add("pure");
+    }
+    if (isNoReturn) {
+      gnu.add("noreturn");
+    }
+    if (isCold) {
+      gnu.add("cold");
+    } else if (isHot) {
+      gnu.add("hot");
+    }
+    if (!gnu.isEmpty()) {
+      prefix.append("__attribute__((").append(String.join(", ", gnu)).append(")) ");
+    }
+    return prefix.toString();
+  }
+
+  /**
+   * Infer attributes for every function of a program.
+   *
+   * @param program - functions of the program
+   * @param globals - global variables
+   * @return attributes by function name
+   */
+  public static HashMap<String, FunctionAttributes> infer(ArrayList<Function> program, ArrayList<Variable> globals) {
+    return infer(program, globals, null);
+  }
+
+  /**
+   * Infer attributes for every function of a program, guided by a profile.
+   *
+   * @param program - functions of the program
+   * @param globals - global variables
+   * @param profile - profile of a training run, or null
+   * @return attributes by function name
+   */
+  public static HashMap<String, FunctionAttributes> infer(ArrayList<Function> program, ArrayList<Variable> globals,
+      Profile profile) {
+    CallGraph callGraph = new CallGraph(program);
+    HashSet<Variable> globalSet = new HashSet<>(globals);
+    LinkedHashMap<String, Effects> effects = new LinkedHashMap<>();
+    for (Function function : program) {
+      effects.put(function.getName(), Effects.of(function, globalSet));
+    }
+
+    // noreturn grows from the externals until it stops changing
+    HashSet<String> noReturn = new HashSet<>(NORETURN_EXTERNALS);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Function function : callGraph.getFunctions()) {
+        if (!function.getName().equals("main") && !noReturn.contains(function.getName())
+            && !mayComplete(function.getBody(), noReturn) && !containsReturn(function.getBody())) {
+          noReturn.add(function.getName());
+          changed = true;
+        }
+      }
+    }
+
+    // pure/const start optimistic and are removed until nothing changes, so
+    // recursive functions can still qualify
+    HashSet<String> pure = new HashSet<>();
+    HashSet<String> constant = new HashSet<>();
+    for (Function function : program) {
+      Effects e = effects.get(function.getName());
+      if (function.getReturnType() == SHC.VOID && function.getNReturnReferences() == 0) {
+        continue;
+      }
+      if (function.getName().equals("main") || noReturn.contains(function.getName()) || e.hasInfiniteLoop) {
+        continue;
+      }
+      if (!e.writesGlobals && !e.writesMemory) {
+        pure.add(function.getName());
+        if (!e.readsGlobals && !e.readsMemory) {
+          constant.add(function.getName());
+        }
+      }
+    }
+    changed = true;
+    while (changed) {
+      changed = false;
+      for (Function function : program) {
+        String name = function.getName();
+        for (String callee : callGraph.getCallees(name)) {
+          boolean calleePure = callGraph.isDefined(callee) ? pure.contains(callee)
+              : PURE_EXTERNALS.contains(callee) || CONST_EXTERNALS.contains(callee);
+          boolean calleeConst = callGraph.isDefined(callee) ? constant.contains(callee)
+              : CONST_EXTERNALS.contains(callee);
+          if (!calleePure && pure.remove(name)) {
+            changed = true;
+          }
+          if (!calleeConst && constant.remove(name)) {
+            changed = true;
+          }
+        }
+      }
+    }
+
+    Set<String> hot = profile != null ? new HashSet<>(profile.hotFunctions()) : Set.of();
+    Set<String> hotCallees = profile != null ? new HashSet<>(profile.hotCallees()) : Set.of();
+    HashMap<String, FunctionAttributes> result = new HashMap<>();
+    for (Function function : program) {
+      String name = function.getName();
+      Effects e = effects.get(name);
+      FunctionAttributes attributes = new FunctionAttributes();
+      boolean isMain = name.equals("main");
+      attributes.isStatic = !isMain;
+      attributes.isLeaf = callGraph.getCallees(name).isEmpty();
+      attributes.isConst = constant.contains(name);
+      attributes.isPure = pure.contains(name);
+      attributes.isNoReturn = noReturn.contains(name);
+      attributes.isCold = attributes.isNoReturn;
+      attributes.isHot = !isMain && !attributes.isCold && attributes.isLeaf && callGraph.isCalledInLoop(name);
+      attributes.isInline = !isMain && !attributes.isCold && !callGraph.isSelfRecursive(name)
+          && e.nStatements <= INLINE_MAX_STATEMENTS;
+      Long calls = profile != null ? profile.getCalls(name) : null;
+      if (calls != null && !isMain) {
+        attributes.isCold = attributes.isNoReturn || calls == 0;
+        attributes.isHot = !attributes.isCold && hot.contains(name);
+        attributes.isInline = !attributes.isCold && !callGraph.isSelfRecursive(name)
+            && (e.nStatements <= INLINE_MAX_STATEMENTS
+                || hotCallees.contains(name) && e.nStatements <= PROFILE_INLINE_MAX_STATEMENTS);
+      }
+      result.put(name, attributes);
+    }
+    return result;
+  }
+
+  /**
+   * Return true iff control can fall off the end of {@code body}.
+   *
+   * @param body     - statements to check
+   * @param noReturn - names of functions that never return
+   */
+  private static boolean mayComplete(Statement[] body, Set<String> noReturn) {
+    for (Statement statement : body) {
+      if (!mayComplete(statement, noReturn)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Return true iff control can continue after {@code statement}.
+   * Returns are handled separately by {@link #containsReturn}.
+   *
+   * @param statement - statement to check
+   * @param noReturn  - names of functions that never return
+   */
+  private static boolean mayComplete(Statement statement, Set<String> noReturn) {
+    return switch (statement) {
+      case Statement.Call call -> !noReturn.contains(call.function().getName());
+      case Statement.If ifStatement -> mayComplete(ifStatement.body(), noReturn)
+          || mayComplete(ifStatement.otherBody(), noReturn);
+      case Statement.Loop loop -> !isAlwaysTrue(loop.cond()) || containsBreak(loop.body());
+      case Statement.Jump jump -> false;
+      default -> true;
+    };
+  }
+
+  /** Return true iff the factor is a non-zero constant. */
+  private static boolean isAlwaysTrue(Factor cond) {
+    Long value = ASTUtil.constantValue(cond);
+    return value != null && value != 0;
+  }
+
+  /** Return true iff {@code body} breaks out of the loop it belongs to. */
+  private static boolean containsBreak(Statement[] body) {
+    for (Statement statement : body) {
+      if (statement instanceof Statement.Jump jump && jump.type() == SHC.BREAK) {
+        return true;
+      }
+      if (statement instanceof Statement.If ifStatement
+          && (containsBreak(ifStatement.body()) || containsBreak(ifStatement.otherBody()))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Return true iff {@code body} contains a return statement anywhere. */
+  private static boolean containsReturn(Statement[] body) {
+    boolean[] found = { false };
+    new ASTVisitor() {
+      @Override
+      public void visitStatement(Statement statement) {
+        if (statement instanceof Statement.Jump jump && jump.type() == SHC.RETURN) {
+          found[0] = true;
+        }
+        super.visitStatement(statement);
+      }
+    }.visitBody(body);
+    return found[0];
+  }
+
+  /**
+   * Side effects of a single function body, not counting its callees.
+   */
+  private static final class Effects extends ASTVisitor {
+    private final Set<Variable> globals;
+    boolean readsGlobals;
+    boolean writesGlobals;
+    boolean readsMemory;
+    boolean writesMemory;
+    boolean hasInfiniteLoop;
+    int nStatements;
+
+    private Effects(Set<Variable> globals) {
+      this.globals = globals;
+    }
+
+    static Effects of(Function function, Set<Variable> globals) {
+      Effects effects = new Effects(globals);
+      effects.visitBody(function.getBody());
+      return effects;
+    }
+
+    @Override
+    public void visitStatement(Statement statement) {
+      if (!(statement instanceof Statement.Decl)) {
+        nStatements++;
+      }
+      if (statement instanceof Statement.Loop loop && isAlwaysTrue(loop.cond())) {
+        hasInfiniteLoop = true;
+      }
+      super.visitStatement(statement);
+    }
+
+    @Override
+    public void visitVar(Factor.Var var) {
+      if (globals.contains(var.getVariable())) {
+        readsGlobals = true;
+      }
+      if (var.getNReferences() > 0 && var.getVariable().getNReferences() > 0) {
+        readsMemory = true;
+      }
+    }
+
+    @Override
+    public void visitAssignee(Factor.Var assignee) {
+      if (globals.contains(assignee.getVariable())) {
+        writesGlobals = true;
+      }
+      if (assignee.getNReferences() > 0) {
+        writesMemory = true;
+      }
+    }
+  }
+}
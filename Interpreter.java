@@ -0,0 +1,544 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Tree-walking interpreter for SHC.
+ *
+ * Runs a program in-process, without a C toolchain, with the meaning of the
+ * C the {@link Compiler} emits: every variable lives in {@link Memory} at the
+ * width of its C type, {@code ^} follows {@code Compiler.compileFactor}, and
+ * arithmetic follows the C conversions computed by {@link Types} (64 bit
+ * unsigned {@code int}, 32 bit signed literals and comparisons). Library
+ * calls go to {@link Builtins}.
+ */
+public final class Interpreter {
+  /** completion of a statement */
+  private static final int NORMAL = 0, BREAK = 1, CONTINUE = 2, RETURN = 3;
+  /** Java stack for the interpreter thread; SHC recursion runs on it */
+  private static final long THREAD_STACK_SIZE = 1L << 30;
+
+  /**
+   * Where a function's variables live in its frame.
+   *
+   * @param offsets - byte offset of each variable
+   * @param size    - frame size in bytes
+   */
+  private record Layout(IdentityHashMap<Variable, Integer> offsets, int size) {
+  }
+
+  private final Memory memory = new Memory();
+  private final Builtins builtins = new Builtins(memory);
+  private final HashMap<String, Function> functions = new HashMap<>();
+  private final IdentityHashMap<Variable, Long> globals = new IdentityHashMap<>();
+  private final IdentityHashMap<Function, Layout> layouts = new IdentityHashMap<>();
+
+  /** layout of the running function */
+  private Layout layout;
+  /** address of the running function's frame */
+  private long frame;
+  /** value of the last {@code return} */
+  private long returnValue;
+  /** type of the value the last {@code evaluate} method returned */
+  private Types.Type type;
+  /** line of the statement being executed, for errors */
+  private int line;
+
+  private Interpreter(ArrayList<Function> program, ArrayList<Variable> globalVariables) {
+    for (Function function : program) {
+      functions.put(function.getName(), function);
+    }
+    for (Variable variable : globalVariables) {
+      globals.put(variable, memory.allocate(variable.isArray() ? Types.sizeOfArray(variable) : 8));
+    }
+  }
+
+  /**
+   * Run a program's {@code main}.
+   *
+   * @param program   - functions of the program
+   * @param globals   - global variables
+   * @param arguments - {@code argv}, starting with the program name
+   * @return the exit status
+   * @throws ExecutionError if the program faults
+   */
+  public static int run(ArrayList<Function> program, ArrayList<Variable> globals, List<String> arguments) {
+    int[] status = new int[1];
+    RuntimeException[] failure = new RuntimeException[1];
+    Thread thread = new Thread(null, () -> {
+      Interpreter interpreter = new Interpreter(program, globals);
+      try {
+        status[0] = interpreter.runMain(arguments);
+      } catch (Builtins.Exit exit) {
+        status[0] = exit.getStatus();
+      } catch (ExecutionError e) {
+        failure[0] = new ExecutionError("line " + interpreter.line + ": " + e.getMessage());
+      } catch (StackOverflowError e) {
+        failure[0] = new ExecutionError("line " + interpreter.line + ": stack overflow");
+      } finally {
+        interpreter.builtins.flush();
+      }
+    }, "shc-interpreter", THREAD_STACK_SIZE);
+    thread.start();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutionError("interrupted");
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    return status[0];
+  }
+
+  private int runMain(List<String> arguments) {
+    Function main = functions.get("main");
+    if (main == null) {
+      throw new ExecutionError("no `main` function");
+    }
+    long[] values = new long[main.getArguments().length];
+    if (values.length >= 2) {
+      long argv = memory.allocate(8L * (arguments.size() + 1));
+      for (int i = 0; i < arguments.size(); i++) {
+        memory.store(argv + 8L * i, 8, memory.intern(arguments.get(i)));
+      }
+      values[0] = arguments.size();
+      values[1] = argv;
+    } else if (values.length == 1) {
+      values[0] = arguments.size();
+    }
+    return (int) call(main, values);
+  }
+
+  // ===================== functions =====================
+
+  private Layout layoutOf(Function function) {
+    Layout result = layouts.get(function);
+    if (result != null) {
+      return result;
+    }
+    IdentityHashMap<Variable, Integer> offsets = new IdentityHashMap<>();
+    for (Variable argument : function.getArguments()) {
+      offsets.put(argument, offsets.size() * 8);
+    }
+    int[] size = { offsets.size() * 8 };
+    new ASTVisitor() {
+      @Override
+      public void visitDecl(Variable variable) {
+        add(variable);
+      }
+
+      @Override
+      public void visitVar(Factor.Var var) {
+        add(var.getVariable());
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        add(assignee.getVariable());
+      }
+
+      private void add(Variable variable) {
+        if (!globals.containsKey(variable) && !offsets.containsKey(variable)) {
+          offsets.put(variable, size[0]);
+          // an array's elements live in the frame, 8 byte aligned
+          size[0] += variable.isArray() ? (Types.sizeOfArray(variable) + 7) & ~7 : 8;
+        }
+      }
+    }.visitBody(function.getBody());
+    result = new Layout(offsets, size[0]);
+    layouts.put(function, result);
+    return result;
+  }
+
+  /**
+   * Call a function of the program.
+   *
+   * @param function  - function to call
+   * @param arguments - argument values
+   * @return the result, converted to the return type
+   */
+  private long call(Function function, long[] arguments) {
+    Layout callee = layoutOf(function);
+    int mark = memory.getStackPointer();
+    long calleeFrame = memory.pushFrame(callee.size());
+    Variable[] parameters = function.getArguments();
+    for (int i = 0; i < parameters.length && i < arguments.length; i++) {
+      memory.store(calleeFrame + callee.offsets().get(parameters[i]), sizeOf(Types.of(parameters[i])), arguments[i]);
+    }
+
+    Layout callerLayout = layout;
+    long callerFrame = frame;
+    int callerLine = line;
+    layout = callee;
+    frame = calleeFrame;
+    returnValue = 0;
+    execute(function.getBody());
+    long result = returnValue;
+    layout = callerLayout;
+    frame = callerFrame;
+    line = callerLine;
+    memory.popFrame(mark);
+
+    Types.Type returnType = new Types.Type(function.getReturnType(), function.getNReturnReferences());
+    return Types.convert(result, returnType);
+  }
+
+  /** Call a function by name: a function of the program, or a builtin. */
+  private long call(String name, Expression[] arguments) {
+    long[] values = new long[arguments.length];
+    for (int i = 0; i < arguments.length; i++) {
+      values[i] = evaluate(arguments[i]);
+    }
+    Function function = functions.get(name);
+    if (function != null) {
+      long result = call(function, values);
+      type = new Types.Type(function.getReturnType(), function.getNReturnReferences());
+      return result;
+    }
+    if (!Builtins.isBuiltin(name)) {
+      throw new ExecutionError("call to undefined function `" + name + "`");
+    }
+    long result = builtins.call(name, values);
+    type = Builtins.typeOf(name);
+    return type == Types.C_INT ? (int) result : result;
+  }
+
+  // ===================== statements =====================
+
+  private int execute(Statement[] body) {
+    if (body == null) {
+      return NORMAL;
+    }
+    for (Statement statement : body) {
+      int completion = execute(statement);
+      if (completion != NORMAL) {
+        return completion;
+      }
+    }
+    return NORMAL;
+  }
+
+  private int execute(Statement statement) {
+    line = ControlFlowGraph.lineOf(statement);
+    return switch (statement) {
+      case Statement.If ifStatement ->
+        execute(evaluate(ifStatement.cond()) != 0 ? ifStatement.body() : ifStatement.otherBody());
+      case Statement.Loop loop -> {
+        while (evaluate(loop.cond()) != 0) {
+          int completion = execute(loop.body());
+          if (completion == BREAK) {
+            break;
+          }
+          if (completion == RETURN) {
+            yield RETURN;
+          }
+        }
+        yield NORMAL;
+      }
+      case Statement.Decl decl -> NORMAL;
+      case Statement.Call callStatement -> {
+        call(callStatement.function().getName(), callStatement.arguments());
+        yield NORMAL;
+      }
+      case Statement.Jump jump -> {
+        if (jump.type() == SHC.BREAK) {
+          yield BREAK;
+        }
+        if (jump.type() == SHC.CONTINUE) {
+          yield CONTINUE;
+        }
+        returnValue = jump.hasValue() ? evaluate(jump.value()) : 0;
+        yield RETURN;
+      }
+      case Statement.Assign assign -> {
+        evaluate(assign.assignment());
+        yield NORMAL;
+      }
+    };
+  }
+
+  // ===================== variables =====================
+
+  private long addressOf(Variable variable) {
+    Integer offset = layout == null ? null : layout.offsets().get(variable);
+    if (offset != null) {
+      return frame + offset;
+    }
+    Long address = globals.get(variable);
+    if (address == null) {
+      throw new ExecutionError("unknown variable `" + variable.getName() + "`");
+    }
+    return address;
+  }
+
+  private long load(Factor.Var var) {
+    Variable variable = var.getVariable();
+    int usageRefs = var.getNReferences();
+    if (variable.getNReferences() == 0 && usageRefs == 1) {
+      type = new Types.Type(variable.getType(), 1);
+      return addressOf(variable);
+    }
+    checkDereference(var);
+    return load(valueOf(variable), var);
+  }
+
+  /**
+   * Load {@code var}'s dereferences starting from a pointer: the variable's
+   * value, or the address of a subscripted element.
+   */
+  private long load(long value, Factor.Var var) {
+    Types.Type current = Types.of(var.getVariable());
+    for (int i = 0; i < var.getNReferences(); i++) {
+      current = current.pointee();
+      value = Types.convert(memory.load(value, sizeOf(current)), current);
+    }
+    type = current;
+    return value;
+  }
+
+  /** Return a variable's value; an array's is the address of its elements. */
+  private long valueOf(Variable variable) {
+    if (variable.isArray()) {
+      return addressOf(variable);
+    }
+    Types.Type type = Types.of(variable);
+    return Types.convert(memory.load(addressOf(variable), sizeOf(type)), type);
+  }
+
+  private void store(Factor.Var target, long value) {
+    Variable variable = target.getVariable();
+    int usageRefs = target.getNReferences();
+    if (variable.getNReferences() == 0 && usageRefs == 1) {
+      throw new ExecutionError("cannot assign to the address of `" + variable.getName() + "`");
+    }
+    checkDereference(target);
+    if (usageRefs == 0) {
+      memory.store(addressOf(variable), sizeOf(Types.of(variable)), value);
+      type = Types.of(variable);
+      return;
+    }
+    store(valueOf(variable), target, value);
+  }
+
+  /**
+   * Store a value {@code target}'s dereferences away from a pointer: the
+   * variable's value, or the address of a subscripted element.
+   */
+  private void store(long address, Factor.Var target, long value) {
+    Types.Type current = Types.of(target.getVariable()).pointee();
+    for (int i = 1; i < target.getNReferences(); i++) {
+      address = memory.load(address, 8);
+      current = current.pointee();
+    }
+    memory.store(address, sizeOf(current), value);
+    type = current;
+  }
+
+  /**
+   * Return the address of the element a subscript reads or writes before
+   * its further dereferences: the variable's value offset by the index.
+   */
+  private long elementAddress(Factor.Var element, Expression index) {
+    checkDereference(element);
+    Variable variable = element.getVariable();
+    long base = valueOf(variable);
+    long offset = evaluate(index);
+    if (type.isPointer()) {
+      throw new ExecutionError("array index is a pointer");
+    }
+    return base + offset * sizeOf(Types.of(variable).pointee());
+  }
+
+  private static void checkDereference(Factor.Var var) {
+    if (var.getNReferences() > var.getVariable().getNReferences()) {
+      throw new ExecutionError("`" + var.getVariable().getName() + "` is not a pointer");
+    }
+  }
+
+  private static int sizeOf(Types.Type type) {
+    return Types.sizeOf(type);
+  }
+
+  // ===================== expressions =====================
+
+  private long evaluate(Expression expression) {
+    long value = 0;
+    for (Assignment assignment : expression.getExpressions()) {
+      value = evaluate(assignment);
+    }
+    return value;
+  }
+
+  private long evaluate(Assignment assignment) {
+    long value = evaluate(assignment.getValue());
+    if (assignment.hasIndex()) {
+      store(elementAddress(assignment.getAssignee(), assignment.getIndex()), assignment.getAssignee(), value);
+      value = Types.convert(value, type);
+    } else if (assignment.hasAssignee()) {
+      store(assignment.getAssignee(), value);
+      value = Types.convert(value, type);
+    }
+    return value;
+  }
+
+  private long evaluate(OrExpression expression) {
+    if (!expression.hasLeft()) {
+      return evaluate(expression.getRight());
+    }
+    boolean result = evaluate(expression.getLeft()) != 0 || evaluate(expression.getRight()) != 0;
+    type = Types.C_INT;
+    return result ? 1 : 0;
+  }
+
+  private long evaluate(AndExpression expression) {
+    if (!expression.hasLeft()) {
+      return evaluate(expression.getRight());
+    }
+    boolean result = evaluate(expression.getLeft()) != 0 && evaluate(expression.getRight()) != 0;
+    type = Types.C_INT;
+    return result ? 1 : 0;
+  }
+
+  private long evaluate(EqualityExpression expression) {
+    if (!expression.hasLeft()) {
+      return evaluate(expression.getRight());
+    }
+    long left = evaluate(expression.getLeft());
+    Types.Type leftType = type;
+    long right = evaluate(expression.getRight());
+    if (!leftType.isPointer() && !type.isPointer() && Types.arithmetic(leftType, type).isUnsigned32()) {
+      left = Types.convert(left, Types.U32);
+      right = Types.convert(right, Types.U32);
+    }
+    type = Types.C_INT;
+    return (left == right) == (expression.getOperator() == SHC.EQUAL) ? 1 : 0;
+  }
+
+  private long evaluate(RelationalExpression expression) {
+    if (!expression.hasLeft()) {
+      return evaluate(expression.getRight());
+    }
+    long left = evaluate(expression.getLeft());
+    Types.Type leftType = type;
+    long right = evaluate(expression.getRight());
+    boolean unsigned = Types.isUnsigned(leftType) || Types.isUnsigned(type);
+    if (!leftType.isPointer() && !type.isPointer() && Types.arithmetic(leftType, type).isUnsigned32()) {
+      left = Types.convert(left, Types.U32);
+      right = Types.convert(right, Types.U32);
+    }
+    int comparison = unsigned ? Long.compareUnsigned(left, right) : Long.compare(left, right);
+    type = Types.C_INT;
+    boolean result = switch (expression.getOperator()) {
+      case LESS -> comparison < 0;
+      case GREATER -> comparison > 0;
+      case LEQ -> comparison <= 0;
+      default -> comparison >= 0;
+    };
+    return result ? 1 : 0;
+  }
+
+  private long evaluate(AdditiveExpression expression) {
+    if (!expression.hasLeft()) {
+      return evaluate(expression.getRight());
+    }
+    long left = evaluate(expression.getLeft());
+    Types.Type leftType = type;
+    long right = evaluate(expression.getRight());
+    Types.Type rightType = type;
+    boolean add = expression.getOperator() == SHC.ADD;
+    if (leftType.isPointer() && rightType.isPointer()) {
+      type = Types.INT;
+      return (left - right) / sizeOf(leftType.pointee());
+    }
+    if (leftType.isPointer()) {
+      type = leftType;
+      long offset = right * sizeOf(leftType.pointee());
+      return add ? left + offset : left - offset;
+    }
+    if (rightType.isPointer()) {
+      type = rightType;
+      return right + left * sizeOf(rightType.pointee());
+    }
+    long result = add ? left + right : left - right;
+    return arithmetic(result, leftType, rightType);
+  }
+
+  private long evaluate(MultiplicativeExpression expression) {
+    if (!expression.hasLeft()) {
+      return evaluate(expression.getRight());
+    }
+    long left = evaluate(expression.getLeft());
+    Types.Type leftType = type;
+    long right = evaluate(expression.getRight());
+    Types.Type rightType = type;
+    if (expression.getOperator() != SHC.MULTIPLY && right == 0) {
+      throw new ExecutionError("division by zero");
+    }
+    if (leftType.isWide() || rightType.isWide()) {
+      type = Types.INT;
+      return switch (expression.getOperator()) {
+        case MULTIPLY -> left * right;
+        case DIVIDE -> Long.divideUnsigned(left, right);
+        default -> Long.remainderUnsigned(left, right);
+      };
+    }
+    if (leftType.isUnsigned32() || rightType.isUnsigned32()) {
+      long a = Types.convert(left, Types.U32), b = Types.convert(right, Types.U32);
+      type = Types.U32;
+      return switch (expression.getOperator()) {
+        case MULTIPLY -> Types.convert(a * b, Types.U32);
+        case DIVIDE -> a / b;
+        default -> a % b;
+      };
+    }
+    int a = (int) left, b = (int) right;
+    type = Types.C_INT;
+    return switch (expression.getOperator()) {
+      case MULTIPLY -> a * b;
+      case DIVIDE -> a / b;
+      default -> a % b;
+    };
+  }
+
+  private long evaluate(UnaryExpression expression) {
+    if (!expression.hasOperator()) {
+      return evaluate(expression.getFactor());
+    }
+    long value = evaluate(expression.getUnaryExpression());
+    if (type.isPointer()) {
+      throw new ExecutionError("unary operator on a pointer");
+    }
+    long result = expression.getOperator() == SHC.SUBTRACT ? -value : value;
+    return arithmetic(result, type, type);
+  }
+
+  private long evaluate(Factor factor) {
+    return switch (factor) {
+      case Factor.Var var -> load(var);
+      case Factor.Const constant -> {
+        type = Types.C_INT;
+        yield constant.constant();
+      }
+      case Factor.Str string -> {
+        type = new Types.Type(SHC.CHAR, 1);
+        yield memory.intern(string.string());
+      }
+      case Factor.Parentheses parentheses -> evaluate(parentheses.expression());
+      case Factor.Call callFactor -> call(callFactor.fun().getName(), callFactor.arguments());
+      case Factor.Index index -> load(elementAddress(index.element(), index.index()), index.element());
+    };
+  }
+
+  /**
+   * Truncate an integer result to its C type: 64 bits if either operand is
+   * an SHC {@code int}, 32 bits unsigned if either is a {@code u32}, else a
+   * 32 bit C {@code int}.
+   */
+  private long arithmetic(long result, Types.Type left, Types.Type right) {
+    type = Types.arithmetic(left, right);
+    return Types.convert(result, type);
+  }
+}
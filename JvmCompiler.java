@@ -0,0 +1,618 @@
+import java.lang.invoke.MethodType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Translates a {@link Bytecode.Program} into a JVM class file, for the
+ * {@link JvmRuntime} to load as a hidden class.
+ *
+ * Each function becomes a static method {@code f<index>} taking and
+ * returning {@code long}s, and each of its registers a {@code long} local,
+ * so the register bytecode maps almost one to one onto JVM instructions and
+ * calls between SHC functions are plain {@code invokestatic}s HotSpot can
+ * inline. Memory, builtins and errors go through the program's
+ * {@code JvmRuntime}, held in a static final field.
+ *
+ * The class file is version 49, the last without {@code StackMapTable}, so
+ * the verifier infers frame types itself and none have to be computed here.
+ */
+public final class JvmCompiler {
+  /** class file version: Java 5 */
+  private static final int VERSION = 49;
+  /** name of the generated class; hidden classes get a unique suffix */
+  private static final String CLASS_NAME = "ShcProgram";
+  private static final String RUNTIME = "JvmRuntime";
+  private static final String RUNTIME_DESCRIPTOR = "L" + RUNTIME + ";";
+  /** the static field holding the runtime */
+  private static final String RUNTIME_FIELD = "runtime";
+  /** longest method whose branches fit in 16 bit offsets */
+  private static final int MAX_CODE_LENGTH = Short.MAX_VALUE;
+
+  private static final int ACC_PUBLIC = 0x0001, ACC_PRIVATE = 0x0002, ACC_STATIC = 0x0008, ACC_FINAL = 0x0010,
+      ACC_SUPER = 0x0020;
+
+  // JVM opcodes
+  private static final int ICONST_0 = 0x03, LCONST_0 = 0x09, LCONST_1 = 0x0a, BIPUSH = 0x10, SIPUSH = 0x11,
+      LDC_W = 0x13, LDC2_W = 0x14, ILOAD = 0x15, LLOAD = 0x16, LLOAD_0 = 0x1e, ISTORE = 0x36, LSTORE = 0x37,
+      LSTORE_0 = 0x3f, LASTORE = 0x50, DUP = 0x59, LADD = 0x61, LSUB = 0x65, LMUL = 0x69, LDIV = 0x6d, LNEG = 0x75,
+      LAND = 0x7f, I2L = 0x85, L2I = 0x88, I2B = 0x91, I2S = 0x93, LCMP = 0x94, IFEQ = 0x99, IFNE = 0x9a, IFLT = 0x9b, IFGE = 0x9c,
+      IFLE = 0x9e, GOTO = 0xa7, LRETURN = 0xad, RETURN = 0xb1, GETSTATIC = 0xb2, PUTSTATIC = 0xb3,
+      INVOKEVIRTUAL = 0xb6, INVOKESTATIC = 0xb8, NEWARRAY = 0xbc, ATHROW = 0xbf, WIDE = 0xc4;
+  /** {@code newarray} type of {@code long[]} */
+  private static final int T_LONG = 11;
+
+  /** Growable big-endian byte buffer. */
+  private static final class Bytes {
+    private byte[] data = new byte[256];
+    private int size;
+
+    void u1(int value) {
+      if (size == data.length) {
+        data = Arrays.copyOf(data, size * 2);
+      }
+      data[size++] = (byte) value;
+    }
+
+    void u2(int value) {
+      u1(value >> 8);
+      u1(value);
+    }
+
+    void u4(int value) {
+      u2(value >> 16);
+      u2(value);
+    }
+
+    void bytes(Bytes other) {
+      for (int i = 0; i < other.size; i++) {
+        u1(other.data[i]);
+      }
+    }
+
+    void patch2(int position, int value) {
+      data[position] = (byte) (value >> 8);
+      data[position + 1] = (byte) value;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(data, size);
+    }
+  }
+
+  /** The class file's constant pool. */
+  private static final class ConstantPool {
+    private static final int UTF8 = 1, INTEGER = 3, LONG = 5, CLASS = 7, FIELD = 9, METHOD = 10,
+        NAME_AND_TYPE = 12;
+
+    private final Bytes bytes = new Bytes();
+    private final HashMap<String, Integer> entries = new HashMap<>();
+    private int count = 1;
+
+    int utf8(String value) {
+      return entry(UTF8, value, 1, () -> {
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        bytes.u2(data.length);
+        for (byte b : data) {
+          bytes.u1(b);
+        }
+      });
+    }
+
+    int classRef(String name) {
+      int nameIndex = utf8(name);
+      return entry(CLASS, name, 1, () -> bytes.u2(nameIndex));
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+      return memberRef(FIELD, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+      return memberRef(METHOD, owner, name, descriptor);
+    }
+
+    int integer(int value) {
+      return entry(INTEGER, Integer.toString(value), 1, () -> bytes.u4(value));
+    }
+
+    int longConstant(long value) {
+      return entry(LONG, Long.toString(value), 2, () -> {
+        bytes.u4((int) (value >>> 32));
+        bytes.u4((int) value);
+      });
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+      int classIndex = classRef(owner);
+      int nameIndex = utf8(name);
+      int descriptorIndex = utf8(descriptor);
+      int nameAndType = entry(NAME_AND_TYPE, name + " " + descriptor, 1, () -> {
+        bytes.u2(nameIndex);
+        bytes.u2(descriptorIndex);
+      });
+      return entry(tag, owner + "." + name + " " + descriptor, 1, () -> {
+        bytes.u2(classIndex);
+        bytes.u2(nameAndType);
+      });
+    }
+
+    /** Return the index of an entry, adding it with {@code body} if it is new. */
+    private int entry(int tag, String key, int slots, Runnable body) {
+      Integer index = entries.get(tag + ":" + key);
+      if (index == null) {
+        index = count;
+        bytes.u1(tag);
+        body.run();
+        count += slots;
+        entries.put(tag + ":" + key, index);
+      }
+      return index;
+    }
+  }
+
+  private final Bytecode.Program program;
+  private final ConstantPool pool = new ConstantPool();
+
+  private JvmCompiler(Bytecode.Program program) {
+    this.program = program;
+  }
+
+  /**
+   * Translate a program to a class file.
+   *
+   * @param program - the program's bytecode
+   * @return the class file
+   * @throws ExecutionError if a function is too large for one JVM method
+   */
+  public static byte[] compile(Bytecode.Program program) {
+    return new JvmCompiler(program).compileClass();
+  }
+
+  /** Return the name of the method for function {@code index}. */
+  public static String methodName(int index) {
+    return "f" + index;
+  }
+
+  /** Return the type of a method for a function of {@code nParameters}. */
+  public static MethodType methodType(int nParameters) {
+    Class<?>[] parameters = new Class<?>[nParameters];
+    Arrays.fill(parameters, long.class);
+    return MethodType.methodType(long.class, parameters);
+  }
+
+  private static String descriptor(int nParameters) {
+    return "(" + "J".repeat(nParameters) + ")J";
+  }
+
+  private byte[] compileClass() {
+    int thisClass = pool.classRef(CLASS_NAME);
+    int superClass = pool.classRef("java/lang/Object");
+    Bytes methods = new Bytes();
+    Bytecode.Chunk[] chunks = program.chunks();
+    for (int i = 0; i < chunks.length; i++) {
+      compileMethod(methods, i, chunks[i]);
+    }
+    compileInitializer(methods);
+
+    Bytes file = new Bytes();
+    file.u4(0xCAFEBABE);
+    file.u2(0);
+    file.u2(VERSION);
+    int fieldName = pool.utf8(RUNTIME_FIELD);
+    int fieldDescriptor = pool.utf8(RUNTIME_DESCRIPTOR);
+    file.u2(pool.count);
+    file.bytes(pool.bytes);
+    file.u2(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+    file.u2(thisClass);
+    file.u2(superClass);
+    file.u2(0);
+    file.u2(1);
+    file.u2(ACC_PRIVATE | ACC_STATIC | ACC_FINAL);
+    file.u2(fieldName);
+    file.u2(fieldDescriptor);
+    file.u2(0);
+    file.u2(chunks.length + 1);
+    file.bytes(methods);
+    file.u2(0);
+    return file.toByteArray();
+  }
+
+  /** {@code static { runtime = JvmRuntime.defining(); }} */
+  private void compileInitializer(Bytes methods) {
+    Bytes code = new Bytes();
+    code.u1(INVOKESTATIC);
+    code.u2(pool.methodRef(RUNTIME, "defining", "()" + RUNTIME_DESCRIPTOR));
+    code.u1(PUTSTATIC);
+    code.u2(pool.fieldRef(CLASS_NAME, RUNTIME_FIELD, RUNTIME_DESCRIPTOR));
+    code.u1(RETURN);
+    method(methods, ACC_STATIC, "<clinit>", "()V", code, 1, 0, new Bytes(), 0);
+  }
+
+  private void method(Bytes methods, int access, String name, String descriptor, Bytes code, int maxStack,
+      int maxLocals, Bytes exceptions, int nExceptions) {
+    methods.u2(access);
+    methods.u2(pool.utf8(name));
+    methods.u2(pool.utf8(descriptor));
+    methods.u2(1);
+    methods.u2(pool.utf8("Code"));
+    methods.u4(2 + 2 + 4 + code.size + 2 + exceptions.size + 2);
+    methods.u2(maxStack);
+    methods.u2(maxLocals);
+    methods.u4(code.size);
+    methods.bytes(code);
+    methods.u2(nExceptions);
+    methods.bytes(exceptions);
+    methods.u2(0);
+  }
+
+  // ===================== functions =====================
+
+  /**
+   * Translate one function. Register {@code r} is local {@code 2r}; the
+   * memory frame address and the stack mark follow the registers.
+   */
+  private void compileMethod(Bytes methods, int index, Bytecode.Chunk chunk) {
+    int[] code = chunk.code();
+    int[] lines = chunk.lines();
+    int frameLocal = 2 * chunk.nRegisters();
+    int markLocal = frameLocal + 2;
+    if (2 * chunk.nParameters() > 255) {
+      throw new ExecutionError("`" + chunk.name() + "` has too many parameters for the JVM backend");
+    }
+
+    Bytes out = new Bytes();
+    // the deepest fixed sequence is a builtin call: runtime, name, array, array, index, long
+    int maxStack = 7;
+    for (int register = chunk.nParameters(); register < chunk.nRegisters(); register++) {
+      out.u1(LCONST_0);
+      store(out, 2 * register);
+    }
+    if (chunk.frameSize() > 0) {
+      runtime(out);
+      invoke(out, INVOKEVIRTUAL, "stackPointer", "()I");
+      local(out, ISTORE, markLocal);
+      runtime(out);
+      pushInt(out, chunk.frameSize());
+      invoke(out, INVOKEVIRTUAL, "pushFrame", "(I)J");
+      store(out, frameLocal);
+    }
+
+    // JVM position of each instruction, and branches to patch once all are known
+    int[] positions = new int[code.length + 1];
+    ArrayList<int[]> branches = new ArrayList<>();
+    // runs of instructions on one line: {start, end, line}
+    ArrayList<int[]> regions = new ArrayList<>();
+
+    for (int pc = 0; pc < code.length; pc += Bytecode.length(code[pc])) {
+      positions[pc] = out.size;
+      if (regions.isEmpty() || regions.get(regions.size() - 1)[2] != lines[pc]) {
+        if (!regions.isEmpty()) {
+          regions.get(regions.size() - 1)[1] = out.size;
+        }
+        regions.add(new int[] { out.size, 0, lines[pc] });
+      }
+      int word = code[pc];
+      int x = 2 * (word >>> Bytecode.OPCODE_BITS);
+      switch (word & Bytecode.OPCODE_MASK) {
+        case Bytecode.MOV -> {
+          load(out, 2 * code[pc + 1]);
+          store(out, x);
+        }
+        case Bytecode.CONST -> {
+          pushLong(out, code[pc + 1]);
+          store(out, x);
+        }
+        case Bytecode.LOADK -> {
+          pushLong(out, program.constants()[code[pc + 1]]);
+          store(out, x);
+        }
+        case Bytecode.ADD, Bytecode.SUB, Bytecode.MUL -> {
+          load(out, 2 * code[pc + 1]);
+          load(out, 2 * code[pc + 2]);
+          out.u1(switch (word & Bytecode.OPCODE_MASK) {
+            case Bytecode.ADD -> LADD;
+            case Bytecode.SUB -> LSUB;
+            default -> LMUL;
+          });
+          store(out, x);
+        }
+        case Bytecode.ADDI, Bytecode.MULI, Bytecode.DIVI -> {
+          load(out, 2 * code[pc + 1]);
+          pushLong(out, code[pc + 2]);
+          out.u1(switch (word & Bytecode.OPCODE_MASK) {
+            case Bytecode.ADDI -> LADD;
+            case Bytecode.MULI -> LMUL;
+            default -> LDIV;
+          });
+          store(out, x);
+        }
+        case Bytecode.DIVU, Bytecode.REMU -> {
+          load(out, 2 * code[pc + 1]);
+          load(out, 2 * code[pc + 2]);
+          String name = (word & Bytecode.OPCODE_MASK) == Bytecode.DIVU ? "divideUnsigned" : "remainderUnsigned";
+          invoke(out, INVOKESTATIC, name, "(JJ)J");
+          store(out, x);
+        }
+        case Bytecode.DIV, Bytecode.REM -> {
+          load(out, 2 * code[pc + 1]);
+          out.u1(L2I);
+          load(out, 2 * code[pc + 2]);
+          out.u1(L2I);
+          invoke(out, INVOKESTATIC, (word & Bytecode.OPCODE_MASK) == Bytecode.DIV ? "divide" : "remainder", "(II)I");
+          out.u1(I2L);
+          store(out, x);
+        }
+        case Bytecode.NEG -> {
+          load(out, 2 * code[pc + 1]);
+          out.u1(LNEG);
+          store(out, x);
+        }
+        case Bytecode.I32 -> {
+          load(out, 2 * code[pc + 1]);
+          out.u1(L2I);
+          out.u1(I2L);
+          store(out, x);
+        }
+        case Bytecode.U8 -> {
+          load(out, 2 * code[pc + 1]);
+          pushLong(out, 0xFF);
+          out.u1(LAND);
+          store(out, x);
+        }
+        case Bytecode.I8, Bytecode.I16 -> {
+          load(out, 2 * code[pc + 1]);
+          out.u1(L2I);
+          out.u1((word & Bytecode.OPCODE_MASK) == Bytecode.I8 ? I2B : I2S);
+          out.u1(I2L);
+          store(out, x);
+        }
+        case Bytecode.U32 -> {
+          load(out, 2 * code[pc + 1]);
+          pushLong(out, 0xFFFFFFFFL);
+          out.u1(LAND);
+          store(out, x);
+        }
+        case Bytecode.EQ, Bytecode.NE, Bytecode.LT, Bytecode.LE, Bytecode.LTU, Bytecode.LEU -> {
+          int opcode = word & Bytecode.OPCODE_MASK;
+          compare(out, 2 * code[pc + 1], 2 * code[pc + 2], opcode == Bytecode.LTU || opcode == Bytecode.LEU);
+          // if (comparison holds) goto one; 0; goto done; one: 1; done:
+          out.u1(switch (opcode) {
+            case Bytecode.EQ -> IFEQ;
+            case Bytecode.NE -> IFNE;
+            case Bytecode.LT, Bytecode.LTU -> IFLT;
+            default -> IFLE;
+          });
+          out.u2(7);
+          out.u1(LCONST_0);
+          out.u1(GOTO);
+          out.u2(4);
+          out.u1(LCONST_1);
+          store(out, x);
+        }
+        case Bytecode.JMP -> branch(out, GOTO, word >>> Bytecode.OPCODE_BITS, branches);
+        case Bytecode.JZ, Bytecode.JNZ -> {
+          load(out, x);
+          out.u1(LCONST_0);
+          out.u1(LCMP);
+          branch(out, (word & Bytecode.OPCODE_MASK) == Bytecode.JZ ? IFEQ : IFNE, code[pc + 1], branches);
+        }
+        case Bytecode.JEQ, Bytecode.JNE, Bytecode.JLT, Bytecode.JGE, Bytecode.JLTU, Bytecode.JGEU -> {
+          int opcode = word & Bytecode.OPCODE_MASK;
+          compare(out, x, 2 * code[pc + 1], opcode == Bytecode.JLTU || opcode == Bytecode.JGEU);
+          branch(out, switch (opcode) {
+            case Bytecode.JEQ -> IFEQ;
+            case Bytecode.JNE -> IFNE;
+            case Bytecode.JLT, Bytecode.JLTU -> IFLT;
+            default -> IFGE;
+          }, code[pc + 2], branches);
+        }
+        case Bytecode.LD8, Bytecode.LD16, Bytecode.LD32, Bytecode.LD64 -> {
+          runtime(out);
+          load(out, 2 * code[pc + 1]);
+          invoke(out, INVOKEVIRTUAL, switch (word & Bytecode.OPCODE_MASK) {
+            case Bytecode.LD8 -> "load8";
+            case Bytecode.LD16 -> "load16";
+            case Bytecode.LD32 -> "load32";
+            default -> "load64";
+          }, "(J)J");
+          store(out, x);
+        }
+        case Bytecode.ST8, Bytecode.ST16, Bytecode.ST32, Bytecode.ST64 -> {
+          runtime(out);
+          load(out, x);
+          load(out, 2 * code[pc + 1]);
+          invoke(out, INVOKEVIRTUAL, switch (word & Bytecode.OPCODE_MASK) {
+            case Bytecode.ST8 -> "store8";
+            case Bytecode.ST16 -> "store16";
+            case Bytecode.ST32 -> "store32";
+            default -> "store64";
+          }, "(JJ)V");
+        }
+        case Bytecode.GLD8, Bytecode.GLD64 -> {
+          runtime(out);
+          pushLong(out, code[pc + 1]);
+          invoke(out, INVOKEVIRTUAL, (word & Bytecode.OPCODE_MASK) == Bytecode.GLD8 ? "load8" : "load64", "(J)J");
+          store(out, x);
+        }
+        case Bytecode.GST8, Bytecode.GST64 -> {
+          runtime(out);
+          pushLong(out, code[pc + 1]);
+          load(out, x);
+          invoke(out, INVOKEVIRTUAL, (word & Bytecode.OPCODE_MASK) == Bytecode.GST8 ? "store8" : "store64",
+              "(JJ)V");
+        }
+        case Bytecode.FRAME -> {
+          load(out, frameLocal);
+          pushLong(out, code[pc + 1]);
+          out.u1(LADD);
+          store(out, x);
+        }
+        case Bytecode.CALL -> {
+          int callee = code[pc + 1];
+          int nParameters = program.chunks()[callee].nParameters();
+          for (int i = 0; i < nParameters; i++) {
+            if (i < code[pc + 3]) {
+              load(out, 2 * (code[pc + 2] + i));
+            } else {
+              out.u1(LCONST_0);
+            }
+          }
+          maxStack = Math.max(maxStack, 2 * nParameters);
+          out.u1(INVOKESTATIC);
+          out.u2(pool.methodRef(CLASS_NAME, methodName(callee), descriptor(nParameters)));
+          store(out, x);
+        }
+        case Bytecode.CALLB -> {
+          runtime(out);
+          pushInt(out, code[pc + 1]);
+          pushInt(out, code[pc + 3]);
+          out.u1(NEWARRAY);
+          out.u1(T_LONG);
+          for (int i = 0; i < code[pc + 3]; i++) {
+            out.u1(DUP);
+            pushInt(out, i);
+            load(out, 2 * (code[pc + 2] + i));
+            out.u1(LASTORE);
+          }
+          invoke(out, INVOKEVIRTUAL, "builtin", "(I[J)J");
+          store(out, x);
+        }
+        case Bytecode.RET -> {
+          if (chunk.frameSize() > 0) {
+            runtime(out);
+            local(out, ILOAD, markLocal);
+            invoke(out, INVOKEVIRTUAL, "popFrame", "(I)V");
+          }
+          load(out, x);
+          out.u1(LRETURN);
+        }
+        case Bytecode.FAIL -> {
+          runtime(out);
+          pushInt(out, word >>> Bytecode.OPCODE_BITS);
+          invoke(out, INVOKEVIRTUAL, "fail", "(I)LExecutionError;");
+          out.u1(ATHROW);
+        }
+        default -> throw new IllegalStateException("bad opcode " + (word & Bytecode.OPCODE_MASK));
+      }
+    }
+    positions[code.length] = out.size;
+    if (!regions.isEmpty()) {
+      regions.get(regions.size() - 1)[1] = out.size;
+    }
+    for (int[] branch : branches) {
+      out.patch2(branch[0] + 1, positions[branch[1]] - branch[0]);
+    }
+
+    // one handler per line, attaching it to errors thrown there
+    Bytes exceptions = new Bytes();
+    int nExceptions = 0;
+    int executionError = pool.classRef("ExecutionError");
+    for (int[] region : regions) {
+      if (region[0] == region[1]) {
+        continue;
+      }
+      exceptions.u2(region[0]);
+      exceptions.u2(region[1]);
+      exceptions.u2(out.size);
+      exceptions.u2(executionError);
+      nExceptions++;
+      pushInt(out, region[2]);
+      out.u1(INVOKESTATIC);
+      out.u2(pool.methodRef(RUNTIME, "locate", "(LExecutionError;I)LExecutionError;"));
+      out.u1(ATHROW);
+    }
+    if (out.size > MAX_CODE_LENGTH) {
+      throw new ExecutionError("`" + chunk.name() + "` is too large for the JVM backend");
+    }
+    method(methods, ACC_PUBLIC | ACC_STATIC, methodName(index), descriptor(chunk.nParameters()), out, maxStack,
+        markLocal + 1, exceptions, nExceptions);
+  }
+
+  // ===================== instructions =====================
+
+  /** Push {@code Long.compare} or {@code Long.compareUnsigned} of two locals. */
+  private void compare(Bytes out, int left, int right, boolean unsigned) {
+    load(out, left);
+    load(out, right);
+    if (unsigned) {
+      out.u1(INVOKESTATIC);
+      out.u2(pool.methodRef("java/lang/Long", "compareUnsigned", "(JJ)I"));
+    } else {
+      out.u1(LCMP);
+    }
+  }
+
+  /** Emit a branch to register bytecode position {@code target}, patched later. */
+  private static void branch(Bytes out, int opcode, int target, ArrayList<int[]> branches) {
+    branches.add(new int[] { out.size, target });
+    out.u1(opcode);
+    out.u2(0);
+  }
+
+  private void runtime(Bytes out) {
+    out.u1(GETSTATIC);
+    out.u2(pool.fieldRef(CLASS_NAME, RUNTIME_FIELD, RUNTIME_DESCRIPTOR));
+  }
+
+  private void invoke(Bytes out, int opcode, String name, String descriptor) {
+    out.u1(opcode);
+    out.u2(pool.methodRef(RUNTIME, name, descriptor));
+  }
+
+  private static void load(Bytes out, int local) {
+    if (local <= 3) {
+      out.u1(LLOAD_0 + local);
+    } else {
+      local(out, LLOAD, local);
+    }
+  }
+
+  private static void store(Bytes out, int local) {
+    if (local <= 3) {
+      out.u1(LSTORE_0 + local);
+    } else {
+      local(out, LSTORE, local);
+    }
+  }
+
+  /** Emit a local variable instruction, widened if needed. */
+  private static void local(Bytes out, int opcode, int local) {
+    if (local <= 255) {
+      out.u1(opcode);
+      out.u1(local);
+    } else {
+      out.u1(WIDE);
+      out.u1(opcode);
+      out.u2(local);
+    }
+  }
+
+  private void pushInt(Bytes out, int value) {
+    if (value >= -1 && value <= 5) {
+      out.u1(ICONST_0 + value);
+    } else if (value == (byte) value) {
+      out.u1(BIPUSH);
+      out.u1(value);
+    } else if (value == (short) value) {
+      out.u1(SIPUSH);
+      out.u2(value);
+    } else {
+      out.u1(LDC_W);
+      out.u2(pool.integer(value));
+    }
+  }
+
+  private void pushLong(Bytes out, long value) {
+    if (value == 0 || value == 1) {
+      out.u1(LCONST_0 + (int) value);
+    } else if (value == (short) value) {
+      pushInt(out, (int) value);
+      out.u1(I2L);
+    } else {
+      out.u1(LDC2_W);
+      out.u2(pool.longConstant(value));
+    }
+  }
+}
@@ -0,0 +1,248 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs SHC programs compiled to JVM classes by the {@link JvmCompiler}.
+ *
+ * Each program becomes a hidden class whose static methods are its
+ * functions, so HotSpot compiles and inlines them like any Java code. The
+ * class reaches its {@link Memory} and {@link Builtins} through a static
+ * final field holding one {@code JvmRuntime}, which the JIT treats as a
+ * constant; the methods here are what the generated code calls for memory
+ * access, builtins and errors.
+ */
+public final class JvmRuntime {
+  /**
+   * Java stack for the program thread; SHC recursion runs on it, in much
+   * smaller frames than the interpreter's
+   */
+  private static final long THREAD_STACK_SIZE = 1L << 28;
+  /** runtime of the class being initialized, read by its static initializer */
+  private static final ThreadLocal<JvmRuntime> DEFINING = new ThreadLocal<>();
+
+  /**
+   * An {@link ExecutionError} whose message already names the line.
+   */
+  private static final class Located extends ExecutionError {
+    private static final long serialVersionUID = 1L;
+
+    private Located(String message) {
+      super(message);
+    }
+  }
+
+  private final Memory memory;
+  private final Builtins builtins;
+  private final String[] names;
+
+  private JvmRuntime(Memory memory, String[] names) {
+    this.memory = memory;
+    this.builtins = new Builtins(memory);
+    this.names = names;
+  }
+
+  /**
+   * Run a program's {@code main}.
+   *
+   * @param program   - functions of the program
+   * @param globals   - global variables
+   * @param arguments - {@code argv}, starting with the program name
+   * @return the exit status
+   * @throws ExecutionError if the program faults
+   */
+  public static int run(ArrayList<Function> program, ArrayList<Variable> globals, List<String> arguments) {
+    int[] status = new int[1];
+    RuntimeException[] failure = new RuntimeException[1];
+    Thread thread = new Thread(null, () -> {
+      Memory memory = new Memory();
+      Bytecode.Program bytecode = BytecodeCompiler.compile(program, globals, memory);
+      JvmRuntime runtime = new JvmRuntime(memory, bytecode.names());
+      try {
+        status[0] = runtime.runMain(bytecode, arguments);
+      } catch (Builtins.Exit exit) {
+        status[0] = exit.getStatus();
+      } catch (ExecutionError e) {
+        failure[0] = e;
+      } catch (StackOverflowError e) {
+        // compiled frames are not searched for a line, to keep unwinding fast
+        failure[0] = new ExecutionError("stack overflow");
+      } finally {
+        runtime.builtins.flush();
+      }
+    }, "shc-jvm", THREAD_STACK_SIZE);
+    thread.start();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ExecutionError("interrupted");
+    }
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    return status[0];
+  }
+
+  private int runMain(Bytecode.Program program, List<String> arguments) {
+    if (program.main() < 0) {
+      throw new ExecutionError("line 0: no `main` function");
+    }
+    Class<?> compiled = define(JvmCompiler.compile(program));
+    int nParameters = program.chunks()[program.main()].nParameters();
+    Object[] values = new Object[nParameters];
+    Arrays.fill(values, 0L);
+    if (nParameters >= 2) {
+      long argv = memory.allocate(8L * (arguments.size() + 1));
+      for (int i = 0; i < arguments.size(); i++) {
+        memory.store(argv + 8L * i, 8, memory.intern(arguments.get(i)));
+      }
+      values[0] = (long) arguments.size();
+      values[1] = argv;
+    } else if (nParameters == 1) {
+      values[0] = (long) arguments.size();
+    }
+    try {
+      MethodHandle main = MethodHandles.lookup().findStatic(compiled, JvmCompiler.methodName(program.main()),
+          JvmCompiler.methodType(nParameters));
+      return (int) (long) main.invokeWithArguments(values);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable e) {
+      throw new IllegalStateException("cannot call compiled main", e);
+    }
+  }
+
+  /** Define the hidden class for a program and run its static initializer. */
+  private Class<?> define(byte[] classFile) {
+    DEFINING.set(this);
+    try {
+      return MethodHandles.lookup().defineHiddenClass(classFile, true).lookupClass();
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("cannot define compiled program", e);
+    } finally {
+      DEFINING.remove();
+    }
+  }
+
+  // ===================== called by compiled code =====================
+
+  /** Return the runtime of the class being defined. */
+  public static JvmRuntime defining() {
+    return DEFINING.get();
+  }
+
+  /** {@code *(uint8_t *) address} */
+  public long load8(long address) {
+    return memory.load(address, 1);
+  }
+
+  /** {@code *(int16_t *) address} */
+  public long load16(long address) {
+    return memory.load(address, 2);
+  }
+
+  /** {@code *(int32_t *) address} */
+  public long load32(long address) {
+    return memory.load(address, 4);
+  }
+
+  /** {@code *(uint64_t *) address} */
+  public long load64(long address) {
+    return memory.load(address, 8);
+  }
+
+  /** {@code *(uint8_t *) address = value} */
+  public void store8(long address, long value) {
+    memory.store(address, 1, value);
+  }
+
+  /** {@code *(uint16_t *) address = value} */
+  public void store16(long address, long value) {
+    memory.store(address, 2, value);
+  }
+
+  /** {@code *(uint32_t *) address = value} */
+  public void store32(long address, long value) {
+    memory.store(address, 4, value);
+  }
+
+  /** {@code *(uint64_t *) address = value} */
+  public void store64(long address, long value) {
+    memory.store(address, 8, value);
+  }
+
+  /** Return the stack pointer, to pass to {@link #popFrame(int)}. */
+  public int stackPointer() {
+    return memory.getStackPointer();
+  }
+
+  /** Reserve a zeroed memory frame of {@code size} bytes. */
+  public long pushFrame(int size) {
+    return memory.pushFrame(size);
+  }
+
+  /** Release every frame pushed since {@code mark} was the stack pointer. */
+  public void popFrame(int mark) {
+    memory.popFrame(mark);
+  }
+
+  /** Call the builtin named {@code names[name]}. */
+  public long builtin(int name, long[] arguments) {
+    return builtins.call(names[name], arguments);
+  }
+
+  /** Return the error for a {@code FAIL} instruction. */
+  public ExecutionError fail(int message) {
+    return new ExecutionError(names[message]);
+  }
+
+  /** Unsigned 64 bit division. */
+  public static long divideUnsigned(long left, long right) {
+    if (right == 0) {
+      throw new ExecutionError("division by zero");
+    }
+    return Long.divideUnsigned(left, right);
+  }
+
+  /** Unsigned 64 bit remainder. */
+  public static long remainderUnsigned(long left, long right) {
+    if (right == 0) {
+      throw new ExecutionError("division by zero");
+    }
+    return Long.remainderUnsigned(left, right);
+  }
+
+  /** Signed 32 bit division. */
+  public static int divide(int left, int right) {
+    if (right == 0) {
+      throw new ExecutionError("division by zero");
+    }
+    return left / right;
+  }
+
+  /** Signed 32 bit remainder. */
+  public static int remainder(int left, int right) {
+    if (right == 0) {
+      throw new ExecutionError("division by zero");
+    }
+    return left % right;
+  }
+
+  /**
+   * Attach a source line to an error thrown in compiled code; errors from
+   * deeper calls already carry theirs.
+   *
+   * @param error - the error
+   * @param line  - line of the instruction that threw
+   */
+  public static ExecutionError locate(ExecutionError error, int line) {
+    if (error instanceof Located) {
+      return error;
+    }
+    return new Located("line " + line + ": " + error.getMessage());
+  }
+}
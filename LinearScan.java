@@ -0,0 +1,152 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Linear-scan register allocation, after Poletto and Sarkar, for the
+ * {@link AssemblyCompiler}.
+ *
+ * The input is a function as a list of instructions over virtual registers,
+ * each with the registers it writes and reads and the instructions that may
+ * follow it. Liveness is computed per instruction, and every virtual
+ * register gets one interval from the first point it is live to the last.
+ * Intervals are then visited in order of their start; each takes a free
+ * machine register, or the active interval that ends last is spilled to a
+ * stack slot for its whole life.
+ *
+ * Instruction {@code i} reads its operands at position {@code 2i} and writes
+ * its result at {@code 2i + 1}, so an operand's register can be reused for
+ * the result. Intervals live across a call may only use the registers that
+ * calls preserve.
+ */
+public final class LinearScan {
+  /**
+   * Live range of a virtual register.
+   *
+   * @param value - the virtual register
+   * @param start - first position it is live
+   * @param end   - last position it is live
+   * @param call  - whether a call happens while it is live
+   */
+  private record Interval(int value, int start, int end, boolean call) {
+  }
+
+  private LinearScan() {
+  }
+
+  /**
+   * Allocate registers for one function.
+   *
+   * @param nValues      - number of virtual registers
+   * @param defs         - per instruction, the virtual registers it writes
+   * @param uses         - per instruction, the virtual registers it reads
+   * @param successors   - per instruction, the instructions that may run next
+   * @param calls        - instructions that clobber the caller-saved registers
+   * @param nRegisters   - number of machine registers to allocate
+   * @param nCalleeSaved - registers {@code 0 .. nCalleeSaved - 1} are
+   *                     preserved by calls
+   * @return per virtual register, its machine register, or the complement of
+   *         its spill slot
+   */
+  public static int[] allocate(int nValues, int[][] defs, int[][] uses, int[][] successors, BitSet calls,
+      int nRegisters, int nCalleeSaved) {
+    int n = defs.length;
+    BitSet[] liveIn = new BitSet[n];
+    BitSet[] liveOut = new BitSet[n];
+    for (int i = 0; i < n; i++) {
+      liveIn[i] = new BitSet(nValues);
+      liveOut[i] = new BitSet(nValues);
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = n - 1; i >= 0; i--) {
+        BitSet out = liveOut[i];
+        for (int successor : successors[i]) {
+          out.or(liveIn[successor]);
+        }
+        BitSet in = (BitSet) out.clone();
+        for (int def : defs[i]) {
+          in.clear(def);
+        }
+        for (int use : uses[i]) {
+          in.set(use);
+        }
+        if (!in.equals(liveIn[i])) {
+          liveIn[i] = in;
+          changed = true;
+        }
+      }
+    }
+
+    int[] start = new int[nValues];
+    int[] end = new int[nValues];
+    Arrays.fill(start, Integer.MAX_VALUE);
+    Arrays.fill(end, -1);
+    for (int i = 0; i < n; i++) {
+      for (int v = liveIn[i].nextSetBit(0); v >= 0; v = liveIn[i].nextSetBit(v + 1)) {
+        start[v] = Math.min(start[v], 2 * i);
+        end[v] = Math.max(end[v], 2 * i);
+      }
+      for (int v = liveOut[i].nextSetBit(0); v >= 0; v = liveOut[i].nextSetBit(v + 1)) {
+        start[v] = Math.min(start[v], 2 * i + 1);
+        end[v] = Math.max(end[v], 2 * i + 1);
+      }
+      for (int def : defs[i]) {
+        start[def] = Math.min(start[def], 2 * i + 1);
+        end[def] = Math.max(end[def], 2 * i + 1);
+      }
+    }
+
+    // a call at c clobbers everything live at both 2c and 2c + 1
+    ArrayList<Interval> intervals = new ArrayList<>();
+    for (int v = 0; v < nValues; v++) {
+      if (end[v] < 0) {
+        continue;
+      }
+      int call = calls.nextSetBit((start[v] + 1) / 2);
+      boolean acrossCall = call >= 0 && 2 * call + 1 <= end[v];
+      intervals.add(new Interval(v, start[v], end[v], acrossCall));
+    }
+    intervals.sort((a, b) -> Integer.compare(a.start(), b.start()));
+
+    int[] locations = new int[nValues];
+    int nSlots = 0;
+    Interval[] holders = new Interval[nRegisters];
+    for (Interval current : intervals) {
+      // expire intervals that ended before this one starts
+      for (int r = 0; r < nRegisters; r++) {
+        if (holders[r] != null && holders[r].end() < current.start()) {
+          holders[r] = null;
+        }
+      }
+      int limit = current.call() ? nCalleeSaved : nRegisters;
+      int free = -1;
+      // prefer registers calls clobber, keeping the preserved ones for values that need them
+      for (int r = limit - 1; r >= 0 && free < 0; r--) {
+        if (holders[r] == null) {
+          free = r;
+        }
+      }
+      if (free >= 0) {
+        holders[free] = current;
+        locations[current.value()] = free;
+        continue;
+      }
+      int victim = 0;
+      for (int r = 1; r < limit; r++) {
+        if (holders[r].end() > holders[victim].end()) {
+          victim = r;
+        }
+      }
+      if (holders[victim].end() > current.end()) {
+        locations[holders[victim].value()] = ~nSlots++;
+        holders[victim] = current;
+        locations[current.value()] = victim;
+      } else {
+        locations[current.value()] = ~nSlots++;
+      }
+    }
+    return locations;
+  }
+}
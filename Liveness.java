@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Live variables: a variable is live after a node if some path from there
+ * reads it before overwriting it.
+ *
+ * Escaping variables (see {@link ControlFlowGraph#getEscaping()}) are treated
+ * as read by every call, pointer read and return, and globals are live at the
+ * exit.
+ */
+public final class Liveness extends DataflowAnalysis {
+  private final ArrayList<Variable> variables = new ArrayList<>();
+  private final HashMap<Variable, Integer> indices = new HashMap<>();
+  private final BitSet escaping = new BitSet();
+  private final BitSet globals = new BitSet();
+
+  private Liveness(ControlFlowGraph graph, Set<Variable> globals) {
+    super(graph);
+    for (Variable argument : graph.getFunction().getArguments()) {
+      indexOf(argument);
+    }
+    for (ControlFlowGraph.Node node : graph.getNodes()) {
+      node.getUses().forEach(this::indexOf);
+      if (node.getDef() != null) {
+        indexOf(node.getDef());
+      }
+    }
+    for (Variable variable : graph.getEscaping()) {
+      escaping.set(indexOf(variable));
+    }
+    for (Variable variable : globals) {
+      this.globals.set(indexOf(variable));
+    }
+  }
+
+  /**
+   * Compute liveness for a graph.
+   *
+   * @param graph   - graph to analyze
+   * @param globals - global variables
+   */
+  public static Liveness of(ControlFlowGraph graph, Set<Variable> globals) {
+    Liveness liveness = new Liveness(graph, globals);
+    liveness.solve();
+    return liveness;
+  }
+
+  private int indexOf(Variable variable) {
+    return indices.computeIfAbsent(variable, v -> {
+      variables.add(v);
+      return variables.size() - 1;
+    });
+  }
+
+  @Override
+  protected Direction direction() {
+    return Direction.BACKWARD;
+  }
+
+  @Override
+  protected int universeSize() {
+    return variables.size();
+  }
+
+  @Override
+  protected BitSet boundary() {
+    return (BitSet) globals.clone();
+  }
+
+  @Override
+  protected BitSet transfer(ControlFlowGraph.Node node, BitSet live) {
+    if (node.getDef() != null) {
+      live.clear(indices.get(node.getDef()));
+    }
+    for (Variable use : node.getUses()) {
+      live.set(indices.get(use));
+    }
+    boolean isReturn = node.getStatement() instanceof Statement.Jump jump && jump.type() == SHC.RETURN;
+    if (node.calls() || node.readsMemory() || isReturn) {
+      live.or(escaping);
+    }
+    return live;
+  }
+
+  /** Return true iff {@code variable} may be read after {@code node}. */
+  public boolean isLiveOut(ControlFlowGraph.Node node, Variable variable) {
+    Integer index = indices.get(variable);
+    return index != null && getOut(node).get(index);
+  }
+
+  /** Return the variables that may be read after {@code node}. */
+  public Set<Variable> getLiveOut(ControlFlowGraph.Node node) {
+    LinkedHashSet<Variable> result = new LinkedHashSet<>();
+    getOut(node).stream().forEach(i -> result.add(variables.get(i)));
+    return result;
+  }
+}
@@ -0,0 +1,264 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What a loop may change while it runs: the variables it assigns, and
+ * whether it writes memory or calls functions with side effects.
+ *
+ * Used to decide which expressions are loop invariant. A variable is
+ * invariant when the loop never assigns it, and neither a pointer store nor
+ * an impure call can reach it: globals are clobbered by impure calls, and
+ * variables whose address is taken anywhere in the program by any memory
+ * write, since a pointer to a global may come from another function.
+ */
+public final class LoopEffects extends ASTVisitor {
+  private final HashMap<String, FunctionAttributes> attributes;
+  private final Set<Variable> globals;
+  private final Set<Variable> addressTaken;
+
+  /** variables assigned or declared in the loop */
+  private final HashSet<Variable> assigned = new HashSet<>();
+  /** the loop may write memory through a pointer */
+  private boolean writesMemory;
+  /** the loop calls a function that may have side effects */
+  private boolean callsImpure;
+  /** the loop contains a break or continue that belongs to it */
+  private boolean hasJump;
+  /** the loop contains a return */
+  private boolean hasReturn;
+
+  private LoopEffects(HashMap<String, FunctionAttributes> attributes, Set<Variable> globals,
+      Set<Variable> addressTaken) {
+    this.attributes = attributes;
+    this.globals = globals;
+    this.addressTaken = addressTaken;
+  }
+
+  /**
+   * Compute the effects of a loop, including its condition.
+   *
+   * @param loop         - loop to inspect
+   * @param attributes   - attributes of the program's functions
+   * @param globals      - global variables
+   * @param addressTaken - variables whose address the program takes, from
+   *                     {@link #addressTaken(ArrayList)}
+   */
+  public static LoopEffects of(Statement.Loop loop, HashMap<String, FunctionAttributes> attributes,
+      Set<Variable> globals, Set<Variable> addressTaken) {
+    LoopEffects effects = new LoopEffects(attributes, globals, addressTaken);
+    effects.visitFactor(loop.cond());
+    effects.visitBody(loop.body());
+    return effects;
+  }
+
+  /**
+   * Return every variable whose address is taken anywhere in a program: the
+   * globals whose address any function takes, and each function's own
+   * locals and parameters whose address it takes.
+   *
+   * @param program - functions of the program
+   */
+  public static HashSet<Variable> addressTaken(ArrayList<Function> program) {
+    HashSet<Variable> result = new HashSet<>();
+    for (Function function : program) {
+      result.addAll(addressTaken(function.getBody()));
+    }
+    return result;
+  }
+
+  /**
+   * Return every variable whose address is taken ({@code ^x} on a
+   * non-pointer) in a function body.
+   *
+   * @param body - statements to scan
+   */
+  public static HashSet<Variable> addressTaken(Statement[] body) {
+    HashSet<Variable> result = new HashSet<>();
+    new ASTVisitor() {
+      @Override
+      public void visitVar(Factor.Var var) {
+        if (var.getVariable().getNReferences() == 0 && var.getNReferences() == 1) {
+          result.add(var.getVariable());
+        }
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        visitVar(assignee);
+      }
+    }.visitBody(body);
+    return result;
+  }
+
+  @Override
+  public void visitStatement(Statement statement) {
+    if (statement instanceof Statement.Jump jump) {
+      if (jump.type() == SHC.RETURN) {
+        hasReturn = true;
+      } else if (loopDepth == 0) {
+        hasJump = true;
+      }
+    }
+    super.visitStatement(statement);
+  }
+
+  @Override
+  public void visitDecl(Variable variable) {
+    assigned.add(variable);
+  }
+
+  @Override
+  public void visitAssignee(Factor.Var assignee) {
+    if (assignee.getNReferences() == 0) {
+      assigned.add(assignee.getVariable());
+    } else {
+      writesMemory = true;
+    }
+  }
+
+  @Override
+  public void visitCall(String name, Expression[] arguments) {
+    if (!FunctionAttributes.isSideEffectFree(name, attributes)) {
+      callsImpure = true;
+      writesMemory = true;
+    }
+    super.visitCall(name, arguments);
+  }
+
+  /** Return true iff the loop may change the value of {@code variable}. */
+  public boolean isModified(Variable variable) {
+    return assigned.contains(variable)
+        || (callsImpure && globals.contains(variable))
+        || (writesMemory && addressTaken.contains(variable));
+  }
+
+  /** Getter method for {@code writesMemory} */
+  public boolean writesMemory() {
+    return writesMemory;
+  }
+
+  /** Getter method for {@code callsImpure} */
+  public boolean callsImpure() {
+    return callsImpure;
+  }
+
+  /** Return true iff the loop has its own break or continue. */
+  public boolean hasJump() {
+    return hasJump;
+  }
+
+  /** Getter method for {@code hasReturn} */
+  public boolean hasReturn() {
+    return hasReturn;
+  }
+
+  /**
+   * Result of checking whether an expression is loop invariant.
+   *
+   * @param invariant       - the value is the same on every iteration
+   * @param speculationSafe - evaluating it where the original program would
+   *                        not have cannot fault: no memory reads, no
+   *                        division by a non-constant and no calls, which
+   *                        may divide or not terminate even if {@code const}
+   */
+  public record Invariance(boolean invariant, boolean speculationSafe) {
+  }
+
+  /** Check an additive expression. */
+  public Invariance check(AdditiveExpression expression) {
+    Checker checker = new Checker();
+    checker.visitAdditiveExpression(expression);
+    return checker.result();
+  }
+
+  /** Check a multiplicative expression. */
+  public Invariance check(MultiplicativeExpression expression) {
+    Checker checker = new Checker();
+    checker.visitMultiplicativeExpression(expression);
+    return checker.result();
+  }
+
+  /** Check a unary expression. */
+  public Invariance check(UnaryExpression expression) {
+    Checker checker = new Checker();
+    checker.visitUnaryExpression(expression);
+    return checker.result();
+  }
+
+  /** Check a factor. */
+  public Invariance check(Factor factor) {
+    Checker checker = new Checker();
+    checker.visitFactor(factor);
+    return checker.result();
+  }
+
+  /** Check an expression. */
+  public Invariance check(Expression expression) {
+    Checker checker = new Checker();
+    checker.visitExpression(expression);
+    return checker.result();
+  }
+
+  /**
+   * Walks an expression, checking every operand against the loop's effects.
+   */
+  private final class Checker extends ASTVisitor {
+    boolean invariant = true;
+    boolean speculationSafe = true;
+
+    Invariance result() {
+      return new Invariance(invariant, invariant && speculationSafe);
+    }
+
+    @Override
+    public void visitAssignment(Assignment assignment) {
+      if (assignment.hasAssignee()) {
+        invariant = false;
+      }
+      super.visitAssignment(assignment);
+    }
+
+    @Override
+    public void visitMultiplicativeExpression(MultiplicativeExpression expression) {
+      if (expression.hasLeft() && expression.getOperator() != SHC.MULTIPLY) {
+        Long divisor = ASTUtil.constantValue(expression.getRight());
+        if (divisor == null || divisor == 0) {
+          speculationSafe = false;
+        }
+      }
+      super.visitMultiplicativeExpression(expression);
+    }
+
+    @Override
+    public void visitVar(Factor.Var var) {
+      Variable variable = var.getVariable();
+      boolean addressOf = variable.getNReferences() == 0 && var.getNReferences() == 1;
+      if (addressOf) {
+        // the address of a variable never changes
+        return;
+      }
+      if (isModified(variable)) {
+        invariant = false;
+      }
+      if (var.getNReferences() > 0) {
+        speculationSafe = false;
+        if (writesMemory) {
+          invariant = false;
+        }
+      }
+    }
+
+    @Override
+    public void visitCall(String name, Expression[] arguments) {
+      FunctionAttributes callee = attributes.get(name);
+      boolean isConst = callee != null && callee.isConst();
+      speculationSafe = false;
+      if (!isConst && (!FunctionAttributes.isSideEffectFree(name, attributes) || writesMemory)) {
+        invariant = false;
+      }
+      super.visitCall(name, arguments);
+    }
+  }
+}
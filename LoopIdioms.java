@@ -0,0 +1,284 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Loop idiom recognition over {@code Statement.Loop}.
+ *
+ * Loops that do nothing but fill or copy consecutive elements become one call
+ * to the C library, which moves memory many bytes at a time:
+ *
+ * <pre>
+ * while (i &lt; n) { a[i] = v; i = i + 1; }            memset(a + i, v, n - i)
+ * while (p &lt; end) { ^p = v; p = p + 1; }            memset(p, v, end - p)
+ * while (i &lt; n) { a[i] = b[i]; i = i + 1; }         memcpy(a + i, b + i, n - i)
+ * while (s &lt; end) { ^d = ^s; d = d + 1; s = s + 1; } memmove(d, s, end - s)
+ * </pre>
+ *
+ * The call runs under the loop's own condition, and is followed by the
+ * assignments that leave the variables as the loop would. Lengths are scaled
+ * by the element size, and elements wider than a byte are only ever filled
+ * with 0. The bound and the fill value must be loop invariant (see
+ * {@link LoopEffects}).
+ *
+ * A copy between two different arrays cannot overlap and becomes
+ * {@code memcpy}. Any other copy becomes {@code memmove} only when the
+ * destination does not start inside the rest of the source,
+ * {@code d <= s || d - s >= count}, which is when copying forward one element
+ * at a time and {@code memmove} agree; the loop is kept for the other case. Programs
+ * that define a function of the same name keep their loops.
+ */
+public final class LoopIdioms extends ASTRewriter {
+  private final CallGraph callGraph;
+  private final HashMap<String, FunctionAttributes> attributes;
+  private final HashSet<Variable> globals;
+  private final Set<Variable> addressTaken;
+  private final ArrayList<String> replaced = new ArrayList<>();
+
+  private LoopIdioms(CallGraph callGraph, HashMap<String, FunctionAttributes> attributes, HashSet<Variable> globals,
+      Set<Variable> addressTaken) {
+    this.callGraph = callGraph;
+    this.attributes = attributes;
+    this.globals = globals;
+    this.addressTaken = addressTaken;
+  }
+
+  /**
+   * Run the pass over a program.
+   *
+   * @param program      - functions of the program
+   * @param globals      - global variables
+   * @param addressTaken - variables whose address the program takes
+   * @param options      - command line options
+   * @param reporter     - reporter for the report
+   * @return the transformed functions
+   */
+  public static ArrayList<Function> run(ArrayList<Function> program, ArrayList<Variable> globals,
+      Set<Variable> addressTaken, Options options, Reporter reporter) {
+    CallGraph callGraph = new CallGraph(program);
+    HashMap<String, FunctionAttributes> attributes = FunctionAttributes.infer(program, globals);
+    HashSet<Variable> globalSet = new HashSet<>(globals);
+    ArrayList<Function> result = new ArrayList<>();
+    for (Function function : program) {
+      LoopIdioms pass = new LoopIdioms(callGraph, attributes, globalSet, addressTaken);
+      result.add(function.withBody(pass.rewriteBody(function.getBody())));
+      if (options.isReport() && !pass.replaced.isEmpty()) {
+        reporter.printNote("loop idioms: `" + function.getName() + "`: " + String.join(", ", pass.replaced));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Statement[] rewriteStatement(Statement statement) {
+    Statement[] rewritten = super.rewriteStatement(statement);
+    if (!(statement instanceof Statement.Loop) || !(rewritten[0] instanceof Statement.Loop loop)) {
+      return rewritten;
+    }
+    Statement[] body = loop.body();
+    if (body.length < 2 || body.length > 3 || !(body[0] instanceof Statement.Assign store)) {
+      return rewritten;
+    }
+    LoopEffects effects = LoopEffects.of(loop, attributes, globals, addressTaken);
+    Statement[] idiom = store.assignment().hasIndex()
+        ? indexed(loop, store.assignment(), effects)
+        : pointer(loop, store.assignment(), effects);
+    return idiom != null ? idiom : rewritten;
+  }
+
+  /** Recognize {@code while (i < n) { a[i] = v; i = i + 1; }} and its copy form. */
+  private Statement[] indexed(Statement.Loop loop, Assignment store, LoopEffects effects) {
+    Factor.Var index = ASTUtil.asVar(store.getIndex());
+    if (index == null || index.getNReferences() != 0 || !isCounter(index.getVariable(), Types.INT)
+        || loop.body().length != 2 || !ASTUtil.isIncrement(loop.body()[1], index.getVariable())) {
+      return null;
+    }
+    Variable i = index.getVariable();
+    AdditiveExpression end = ASTUtil.upperBound(loop.cond(), i);
+    Factor.Var destination = store.getAssignee();
+    if (end == null || !CountedLoop.isBound(end, Types.INT, effects) || destination.getNReferences() != 1
+        || effects.isModified(destination.getVariable())) {
+      return null;
+    }
+    Types.Type element = Types.typeOf(destination);
+    int line = loop.lineIdx(), col = loop.charIdx();
+    Expression to = plus(var(destination.getVariable(), line, col), var(i, line, col));
+    Statement update = ASTUtil.assign(var(i, line, col), ASTUtil.orOf(ASTUtil.copy(end)));
+
+    if (ASTUtil.asFactor(store.getValue()) instanceof Factor.Index load) {
+      Variable source = load.element().getVariable();
+      Factor.Var loadIndex = ASTUtil.asVar(load.index());
+      if (callGraph.isDefined("memcpy") || callGraph.isDefined("memmove") || load.element().getNReferences() != 1
+          || loadIndex == null || !ASTUtil.isVariable(loadIndex, i)
+          || source == destination.getVariable() || effects.isModified(source)
+          || !element.equals(Types.typeOf(load.element()))) {
+        return null;
+      }
+      Expression from = plus(var(source, line, col), var(i, line, col));
+      Expression[] arguments = { to, from, bytes(count(end, i), element) };
+      if (source.isArray() && destination.getVariable().isArray()) {
+        replaced.add("memcpy (line " + line + ")");
+        return guarded(loop, i, end, call("memcpy", arguments, line, col), update);
+      }
+      replaced.add("memmove (line " + line + ")");
+      return forwardSafe(loop, i, end, destination.getVariable(), source, call("memmove", arguments, line, col),
+          update);
+    }
+
+    if (!isFill(store.getValue(), element, effects)) {
+      return null;
+    }
+    replaced.add("memset (line " + line + ")");
+    Expression[] arguments = { to, ASTUtil.expressionOf(store.getValue()), bytes(count(end, i), element) };
+    return guarded(loop, i, end, call("memset", arguments, line, col), update);
+  }
+
+  /**
+   * Recognize {@code while (p < end) { ^p = v; p = p + 1; }} and
+   * {@code while (s < end) { ^d = ^s; d = d + 1; s = s + 1; }}, bounded by
+   * either pointer.
+   */
+  private Statement[] pointer(Statement.Loop loop, Assignment store, LoopEffects effects) {
+    Factor.Var destination = store.getAssignee();
+    Variable d = destination.getVariable();
+    if (destination.getNReferences() != 1 || d.getNReferences() == 0 || !isCounter(d, Types.of(d))) {
+      return null;
+    }
+    Types.Type element = Types.typeOf(destination);
+    int line = loop.lineIdx(), col = loop.charIdx();
+    Statement[] body = loop.body();
+
+    if (body.length == 2) {
+      AdditiveExpression end = ASTUtil.upperBound(loop.cond(), d);
+      if (end == null || !ASTUtil.isIncrement(body[1], d) || !CountedLoop.isBound(end, Types.of(d), effects)
+          || !isFill(store.getValue(), element, effects)) {
+        return null;
+      }
+      replaced.add("memset (line " + line + ")");
+      Expression[] arguments = { ASTUtil.expressionOf(var(d, line, col)), ASTUtil.expressionOf(store.getValue()),
+          bytes(count(end, d), element) };
+      return guarded(loop, d, end, call("memset", arguments, line, col), ASTUtil.assign(var(d, line, col),
+          ASTUtil.orOf(ASTUtil.copy(end))));
+    }
+
+    if (callGraph.isDefined("memmove") || !(ASTUtil.asFactor(store.getValue()) instanceof Factor.Var load)
+        || load.getNReferences() != 1
+        || load.getVariable() == d || !isCounter(load.getVariable(), Types.of(d))) {
+      return null;
+    }
+    Variable s = load.getVariable();
+    boolean increments = ASTUtil.isIncrement(body[1], d) && ASTUtil.isIncrement(body[2], s)
+        || ASTUtil.isIncrement(body[1], s) && ASTUtil.isIncrement(body[2], d);
+    AdditiveExpression end = ASTUtil.upperBound(loop.cond(), s);
+    Variable counter = s, other = d;
+    if (end == null) {
+      end = ASTUtil.upperBound(loop.cond(), d);
+      counter = d;
+      other = s;
+    }
+    if (!increments || end == null || !CountedLoop.isBound(end, Types.of(d), effects)) {
+      return null;
+    }
+    replaced.add("memmove (line " + line + ")");
+    Expression[] arguments = { ASTUtil.expressionOf(var(d, line, col)), ASTUtil.expressionOf(var(s, line, col)),
+        bytes(count(end, counter), element) };
+    AdditiveExpression advanced = new AdditiveExpression(ASTUtil.addOf(var(other, line, col)), SHC.ADD,
+        ASTUtil.mulOf(ASTUtil.unaryOf(parenthesized(count(end, counter)))), line, col);
+    return forwardSafe(loop, counter, end, d, s, call("memmove", arguments, line, col),
+        ASTUtil.assign(var(other, line, col), ASTUtil.orOf(advanced)),
+        ASTUtil.assign(var(counter, line, col), ASTUtil.orOf(ASTUtil.copy(end))));
+  }
+
+  /**
+   * Return true iff a variable can count through a loop: a local scalar of the
+   * given type that no store in the loop can reach.
+   */
+  private boolean isCounter(Variable variable, Types.Type type) {
+    return !variable.isArray() && Types.of(variable).equals(type) && !globals.contains(variable)
+        && !addressTaken.contains(variable);
+  }
+
+  /**
+   * Return true iff storing {@code value} into every element is a
+   * {@code memset}: it is loop invariant, and 0 unless elements are bytes.
+   */
+  private boolean isFill(OrExpression value, Types.Type element, LoopEffects effects) {
+    if (!callGraph.isDefined("memset") && !element.isPointer()
+        && effects.check(ASTUtil.expressionOf(value)).invariant()) {
+      Long constant = ASTUtil.constantValue(value);
+      return Types.sizeOf(element) == 1 || constant != null && constant == 0;
+    }
+    return false;
+  }
+
+  /** Build {@code if (counter < end) { statements }}, the loop's condition. */
+  private static Statement[] guarded(Statement.Loop loop, Variable counter, AdditiveExpression end,
+      Statement... statements) {
+    int line = loop.lineIdx(), col = loop.charIdx();
+    Factor cond = ASTUtil.compare(ASTUtil.addOf(var(counter, line, col)), SHC.LESS, ASTUtil.copy(end));
+    return new Statement[] { new Statement.If(cond, statements, new Statement[0], line, col) };
+  }
+
+  /**
+   * Build {@code if (counter < end) { if (d <= s || d - s >= end - counter)
+   * { statements } else loop }}: when the destination starts before the
+   * source, or at least the length past it, the forward copy never reads
+   * what it wrote.
+   */
+  private static Statement[] forwardSafe(Statement.Loop loop, Variable counter, AdditiveExpression end,
+      Variable d, Variable s, Statement... statements) {
+    int line = loop.lineIdx(), col = loop.charIdx();
+    Factor before = ASTUtil.compare(ASTUtil.addOf(var(d, line, col)), SHC.LEQ, ASTUtil.addOf(var(s, line, col)));
+    AdditiveExpression distance = minus(ASTUtil.addOf(var(d, line, col)), var(s, line, col));
+    Factor cond = ASTUtil.or(before, ASTUtil.compare(distance, SHC.GEQ, count(end, counter)));
+    Statement copy = new Statement.If(cond, statements, new Statement[] { loop }, line, col);
+    return guarded(loop, counter, end, copy);
+  }
+
+  /** Build {@code end - counter}, the number of iterations left. */
+  private static AdditiveExpression count(AdditiveExpression end, Variable counter) {
+    return minus(ASTUtil.copy(end), var(counter, end.getLineIdx(), end.getCharIdx()));
+  }
+
+  /** Build a call statement to a C library function. */
+  private Statement call(String name, Expression[] arguments, int line, int col) {
+    Function function = new Function(SHC.VOID, name, new Variable[0], new Variable[0], new Statement[0], line, col);
+    return new Statement.Call(function, arguments, line, col);
+  }
+
+  /** Return {@code count} elements of the given type in bytes. */
+  private static Expression bytes(AdditiveExpression count, Types.Type element) {
+    int size = Types.sizeOf(element);
+    if (size == 1) {
+      return ASTUtil.expressionOf(ASTUtil.orOf(count));
+    }
+    Factor.Const width = new Factor.Const(size, count.getLineIdx(), count.getCharIdx());
+    MultiplicativeExpression product = new MultiplicativeExpression(
+        ASTUtil.mulOf(ASTUtil.unaryOf(parenthesized(count))), SHC.MULTIPLY, ASTUtil.unaryOf(width),
+        count.getLineIdx(), count.getCharIdx());
+    return ASTUtil.expressionOf(ASTUtil.orOf(ASTUtil.addOf(product)));
+  }
+
+  private static Factor.Var var(Variable variable, int line, int col) {
+    return new Factor.Var(variable, 0, line, col);
+  }
+
+  private static Factor parenthesized(AdditiveExpression expression) {
+    return new Factor.Parentheses(ASTUtil.expressionOf(ASTUtil.orOf(expression)), expression.getLineIdx(),
+        expression.getCharIdx());
+  }
+
+  /** Build {@code left - right}. */
+  private static AdditiveExpression minus(AdditiveExpression left, Factor right) {
+    return new AdditiveExpression(left, SHC.SUBTRACT, ASTUtil.mulOf(ASTUtil.unaryOf(right)), left.getLineIdx(),
+        left.getCharIdx());
+  }
+
+  /** Build {@code left + right}. */
+  private static Expression plus(Factor left, Factor right) {
+    AdditiveExpression sum = new AdditiveExpression(ASTUtil.addOf(left), SHC.ADD,
+        ASTUtil.mulOf(ASTUtil.unaryOf(right)), ASTUtil.addOf(left).getLineIdx(), ASTUtil.addOf(left).getCharIdx());
+    return ASTUtil.expressionOf(ASTUtil.orOf(sum));
+  }
+}
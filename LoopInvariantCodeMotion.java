@@ -0,0 +1,219 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loop-invariant code motion over {@code Statement.Loop}.
+ *
+ * Subexpressions of a loop whose operands the loop never changes (see
+ * {@link LoopEffects}) are computed once into a compiler-introduced temporary
+ * declared right before the {@code while}. Expressions in the condition that
+ * are always evaluated may be hoisted even if they read memory; anything in
+ * the body, or behind {@code &&}/{@code ||}, only runs on some iterations, so
+ * it is hoisted only when evaluating it early cannot fault.
+ *
+ * Inner loops are processed first, so invariants can move out of a nest one
+ * level at a time.
+ */
+public final class LoopInvariantCodeMotion extends ASTRewriter {
+  /** prefix of the temporaries introduced by this pass */
+  private static final String TEMP_PREFIX = "shc_licm_";
+
+  private final CallGraph callGraph;
+  private final HashMap<String, FunctionAttributes> attributes;
+  private final HashSet<Variable> globals;
+  private final Set<Variable> addressTaken;
+  private final ArrayList<String> hoisted = new ArrayList<>();
+  private int nTemps = 0;
+
+  private LoopInvariantCodeMotion(CallGraph callGraph, HashMap<String, FunctionAttributes> attributes,
+      HashSet<Variable> globals, Set<Variable> addressTaken) {
+    this.callGraph = callGraph;
+    this.attributes = attributes;
+    this.globals = globals;
+    this.addressTaken = addressTaken;
+  }
+
+  /**
+   * Run the pass over a program.
+   *
+   * @param program      - functions of the program
+   * @param globals      - global variables
+   * @param addressTaken - variables whose address the program takes
+   * @param options      - command line options
+   * @param reporter     - reporter for the report
+   * @return the transformed functions
+   */
+  public static ArrayList<Function> run(ArrayList<Function> program, ArrayList<Variable> globals,
+      Set<Variable> addressTaken, Options options, Reporter reporter) {
+    CallGraph callGraph = new CallGraph(program);
+    HashMap<String, FunctionAttributes> attributes = FunctionAttributes.infer(program, globals);
+    HashSet<Variable> globalSet = new HashSet<>(globals);
+    ArrayList<Function> result = new ArrayList<>();
+    for (Function function : program) {
+      LoopInvariantCodeMotion pass = new LoopInvariantCodeMotion(callGraph, attributes, globalSet, addressTaken);
+      result.add(function.withBody(pass.rewriteBody(function.getBody())));
+      if (options.isReport() && !pass.hoisted.isEmpty()) {
+        reporter.printNote("licm: `" + function.getName() + "`: hoisted " + String.join(", ", pass.hoisted));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Statement[] rewriteStatement(Statement statement) {
+    Statement[] rewritten = super.rewriteStatement(statement);
+    if (!(statement instanceof Statement.Loop)) {
+      return rewritten;
+    }
+    Statement.Loop loop = (Statement.Loop) rewritten[0];
+    LoopEffects effects = LoopEffects.of(loop, attributes, globals, addressTaken);
+    Hoister hoister = new Hoister(effects, loop);
+    Factor cond = hoister.rewriteFactor(loop.cond());
+    hoister.speculative = true;
+    Statement[] body = hoister.rewriteBody(loop.body());
+    if (hoister.temps.isEmpty()) {
+      return rewritten;
+    }
+
+    ArrayList<Statement> result = new ArrayList<>();
+    for (Map.Entry<Variable, Object> temp : hoister.temps.entrySet()) {
+      Variable variable = temp.getKey();
+      result.add(new Statement.Decl(variable, loop.lineIdx(), loop.charIdx()));
+      Factor.Var target = new Factor.Var(variable, 0, loop.lineIdx(), loop.charIdx());
+      result.add(ASTUtil.assign(target, hoister.valueOf(temp.getValue())));
+      hoisted.add("`" + temp.getValue() + "` (line " + loop.lineIdx() + ")");
+    }
+    result.add(new Statement.Loop(cond, body, loop.parallel(), loop.lineIdx(), loop.charIdx()));
+    return result.toArray(Statement[]::new);
+  }
+
+  /**
+   * Replaces the invariant subexpressions of one loop with temporaries.
+   */
+  private final class Hoister extends ASTRewriter {
+    private final LoopEffects effects;
+    private final Statement.Loop loop;
+    /** whether the node being rewritten may not run on every iteration */
+    boolean speculative = false;
+    /** temporaries, and the expression node each one holds */
+    final LinkedHashMap<Variable, Object> temps = new LinkedHashMap<>();
+    /** temporaries by the source text of the expression they hold */
+    private final HashMap<String, Variable> bySource = new HashMap<>();
+
+    Hoister(LoopEffects effects, Statement.Loop loop) {
+      this.effects = effects;
+      this.loop = loop;
+    }
+
+    @Override
+    public OrExpression rewriteOrExpression(OrExpression expression) {
+      if (!expression.hasLeft()) {
+        return super.rewriteOrExpression(expression);
+      }
+      OrExpression left = rewriteOrExpression(expression.getLeft());
+      boolean saved = speculative;
+      speculative = true;
+      AndExpression right = rewriteAndExpression(expression.getRight());
+      speculative = saved;
+      if (left == expression.getLeft() && right == expression.getRight()) {
+        return expression;
+      }
+      return new OrExpression(left, right, expression.getLineIdx(), expression.getCharIdx());
+    }
+
+    @Override
+    public AndExpression rewriteAndExpression(AndExpression expression) {
+      if (!expression.hasLeft()) {
+        return super.rewriteAndExpression(expression);
+      }
+      AndExpression left = rewriteAndExpression(expression.getLeft());
+      boolean saved = speculative;
+      speculative = true;
+      EqualityExpression right = rewriteEqualityExpression(expression.getRight());
+      speculative = saved;
+      if (left == expression.getLeft() && right == expression.getRight()) {
+        return expression;
+      }
+      return new AndExpression(left, right, expression.getLineIdx(), expression.getCharIdx());
+    }
+
+    @Override
+    public AdditiveExpression rewriteAdditiveExpression(AdditiveExpression expression) {
+      if (expression.hasLeft()) {
+        Types.Type type = Types.typeOf(expression, callGraph.getFunctionsByName());
+        if (canHoist(effects.check(expression), type)) {
+          return ASTUtil.addOf(tempFor(expression, type, expression.getLineIdx(), expression.getCharIdx()));
+        }
+      }
+      return super.rewriteAdditiveExpression(expression);
+    }
+
+    @Override
+    public MultiplicativeExpression rewriteMultiplicativeExpression(MultiplicativeExpression expression) {
+      if (expression.hasLeft()) {
+        Types.Type type = Types.typeOf(expression, callGraph.getFunctionsByName());
+        if (canHoist(effects.check(expression), type)) {
+          Factor.Var temp = tempFor(expression, type, expression.getLineIdx(), expression.getCharIdx());
+          return ASTUtil.mulOf(ASTUtil.unaryOf(temp));
+        }
+      }
+      return super.rewriteMultiplicativeExpression(expression);
+    }
+
+    @Override
+    public Factor rewriteFactor(Factor factor) {
+      if (factor instanceof Factor.Call call) {
+        Types.Type type = Types.typeOf(call, callGraph.getFunctionsByName());
+        if (canHoist(effects.check(call), type)) {
+          return tempFor(call, type, call.lineIdx(), call.charIdx());
+        }
+      }
+      return super.rewriteFactor(factor);
+    }
+
+    /**
+     * Return true iff an expression with the given invariance and type may be
+     * hoisted from the current position.
+     */
+    private boolean canHoist(LoopEffects.Invariance invariance, Types.Type type) {
+      if (!invariance.invariant() || type == null) {
+        return false;
+      }
+      if (speculative) {
+        // pointer arithmetic is only valid on pointers the program really forms
+        return invariance.speculationSafe() && type.isWide();
+      }
+      return type.isWide() || type.isPointer();
+    }
+
+    /**
+     * Return a usage of the temporary holding {@code node}, creating it if
+     * needed. Equal expressions share one temporary.
+     */
+    private Factor.Var tempFor(Object node, Types.Type type, int lineIdx, int charIdx) {
+      String source = node.toString();
+      Variable variable = bySource.get(source);
+      if (variable == null) {
+        SHC base = type.base() == SHC.INT_LITERAL ? SHC.INT : type.base();
+        variable = new Variable(TEMP_PREFIX + nTemps++, base, type.nReferences(), loop.lineIdx(), loop.charIdx());
+        bySource.put(source, variable);
+        temps.put(variable, node);
+      }
+      return new Factor.Var(variable, 0, lineIdx, charIdx);
+    }
+
+    /** Return the hoisted node as the right-hand side of an assignment. */
+    OrExpression valueOf(Object node) {
+      return switch (node) {
+        case AdditiveExpression add -> ASTUtil.orOf(add);
+        case MultiplicativeExpression mul -> ASTUtil.orOf(ASTUtil.addOf(mul));
+        case Factor factor -> ASTUtil.orOf(factor);
+        default -> throw new IllegalStateException("cannot hoist " + node);
+      };
+    }
+  }
+}
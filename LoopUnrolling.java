@@ -0,0 +1,232 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Loop unrolling over counted loops (see {@link CountedLoop}).
+ *
+ * A loop whose counter is set to a constant right before it and whose bound
+ * is a constant runs a known number of times. If that is at most
+ * {@link #MAX_TRIPS}, it is replaced by that many copies of its body, and
+ * the increments of the counter become assignments of the value it has at
+ * that point:
+ *
+ * <pre>
+ * i = 0; while (i &lt; 2) { s = s + a[i]; i = i + 1; }
+ * i = 0; s = s + a[i]; i = 1; s = s + a[i]; i = 2;
+ * </pre>
+ *
+ * With {@code --unroll=N}, any other counted loop runs {@code N} copies of
+ * its body per test while at least {@code N} iterations are left, and the
+ * original loop runs the rest:
+ *
+ * <pre>
+ * while (i &lt; n &amp;&amp; n - i &gt; (N - 1) * step) { body ... body }
+ * while (i &lt; n) { body }
+ * </pre>
+ *
+ * Loops with their own {@code break} or {@code continue}, or with
+ * declarations, are left alone, and no body grows past
+ * {@link #MAX_STATEMENTS}.
+ */
+public final class LoopUnrolling extends ASTRewriter {
+  /** most iterations of a loop that is unrolled completely */
+  private static final int MAX_TRIPS = 8;
+  /** most statements an unrolled body may have, counting nested ones */
+  private static final int MAX_STATEMENTS = 64;
+
+  private final int factor;
+  private final HashMap<String, FunctionAttributes> attributes;
+  private final HashSet<Variable> globals;
+  private final Set<Variable> addressTaken;
+  private final ArrayList<String> unrolled = new ArrayList<>();
+  /** the statements before the one being rewritten, in the same body */
+  private ArrayList<Statement> previous = new ArrayList<>();
+
+  private LoopUnrolling(int factor, HashMap<String, FunctionAttributes> attributes, HashSet<Variable> globals,
+      Set<Variable> addressTaken) {
+    this.factor = factor;
+    this.attributes = attributes;
+    this.globals = globals;
+    this.addressTaken = addressTaken;
+  }
+
+  /**
+   * Run the pass over a program.
+   *
+   * @param program      - functions of the program
+   * @param globals      - global variables
+   * @param addressTaken - variables whose address the program takes
+   * @param options      - command line options
+   * @param reporter     - reporter for the report
+   * @return the transformed functions
+   */
+  public static ArrayList<Function> run(ArrayList<Function> program, ArrayList<Variable> globals,
+      Set<Variable> addressTaken, Options options, Reporter reporter) {
+    HashMap<String, FunctionAttributes> attributes = FunctionAttributes.infer(program, globals);
+    HashSet<Variable> globalSet = new HashSet<>(globals);
+    ArrayList<Function> result = new ArrayList<>();
+    for (Function function : program) {
+      LoopUnrolling pass = new LoopUnrolling(options.getUnroll(), attributes, globalSet, addressTaken);
+      result.add(function.withBody(pass.rewriteBody(function.getBody())));
+      if (options.isReport() && !pass.unrolled.isEmpty()) {
+        reporter.printNote("unrolling: `" + function.getName() + "`: " + String.join(", ", pass.unrolled));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Statement[] rewriteBody(Statement[] body) {
+    ArrayList<Statement> saved = previous;
+    previous = new ArrayList<>();
+    Statement[] result = super.rewriteBody(body);
+    previous = saved;
+    return result;
+  }
+
+  @Override
+  public Statement[] rewriteStatement(Statement statement) {
+    ArrayList<Statement> before = previous;
+    Statement[] rewritten = super.rewriteStatement(statement);
+    Statement[] result = statement instanceof Statement.Loop && rewritten[0] instanceof Statement.Loop loop
+        ? unroll(loop, before) : null;
+    before.add(statement);
+    return result != null ? result : rewritten;
+  }
+
+  /** Unroll a loop, given the statements before it, or return null. */
+  private Statement[] unroll(Statement.Loop loop, ArrayList<Statement> before) {
+    LoopEffects effects = LoopEffects.of(loop, attributes, globals, addressTaken);
+    CountedLoop counted = CountedLoop.of(loop, effects, globals, addressTaken);
+    int size = sizeOf(loop.body());
+    if (counted == null || effects.hasJump() || size < 0) {
+      return null;
+    }
+    Statement[] result = completely(loop, counted, before, size);
+    if (result == null && factor > 1 && size * factor <= MAX_STATEMENTS
+        && (factor - 1) * counted.step() <= Integer.MAX_VALUE) {
+      result = partially(loop, counted);
+    }
+    return result;
+  }
+
+  /**
+   * Unroll a loop completely if the statements {@code before} it set its
+   * counter to a constant and it runs at most {@link #MAX_TRIPS} times.
+   */
+  private Statement[] completely(Statement.Loop loop, CountedLoop counted, ArrayList<Statement> before, int size) {
+    Long start = initialValue(before, counted.counter());
+    Long end = counted.constantEnd();
+    if (start == null || end == null || start < 0 || end < 0) {
+      return null;
+    }
+    long trips = start >= end ? 0 : (end - start + counted.step() - 1) / counted.step();
+    if (trips > MAX_TRIPS || trips * size > MAX_STATEMENTS
+        || start + trips * counted.step() > Integer.MAX_VALUE) {
+      return null;
+    }
+    ArrayList<Statement> result = new ArrayList<>();
+    long value = start;
+    for (long trip = 0; trip < trips; trip++) {
+      Statement[] copy = ASTUtil.copy(loop.body());
+      for (int k = 0; k < copy.length; k++) {
+        Long step = ASTUtil.stepOf(copy[k], counted.counter());
+        if (step == null) {
+          result.add(copy[k]);
+          continue;
+        }
+        value += step;
+        Statement.Assign increment = (Statement.Assign) copy[k];
+        Factor.Const constant = new Factor.Const((int) value, increment.lineIdx(), increment.charIdx());
+        result.add(ASTUtil.assign(increment.assignment().getAssignee(), ASTUtil.orOf(constant)));
+      }
+    }
+    unrolled.add("completely, " + trips + " iterations (line " + loop.lineIdx() + ")");
+    return result.toArray(Statement[]::new);
+  }
+
+  /**
+   * Unroll a loop by {@link #factor}: the unrolled loop runs while at least
+   * that many iterations are left, and the original loop after it runs the
+   * rest.
+   */
+  private Statement[] partially(Statement.Loop loop, CountedLoop counted) {
+    int line = loop.lineIdx(), col = loop.charIdx();
+    Variable i = counted.counter();
+    Factor.Var counter = new Factor.Var(i, 0, line, col);
+    Factor more = ASTUtil.compare(ASTUtil.addOf(counter), SHC.LESS, ASTUtil.copy(counted.end()));
+    AdditiveExpression remaining = new AdditiveExpression(ASTUtil.copy(counted.end()), SHC.SUBTRACT,
+        ASTUtil.mulOf(ASTUtil.unaryOf(new Factor.Var(i, 0, line, col))), line, col);
+    Factor.Const rest = new Factor.Const((int) ((factor - 1) * counted.step()), line, col);
+    Factor enough = ASTUtil.compare(remaining, SHC.GREATER, ASTUtil.addOf(rest));
+
+    ArrayList<Statement> body = new ArrayList<>();
+    for (int k = 0; k < factor; k++) {
+      for (Statement statement : ASTUtil.copy(loop.body())) {
+        body.add(statement);
+      }
+    }
+    unrolled.add("by " + factor + " (line " + line + ")");
+    Statement.Loop unrolledLoop = new Statement.Loop(ASTUtil.and(more, enough), body.toArray(Statement[]::new),
+        line, col);
+    return new Statement[] { unrolledLoop, loop };
+  }
+
+  /**
+   * Return the constant {@code counter} holds after a sequence of statements,
+   * or null: the last statement that writes it must be {@code counter = c;}.
+   * Nothing else can change it, as the counter is a local whose address is
+   * never taken.
+   */
+  private static Long initialValue(ArrayList<Statement> before, Variable counter) {
+    for (int k = before.size() - 1; k >= 0; k--) {
+      Statement statement = before.get(k);
+      boolean[] writes = { false };
+      new ASTVisitor() {
+        @Override
+        public void visitDecl(Variable variable) {
+          writes[0] |= variable == counter;
+        }
+
+        @Override
+        public void visitAssignee(Factor.Var assignee) {
+          writes[0] |= ASTUtil.isVariable(assignee, counter);
+        }
+      }.visitStatement(statement);
+      if (!writes[0]) {
+        continue;
+      }
+      if (!(statement instanceof Statement.Assign assign) || assign.assignment().hasIndex()
+          || !ASTUtil.isVariable(assign.assignment().getAssignee(), counter)) {
+        return null;
+      }
+      return ASTUtil.constantValue(assign.assignment().getValue());
+    }
+    return null;
+  }
+
+  /**
+   * Return the number of statements in a body, counting those in nested
+   * bodies, or -1 if it declares a variable, which a copy would declare
+   * again.
+   */
+  private static int sizeOf(Statement[] body) {
+    int[] size = { 0 };
+    boolean[] declares = { false };
+    new ASTVisitor() {
+      @Override
+      public void visitStatement(Statement statement) {
+        size[0]++;
+        super.visitStatement(statement);
+      }
+
+      @Override
+      public void visitDecl(Variable variable) {
+        declares[0] = true;
+      }
+    }.visitBody(body);
+    return declares[0] ? -1 : size[0];
+  }
+}
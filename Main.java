@@ -10,16 +10,18 @@ public final class Main {
 
   public static void main(String[] args) {
     if (args.length == 0) {
-      System.err.println("Usage: java Main [--roundtrip] <file1> [file2 ...]");
+      System.err.println("Usage: java Main [--roundtrip] [options] <file1> [file2 ...]");
+      System.err.print(Options.usage());
       System.exit(1);
     }
 
     boolean roundtrip = false;
+    Options options = new Options();
     ArrayList<String> files = new ArrayList<>();
     for (String a : args) {
       if ("--roundtrip".equals(a))
         roundtrip = true;
-      else
+      else if (!options.parse(a))
         files.add(a);
     }
     if (files.isEmpty()) {
@@ -27,6 +29,10 @@ public final class Main {
       System.exit(1);
     }
 
+    if (options.isRun()) {
+      System.exit(run(files, options));
+    }
+
     for (String filename : files) {
       System.out.println(sep("PARSING " + filename));
 
@@ -82,11 +88,51 @@ public final class Main {
 
       System.out.println(sep("COMPILING..."));
 
-      System.out.println("Output file: " + filename + ".c");
+      String output = filename + (options.isAsm() ? ".s" : options.getSplit() > 0 ? ".mk" : ".c");
+      System.out.println("Output file: " + output);
 
-      Compiler.compile(funs, parser.getGlobalVariables(), filename + ".c", new Reporter(filename));
+      Reporter reporter = new Reporter(filename);
+      ArrayList<Function> optimized = Optimizer.optimize(funs, parser.getGlobalVariables(), options, reporter);
+      if (options.isAsm()) {
+        AssemblyCompiler.compile(optimized, parser.getGlobalVariables(), output, reporter);
+      } else if (options.getSplit() > 0) {
+        Compiler.compileSplit(optimized, parser.getGlobalVariables(), filename, reporter, options);
+      } else {
+        Compiler.compile(optimized, parser.getGlobalVariables(), output, reporter, options);
+      }
 
       System.out.println(sep("DONE " + filename));
     }
   }
+
+  /**
+   * Run a program in-process: with the interpreter, the virtual machine, or
+   * compiled to JVM classes; or natively, built by the system C compiler.
+   *
+   * @param arguments - the program file, followed by its arguments
+   * @param options   - command line options
+   * @return the program's exit status
+   */
+  private static int run(ArrayList<String> arguments, Options options) {
+    if (options.isBuild()) {
+      return NativeBuild.run(arguments, options);
+    }
+    String filename = arguments.get(0);
+    Parser parser = new Parser(filename);
+    ArrayList<Function> funs = parser.parseProgram();
+    Reporter reporter = new Reporter(filename);
+    ArrayList<Function> optimized = Optimizer.optimize(funs, parser.getGlobalVariables(), options, reporter);
+    try {
+      if (options.isJvm()) {
+        return JvmRuntime.run(optimized, parser.getGlobalVariables(), arguments);
+      }
+      if (options.isVm()) {
+        return VirtualMachine.run(optimized, parser.getGlobalVariables(), arguments);
+      }
+      return Interpreter.run(optimized, parser.getGlobalVariables(), arguments);
+    } catch (ExecutionError e) {
+      reporter.printError("runtime error at " + e.getMessage());
+      return 1;
+    }
+  }
 }
@@ -0,0 +1,289 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * Flat address space for running SHC programs in-process.
+ *
+ * All program memory lives in one off-heap little-endian buffer, and a
+ * pointer is an offset into it, so pointer arithmetic and casts behave like
+ * the C the compiler emits: {@code int} is 8 bytes, {@code char} 1 byte.
+ * Address 0 is {@code NULL}, and the first bytes are never mapped so null
+ * dereferences fault.
+ *
+ * The buffer starts with the stack, used for the frames of interpreted
+ * functions, followed by the heap, which {@code malloc} grows on demand.
+ */
+public final class Memory {
+  /** the null pointer */
+  public static final long NULL = 0;
+  /** addresses below this are never valid */
+  private static final int GUARD = 16;
+  /** alignment of every allocation */
+  private static final int ALIGNMENT = 16;
+  /** bytes before each heap block, holding its size */
+  private static final int HEADER = 16;
+  /** default stack size */
+  private static final int STACK_SIZE = 8 << 20;
+  /** initial heap size */
+  private static final int INITIAL_HEAP_SIZE = 8 << 20;
+  /** largest address space a direct buffer can hold */
+  private static final long MAX_SIZE = Integer.MAX_VALUE & ~(ALIGNMENT - 1);
+
+  private ByteBuffer bytes;
+  private final int stackLimit;
+  private int stackPointer = GUARD;
+  private long heapTop;
+  /** freed heap blocks, by size */
+  private final HashMap<Long, ArrayDeque<Long>> freeBlocks = new HashMap<>();
+  /** string literals, interned */
+  private final HashMap<String, Long> strings = new HashMap<>();
+
+  /** Constructor for the {@code Memory} class. */
+  public Memory() {
+    this.stackLimit = STACK_SIZE;
+    this.heapTop = STACK_SIZE;
+    this.bytes = ByteBuffer.allocateDirect(STACK_SIZE + INITIAL_HEAP_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  // ===================== access =====================
+
+  /**
+   * Load a value of {@code size} bytes. Chars are zero-extended, 2 and 4 byte
+   * values sign-extended.
+   *
+   * @param address - address to read
+   * @param size    - 1, 2, 4 or 8
+   */
+  public long load(long address, int size) {
+    int index = check(address, size);
+    return switch (size) {
+      case 1 -> bytes.get(index) & 0xFF;
+      case 2 -> bytes.getShort(index);
+      case 4 -> bytes.getInt(index);
+      default -> bytes.getLong(index);
+    };
+  }
+
+  /**
+   * Store the low {@code size} bytes of a value.
+   *
+   * @param address - address to write
+   * @param size    - 1, 2, 4 or 8
+   * @param value   - value to store
+   */
+  public void store(long address, int size, long value) {
+    int index = check(address, size);
+    switch (size) {
+      case 1 -> bytes.put(index, (byte) value);
+      case 2 -> bytes.putShort(index, (short) value);
+      case 4 -> bytes.putInt(index, (int) value);
+      default -> bytes.putLong(index, value);
+    }
+  }
+
+  /** Load one byte. */
+  public int loadByte(long address) {
+    return bytes.get(check(address, 1)) & 0xFF;
+  }
+
+  /** Store one byte. */
+  public void storeByte(long address, int value) {
+    bytes.put(check(address, 1), (byte) value);
+  }
+
+  /** Copy {@code length} bytes out of memory. */
+  public byte[] read(long address, long length) {
+    byte[] result = new byte[(int) length];
+    bytes.get(check(address, length), result);
+    return result;
+  }
+
+  /** Copy bytes into memory. */
+  public void write(long address, byte[] data, int length) {
+    bytes.put(check(address, length), data, 0, length);
+  }
+
+  /** Copy {@code length} bytes; the ranges may overlap. */
+  public void copy(long destination, long source, long length) {
+    int to = check(destination, length);
+    int from = check(source, length);
+    if (Math.abs(destination - source) < length) {
+      byte[] overlapping = read(source, length);
+      write(destination, overlapping, overlapping.length);
+    } else {
+      bytes.put(to, bytes, from, (int) length);
+    }
+  }
+
+  /** Set {@code length} bytes to {@code value}. */
+  public void fill(long address, int value, long length) {
+    int index = check(address, length);
+    for (int i = 0; i < length; i++) {
+      bytes.put(index + i, (byte) value);
+    }
+  }
+
+  /** Return the length of the NUL-terminated string at {@code address}. */
+  public long stringLength(long address) {
+    long end = address;
+    while (loadByte(end) != 0) {
+      end++;
+    }
+    return end - address;
+  }
+
+  /** Read the NUL-terminated string at {@code address}. */
+  public String readString(long address) {
+    return new String(read(address, stringLength(address)), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Return the address of a NUL-terminated copy of a string literal. Equal
+   * literals share one copy.
+   *
+   * @param string - literal to place
+   */
+  public long intern(String string) {
+    Long address = strings.get(string);
+    if (address == null) {
+      byte[] data = string.getBytes(StandardCharsets.UTF_8);
+      address = allocate(data.length + 1);
+      write(address, data, data.length);
+      strings.put(string, address);
+    }
+    return address;
+  }
+
+  /**
+   * Return the buffer index for an access, or throw if it is out of bounds.
+   */
+  private int check(long address, long size) {
+    if (address < GUARD || size < 0 || address + size > bytes.capacity()) {
+      throw new ExecutionError(String.format("invalid memory access of %d bytes at 0x%x", size, address));
+    }
+    return (int) address;
+  }
+
+  // ===================== stack =====================
+
+  /** Return the current stack pointer, to pass to {@link #popFrame(int)}. */
+  public int getStackPointer() {
+    return stackPointer;
+  }
+
+  /**
+   * Reserve a zeroed stack frame.
+   *
+   * @param size - frame size in bytes
+   * @return the address of the frame
+   */
+  public long pushFrame(int size) {
+    int frame = stackPointer;
+    int top = align(frame + size);
+    if (top > stackLimit) {
+      throw new ExecutionError("stack overflow");
+    }
+    for (int i = frame; i < top; i += 8) {
+      bytes.putLong(i, 0);
+    }
+    stackPointer = top;
+    return frame;
+  }
+
+  /** Release every frame pushed since {@code mark} was the stack pointer. */
+  public void popFrame(int mark) {
+    stackPointer = mark;
+  }
+
+  // ===================== heap =====================
+
+  /**
+   * Allocate a block that is never freed, for globals and literals.
+   *
+   * @param size - size in bytes
+   */
+  public long allocate(long size) {
+    return calloc(size);
+  }
+
+  /** C {@code malloc}. */
+  public long malloc(long size) {
+    if (size < 0 || size > MAX_SIZE) {
+      return NULL;
+    }
+    long rounded = Math.max(ALIGNMENT, (size + ALIGNMENT - 1) & -ALIGNMENT);
+    ArrayDeque<Long> free = freeBlocks.get(rounded);
+    if (free != null && !free.isEmpty()) {
+      return free.pop();
+    }
+    long block = heapTop + HEADER;
+    if (block + rounded > MAX_SIZE) {
+      return NULL;
+    }
+    ensureCapacity(block + rounded);
+    heapTop = block + rounded;
+    bytes.putLong((int) block - 8, rounded);
+    return block;
+  }
+
+  /** C {@code calloc}, given the total size. */
+  public long calloc(long size) {
+    long block = malloc(size);
+    if (block != NULL) {
+      fill(block, 0, blockSize(block));
+    }
+    return block;
+  }
+
+  /** C {@code realloc}. */
+  public long realloc(long address, long size) {
+    if (address == NULL) {
+      return malloc(size);
+    }
+    long old = blockSize(address);
+    if (size <= old) {
+      return address;
+    }
+    long block = malloc(size);
+    if (block != NULL) {
+      copy(block, address, old);
+      free(address);
+    }
+    return block;
+  }
+
+  /** C {@code free}. */
+  public void free(long address) {
+    if (address == NULL) {
+      return;
+    }
+    freeBlocks.computeIfAbsent(blockSize(address), k -> new ArrayDeque<>()).push(address);
+  }
+
+  private long blockSize(long address) {
+    if (address < stackLimit + HEADER || address >= heapTop) {
+      throw new ExecutionError(String.format("invalid heap pointer 0x%x", address));
+    }
+    return bytes.getLong((int) address - 8);
+  }
+
+  private void ensureCapacity(long size) {
+    if (size <= bytes.capacity()) {
+      return;
+    }
+    long capacity = bytes.capacity();
+    while (capacity < size) {
+      capacity = Math.min(MAX_SIZE, capacity * 2);
+    }
+    ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity).order(ByteOrder.LITTLE_ENDIAN);
+    grown.put(0, bytes, 0, bytes.capacity());
+    bytes = grown;
+  }
+
+  private static int align(int value) {
+    return (value + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+}
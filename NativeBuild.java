@@ -0,0 +1,149 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Builds a program with the system C compiler and runs it, for {@code --build}.
+ *
+ * The generated C never touches the disk: it is piped into
+ * {@code cc -x c -}. The binary is cached in {@code .shc-cache} next to the
+ * source under a hash of the C and the compiler command, so running an
+ * unchanged program again skips the C compiler. Programs with a
+ * {@code parfor} are built with {@code -fopenmp}. The time spent parsing,
+ * optimizing, generating C, compiling and running is printed to standard
+ * error when the program exits.
+ */
+public final class NativeBuild {
+  private NativeBuild() {
+  }
+
+  /**
+   * Build and run a program.
+   *
+   * @param arguments - the program file, followed by its arguments
+   * @param options   - command line options
+   * @return the program's exit status, or 1 if it could not be built
+   */
+  public static int run(List<String> arguments, Options options) {
+    String filename = arguments.get(0);
+    Reporter reporter = new Reporter(filename);
+    long start = System.nanoTime();
+    Parser parser = new Parser(filename);
+    ArrayList<Function> funs = parser.parseProgram();
+    long parsed = System.nanoTime();
+    ArrayList<Function> optimized = Optimizer.optimize(funs, parser.getGlobalVariables(), options, reporter);
+    long optimizedAt = System.nanoTime();
+    ByteArrayOutputStream source = new ByteArrayOutputStream();
+    Compiler.compile(optimized, parser.getGlobalVariables(), source, reporter, options);
+    byte[] c = source.toByteArray();
+    long generated = System.nanoTime();
+
+    String cc = System.getenv("CC") != null && !System.getenv("CC").isBlank() ? System.getenv("CC") : "cc";
+    ArrayList<String> command = new ArrayList<>();
+    command.add(cc);
+    for (String flag : options.getCFlags().trim().split("\\s+")) {
+      if (!flag.isEmpty()) {
+        command.add(flag);
+      }
+    }
+    if (Compiler.usesOpenMP(optimized) && !command.contains("-fopenmp")) {
+      command.add("-fopenmp");
+    }
+    command.addAll(List.of("-x", "c", "-", "-o"));
+
+    Path binary;
+    boolean cached;
+    try {
+      Path directory = Path.of(filename).toAbsolutePath().resolveSibling(".shc-cache");
+      Files.createDirectories(directory);
+      binary = directory.resolve("bin-" + hash(String.join("\0", command), c));
+      cached = Files.isExecutable(binary);
+      if (!cached && !compile(command, c, binary, reporter)) {
+        return 1;
+      }
+    } catch (IOException e) {
+      reporter.printError("failed to build `" + filename + "`: " + e.getMessage());
+      return 1;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 1;
+    }
+    long built = System.nanoTime();
+
+    ArrayList<String> program = new ArrayList<>();
+    program.add(binary.toString());
+    program.addAll(arguments.subList(1, arguments.size()));
+    int status;
+    try {
+      status = new ProcessBuilder(program).inheritIO().start().waitFor();
+    } catch (IOException e) {
+      reporter.printError("failed to run `" + binary + "`: " + e.getMessage());
+      return 1;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 1;
+    }
+    long ran = System.nanoTime();
+
+    System.err.printf("parse %d ms, optimize %d ms, generate %d ms, cc %d ms%s, run %d ms%n",
+        millis(start, parsed), millis(parsed, optimizedAt), millis(optimizedAt, generated),
+        millis(generated, built), cached ? " (cached)" : "", millis(built, ran));
+    return status;
+  }
+
+  /**
+   * Pipe C into the compiler, writing the binary next to its final path and
+   * renaming it into place once it is complete.
+   *
+   * @return true iff the compiler succeeded
+   */
+  private static boolean compile(List<String> command, byte[] c, Path binary, Reporter reporter)
+      throws IOException, InterruptedException {
+    Path partial = binary.resolveSibling(binary.getFileName() + "." + ProcessHandle.current().pid());
+    ArrayList<String> full = new ArrayList<>(command);
+    full.add(partial.toString());
+    Process process = new ProcessBuilder(full)
+        .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    try (OutputStream in = process.getOutputStream()) {
+      in.write(c);
+    } catch (IOException e) {
+      // the compiler exited early; its status says why
+    }
+    int status = process.waitFor();
+    if (status != 0) {
+      Files.deleteIfExists(partial);
+      reporter.printError("`" + String.join(" ", command) + "` failed with status " + status);
+      return false;
+    }
+    Files.move(partial, binary, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return true;
+  }
+
+  /** Return the SHA-256 of the compiler command and the C, in hex. */
+  private static String hash(String command, byte[] c) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(command.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(c);
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static long millis(long from, long to) {
+    return (to - from) / 1_000_000;
+  }
+}
@@ -0,0 +1,43 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+
+/**
+ * AST optimization pipeline, run between the parser and the compiler.
+ *
+ * Each pass takes the program and returns a new list of functions; passes
+ * never modify the functions they are given, so the parser's AST stays
+ * intact for printing.
+ */
+public final class Optimizer {
+  private Optimizer() {
+  }
+
+  /**
+   * Optimize a program at the level selected in {@code options}.
+   *
+   * @param program  - functions of the program
+   * @param globals  - global variables
+   * @param options  - command line options
+   * @param reporter - reporter for the report
+   * @return the optimized functions
+   */
+  public static ArrayList<Function> optimize(ArrayList<Function> program, ArrayList<Variable> globals,
+      Options options, Reporter reporter) {
+    ArrayList<Function> result = new ArrayList<>(program);
+    if (options.getOptimizationLevel() == 0) {
+      return result;
+    }
+    // the passes only introduce temporaries whose address is never taken
+    HashSet<Variable> addressTaken = LoopEffects.addressTaken(result);
+    result = ControlFlowSimplification.run(result, globals, options, reporter);
+    result = LoopInvariantCodeMotion.run(result, globals, addressTaken, options, reporter);
+    result = LoopIdioms.run(result, globals, addressTaken, options, reporter);
+    result = LoopUnrolling.run(result, globals, addressTaken, options, reporter);
+    result = StrengthReduction.run(result, globals, addressTaken, options, reporter);
+    result = CopyPropagation.run(result, globals, options, reporter);
+    result = DeadStoreElimination.run(result, globals, options, reporter);
+    // dead-store elimination can empty out bodies
+    result = ControlFlowSimplification.run(result, globals, options, reporter);
+    return result;
+  }
+}
@@ -0,0 +1,230 @@
+/**
+ * Command line options that affect compilation.
+ */
+public final class Options {
+  /** print a report of what the analyses and passes did */
+  private boolean report = false;
+  /** optimization level: 0 disables the AST optimizer */
+  private int optimizationLevel = 1;
+  /** run the program with the interpreter instead of writing C */
+  private boolean run = false;
+  /** run the program with the bytecode virtual machine instead of the interpreter */
+  private boolean vm = false;
+  /** run the program as JIT-compiled JVM classes instead of the interpreter */
+  private boolean jvm = false;
+  /** write x86-64 assembly instead of C */
+  private boolean asm = false;
+  /** emit C from the SSA form of each function instead of from its AST */
+  private boolean ssa = false;
+  /** number of copies of its body an unrolled loop runs per test, 1 to not unroll */
+  private int unroll = 1;
+  /** number of C translation units to split the output into, 0 for one file */
+  private int split = 0;
+  /** reuse the C generated for functions that did not change */
+  private boolean cache = false;
+  /** build the program with the system C compiler and run it */
+  private boolean build = false;
+  /** flags passed to the C compiler by {@code --build} */
+  private String cFlags = "-O2";
+  /** allocator the generated C calls: {@code "malloc"}, or {@code "arena"} for the bundled one */
+  private String alloc = "malloc";
+  /** buffering of standard output in the generated C: {@code "stdio"}, or {@code "buffered"} for the bundled buffer */
+  private String stdout = "stdio";
+  /** count calls and branches in the generated C and write them to a profile at exit */
+  private boolean instrument = false;
+  /** profile of a training run that guides branch layout and inlining, or null */
+  private String profileUse = null;
+
+  /**
+   * Try to consume a command line argument.
+   *
+   * @param arg - argument to parse
+   * @return true iff {@code arg} was an option understood by this class
+   */
+  public boolean parse(String arg) {
+    if ("--report".equals(arg)) {
+      report = true;
+      return true;
+    }
+    if ("--run".equals(arg)) {
+      run = true;
+      return true;
+    }
+    if ("--vm".equals(arg)) {
+      run = true;
+      vm = true;
+      return true;
+    }
+    if ("--jvm".equals(arg)) {
+      run = true;
+      jvm = true;
+      return true;
+    }
+    if ("--asm".equals(arg)) {
+      asm = true;
+      return true;
+    }
+    if ("--ssa".equals(arg)) {
+      ssa = true;
+      return true;
+    }
+    if ("--build".equals(arg)) {
+      run = true;
+      build = true;
+      return true;
+    }
+    if (arg.startsWith("--cflags=")) {
+      cFlags = arg.substring("--cflags=".length());
+      return true;
+    }
+    if ("--cache".equals(arg)) {
+      cache = true;
+      return true;
+    }
+    if (arg.startsWith("--split=")) {
+      try {
+        split = Integer.parseInt(arg.substring("--split=".length()));
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      return split > 0;
+    }
+    if (arg.startsWith("--unroll=")) {
+      try {
+        unroll = Integer.parseInt(arg.substring("--unroll=".length()));
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      return unroll > 0;
+    }
+    if (arg.startsWith("--alloc=")) {
+      String value = arg.substring("--alloc=".length());
+      if (!value.equals("malloc") && !value.equals("arena")) {
+        return false;
+      }
+      alloc = value;
+      return true;
+    }
+    if (arg.startsWith("--stdout=")) {
+      String value = arg.substring("--stdout=".length());
+      if (!value.equals("stdio") && !value.equals("buffered")) {
+        return false;
+      }
+      stdout = value;
+      return true;
+    }
+    if ("--instrument".equals(arg)) {
+      instrument = true;
+      return true;
+    }
+    if (arg.startsWith("--profile-use=")) {
+      profileUse = arg.substring("--profile-use=".length());
+      return !profileUse.isEmpty();
+    }
+    if ("-O0".equals(arg) || "-O1".equals(arg)) {
+      optimizationLevel = arg.charAt(2) - '0';
+      return true;
+    }
+    return false;
+  }
+
+  /** Getter method for {@code report} */
+  public boolean isReport() {
+    return report;
+  }
+
+  /** Getter method for {@code optimizationLevel} */
+  public int getOptimizationLevel() {
+    return optimizationLevel;
+  }
+
+  /** Getter method for {@code run} */
+  public boolean isRun() {
+    return run;
+  }
+
+  /** Getter method for {@code vm} */
+  public boolean isVm() {
+    return vm;
+  }
+
+  /** Getter method for {@code jvm} */
+  public boolean isJvm() {
+    return jvm;
+  }
+
+  /** Getter method for {@code asm} */
+  public boolean isAsm() {
+    return asm;
+  }
+
+  /** Getter method for {@code ssa} */
+  public boolean isSsa() {
+    return ssa;
+  }
+
+  /** Getter method for {@code unroll} */
+  public int getUnroll() {
+    return unroll;
+  }
+
+  /** Getter method for {@code split} */
+  public int getSplit() {
+    return split;
+  }
+
+  /** Getter method for {@code cache} */
+  public boolean isCache() {
+    return cache;
+  }
+
+  /** Getter method for {@code build} */
+  public boolean isBuild() {
+    return build;
+  }
+
+  /** Getter method for {@code cFlags} */
+  public String getCFlags() {
+    return cFlags;
+  }
+
+  /** Return true iff the generated C allocates from the bundled arena. */
+  public boolean isArena() {
+    return alloc.equals("arena");
+  }
+
+  /** Return true iff the generated C writes standard output through the bundled buffer. */
+  public boolean isBufferedStdout() {
+    return stdout.equals("buffered");
+  }
+
+  /** Getter method for {@code instrument} */
+  public boolean isInstrument() {
+    return instrument;
+  }
+
+  /** Getter method for {@code profileUse} */
+  public String getProfileUse() {
+    return profileUse;
+  }
+
+  /** Usage text for the options understood by this class. */
+  public static String usage() {
+    return "  --report        print what the analyses and optimizations did\n"
+        + "  -O0, -O1        optimization level (default -O1)\n"
+        + "  --unroll=N      unroll counted loops by N, with a loop for the rest (default 1, off)\n"
+        + "  --run           run the first file in-process; the other arguments are passed to it\n"
+        + "  --vm            like --run, but lower to bytecode and run it on the virtual machine\n"
+        + "  --jvm           like --run, but compile to JVM classes and let HotSpot run them\n"
+        + "  --build         like --run, but pipe the C into cc ($CC), cache the binary and run it\n"
+        + "  --cflags=FLAGS  flags for the C compiler with --build (default -O2)\n"
+        + "  --asm           write x86-64 assembly (file.shc.s, link with cc) instead of C\n"
+        + "  --ssa           emit C from the verified SSA form of each function\n"
+        + "  --split=N       write C as N translation units, a shared header and a Makefile fragment\n"
+        + "  --cache         reuse the C generated for unchanged functions, cached in .shc-cache\n"
+        + "  --alloc=arena   redirect malloc and free to a bundled arena allocator that reports at exit\n"
+        + "  --stdout=buffered  send puts, putchar and printf to a bundled buffer flushed at exit\n"
+        + "  --instrument    count calls and branches in the C and write them to shc.profile ($SHC_PROFILE) at exit\n"
+        + "  --profile-use=FILE  use a profile written by --instrument for branch hints, hot/cold and inlining\n";
+  }
+}
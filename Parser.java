@@ -1,9 +1,17 @@
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 
 public final class Parser {
   private final SHCScanner sc;
   private final Reporter rep;
   private final ArrayList<Variable> globalVariables = new ArrayList<>();
+  /** values of the {@code const} declarations, by name */
+  private final LinkedHashMap<String, Integer> constants = new LinkedHashMap<>();
+  /** names of the functions parsed so far */
+  private final ArrayList<String> functionNames = new ArrayList<>();
 
   public Parser(String filename) {
     this.sc = new SHCScanner(filename);
@@ -23,6 +31,8 @@ public final class Parser {
     while (sc.currentToken() != SHC.EOS) {
       if (sc.currentToken() == SHC.FUN) {
         funs.add(parseFunction());
+      } else if (sc.currentToken() == SHC.CONST) {
+        parseConstDecl();
       } else if (sc.currentToken() == SHC.ID) {
         // Top-level global declaration: name : type;
         parseTopLevelDeclLine();
@@ -42,6 +52,9 @@ public final class Parser {
     int line = sc.getLineIdx(), col = sc.getCharIdx();
     expect(SHC.FUN, "fun");
     String name = expectId("function name");
+    if (constants.containsKey(name))
+      error("'" + name + "' is already declared as a constant", line, col);
+    functionNames.add(name);
     expect(SHC.LPAREN, "(");
     Variable[] params = parseParamList(); // name : type
     expect(SHC.RPAREN, ")");
@@ -76,10 +89,34 @@ public final class Parser {
 
   // Top-level global declaration: name : type;
   private void parseTopLevelDeclLine() {
+    int line = sc.getLineIdx(), col = sc.getCharIdx();
     String name = expectId("global variable name");
+    if (constants.containsKey(name))
+      error("'" + name + "' is already declared as a constant", line, col);
     parseDeclLineStartingWith(globalVariables, name);
   }
 
+  // const-declaration := 'const' ID ':' 'int' '=' constant-expression ';'
+  // Uses of the name are replaced by its value, like true and false.
+  private void parseConstDecl() {
+    expect(SHC.CONST, "const");
+    int line = sc.getLineIdx(), col = sc.getCharIdx();
+    String name = expectId("constant name");
+    if (constants.containsKey(name) || functionNames.contains(name) || findVariable(globalVariables, name) != null)
+      error("'" + name + "' is already declared", line, col);
+    expect(SHC.COLON, ":");
+    TypeSpec ts = parseTypeSpec();
+    if (ts.base != SHC.INT || ts.hats != 0)
+      error("Constants must be of type int", line, col);
+    expect(SHC.ASSIGN, "=");
+    int valueLine = sc.getLineIdx(), valueCol = sc.getCharIdx();
+    Long value = ASTUtil.constantValue(parseExpression(globalVariables));
+    if (value == null)
+      error("Expected a constant expression that fits in an int", valueLine, valueCol);
+    expect(SHC.SEMICOLON, ";");
+    constants.put(name, (int) (long) value);
+  }
+
   // ===================== types (name : ^*base) =====================
 
   private static final class TypeSpec {
@@ -105,11 +142,12 @@ public final class Parser {
 
   private SHC parseBaseTypeToken() {
     SHC t = sc.currentToken();
-    if (t == SHC.INT || t == SHC.CHAR || t == SHC.VOID) {
+    if (t == SHC.INT || t == SHC.CHAR || t == SHC.VOID
+        || t == SHC.I8 || t == SHC.I16 || t == SHC.I32 || t == SHC.U32) {
       sc.nextToken();
       return t;
     }
-    error("Expected base type (int|char|void)", sc.getLineIdx(), sc.getCharIdx());
+    error("Expected base type (int|char|i8|i16|i32|u32|void)", sc.getLineIdx(), sc.getCharIdx());
     return SHC.VOID;
   }
 
@@ -125,6 +163,8 @@ public final class Parser {
       int line = sc.getLineIdx(), col = sc.getCharIdx();
       String name = expectId("parameter name");
       expect(SHC.COLON, ":");
+      if (sc.currentToken() == SHC.LSQUARE)
+        error("Parameters cannot be arrays; pass a pointer", sc.getLineIdx(), sc.getCharIdx());
       TypeSpec ts = parseTypeSpec();
       ps.add(new Variable(name, ts.base, ts.hats, line, col));
     } while (tryEat(SHC.COMMA));
@@ -132,13 +172,30 @@ public final class Parser {
   }
 
   // shared for block-level decl lines too
+  // decl-line := ID ':' array-length-opt type-spec ('=' expression)? ';'
+  // array-length-opt := ε | '[' INT_LITERAL ']'
   private void parseDeclLineStartingWith(ArrayList<Variable> localVariables, String firstName) {
     int line0 = sc.getLineIdx(), col0 = sc.getCharIdx();
     expect(SHC.COLON, ":");
+    int arrayLength = 0;
+    if (tryEat(SHC.LSQUARE)) {
+      if (sc.currentToken() != SHC.INT_LITERAL || sc.getInt() <= 0)
+        error("Expected a positive integer array length", sc.getLineIdx(), sc.getCharIdx());
+      arrayLength = sc.getInt();
+      sc.nextToken();
+      expect(SHC.RSQUARE, "]");
+    }
     TypeSpec ts = parseTypeSpec();
+    if (arrayLength > 0 && ts.base == SHC.VOID && ts.hats == 0)
+      error("Array elements cannot be void", line0, col0);
+    if (sc.currentToken() == SHC.ASSIGN && arrayLength > 0)
+      error("Arrays cannot have an initializer", sc.getLineIdx(), sc.getCharIdx());
     if (tryEat(SHC.ASSIGN))
       parseExpression(localVariables); // ignore initializer
-    localVariables.add(0, new Variable(firstName, ts.base, ts.hats, line0, col0));
+    // an array is typed as a pointer to its first element
+    localVariables.add(0, arrayLength > 0
+        ? new Variable(firstName, ts.base, ts.hats + 1, arrayLength, line0, col0)
+        : new Variable(firstName, ts.base, ts.hats, line0, col0));
 
     // Disallow commas for “no multiple declarations at once”
     if (sc.currentToken() == SHC.COMMA) {
@@ -151,33 +208,55 @@ public final class Parser {
 
   private Statement[] parseStatementSeq(ArrayList<Variable> localVariables) {
     ArrayList<Statement> list = new ArrayList<>();
-    while (isStmtStart(sc.currentToken()))
+    while (isStmtStart(sc.currentToken())) {
+      if (tryEat(SHC.SEMICOLON)) {
+        continue; // empty statement
+      }
+      if (sc.currentToken() == SHC.LCURL) {
+        // nested block: SHC has no block scopes, so splice its statements in
+        for (Statement statement : parseStmtOrBlock(localVariables))
+          list.add(statement);
+        continue;
+      }
+      if (sc.currentToken() == SHC.PARFOR) {
+        for (Statement statement : parseParallelLoop(localVariables))
+          list.add(statement);
+        continue;
+      }
       list.add(parseStatement(localVariables));
+    }
     return list.toArray(Statement[]::new);
   }
 
   private boolean isStmtStart(SHC t) {
-    return t == SHC.IF || t == SHC.WHILE || t == SHC.BREAK || t == SHC.CONTINUE || t == SHC.RETURN
+    return t == SHC.IF || t == SHC.WHILE || t == SHC.PARFOR || t == SHC.BREAK || t == SHC.CONTINUE || t == SHC.RETURN
         || t == SHC.ID || t == SHC.CARET || t == SHC.LCURL || t == SHC.SEMICOLON || t == SHC.LPAREN
         || t == SHC.INT_LITERAL || t == SHC.CHAR_LITERAL || t == SHC.STRING_LITERAL || t == SHC.TRUE || t == SHC.FALSE;
   }
 
   private Variable getVariableByName(ArrayList<Variable> localVariables, String name, int line, int col) {
+    Variable variable = findVariable(localVariables, name);
+    if (variable != null) {
+      return variable;
+    }
+    if (constants.containsKey(name))
+      error("'" + name + "' is a constant, not a variable", line, col);
+    error("Variable '" + name + "' not found", line, col);
+    return null;
+  }
+
+  private static Variable findVariable(ArrayList<Variable> localVariables, String name) {
     for (Variable variable : localVariables) {
       if (variable.getName().equals(name)) {
         return variable;
       }
     }
-    error("Variable '" + name + "' not found", line, col);
     return null;
   }
 
   private Statement parseStatement(ArrayList<Variable> localVariables) {
     int line = sc.getLineIdx(), col = sc.getCharIdx();
     switch (sc.currentToken()) {
-      case LCURL -> {
-        return parseCompoundAsStmt(localVariables);
-      }
       case IF -> {
         sc.nextToken();
         expect(SHC.LPAREN, "(");
@@ -239,20 +318,15 @@ public final class Parser {
             }
             expect(SHC.RPAREN, ")");
             expect(SHC.SEMICOLON, ";");
-            Function callee = new Function(SHC.VOID, firstName, new Variable[0], new Variable[0], new Statement[0],
-                line, col);
+            if (constants.containsKey(firstName))
+              error("'" + firstName + "' is a constant, not a function", line, col);
+            Function callee = callee(firstName, args.size(), line, col);
             return new Statement.Call(callee, args.toArray(Expression[]::new), line, col);
-          } else if (sc.currentToken() == SHC.ASSIGN) {
-            // ID '=' expr ';'
-            sc.nextToken();
-            OrExpression rhs = parseOrBase(localVariables);
-            expect(SHC.SEMICOLON, ";");
-            Variable v = getVariableByName(localVariables, firstName, line, col);
-            Factor.Var lhs = new Factor.Var(v, 0, line, col);
-            Assignment asg = new Assignment(lhs, rhs, line, col);
-            return new Statement.Assign(asg, line, col);
+          } else if (sc.currentToken() == SHC.ASSIGN || sc.currentToken() == SHC.LSQUARE) {
+            // ID ('[' expr ']')? '=' expr ';'
+            return parseAssignment(localVariables, firstName, 0, line, col);
           } else {
-            error("Expected ':', '(' or '=' after identifier", sc.getLineIdx(), sc.getCharIdx());
+            error("Expected ':', '(', '[' or '=' after identifier", sc.getLineIdx(), sc.getCharIdx());
           }
         }
 
@@ -267,18 +341,7 @@ public final class Parser {
             error("Expected identifier after '^' in assignment LHS", sc.getLineIdx(), sc.getCharIdx());
           String name = sc.getId();
           sc.nextToken();
-          expect(SHC.ASSIGN, "=");
-          OrExpression rhs = parseOrBase(localVariables);
-          expect(SHC.SEMICOLON, ";");
-          Variable v = getVariableByName(localVariables, name, line, col);
-          Factor.Var lhs = new Factor.Var(v, hats, line, col);
-          Assignment asg = new Assignment(lhs, rhs, line, col);
-          return new Statement.Assign(asg, line, col);
-        }
-
-        // empty statement
-        if (tryEat(SHC.SEMICOLON)) {
-          return new Statement.Jump(SHC.BREAK, line, col);
+          return parseAssignment(localVariables, name, hats, line, col);
         }
 
         error("Expected declaration, assignment, call, control stmt, or block.", line, col);
@@ -287,12 +350,33 @@ public final class Parser {
     }
   }
 
-  private Statement parseCompoundAsStmt(ArrayList<Variable> localVariables) {
-    int line = sc.getLineIdx(), col = sc.getCharIdx();
-    expect(SHC.LCURL, "{");
-    Statement[] body = parseStatementSeq(localVariables);
-    expect(SHC.RCURL, "}");
-    return body.length > 0 ? body[0] : new Statement.Jump(SHC.BREAK, line, col);
+  // assignment := '^'* ID ('[' expression ']')? '=' expression ';'
+  // with the ID and its carets already consumed
+  private Statement parseAssignment(ArrayList<Variable> localVariables, String name, int hats, int line, int col) {
+    Variable v = getVariableByName(localVariables, name, line, col);
+    Expression index = parseIndexOpt(localVariables, v, hats, line, col);
+    if (index == null && hats == 0 && v.isArray())
+      error("Cannot assign to array '" + name + "'; assign to its elements", line, col);
+    expect(SHC.ASSIGN, "=");
+    OrExpression rhs = parseOrBase(localVariables);
+    expect(SHC.SEMICOLON, ";");
+    Assignment asg = index != null
+        ? new Assignment(new Factor.Var(v, hats + 1, line, col), index, rhs, line, col)
+        : new Assignment(new Factor.Var(v, hats, line, col), rhs, line, col);
+    return new Statement.Assign(asg, line, col);
+  }
+
+  // index-opt := ε | '[' expression ']'
+  // only pointers and arrays can be indexed; returns null without an index
+  private Expression parseIndexOpt(ArrayList<Variable> localVariables, Variable v, int hats, int line, int col) {
+    if (sc.currentToken() != SHC.LSQUARE)
+      return null;
+    if (v.getNReferences() < hats + 1)
+      error("Cannot index '" + v.getName() + "': not a pointer or array", sc.getLineIdx(), sc.getCharIdx());
+    sc.nextToken();
+    Expression index = parseExpression(localVariables);
+    expect(SHC.RSQUARE, "]");
+    return index;
   }
 
   private Statement[] parseStmtOrBlock(ArrayList<Variable> localVariables) {
@@ -301,11 +385,196 @@ public final class Parser {
       Statement[] body = parseStatementSeq(localVariables);
       expect(SHC.RCURL, "}");
       return body;
+    } else if (tryEat(SHC.SEMICOLON)) {
+      return new Statement[0]; // empty statement
+    } else if (sc.currentToken() == SHC.PARFOR) {
+      return parseParallelLoop(localVariables);
     } else {
       return new Statement[] { parseStatement(localVariables) };
     }
   }
 
+  // parfor := 'parfor' '(' ID '=' expression ';' additive-expression
+  //           (';' 'reduce' ID (',' ID)*)? ')' stmt-or-block
+  // lowered to: ID = start; while (ID < end) { body ID = ID + 1; }
+  private Statement[] parseParallelLoop(ArrayList<Variable> localVariables) {
+    int line = sc.getLineIdx(), col = sc.getCharIdx();
+    expect(SHC.PARFOR, "parfor");
+    expect(SHC.LPAREN, "(");
+    int varLine = sc.getLineIdx(), varCol = sc.getCharIdx();
+    if (sc.currentToken() != SHC.ID)
+      error("Expected the induction variable after 'parfor ('", varLine, varCol);
+    Variable induction = getVariableByName(localVariables, sc.getId(), varLine, varCol);
+    sc.nextToken();
+    if (induction.isArray() || induction.getNReferences() != 0)
+      error("The induction variable of a parfor must be an integer variable", varLine, varCol);
+    expect(SHC.ASSIGN, "=");
+    OrExpression start = parseOrBase(localVariables);
+    expect(SHC.SEMICOLON, ";");
+    AdditiveExpression end = parseAdditiveBase(localVariables);
+    ArrayList<Variable> reductions = new ArrayList<>();
+    if (tryEat(SHC.SEMICOLON)) {
+      if (sc.currentToken() != SHC.ID || !sc.getId().equals("reduce"))
+        error("Expected 'reduce' after ';'", sc.getLineIdx(), sc.getCharIdx());
+      sc.nextToken();
+      do {
+        int redLine = sc.getLineIdx(), redCol = sc.getCharIdx();
+        if (sc.currentToken() != SHC.ID)
+          error("Expected a variable to reduce", redLine, redCol);
+        Variable reduction = getVariableByName(localVariables, sc.getId(), redLine, redCol);
+        sc.nextToken();
+        if (reduction.isArray() || reduction.getNReferences() != 0)
+          error("Only integer variables can be reduced", redLine, redCol);
+        if (reduction == induction || reductions.contains(reduction))
+          error("'" + reduction.getName() + "' is already a variable of this parfor", redLine, redCol);
+        reductions.add(reduction);
+      } while (tryEat(SHC.COMMA));
+    }
+    expect(SHC.RPAREN, ")");
+    Statement[] body = parseStmtOrBlock(localVariables);
+    checkParallelBody(body, induction, reductions, line, col);
+
+    Factor.Var target = new Factor.Var(induction, 0, line, col);
+    RelationalExpression below = new RelationalExpression(
+        new RelationalExpression(ASTUtil.addOf(target), line, col), SHC.LESS, end, line, col);
+    OrExpression test = new OrExpression(
+        new AndExpression(new EqualityExpression(below, line, col), line, col), line, col);
+    Factor cond = new Factor.Parentheses(ASTUtil.expressionOf(test), line, col);
+    AdditiveExpression next = new AdditiveExpression(ASTUtil.addOf(target), SHC.ADD,
+        ASTUtil.mulOf(ASTUtil.unaryOf(new Factor.Const(1, line, col))), line, col);
+    Statement[] loopBody = Arrays.copyOf(body, body.length + 1);
+    loopBody[body.length] = ASTUtil.assign(target, ASTUtil.orOf(next));
+    Statement.Parallel parallel = new Statement.Parallel(induction, reductions.toArray(Variable[]::new));
+    return new Statement[] {
+        ASTUtil.assign(target, start),
+        new Statement.Loop(cond, loopBody, parallel, line, col)
+    };
+  }
+
+  /**
+   * Reject parfor bodies whose iterations cannot run independently: ones
+   * that assign the induction variable, leave the loop early, use a reduced
+   * variable other than by adding to it, or read a local they assign before
+   * assigning it, since each iteration gets its own copy of it.
+   */
+  private void checkParallelBody(Statement[] body, Variable induction, ArrayList<Variable> reductions,
+      int line, int col) {
+    HashMap<Variable, Integer> reads = new HashMap<>();
+    HashMap<Variable, Integer> writes = new HashMap<>();
+    HashMap<Variable, Integer> updates = new HashMap<>();
+    ASTVisitor checker = new ASTVisitor() {
+      @Override
+      public void visitStatement(Statement statement) {
+        if (statement instanceof Statement.Jump jump) {
+          if (jump.type() == SHC.RETURN)
+            error("Cannot return from inside a parfor", jump.lineIdx(), jump.charIdx());
+          if (loopDepth == 0)
+            error("Cannot " + (jump.type() == SHC.BREAK ? "break out of" : "continue") + " a parfor",
+                jump.lineIdx(), jump.charIdx());
+        }
+        if (statement instanceof Statement.Assign assign && isUpdate(assign.assignment(), reductions))
+          updates.merge(assign.assignment().getAssignee().getVariable(), 1, Integer::sum);
+        super.visitStatement(statement);
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        if (assignee.getNReferences() != 0)
+          return;
+        if (assignee.getVariable() == induction)
+          error("The induction variable of a parfor cannot be assigned in its body", assignee.getLineIdx(),
+              assignee.getCharIdx());
+        writes.merge(assignee.getVariable(), 1, Integer::sum);
+      }
+
+      @Override
+      public void visitVar(Factor.Var var) {
+        reads.merge(var.getVariable(), 1, Integer::sum);
+      }
+    };
+    checker.visitBody(body);
+    for (Variable reduction : reductions) {
+      // each read and each write of a reduced variable must be one update
+      int nUpdates = updates.getOrDefault(reduction, 0);
+      if (nUpdates == 0 || reads.getOrDefault(reduction, 0) != nUpdates
+          || writes.getOrDefault(reduction, 0) != nUpdates)
+        error("A reduced variable can only be updated, as '" + reduction.getName() + " = " + reduction.getName()
+            + " + ...;', in its parfor", line, col);
+    }
+    HashSet<Variable> privates = new HashSet<>(writes.keySet());
+    privates.remove(induction);
+    privates.removeAll(reductions);
+    privates.removeAll(globalVariables);
+    privates.removeIf(Variable::isArray);
+    checkAssignedBeforeRead(body, privates);
+  }
+
+  /**
+   * Reject a read of a parfor's private variable that is not preceded by an
+   * assignment on every path through the body, which would see the value of
+   * another iteration, or none.
+   *
+   * @param body     - body of the parfor
+   * @param privates - locals the body assigns other than the induction and reduced variables
+   */
+  private void checkAssignedBeforeRead(Statement[] body, HashSet<Variable> privates) {
+    new ASTVisitor() {
+      /** private variables assigned on every path to the current statement */
+      HashSet<Variable> assigned = new HashSet<>();
+
+      @Override
+      public void visitStatement(Statement statement) {
+        if (statement instanceof Statement.If ifStatement) {
+          visitFactor(ifStatement.cond());
+          HashSet<Variable> before = assigned;
+          assigned = new HashSet<>(before);
+          visitBody(ifStatement.body());
+          HashSet<Variable> afterBody = assigned;
+          assigned = new HashSet<>(before);
+          visitBody(ifStatement.otherBody());
+          assigned.retainAll(afterBody);
+        } else if (statement instanceof Statement.Loop loop) {
+          // the loop may not run at all
+          visitFactor(loop.cond());
+          HashSet<Variable> before = assigned;
+          assigned = new HashSet<>(before);
+          visitBody(loop.body());
+          assigned = before;
+        } else {
+          super.visitStatement(statement);
+        }
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        if (assignee.getNReferences() == 0)
+          assigned.add(assignee.getVariable());
+      }
+
+      @Override
+      public void visitVar(Factor.Var var) {
+        Variable variable = var.getVariable();
+        if (privates.contains(variable) && !assigned.contains(variable))
+          error("'" + variable.getName() + "' is read before it is assigned in this parfor, so it would carry a"
+              + " value between iterations; only reduced variables can", var.getLineIdx(), var.getCharIdx());
+      }
+    }.visitBody(body);
+  }
+
+  /** Return true iff {@code assignment} is {@code r = r + ...} or {@code r = r - ...} for a reduced {@code r}. */
+  private static boolean isUpdate(Assignment assignment, ArrayList<Variable> reductions) {
+    if (!assignment.hasAssignee() || assignment.hasIndex() || assignment.getAssignee().getNReferences() != 0
+        || !reductions.contains(assignment.getAssignee().getVariable()))
+      return false;
+    AdditiveExpression sum = ASTUtil.asAdditive(assignment.getValue());
+    if (sum == null || !sum.hasLeft())
+      return false;
+    while (sum.hasLeft())
+      sum = sum.getLeft();
+    return ASTUtil.asFactor(ASTUtil.orOf(sum)) instanceof Factor.Var var && var.getNReferences() == 0
+        && var.getVariable() == assignment.getAssignee().getVariable();
+  }
+
   // ===================== expressions (by precedence) =====================
 
   private Expression parseExpression(ArrayList<Variable> localVariables) {
@@ -460,10 +729,21 @@ public final class Parser {
             } while (tryEat(SHC.COMMA));
           }
           expect(SHC.RPAREN, ")");
-          Function callee = new Function(SHC.VOID, id, new Variable[0], new Variable[0], new Statement[0], line, col);
+          if (constants.containsKey(id))
+            error("'" + id + "' is a constant, not a function", line, col);
+          Function callee = callee(id, args.size(), line, col);
           return new Factor.Call(callee, args.toArray(Expression[]::new), line, col);
+        } else if (constants.containsKey(id) && findVariable(localVariables, id) == null) {
+          if (depth > 0)
+            error("Cannot dereference or take the address of constant '" + id + "'", line, col);
+          if (sc.currentToken() == SHC.LSQUARE)
+            error("Cannot index '" + id + "': not a pointer or array", line, col);
+          return new Factor.Const(constants.get(id), id, line, col);
         } else {
           Variable v = getVariableByName(localVariables, id, line, col);
+          Expression index = parseIndexOpt(localVariables, v, depth, line, col);
+          if (index != null)
+            return new Factor.Index(new Factor.Var(v, depth + 1, line, col), index, line, col);
           return new Factor.Var(v, depth, line, col);
         }
       }
@@ -527,6 +807,24 @@ public final class Parser {
     return s;
   }
 
+  // ===================== declared externals =====================
+
+  // Callee of a call. Functions are resolved by name later, except the
+  // externals SHC itself declares, whose signature is checked here:
+  //   mapFile(path : ^char, length : ^int) : ^char
+  private Function callee(String name, int nArguments, int line, int col) {
+    if (name.equals("mapFile")) {
+      Variable[] params = {
+          new Variable("path", SHC.CHAR, 1, line, col),
+          new Variable("length", SHC.INT, 1, line, col) };
+      if (nArguments != params.length) {
+        error("mapFile takes " + params.length + " arguments (path, ^length), found " + nArguments, line, col);
+      }
+      return new Function(SHC.CHAR, 1, name, params, new Variable[0], new Statement[0], line, col);
+    }
+    return new Function(SHC.VOID, name, new Variable[0], new Variable[0], new Statement[0], line, col);
+  }
+
   private void error(String msg, int line, int col) {
     rep.tokenError(msg, line, col);
     System.exit(0);
@@ -1,3 +1,5 @@
+import java.util.Arrays;
+
 /**
  * Pretty Printer for SHC language.
  * Formats AST back to source using K&R-ish braces.
@@ -66,11 +68,7 @@ public class PrettyPrinter {
         newline();
     }
 
-    Statement[] body = function.getBody();
-    if (body != null) {
-      for (Statement stmt : body)
-        printStatement(stmt);
-    }
+    printBody(function.getBody());
 
     decreaseIndent();
 
@@ -78,15 +76,62 @@ public class PrettyPrinter {
     newline();
   }
 
-  /** Print a variable declaration line: name : ^*type; */
+  /** Print a variable declaration line: name : ^*type; or name : [N]^*type; */
   private void printVariable(Variable variable) {
     append(variable.getName());
     append(" : ");
-    append(hats(variable.getNReferences()));
+    if (variable.isArray()) {
+      append("[" + variable.getArrayLength() + "]");
+      append(hats(variable.getNReferences() - 1));
+    } else {
+      append(hats(variable.getNReferences()));
+    }
     printType(variable.getType());
     append(";");
   }
 
+  /**
+   * Print the statements of a body, turning each {@code parfor} the parser
+   * lowered back into one.
+   */
+  private void printBody(Statement[] body) {
+    if (body == null)
+      return;
+    for (int i = 0; i < body.length; i++) {
+      if (i + 1 < body.length && body[i] instanceof Statement.Assign init
+          && body[i + 1] instanceof Statement.Loop loop && loop.parallel() != null
+          && !init.assignment().hasIndex() && init.assignment().getAssignee().getNReferences() == 0
+          && init.assignment().getAssignee().getVariable() == loop.parallel().induction()) {
+        printParallelLoop(init.assignment(), loop);
+        i++;
+      } else {
+        printStatement(body[i]);
+      }
+    }
+  }
+
+  /** Print a {@code parfor}: its start, then a loop lowered from it. */
+  private void printParallelLoop(Assignment init, Statement.Loop loopStmt) {
+    Statement.Parallel parallel = loopStmt.parallel();
+    Assignment test = ((Factor.Parentheses) loopStmt.cond()).expression().getExpressions()[0];
+    indent();
+    append("parfor (" + parallel.induction().getName() + " = " + printOr(init.getValue()) + "; ");
+    append(printAdd(test.getValue().getRight().getRight().getRight().getRight()));
+    for (int i = 0; i < parallel.reductions().length; i++)
+      append((i == 0 ? "; reduce " : ", ") + parallel.reductions()[i].getName());
+    append(") {");
+    newline();
+
+    increaseIndent();
+    // the last statement is the increment the parser added
+    printBody(Arrays.copyOf(loopStmt.body(), loopStmt.body().length - 1));
+    decreaseIndent();
+
+    indent();
+    append("}");
+    newline();
+  }
+
   /** Print a statement. */
   private void printStatement(Statement statement) {
     if (statement instanceof Statement.If) {
@@ -101,8 +146,12 @@ public class PrettyPrinter {
       indent();
       Assignment asg = a.assignment();
       Factor.Var lhs = asg.getAssignee();
-      append(hats(lhs.getNReferences()));
-      append(lhs.getVariable().getName());
+      if (asg.hasIndex()) {
+        append(printFactor(new Factor.Index(lhs, asg.getIndex(), asg.getLineIdx(), asg.getCharIdx())));
+      } else {
+        append(hats(lhs.getNReferences()));
+        append(lhs.getVariable().getName());
+      }
       append(" = ");
       append(printOr(asg.getValue()));
       append(";");
@@ -125,10 +174,7 @@ public class PrettyPrinter {
     newline();
 
     increaseIndent();
-    if (ifStmt.body() != null) {
-      for (Statement stmt : ifStmt.body())
-        printStatement(stmt);
-    }
+    printBody(ifStmt.body());
     decreaseIndent();
 
     indent();
@@ -137,8 +183,7 @@ public class PrettyPrinter {
       append(" else {");
       newline();
       increaseIndent();
-      for (Statement stmt : ifStmt.otherBody())
-        printStatement(stmt);
+      printBody(ifStmt.otherBody());
       decreaseIndent();
       indent();
       append("}");
@@ -155,10 +200,7 @@ public class PrettyPrinter {
     newline();
 
     increaseIndent();
-    if (loopStmt.body() != null) {
-      for (Statement stmt : loopStmt.body())
-        printStatement(stmt);
-    }
+    printBody(loopStmt.body());
     decreaseIndent();
 
     indent();
@@ -315,13 +357,16 @@ public class PrettyPrinter {
 
   private String printFactor(Factor f) {
     if (f instanceof Factor.Const c)
-      return Integer.toString(c.constant());
+      return c.name() != null ? c.name() : Integer.toString(c.constant());
     if (f instanceof Factor.Str s)
       return "\"" + s.string() + "\"";
     if (f instanceof Factor.Parentheses p)
       return "(" + printExpr(p.expression()) + ")";
     if (f instanceof Factor.Var v)
       return hats(v.getNReferences()) + v.getVariable().getName();
+    if (f instanceof Factor.Index x)
+      return hats(x.element().getNReferences() - 1) + x.element().getVariable().getName() + "["
+          + printExpr(x.index()) + "]";
     if (f instanceof Factor.Call c) {
       StringBuilder sb = new StringBuilder();
       sb.append(c.fun().getName()).append("(");
@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Execution counts of a training run of a program built with
+ * {@code --instrument}, read back by {@code --profile-use=FILE}.
+ *
+ * The instrumented C counts the calls of each function and, for each
+ * {@code if} and {@code while}, how often its condition was true and false.
+ * At exit it writes them as text, one line per function and per branch:
+ *
+ * <pre>
+ * shc-profile 1
+ * function NAME HASH CALLS
+ * branch NAME SITE TRUE FALSE
+ * </pre>
+ *
+ * A branch is identified by its function and its {@code SITE}, the position
+ * of the statement among the function's {@code if}s and {@code while}s in
+ * source order. {@code HASH} is the function's {@link StructuralHash}, so
+ * the branches of a function that changed since the training run, or was
+ * optimized differently, are ignored; its call count is still used.
+ */
+public final class Profile {
+  /** fewest executions of a branch for its counts to be trusted */
+  private static final long MIN_EXECUTIONS = 100;
+  /** smallest share, in percent, of one outcome for a branch to be predicted */
+  private static final long MIN_BIAS_PERCENT = 90;
+  /** share, in percent, of all counts the hot functions account for */
+  private static final long HOT_PERCENT = 90;
+
+  /** calls of each function */
+  private final HashMap<String, Long> calls = new HashMap<>();
+  /** structural hash of each function in the training run */
+  private final HashMap<String, String> hashes = new HashMap<>();
+  /** true and false counts of each branch, by function and site */
+  private final HashMap<String, HashMap<Integer, long[]>> branches = new HashMap<>();
+
+  private Profile() {
+  }
+
+  /**
+   * Number the {@code if} and {@code while} statements of a function in
+   * source order, nested ones after the statement containing them.
+   *
+   * @param function - function whose branches to number
+   * @return the site of each branch
+   */
+  public static IdentityHashMap<Statement, Integer> sitesOf(Function function) {
+    IdentityHashMap<Statement, Integer> sites = new IdentityHashMap<>();
+    new ASTVisitor() {
+      @Override
+      public void visitStatement(Statement statement) {
+        if (statement instanceof Statement.If || statement instanceof Statement.Loop) {
+          sites.put(statement, sites.size());
+        }
+        super.visitStatement(statement);
+      }
+    }.visitBody(function.getBody());
+    return sites;
+  }
+
+  /**
+   * Return the hash a profile records for a function.
+   *
+   * @param function  - function to hash
+   * @param functions - functions of the program, by name
+   * @param globals   - global variables
+   */
+  public static String hashOf(Function function, Map<String, Function> functions, Collection<Variable> globals) {
+    return StructuralHash.of(function, functions, globals, "profile").substring(0, 16);
+  }
+
+  /**
+   * Read a profile, warning about lines it cannot parse.
+   *
+   * @param path     - file written by an instrumented program
+   * @param reporter - reporter for the warnings
+   * @return the profile, or null if it cannot be read
+   */
+  public static Profile read(String path, Reporter reporter) {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(Path.of(path));
+    } catch (IOException e) {
+      reporter.printWarning("cannot read profile `" + path + "`, compiling without it");
+      return null;
+    }
+    if (lines.isEmpty() || !lines.get(0).equals("shc-profile 1")) {
+      reporter.printWarning("`" + path + "` is not a profile, compiling without it");
+      return null;
+    }
+    Profile profile = new Profile();
+    for (int i = 1; i < lines.size(); i++) {
+      String[] fields = lines.get(i).trim().split(" +");
+      try {
+        if (fields.length == 4 && fields[0].equals("function")) {
+          profile.calls.merge(fields[1], Long.parseUnsignedLong(fields[3]), Long::sum);
+          profile.hashes.put(fields[1], fields[2]);
+          continue;
+        }
+        if (fields.length == 5 && fields[0].equals("branch")) {
+          long[] counts = { Long.parseUnsignedLong(fields[3]), Long.parseUnsignedLong(fields[4]) };
+          profile.branches.computeIfAbsent(fields[1], name -> new HashMap<>()).put(Integer.parseInt(fields[2]),
+              counts);
+          continue;
+        }
+      } catch (NumberFormatException e) {
+        // reported below
+      }
+      if (!fields[0].isEmpty()) {
+        reporter.printWarning("`" + path + "`:" + (i + 1) + ": malformed profile line ignored");
+      }
+    }
+    return profile;
+  }
+
+  /**
+   * Return the number of times a function was called, or null if the
+   * training run did not have it.
+   */
+  public Long getCalls(String name) {
+    return calls.get(name);
+  }
+
+  /**
+   * Return true iff the training run had a function with the same hash, so
+   * its branch counts apply.
+   *
+   * @param name - function name
+   * @param hash - its hash, from {@link #hashOf}
+   */
+  public boolean matches(String name, String hash) {
+    return hash.equals(hashes.get(name));
+  }
+
+  /**
+   * Return the outcome a branch almost always had, or null if it ran too
+   * rarely or went both ways too often.
+   *
+   * @param name - function the branch is in
+   * @param site - its site, from {@link #sitesOf}
+   */
+  public Boolean expected(String name, int site) {
+    long[] counts = branches.getOrDefault(name, new HashMap<>()).get(site);
+    if (counts == null) {
+      return null;
+    }
+    long total = counts[0] + counts[1];
+    if (total < MIN_EXECUTIONS) {
+      return null;
+    }
+    if (counts[0] / (double) total * 100 >= MIN_BIAS_PERCENT) {
+      return true;
+    }
+    if (counts[1] / (double) total * 100 >= MIN_BIAS_PERCENT) {
+      return false;
+    }
+    return null;
+  }
+
+  /**
+   * Return the functions that account for most of the work: the fewest,
+   * most executed ones whose counts add up to {@link #HOT_PERCENT} of the
+   * total. A function counts its calls plus the evaluations of its
+   * conditions, so one called once around a long loop is hot too.
+   */
+  public ArrayList<String> hotFunctions() {
+    HashMap<String, Long> weights = new HashMap<>(calls);
+    for (Map.Entry<String, HashMap<Integer, long[]>> entry : branches.entrySet()) {
+      for (long[] counts : entry.getValue().values()) {
+        weights.merge(entry.getKey(), counts[0] + counts[1], Long::sum);
+      }
+    }
+    return hottest(weights);
+  }
+
+  /**
+   * Return the functions that most calls go to, the fewest whose calls add
+   * up to {@link #HOT_PERCENT} of all calls.
+   */
+  public ArrayList<String> hotCallees() {
+    return hottest(calls);
+  }
+
+  /** Return the fewest keys with the largest counts that cover {@link #HOT_PERCENT} of the total. */
+  private static ArrayList<String> hottest(Map<String, Long> counts) {
+    ArrayList<String> names = new ArrayList<>(counts.keySet());
+    names.sort((a, b) -> Long.compare(counts.get(b), counts.get(a)));
+    double total = 0;
+    for (long count : counts.values()) {
+      total += count;
+    }
+    ArrayList<String> result = new ArrayList<>();
+    double covered = 0;
+    for (String name : names) {
+      if (counts.get(name) == 0 || covered >= total * HOT_PERCENT / 100) {
+        break;
+      }
+      result.add(name);
+      covered += counts.get(name);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,134 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reaching definitions: which writes of a variable may have produced the
+ * value it holds before a node.
+ *
+ * A definition is a node that overwrites the variable (an assignment or a
+ * declaration), or the entry node for the value a variable has when the
+ * function starts. Calls and pointer stores may write escaping variables, so
+ * they add a definition of each of them without removing the others.
+ */
+public final class ReachingDefinitions extends DataflowAnalysis {
+  /**
+   * One definition.
+   *
+   * @param variable - variable written
+   * @param node     - node writing it; the entry node for the initial value
+   */
+  public record Definition(Variable variable, ControlFlowGraph.Node node) {
+    /** Return true iff this is the value the variable had on entry. */
+    public boolean isEntry() {
+      return node.getKind() == ControlFlowGraph.Kind.ENTRY;
+    }
+  }
+
+  private final ArrayList<Definition> definitions = new ArrayList<>();
+  /** definitions of each variable */
+  private final HashMap<Variable, BitSet> byVariable = new HashMap<>();
+  /** definitions generated by each node */
+  private final HashMap<ControlFlowGraph.Node, BitSet> generated = new HashMap<>();
+  private final BitSet entryDefinitions = new BitSet();
+
+  private ReachingDefinitions(ControlFlowGraph graph) {
+    super(graph);
+    ArrayList<Variable> variables = new ArrayList<>();
+    for (Variable argument : graph.getFunction().getArguments()) {
+      variables.add(argument);
+    }
+    for (ControlFlowGraph.Node node : graph.getNodes()) {
+      variables.addAll(node.getUses());
+      if (node.getDef() != null) {
+        variables.add(node.getDef());
+      }
+      if (node.getDeclared() != null) {
+        variables.add(node.getDeclared());
+      }
+    }
+    variables.addAll(graph.getEscaping());
+    for (Variable variable : variables) {
+      if (!byVariable.containsKey(variable)) {
+        entryDefinitions.set(add(new Definition(variable, graph.getEntry())));
+      }
+    }
+    for (ControlFlowGraph.Node node : graph.getNodes()) {
+      BitSet gen = new BitSet();
+      Variable written = node.getDef() != null ? node.getDef() : node.getDeclared();
+      if (written != null) {
+        gen.set(add(new Definition(written, node)));
+      }
+      if (node.writesMemory()) {
+        for (Variable variable : graph.getEscaping()) {
+          if (variable != written) {
+            gen.set(add(new Definition(variable, node)));
+          }
+        }
+      }
+      generated.put(node, gen);
+    }
+  }
+
+  /**
+   * Compute reaching definitions for a graph.
+   *
+   * @param graph - graph to analyze
+   */
+  public static ReachingDefinitions of(ControlFlowGraph graph) {
+    ReachingDefinitions result = new ReachingDefinitions(graph);
+    result.solve();
+    return result;
+  }
+
+  private int add(Definition definition) {
+    definitions.add(definition);
+    int index = definitions.size() - 1;
+    byVariable.computeIfAbsent(definition.variable(), v -> new BitSet()).set(index);
+    return index;
+  }
+
+  @Override
+  protected Direction direction() {
+    return Direction.FORWARD;
+  }
+
+  @Override
+  protected int universeSize() {
+    return definitions.size();
+  }
+
+  @Override
+  protected BitSet boundary() {
+    return (BitSet) entryDefinitions.clone();
+  }
+
+  @Override
+  protected BitSet transfer(ControlFlowGraph.Node node, BitSet reaching) {
+    Variable written = node.getDef() != null ? node.getDef() : node.getDeclared();
+    if (written != null) {
+      reaching.andNot(byVariable.get(written));
+    }
+    reaching.or(generated.getOrDefault(node, new BitSet()));
+    return reaching;
+  }
+
+  /**
+   * Return the definitions of {@code variable} that may reach {@code node}.
+   *
+   * @param node     - node reading the variable
+   * @param variable - variable read
+   */
+  public List<Definition> getReaching(ControlFlowGraph.Node node, Variable variable) {
+    ArrayList<Definition> result = new ArrayList<>();
+    BitSet ofVariable = byVariable.get(variable);
+    if (ofVariable == null) {
+      return result;
+    }
+    BitSet reaching = getIn(node);
+    reaching.and(ofVariable);
+    reaching.stream().forEach(i -> result.add(definitions.get(i)));
+    return result;
+  }
+}
@@ -5,6 +5,7 @@ public class Reporter {
   /** escape codes for some colors */
   private final String RED = "\u001B[31m";
   private final String YELLOW = "\u001B[33m";
+  private final String CYAN = "\u001B[36m";
   private final String RESET = "\u001B[0m";
 
   /**
@@ -55,6 +56,16 @@ public class Reporter {
     System.out.println(YELLOW + "WARNING: " + RESET + warning);
   }
 
+  /**
+   * Print a note to the screen.
+   *
+   * @param note - note to print
+   */
+
+  public void printNote(String note) {
+    System.out.println(CYAN + "NOTE: " + RESET + note);
+  }
+
   /**
    * Report an error to the screen, regarding the token at
    * {@code (lineIdx, charIdx)}.
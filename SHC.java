@@ -4,12 +4,18 @@ enum SHC {
   IF, // "if"
   ELSE, // "else"
   WHILE, // "while"
+  PARFOR, // "parfor"
   RETURN, // "return"
   BREAK, // "break"
   CONTINUE, // "continue"
+  CONST, // "const"
   VOID, // "void"
   INT, // "int"
   CHAR, // "char"
+  I8, // "i8"
+  I16, // "i16"
+  I32, // "i32"
+  U32, // "u32"
 
   // Logical operators
   AND, // "&&"
@@ -30,14 +30,16 @@ class SHCScanner {
 
   // Keywords as defined in SHC
   private static final String[] KEYWORDS = {
-      "fun", "if", "else", "while", "return", "break",
-      "continue", "void", "int", "char", "true", "false"
+      "fun", "if", "else", "while", "parfor", "return", "break",
+      "continue", "const", "void", "int", "char", "i8", "i16", "i32", "u32",
+      "true", "false"
   };
 
   // Keyword Tokens
   private static final SHC[] KEYWORD_TOKENS = {
-      SHC.FUN, SHC.IF, SHC.ELSE, SHC.WHILE, SHC.RETURN, SHC.BREAK,
-      SHC.CONTINUE, SHC.VOID, SHC.INT, SHC.CHAR, SHC.TRUE, SHC.FALSE
+      SHC.FUN, SHC.IF, SHC.ELSE, SHC.WHILE, SHC.PARFOR, SHC.RETURN, SHC.BREAK,
+      SHC.CONTINUE, SHC.CONST, SHC.VOID, SHC.INT, SHC.CHAR, SHC.I8, SHC.I16, SHC.I32, SHC.U32,
+      SHC.TRUE, SHC.FALSE
   };
 
   // two-char first, always
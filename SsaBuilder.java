@@ -0,0 +1,817 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Lowers a {@link Function} body to an {@link SsaFunction}.
+ *
+ * SSA form is built directly from the AST with the algorithm of Braun et al.,
+ * "Simple and Efficient Construction of Static Single Assignment Form": each
+ * block remembers the current value of every local it assigns, and a read
+ * looks backwards through the predecessors, placing phis where paths merge.
+ * A block is sealed once all its predecessors are known; reads in a block
+ * that is not sealed yet, such as a loop header, get a phi whose operands
+ * are filled in when it is. Phis that turn out to merge a single value, and
+ * blocks control cannot reach, are removed at the end.
+ *
+ * Expressions get the C types {@link Types} gives them, and every assignment
+ * converts to the type of its target, as in the C the {@link Compiler} emits.
+ */
+public final class SsaBuilder {
+  private final Function function;
+  private final HashMap<String, Function> functions = new HashMap<>();
+  private final Set<Variable> globals;
+  private final HashSet<Variable> addressTaken = new HashSet<>();
+  private final ArrayList<SsaFunction.Block> blocks = new ArrayList<>();
+  private final SsaFunction.Block entry;
+  /** instructions at the start of the entry block: parameters, slots and undefined values */
+  private int nPrologue;
+  private int nextId;
+
+  /** block instructions are appended to; a fresh unreachable block after a jump */
+  private SsaFunction.Block current;
+  private SsaFunction.Block breakTarget;
+  /** block self tail calls jump to, after the parameters are set up; null without tail calls */
+  private SsaFunction.Block start;
+  private Set<Statement.Jump> tailCalls = Set.of();
+  /** whether self tail calls become jumps back to the start */
+  private boolean tailLoops = true;
+  private SsaFunction.Block continueTarget;
+
+  /** value of each local at the end of each block that assigns or reads it */
+  private final IdentityHashMap<Variable, HashMap<SsaFunction.Block, SsaFunction.Instruction>> definitions =
+      new IdentityHashMap<>();
+  private final HashSet<SsaFunction.Block> sealed = new HashSet<>();
+  /** phis of blocks that are not sealed yet, whose operands are still missing */
+  private final HashMap<SsaFunction.Block, IdentityHashMap<Variable, SsaFunction.Instruction>> incompletePhis =
+      new HashMap<>();
+  /** address of each global and address-taken local */
+  private final IdentityHashMap<Variable, SsaFunction.Instruction> slots = new IdentityHashMap<>();
+
+  private SsaBuilder(Function function, Collection<Function> program, Collection<Variable> globals) {
+    this.function = function;
+    for (Function f : program) {
+      functions.put(f.getName(), f);
+    }
+    this.globals = new HashSet<>(globals);
+    entry = newBlock();
+    sealed.add(entry);
+    current = entry;
+  }
+
+  /**
+   * Lower a function to SSA form.
+   *
+   * @param function - function to lower
+   * @param program  - every function of the program, for the types of calls
+   * @param globals  - global variables
+   * @return the function in SSA form
+   * @throws IllegalArgumentException if the function uses a variable or
+   *                                  pointer in a way C would reject
+   */
+  public static SsaFunction build(Function function, Collection<Function> program, Collection<Variable> globals) {
+    return build(function, program, globals, true);
+  }
+
+  /**
+   * Lower a function to SSA form.
+   *
+   * @param function  - function to lower
+   * @param program   - every function of the program, for the types of calls
+   * @param globals   - global variables
+   * @param tailLoops - whether self tail calls jump back to the start instead of calling
+   * @return the function in SSA form
+   * @throws IllegalArgumentException if the function uses a variable or
+   *                                  pointer in a way C would reject
+   */
+  public static SsaFunction build(Function function, Collection<Function> program, Collection<Variable> globals,
+      boolean tailLoops) {
+    SsaBuilder builder = new SsaBuilder(function, program, globals);
+    builder.tailLoops = tailLoops;
+    return builder.build();
+  }
+
+  private SsaFunction build() {
+    new ASTVisitor() {
+      @Override
+      public void visitVar(Factor.Var var) {
+        if (var.getVariable().getNReferences() == 0 && var.getNReferences() == 1) {
+          addressTaken.add(var.getVariable());
+        }
+      }
+    }.visitBody(function.getBody());
+
+    Variable[] arguments = function.getArguments();
+    SsaFunction.Instruction[] parameters = new SsaFunction.Instruction[arguments.length];
+    for (int i = 0; i < arguments.length; i++) {
+      parameters[i] = prologue(SsaFunction.Op.PARAM, typeOf(arguments[i]), i, arguments[i].getName(), arguments[i]);
+    }
+    for (int i = 0; i < arguments.length; i++) {
+      if (isMemory(arguments[i])) {
+        add(SsaFunction.Op.STORE, SsaFunction.VOID, slot(arguments[i]), parameters[i]);
+      } else {
+        writeVariable(arguments[i], entry, parameters[i]);
+      }
+    }
+
+    tailCalls = tailLoops ? TailCalls.find(function) : Set.of();
+    if (!tailCalls.isEmpty()) {
+      // tail calls jump back here, so the parameters get phis
+      start = newBlock();
+      jump(start);
+      current = start;
+    }
+    compileBody(function.getBody());
+    if (start != null) {
+      seal(start);
+    }
+    SsaFunction.Instruction result = null;
+    Types.Type returnType = new Types.Type(function.getReturnType(), function.getNReturnReferences());
+    if (!returnType.equals(SsaFunction.VOID)) {
+      result = constant(returnType, 0);
+    }
+    terminate(SsaFunction.Op.RETURN, result == null ? new SsaFunction.Instruction[0]
+        : new SsaFunction.Instruction[] { result });
+
+    removeUnreachableBlocks();
+    removeTrivialPhis();
+    return new SsaFunction(function, blocks, parameters);
+  }
+
+  // ===================== statements =====================
+
+  private void compileBody(Statement[] body) {
+    if (body == null) {
+      return;
+    }
+    for (Statement statement : body) {
+      compileStatement(statement);
+    }
+  }
+
+  private void compileStatement(Statement statement) {
+    switch (statement) {
+      case Statement.If ifStatement -> {
+        boolean hasElse = ifStatement.otherBody() != null && ifStatement.otherBody().length > 0;
+        SsaFunction.Block then = newBlock();
+        SsaFunction.Block otherwise = hasElse ? newBlock() : null;
+        SsaFunction.Block join = newBlock();
+        compileBranch(ifStatement.cond(), then, hasElse ? otherwise : join);
+        enter(then);
+        compileBody(ifStatement.body());
+        jump(join);
+        if (hasElse) {
+          enter(otherwise);
+          compileBody(ifStatement.otherBody());
+          jump(join);
+        }
+        enter(join);
+      }
+      case Statement.Loop loop -> {
+        SsaFunction.Block header = newBlock();
+        SsaFunction.Block body = newBlock();
+        SsaFunction.Block exit = newBlock();
+        jump(header);
+        // the header is sealed only once every continue is known
+        current = header;
+        compileBranch(loop.cond(), body, exit);
+        SsaFunction.Block outerBreak = breakTarget;
+        SsaFunction.Block outerContinue = continueTarget;
+        breakTarget = exit;
+        continueTarget = header;
+        enter(body);
+        compileBody(loop.body());
+        jump(header);
+        seal(header);
+        breakTarget = outerBreak;
+        continueTarget = outerContinue;
+        enter(exit);
+      }
+      case Statement.Decl decl -> {
+      }
+      case Statement.Call call -> compileCall(call.function().getName(), call.arguments());
+      case Statement.Jump jump -> {
+        if (jump.type() == SHC.BREAK) {
+          jump(breakTarget);
+        } else if (jump.type() == SHC.CONTINUE) {
+          jump(continueTarget);
+        } else if (tailCalls.contains(jump)) {
+          compileTailCall(jump);
+        } else if (!jump.hasValue()) {
+          terminate(SsaFunction.Op.RETURN, new SsaFunction.Instruction[0]);
+        } else {
+          SsaFunction.Instruction value = compileExpression(jump.value());
+          Types.Type type = new Types.Type(function.getReturnType(), function.getNReturnReferences());
+          terminate(SsaFunction.Op.RETURN, new SsaFunction.Instruction[] { convert(value, type) });
+        }
+      }
+      case Statement.Assign assign -> compileAssignment(assign.assignment());
+    }
+  }
+
+  /** Assign the arguments of a self tail call to the parameters and jump back to the start. */
+  private void compileTailCall(Statement.Jump jump) {
+    Variable[] parameters = function.getArguments();
+    Expression[] arguments = TailCalls.arguments(function, jump);
+    SsaFunction.Instruction[] values = new SsaFunction.Instruction[parameters.length];
+    for (int i = 0; i < parameters.length; i++) {
+      values[i] = convert(compileExpression(arguments[i]), typeOf(parameters[i]));
+    }
+    for (int i = 0; i < parameters.length; i++) {
+      if (isMemory(parameters[i])) {
+        add(SsaFunction.Op.STORE, SsaFunction.VOID, slot(parameters[i]), values[i]);
+      } else {
+        writeVariable(parameters[i], current, values[i]);
+      }
+    }
+    jump(start);
+  }
+
+  // ===================== conditions =====================
+
+  /** Branch to {@code yes} if {@code condition} is true, else to {@code no}. */
+  private void compileBranch(Factor condition, SsaFunction.Block yes, SsaFunction.Block no) {
+    if (condition instanceof Factor.Parentheses parentheses) {
+      Assignment[] assignments = parentheses.expression().getExpressions();
+      if (assignments.length == 1 && !assignments[0].hasAssignee()) {
+        compileBranch(assignments[0].getValue(), yes, no);
+        return;
+      }
+    }
+    branch(compileFactor(condition), yes, no);
+  }
+
+  private void compileBranch(OrExpression expression, SsaFunction.Block yes, SsaFunction.Block no) {
+    Long constant = ASTUtil.constantValue(expression);
+    if (constant != null) {
+      jump(constant != 0 ? yes : no);
+      return;
+    }
+    if (!expression.hasLeft()) {
+      compileBranch(expression.getRight(), yes, no);
+      return;
+    }
+    SsaFunction.Block right = newBlock();
+    compileBranch(expression.getLeft(), yes, right);
+    enter(right);
+    compileBranch(expression.getRight(), yes, no);
+  }
+
+  private void compileBranch(AndExpression expression, SsaFunction.Block yes, SsaFunction.Block no) {
+    if (!expression.hasLeft()) {
+      branch(compileEquality(expression.getRight()), yes, no);
+      return;
+    }
+    SsaFunction.Block right = newBlock();
+    compileBranch(expression.getLeft(), right, no);
+    enter(right);
+    branch(compileEquality(expression.getRight()), yes, no);
+  }
+
+  // ===================== expressions =====================
+
+  private SsaFunction.Instruction compileExpression(Expression expression) {
+    SsaFunction.Instruction value = null;
+    for (Assignment assignment : expression.getExpressions()) {
+      value = compileAssignment(assignment);
+    }
+    return value;
+  }
+
+  private SsaFunction.Instruction compileAssignment(Assignment assignment) {
+    SsaFunction.Instruction value = compileOr(assignment.getValue());
+    if (!assignment.hasAssignee()) {
+      return value;
+    }
+    if (assignment.hasIndex()) {
+      SsaFunction.Instruction address = elementAddress(assignment.getAssignee(), assignment.getIndex());
+      return storeThrough(address, assignment.getAssignee().getNReferences(), value);
+    }
+    return store(assignment.getAssignee(), value);
+  }
+
+  private SsaFunction.Instruction compileOr(OrExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileAnd(expression.getRight());
+    }
+    return truth((yes, no) -> compileBranch(expression, yes, no));
+  }
+
+  private SsaFunction.Instruction compileAnd(AndExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileEquality(expression.getRight());
+    }
+    return truth((yes, no) -> compileBranch(expression, yes, no));
+  }
+
+  /** A condition lowered to branches. */
+  private interface Condition {
+    void branch(SsaFunction.Block yes, SsaFunction.Block no);
+  }
+
+  /** Return 1 or 0 as a C int, merging the two outcomes of a condition with a phi. */
+  private SsaFunction.Instruction truth(Condition condition) {
+    SsaFunction.Block yes = newBlock();
+    SsaFunction.Block no = newBlock();
+    SsaFunction.Block join = newBlock();
+    condition.branch(yes, no);
+    enter(yes);
+    SsaFunction.Instruction one = constant(Types.C_INT, 1);
+    jump(join);
+    enter(no);
+    SsaFunction.Instruction zero = constant(Types.C_INT, 0);
+    jump(join);
+    enter(join);
+    SsaFunction.Instruction phi = newPhi(join, Types.C_INT, null);
+    phi.setOperands(new SsaFunction.Instruction[] { one, zero });
+    return phi;
+  }
+
+  private SsaFunction.Instruction compileEquality(EqualityExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileRelational(expression.getRight());
+    }
+    SsaFunction.Instruction left = compileEquality(expression.getLeft());
+    SsaFunction.Instruction right = compileRelational(expression.getRight());
+    SsaFunction.Op op = expression.getOperator() == SHC.EQUAL ? SsaFunction.Op.EQ : SsaFunction.Op.NE;
+    return add(op, Types.C_INT, left, right);
+  }
+
+  private SsaFunction.Instruction compileRelational(RelationalExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileAdditive(expression.getRight());
+    }
+    SsaFunction.Instruction left = compileRelational(expression.getLeft());
+    SsaFunction.Instruction right = compileAdditive(expression.getRight());
+    SsaFunction.Op op = switch (expression.getOperator()) {
+      case LESS -> SsaFunction.Op.LT;
+      case LEQ -> SsaFunction.Op.LE;
+      case GREATER -> SsaFunction.Op.GT;
+      default -> SsaFunction.Op.GE;
+    };
+    return add(op, Types.C_INT, left, right);
+  }
+
+  private SsaFunction.Instruction compileAdditive(AdditiveExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileMultiplicative(expression.getRight());
+    }
+    SsaFunction.Instruction left = compileAdditive(expression.getLeft());
+    SsaFunction.Instruction right = compileMultiplicative(expression.getRight());
+    boolean add = expression.getOperator() == SHC.ADD;
+    SsaFunction.Op op = add ? SsaFunction.Op.ADD : SsaFunction.Op.SUB;
+    Types.Type l = left.getType();
+    Types.Type r = right.getType();
+    Types.Type type;
+    if (l.isPointer() && r.isPointer()) {
+      if (add) {
+        throw new IllegalArgumentException("cannot add two pointers");
+      }
+      type = Types.INT;
+    } else if (l.isPointer()) {
+      type = l;
+    } else if (r.isPointer()) {
+      if (!add) {
+        throw new IllegalArgumentException("cannot subtract a pointer from an integer");
+      }
+      type = r;
+    } else {
+      type = arithmetic(l, r);
+    }
+    return add(op, type, left, right);
+  }
+
+  private SsaFunction.Instruction compileMultiplicative(MultiplicativeExpression expression) {
+    if (!expression.hasLeft()) {
+      return compileUnary(expression.getRight());
+    }
+    SsaFunction.Instruction left = compileMultiplicative(expression.getLeft());
+    SsaFunction.Instruction right = compileUnary(expression.getRight());
+    if (left.getType().isPointer() || right.getType().isPointer()) {
+      throw new IllegalArgumentException("cannot multiply or divide a pointer");
+    }
+    SsaFunction.Op op = switch (expression.getOperator()) {
+      case MULTIPLY -> SsaFunction.Op.MUL;
+      case DIVIDE -> SsaFunction.Op.DIV;
+      default -> SsaFunction.Op.REM;
+    };
+    return add(op, arithmetic(left.getType(), right.getType()), left, right);
+  }
+
+  private SsaFunction.Instruction compileUnary(UnaryExpression expression) {
+    if (!expression.hasOperator()) {
+      return compileFactor(expression.getFactor());
+    }
+    Long constant = ASTUtil.constantValue(expression);
+    if (constant != null) {
+      return constant(Types.C_INT, (int) (long) constant);
+    }
+    SsaFunction.Instruction value = compileUnary(expression.getUnaryExpression());
+    if (value.getType().isPointer()) {
+      throw new IllegalArgumentException("unary operator on a pointer");
+    }
+    Types.Type type = arithmetic(value.getType(), value.getType());
+    if (expression.getOperator() == SHC.SUBTRACT) {
+      return add(SsaFunction.Op.NEG, type, value);
+    }
+    return convert(value, type);
+  }
+
+  private SsaFunction.Instruction compileFactor(Factor factor) {
+    return switch (factor) {
+      case Factor.Var var -> load(var);
+      case Factor.Const constant -> constant(Types.C_INT, constant.constant());
+      case Factor.Str string -> add(new SsaFunction.Instruction(nextId++, SsaFunction.Op.STRING,
+          new Types.Type(SHC.CHAR, 1), new SsaFunction.Instruction[0], 0, string.string(), null));
+      case Factor.Parentheses parentheses -> compileExpression(parentheses.expression());
+      case Factor.Call call -> compileCall(call.fun().getName(), call.arguments());
+      case Factor.Index index -> {
+        SsaFunction.Instruction value = elementAddress(index.element(), index.index());
+        for (int i = 0; i < index.element().getNReferences(); i++) {
+          value = add(SsaFunction.Op.LOAD, value.getType().pointee(), value);
+        }
+        yield value;
+      }
+    };
+  }
+
+  /** Lower a call; arguments to functions of the program are converted to the parameter types. */
+  private SsaFunction.Instruction compileCall(String name, Expression[] arguments) {
+    Function callee = functions.get(name);
+    SsaFunction.Instruction[] values = new SsaFunction.Instruction[arguments.length];
+    for (int i = 0; i < arguments.length; i++) {
+      values[i] = compileExpression(arguments[i]);
+      if (callee != null && i < callee.getArguments().length) {
+        values[i] = convert(values[i], Types.of(callee.getArguments()[i]));
+      }
+    }
+    Types.Type type = callee != null ? new Types.Type(callee.getReturnType(), callee.getNReturnReferences())
+        : Builtins.typeOf(name);
+    return add(new SsaFunction.Instruction(nextId++, SsaFunction.Op.CALL, type, values, 0, name, null));
+  }
+
+  /** Apply the usual arithmetic conversions to two integer types. */
+  private static Types.Type arithmetic(Types.Type left, Types.Type right) {
+    return Types.arithmetic(left, right);
+  }
+
+  // ===================== variables =====================
+
+  /** Lower a variable usage: its value, its address, or a dereference. */
+  private SsaFunction.Instruction load(Factor.Var var) {
+    Variable variable = var.getVariable();
+    int usageRefs = var.getNReferences();
+    if (variable.getNReferences() == 0 && usageRefs == 1) {
+      return slot(variable);
+    }
+    if (usageRefs > variable.getNReferences()) {
+      throw new IllegalArgumentException("`" + variable.getName() + "` is not a pointer");
+    }
+    SsaFunction.Instruction value = read(variable);
+    for (int i = 0; i < usageRefs; i++) {
+      value = add(SsaFunction.Op.LOAD, value.getType().pointee(), value);
+    }
+    return value;
+  }
+
+  /**
+   * Store a value through an assignee.
+   *
+   * @return the stored value, converted to the target's type
+   */
+  private SsaFunction.Instruction store(Factor.Var target, SsaFunction.Instruction value) {
+    Variable variable = target.getVariable();
+    int usageRefs = target.getNReferences();
+    if (variable.getNReferences() == 0 && usageRefs == 1) {
+      throw new IllegalArgumentException("cannot assign to the address of `" + variable.getName() + "`");
+    }
+    if (usageRefs > variable.getNReferences()) {
+      throw new IllegalArgumentException("`" + variable.getName() + "` is not a pointer");
+    }
+    if (usageRefs == 0) {
+      SsaFunction.Instruction converted = convert(value, typeOf(variable));
+      if (isMemory(variable)) {
+        add(SsaFunction.Op.STORE, SsaFunction.VOID, slot(variable), converted);
+      } else {
+        writeVariable(variable, current, converted);
+      }
+      return converted;
+    }
+    return storeThrough(read(variable), usageRefs, value);
+  }
+
+  /**
+   * Store a value {@code usageRefs} dereferences away from a pointer.
+   *
+   * @return the stored value, converted to the target's type
+   */
+  private SsaFunction.Instruction storeThrough(SsaFunction.Instruction address, int usageRefs,
+      SsaFunction.Instruction value) {
+    for (int i = 1; i < usageRefs; i++) {
+      address = add(SsaFunction.Op.LOAD, address.getType().pointee(), address);
+    }
+    SsaFunction.Instruction converted = convert(value, address.getType().pointee());
+    add(SsaFunction.Op.STORE, SsaFunction.VOID, address, converted);
+    return converted;
+  }
+
+  /**
+   * Return the address of the element a subscript reads or writes before
+   * its further dereferences: the variable's value offset by the index.
+   *
+   * @param element - the subscripted variable usage
+   * @param index   - the element index
+   */
+  private SsaFunction.Instruction elementAddress(Factor.Var element, Expression index) {
+    Variable variable = element.getVariable();
+    if (element.getNReferences() > variable.getNReferences()) {
+      throw new IllegalArgumentException("`" + variable.getName() + "` is not a pointer");
+    }
+    SsaFunction.Instruction base = read(variable);
+    SsaFunction.Instruction offset = compileExpression(index);
+    if (offset.getType().isPointer()) {
+      throw new IllegalArgumentException("array index is a pointer");
+    }
+    return add(SsaFunction.Op.ADD, base.getType(), base, offset);
+  }
+
+  /** Return the current value of a variable; an array's is the address of its storage. */
+  private SsaFunction.Instruction read(Variable variable) {
+    if (variable.isArray()) {
+      return slot(variable);
+    }
+    if (isMemory(variable)) {
+      return add(SsaFunction.Op.LOAD, typeOf(variable), slot(variable));
+    }
+    return readVariable(variable, current);
+  }
+
+  /** Return true iff a variable lives in memory rather than in SSA values. */
+  private boolean isMemory(Variable variable) {
+    return globals.contains(variable) || addressTaken.contains(variable);
+  }
+
+  /** Return the address of a global or address-taken local, created once in the entry block. */
+  private SsaFunction.Instruction slot(Variable variable) {
+    SsaFunction.Instruction slot = slots.get(variable);
+    if (slot == null) {
+      // an array is typed as a pointer to its first element, which is its slot
+      Types.Type type = variable.isArray() ? Types.of(variable)
+          : new Types.Type(variable.getType(), variable.getNReferences() + 1);
+      slot = globals.contains(variable)
+          ? prologue(SsaFunction.Op.GLOBAL, type, 0, variable.getName(), variable)
+          : prologue(SsaFunction.Op.ALLOCA, type, 0, null, variable);
+      slots.put(variable, slot);
+    }
+    return slot;
+  }
+
+  /** Return the C type of a variable as declared; {@code main}'s argc is a C int. */
+  private Types.Type typeOf(Variable variable) {
+    Variable[] arguments = function.getArguments();
+    if (function.getName().equals("main") && arguments.length > 0 && arguments[0] == variable) {
+      return Types.C_INT;
+    }
+    return Types.of(variable);
+  }
+
+  // ===================== SSA construction =====================
+
+  private void writeVariable(Variable variable, SsaFunction.Block block, SsaFunction.Instruction value) {
+    definitions.computeIfAbsent(variable, v -> new HashMap<>()).put(block, value);
+  }
+
+  private SsaFunction.Instruction readVariable(Variable variable, SsaFunction.Block block) {
+    // walk up chains of single predecessors without recursing
+    ArrayList<SsaFunction.Block> chain = new ArrayList<>();
+    HashMap<SsaFunction.Block, SsaFunction.Instruction> values = definitions.get(variable);
+    SsaFunction.Instruction value;
+    while (true) {
+      value = values == null ? null : values.get(block);
+      if (value != null) {
+        break;
+      }
+      if (sealed.contains(block) && block.predecessors().size() == 1) {
+        chain.add(block);
+        block = block.predecessors().get(0);
+        continue;
+      }
+      value = readVariableAtMerge(variable, block);
+      break;
+    }
+    for (SsaFunction.Block b : chain) {
+      writeVariable(variable, b, value);
+    }
+    return value;
+  }
+
+  /** Read a variable in a block without a single known predecessor. */
+  private SsaFunction.Instruction readVariableAtMerge(Variable variable, SsaFunction.Block block) {
+    SsaFunction.Instruction value;
+    if (!sealed.contains(block)) {
+      value = newPhi(block, typeOf(variable), variable);
+      incompletePhis.computeIfAbsent(block, b -> new IdentityHashMap<>()).put(variable, value);
+    } else if (block.predecessors().isEmpty()) {
+      value = undefined(typeOf(variable));
+    } else {
+      value = newPhi(block, typeOf(variable), variable);
+      writeVariable(variable, block, value);
+      addPhiOperands(variable, value);
+    }
+    writeVariable(variable, block, value);
+    return value;
+  }
+
+  private void addPhiOperands(Variable variable, SsaFunction.Instruction phi) {
+    ArrayList<SsaFunction.Block> predecessors = phi.getBlock().predecessors();
+    SsaFunction.Instruction[] operands = new SsaFunction.Instruction[predecessors.size()];
+    for (int i = 0; i < operands.length; i++) {
+      operands[i] = readVariable(variable, predecessors.get(i));
+    }
+    phi.setOperands(operands);
+  }
+
+  private void seal(SsaFunction.Block block) {
+    IdentityHashMap<Variable, SsaFunction.Instruction> phis = incompletePhis.remove(block);
+    sealed.add(block);
+    if (phis != null) {
+      for (var entry : phis.entrySet()) {
+        addPhiOperands(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
+  private SsaFunction.Instruction newPhi(SsaFunction.Block block, Types.Type type, Variable variable) {
+    SsaFunction.Instruction phi = new SsaFunction.Instruction(nextId++, SsaFunction.Op.PHI, type,
+        new SsaFunction.Instruction[0], 0, null, variable);
+    phi.setBlock(block);
+    block.phis().add(phi);
+    return phi;
+  }
+
+  private void removeUnreachableBlocks() {
+    HashSet<SsaFunction.Block> reachable = new HashSet<>();
+    ArrayList<SsaFunction.Block> work = new ArrayList<>();
+    reachable.add(entry);
+    work.add(entry);
+    while (!work.isEmpty()) {
+      for (SsaFunction.Block successor : work.remove(work.size() - 1).getSuccessors()) {
+        if (reachable.add(successor)) {
+          work.add(successor);
+        }
+      }
+    }
+    blocks.removeIf(block -> !reachable.contains(block));
+    for (SsaFunction.Block block : blocks) {
+      ArrayList<SsaFunction.Block> predecessors = block.predecessors();
+      for (int i = predecessors.size() - 1; i >= 0; i--) {
+        if (reachable.contains(predecessors.get(i))) {
+          continue;
+        }
+        predecessors.remove(i);
+        for (SsaFunction.Instruction phi : block.phis()) {
+          ArrayList<SsaFunction.Instruction> operands = new ArrayList<>(phi.getOperands());
+          operands.remove(i);
+          phi.setOperands(operands.toArray(new SsaFunction.Instruction[0]));
+        }
+      }
+    }
+  }
+
+  /** Replace every phi whose operands are itself and one other value by that value. */
+  private void removeTrivialPhis() {
+    IdentityHashMap<SsaFunction.Instruction, SsaFunction.Instruction> replacements = new IdentityHashMap<>();
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (SsaFunction.Block block : blocks) {
+        for (int p = block.phis().size() - 1; p >= 0; p--) {
+          SsaFunction.Instruction phi = block.phis().get(p);
+          SsaFunction.Instruction same = null;
+          boolean trivial = true;
+          for (SsaFunction.Instruction operand : phi.getOperands()) {
+            operand = resolve(replacements, operand);
+            if (operand == phi || operand == same) {
+              continue;
+            }
+            if (same != null) {
+              trivial = false;
+              break;
+            }
+            same = operand;
+          }
+          if (trivial) {
+            replacements.put(phi, same != null ? same : undefined(phi.getType()));
+            block.phis().remove(p);
+            changed = true;
+          }
+        }
+      }
+    }
+    if (replacements.isEmpty()) {
+      return;
+    }
+    for (SsaFunction.Block block : blocks) {
+      for (SsaFunction.Instruction phi : block.phis()) {
+        resolveOperands(replacements, phi);
+      }
+      for (SsaFunction.Instruction instruction : block.instructions()) {
+        resolveOperands(replacements, instruction);
+      }
+    }
+  }
+
+  private static SsaFunction.Instruction resolve(
+      IdentityHashMap<SsaFunction.Instruction, SsaFunction.Instruction> replacements, SsaFunction.Instruction value) {
+    SsaFunction.Instruction replacement;
+    while ((replacement = replacements.get(value)) != null) {
+      value = replacement;
+    }
+    return value;
+  }
+
+  private static void resolveOperands(IdentityHashMap<SsaFunction.Instruction, SsaFunction.Instruction> replacements,
+      SsaFunction.Instruction instruction) {
+    SsaFunction.Instruction[] operands = instruction.getOperands().toArray(new SsaFunction.Instruction[0]);
+    for (int i = 0; i < operands.length; i++) {
+      operands[i] = resolve(replacements, operands[i]);
+    }
+    instruction.setOperands(operands);
+  }
+
+  // ===================== building blocks =====================
+
+  private SsaFunction.Block newBlock() {
+    SsaFunction.Block block = new SsaFunction.Block(blocks.size());
+    blocks.add(block);
+    return block;
+  }
+
+  /** Continue in {@code block}, all of whose predecessors are now known. */
+  private void enter(SsaFunction.Block block) {
+    seal(block);
+    current = block;
+  }
+
+  private SsaFunction.Instruction add(SsaFunction.Op op, Types.Type type, SsaFunction.Instruction... operands) {
+    return add(new SsaFunction.Instruction(nextId++, op, type, operands, 0, null, null));
+  }
+
+  private SsaFunction.Instruction add(SsaFunction.Instruction instruction) {
+    instruction.setBlock(current);
+    current.instructions().add(instruction);
+    return instruction;
+  }
+
+  /** Add an instruction to the start of the entry block, where it dominates every use. */
+  private SsaFunction.Instruction prologue(SsaFunction.Op op, Types.Type type, long constant, String name,
+      Variable variable) {
+    SsaFunction.Instruction instruction = new SsaFunction.Instruction(nextId++, op, type,
+        new SsaFunction.Instruction[0], constant, name, variable);
+    instruction.setBlock(entry);
+    entry.instructions().add(nPrologue++, instruction);
+    return instruction;
+  }
+
+  private SsaFunction.Instruction constant(Types.Type type, long value) {
+    return add(new SsaFunction.Instruction(nextId++, SsaFunction.Op.CONST, type, new SsaFunction.Instruction[0],
+        value, null, null));
+  }
+
+  private SsaFunction.Instruction undefined(Types.Type type) {
+    return prologue(SsaFunction.Op.UNDEF, type, 0, null, null);
+  }
+
+  /** Return {@code value} converted to {@code type}. */
+  private SsaFunction.Instruction convert(SsaFunction.Instruction value, Types.Type type) {
+    if (value.getType().equals(type)) {
+      return value;
+    }
+    if (value.getOp() == SsaFunction.Op.CONST) {
+      return constant(type, Types.convert(value.getConstant(), type));
+    }
+    return add(SsaFunction.Op.CONVERT, type, value);
+  }
+
+  /** End the current block with a terminator and continue in a fresh, unreachable one. */
+  private void terminate(SsaFunction.Op op, SsaFunction.Instruction[] operands, SsaFunction.Block... targets) {
+    SsaFunction.Instruction terminator = add(op, SsaFunction.VOID, operands);
+    terminator.setTargets(targets);
+    for (SsaFunction.Block target : targets) {
+      target.predecessors().add(current);
+    }
+    current = newBlock();
+    sealed.add(current);
+  }
+
+  private void jump(SsaFunction.Block target) {
+    terminate(SsaFunction.Op.JUMP, new SsaFunction.Instruction[0], target);
+  }
+
+  private void branch(SsaFunction.Instruction condition, SsaFunction.Block yes, SsaFunction.Block no) {
+    terminate(SsaFunction.Op.BRANCH, new SsaFunction.Instruction[] { condition }, yes, no);
+  }
+}
@@ -0,0 +1,335 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A function in static single assignment form.
+ *
+ * The body is a list of basic blocks, the first being the entry. Each block
+ * holds phi nodes, then ordinary instructions, and ends with exactly one
+ * terminator: {@code jump}, {@code branch} or {@code return}. Every
+ * instruction is also the value it computes and carries its C type (see
+ * {@link Types}), so arithmetic, comparisons and conversions mean what they
+ * mean in the C the {@link Compiler} emits.
+ *
+ * Locals whose address is never taken are SSA values; every other access to
+ * memory, including {@code ^} dereferences, globals and address-taken locals,
+ * is an explicit {@code load} or {@code store} through a pointer.
+ *
+ * Built by {@link SsaBuilder} and checked by {@link SsaVerifier}.
+ */
+public final class SsaFunction {
+  /** type of instructions that produce no value */
+  public static final Types.Type VOID = new Types.Type(SHC.VOID, 0);
+
+  /** Operation of an instruction. */
+  public enum Op {
+    /** integer constant */
+    CONST,
+    /** value of a local read before any assignment */
+    UNDEF,
+    /** incoming parameter */
+    PARAM,
+    /** address of a global variable */
+    GLOBAL,
+    /** address of a string literal */
+    STRING,
+    /** address of a local whose address is taken */
+    ALLOCA,
+    /**
+     * arithmetic in the instruction's type; a pointer plus or minus an
+     * integer moves by elements, and the difference of two pointers counts
+     * them
+     */
+    ADD, SUB, MUL, DIV, REM, NEG,
+    /** comparisons, unsigned if either operand is an SHC int or a pointer */
+    EQ, NE, LT, LE, GT, GE,
+    /** conversion of the operand to the instruction's type */
+    CONVERT,
+    /** load through operand 0 */
+    LOAD,
+    /** store operand 1 through operand 0 */
+    STORE,
+    /** call of the function {@code name} with the operands */
+    CALL,
+    /** merge of operand i from predecessor i */
+    PHI,
+    /** control transfer to the targets: branch takes the first iff operand 0 is nonzero */
+    JUMP, BRANCH, RETURN;
+
+    /** Return true iff instructions of this operation end a block. */
+    public boolean isTerminator() {
+      return this == JUMP || this == BRANCH || this == RETURN;
+    }
+
+    /** Return true iff this operation compares its operands. */
+    public boolean isComparison() {
+      return ordinal() >= EQ.ordinal() && ordinal() <= GE.ordinal();
+    }
+  }
+
+  /**
+   * An instruction, and the value it computes.
+   */
+  public static final class Instruction {
+    private final int id;
+    private final Op op;
+    private final Types.Type type;
+    private Instruction[] operands;
+    /** value of a {@code CONST}, index of a {@code PARAM} */
+    private final long constant;
+    /** symbol of a {@code GLOBAL} or {@code CALL}, text of a {@code STRING} */
+    private final String name;
+    /** variable of a {@code PARAM}, {@code GLOBAL}, {@code ALLOCA} or {@code PHI} */
+    private final Variable variable;
+    /** successors of a terminator */
+    private Block[] targets = new Block[0];
+    private Block block;
+
+    Instruction(int id, Op op, Types.Type type, Instruction[] operands, long constant, String name,
+        Variable variable) {
+      this.id = id;
+      this.op = op;
+      this.type = type;
+      this.operands = operands;
+      this.constant = constant;
+      this.name = name;
+      this.variable = variable;
+    }
+
+    /** Getter method for {@code id}, unique within the function */
+    public int getId() {
+      return id;
+    }
+
+    /** Getter method for {@code op} */
+    public Op getOp() {
+      return op;
+    }
+
+    /** Getter method for {@code type} */
+    public Types.Type getType() {
+      return type;
+    }
+
+    /** Getter method for {@code operands} */
+    public List<Instruction> getOperands() {
+      return List.of(operands);
+    }
+
+    /** Return operand {@code i}. */
+    public Instruction getOperand(int i) {
+      return operands[i];
+    }
+
+    /** Getter method for {@code constant} */
+    public long getConstant() {
+      return constant;
+    }
+
+    /** Getter method for {@code name} */
+    public String getName() {
+      return name;
+    }
+
+    /** Getter method for {@code variable} */
+    public Variable getVariable() {
+      return variable;
+    }
+
+    /** Getter method for {@code targets} */
+    public List<Block> getTargets() {
+      return List.of(targets);
+    }
+
+    /** Getter method for {@code block} */
+    public Block getBlock() {
+      return block;
+    }
+
+    void setOperands(Instruction[] operands) {
+      this.operands = operands;
+    }
+
+    void setTargets(Block... targets) {
+      this.targets = targets;
+    }
+
+    void setBlock(Block block) {
+      this.block = block;
+    }
+
+    /** Return true iff the instruction produces a value. */
+    public boolean hasValue() {
+      return !type.equals(VOID);
+    }
+
+    @Override
+    public String toString() {
+      return "%" + id;
+    }
+  }
+
+  /**
+   * A basic block.
+   */
+  public static final class Block {
+    private final int id;
+    private final ArrayList<Instruction> phis = new ArrayList<>();
+    private final ArrayList<Instruction> instructions = new ArrayList<>();
+    private final ArrayList<Block> predecessors = new ArrayList<>();
+
+    Block(int id) {
+      this.id = id;
+    }
+
+    /** Getter method for {@code id} */
+    public int getId() {
+      return id;
+    }
+
+    /** Getter method for {@code phis} */
+    public List<Instruction> getPhis() {
+      return Collections.unmodifiableList(phis);
+    }
+
+    /** Return the instructions after the phis, ending with the terminator. */
+    public List<Instruction> getInstructions() {
+      return Collections.unmodifiableList(instructions);
+    }
+
+    /** Getter method for {@code predecessors} */
+    public List<Block> getPredecessors() {
+      return Collections.unmodifiableList(predecessors);
+    }
+
+    /** Return the terminator, or null while the block is being built. */
+    public Instruction getTerminator() {
+      if (instructions.isEmpty()) {
+        return null;
+      }
+      Instruction last = instructions.get(instructions.size() - 1);
+      return last.getOp().isTerminator() ? last : null;
+    }
+
+    /** Return the blocks control may reach from this one. */
+    public List<Block> getSuccessors() {
+      Instruction terminator = getTerminator();
+      return terminator == null ? List.of() : terminator.getTargets();
+    }
+
+    ArrayList<Instruction> phis() {
+      return phis;
+    }
+
+    ArrayList<Instruction> instructions() {
+      return instructions;
+    }
+
+    ArrayList<Block> predecessors() {
+      return predecessors;
+    }
+
+    @Override
+    public String toString() {
+      return "b" + id;
+    }
+  }
+
+  private final Function function;
+  private final ArrayList<Block> blocks;
+  private final Instruction[] parameters;
+
+  SsaFunction(Function function, ArrayList<Block> blocks, Instruction[] parameters) {
+    this.function = function;
+    this.blocks = blocks;
+    this.parameters = parameters;
+  }
+
+  /** Getter method for {@code function}, the function this was built from */
+  public Function getFunction() {
+    return function;
+  }
+
+  /** Getter method for {@code blocks}; the first is the entry */
+  public List<Block> getBlocks() {
+    return Collections.unmodifiableList(blocks);
+  }
+
+  /** Return the {@code PARAM} instruction of each parameter. */
+  public List<Instruction> getParameters() {
+    return List.of(parameters);
+  }
+
+  /** Return the type of the function's result. */
+  public Types.Type getReturnType() {
+    return new Types.Type(function.getReturnType(), function.getNReturnReferences());
+  }
+
+  /** Return the name of a type in dumps: {@code i64}, {@code i32}, {@code i8}, {@code void}, with a {@code *} per reference. */
+  public static String typeName(Types.Type type) {
+    String base = switch (type.base()) {
+      case INT -> "i64";
+      case INT_LITERAL, I32, U32 -> "i32";
+      case I16 -> "i16";
+      case CHAR, I8 -> "i8";
+      default -> "void";
+    };
+    return base + "*".repeat(type.nReferences());
+  }
+
+  /** Return a textual listing of the function. */
+  public String dump() {
+    StringBuilder text = new StringBuilder("fun ").append(function.getName()).append("(");
+    for (int i = 0; i < parameters.length; i++) {
+      text.append(i > 0 ? ", " : "").append(parameters[i]).append(": ").append(typeName(parameters[i].getType()));
+    }
+    text.append("): ").append(typeName(getReturnType())).append(" {\n");
+    for (Block block : blocks) {
+      text.append(block).append(":");
+      if (!block.predecessors.isEmpty()) {
+        text.append("  ; preds");
+        for (Block predecessor : block.predecessors) {
+          text.append(" ").append(predecessor);
+        }
+      }
+      text.append("\n");
+      for (Instruction phi : block.phis) {
+        text.append("  ").append(dump(phi)).append("\n");
+      }
+      for (Instruction instruction : block.instructions) {
+        if (instruction.getOp() != Op.PARAM) {
+          text.append("  ").append(dump(instruction)).append("\n");
+        }
+      }
+    }
+    return text.append("}\n").toString();
+  }
+
+  /** Return one instruction as text, e.g. {@code %4: i64 = add %2, %3}. */
+  public static String dump(Instruction instruction) {
+    StringBuilder text = new StringBuilder();
+    if (instruction.hasValue()) {
+      text.append(instruction).append(": ").append(typeName(instruction.getType())).append(" = ");
+    }
+    text.append(instruction.getOp().name().toLowerCase());
+    switch (instruction.getOp()) {
+      case CONST -> text.append(" ").append(instruction.getConstant());
+      case GLOBAL, CALL -> text.append(" @").append(instruction.getName());
+      case STRING -> text.append(" \"").append(instruction.getName().replace("\n", "\\n")).append("\"");
+      case ALLOCA -> text.append(" ").append(instruction.getVariable().getName());
+      default -> {
+      }
+    }
+    for (int i = 0; i < instruction.operands.length; i++) {
+      text.append(i > 0 || instruction.getOp() == Op.CALL ? ", " : " ").append(instruction.operands[i]);
+      if (instruction.getOp() == Op.PHI) {
+        text.append(" ").append(instruction.getBlock().predecessors.get(i));
+      }
+    }
+    for (int i = 0; i < instruction.targets.length; i++) {
+      text.append(i > 0 || instruction.operands.length > 0 ? ", " : " ").append(instruction.targets[i]);
+    }
+    return text.toString();
+  }
+}
@@ -0,0 +1,292 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Checks the invariants of an {@link SsaFunction}.
+ *
+ * Every block must hold its phis first, one operand per predecessor, and end
+ * with exactly one terminator; predecessor lists must agree with the
+ * terminators' targets; every block must be reachable from the entry; and
+ * every value must be defined before it is used on every path, i.e. its
+ * definition dominates the use. A phi operand is used at the end of the
+ * corresponding predecessor. Operand types are checked where the IR fixes
+ * them.
+ *
+ * Dominators are computed with the iterative algorithm of Cooper, Harvey and
+ * Kennedy, "A Simple, Fast Dominance Algorithm".
+ */
+public final class SsaVerifier {
+  private final SsaFunction function;
+  private final ArrayList<String> problems = new ArrayList<>();
+  /** reverse postorder index of each reachable block */
+  private final HashMap<SsaFunction.Block, Integer> order = new HashMap<>();
+  /** immediate dominator of each block, by reverse postorder index */
+  private int[] dominators;
+  /** position of each instruction within its block; phis come before 0 */
+  private final HashMap<SsaFunction.Instruction, Integer> positions = new HashMap<>();
+
+  private SsaVerifier(SsaFunction function) {
+    this.function = function;
+  }
+
+  /**
+   * Verify a function.
+   *
+   * @param function - function to check
+   * @return a description of each violated invariant, empty iff the function is well formed
+   */
+  public static ArrayList<String> verify(SsaFunction function) {
+    SsaVerifier verifier = new SsaVerifier(function);
+    verifier.verify();
+    return verifier.problems;
+  }
+
+  private void verify() {
+    List<SsaFunction.Block> blocks = function.getBlocks();
+    if (blocks.isEmpty()) {
+      problem("no entry block");
+      return;
+    }
+    checkShape(blocks);
+    if (!problems.isEmpty()) {
+      // dominance is meaningless on a malformed graph
+      return;
+    }
+    computeDominators(blocks);
+    for (SsaFunction.Block block : blocks) {
+      if (!order.containsKey(block)) {
+        problem(block + " is unreachable");
+      }
+    }
+    if (!problems.isEmpty()) {
+      return;
+    }
+    for (SsaFunction.Block block : blocks) {
+      for (SsaFunction.Instruction phi : block.getPhis()) {
+        for (int i = 0; i < phi.getOperands().size(); i++) {
+          SsaFunction.Block predecessor = block.getPredecessors().get(i);
+          checkDefinition(phi, phi.getOperand(i), predecessor, Integer.MAX_VALUE);
+        }
+        checkTypes(phi);
+      }
+      List<SsaFunction.Instruction> instructions = block.getInstructions();
+      for (int i = 0; i < instructions.size(); i++) {
+        for (SsaFunction.Instruction operand : instructions.get(i).getOperands()) {
+          checkDefinition(instructions.get(i), operand, block, i);
+        }
+        checkTypes(instructions.get(i));
+      }
+    }
+  }
+
+  /** Check the layout of blocks and the edges between them. */
+  private void checkShape(List<SsaFunction.Block> blocks) {
+    HashSet<SsaFunction.Block> known = new HashSet<>(blocks);
+    HashSet<Integer> ids = new HashSet<>();
+    if (!blocks.get(0).getPredecessors().isEmpty()) {
+      problem("entry block " + blocks.get(0) + " has predecessors");
+    }
+    for (SsaFunction.Block block : blocks) {
+      for (SsaFunction.Instruction phi : block.getPhis()) {
+        define(phi, -1, ids);
+        if (phi.getOp() != SsaFunction.Op.PHI) {
+          problem(SsaFunction.dump(phi) + " is among the phis of " + block);
+        } else if (phi.getOperands().size() != block.getPredecessors().size()) {
+          problem(SsaFunction.dump(phi) + " has " + phi.getOperands().size() + " operands but " + block + " has "
+              + block.getPredecessors().size() + " predecessors");
+        }
+      }
+      List<SsaFunction.Instruction> instructions = block.getInstructions();
+      if (instructions.isEmpty() || !instructions.get(instructions.size() - 1).getOp().isTerminator()) {
+        problem(block + " does not end with a terminator");
+      }
+      for (int i = 0; i < instructions.size(); i++) {
+        SsaFunction.Instruction instruction = instructions.get(i);
+        define(instruction, i, ids);
+        if (instruction.getOp() == SsaFunction.Op.PHI) {
+          problem(SsaFunction.dump(instruction) + " follows ordinary instructions in " + block);
+        }
+        if (instruction.getOp().isTerminator() && i != instructions.size() - 1) {
+          problem(SsaFunction.dump(instruction) + " is in the middle of " + block);
+        }
+        if (instruction.getBlock() != block) {
+          problem(SsaFunction.dump(instruction) + " is in " + block + " but claims " + instruction.getBlock());
+        }
+      }
+      for (SsaFunction.Block successor : block.getSuccessors()) {
+        if (!known.contains(successor)) {
+          problem(block + " jumps to " + successor + ", which is not in the function");
+        } else if (!successor.getPredecessors().contains(block)) {
+          problem(block + " jumps to " + successor + " but is not among its predecessors");
+        }
+      }
+      for (SsaFunction.Block predecessor : block.getPredecessors()) {
+        if (!known.contains(predecessor) || !predecessor.getSuccessors().contains(block)) {
+          problem(predecessor + " is a predecessor of " + block + " but does not jump to it");
+        }
+      }
+    }
+  }
+
+  private void define(SsaFunction.Instruction instruction, int position, HashSet<Integer> ids) {
+    positions.put(instruction, position);
+    if (!ids.add(instruction.getId())) {
+      problem(instruction + " is defined twice");
+    }
+  }
+
+  /**
+   * Check that {@code operand} is defined where {@code user} reads it: at
+   * position {@code position} of {@code block}.
+   */
+  private void checkDefinition(SsaFunction.Instruction user, SsaFunction.Instruction operand,
+      SsaFunction.Block block, int position) {
+    Integer definition = positions.get(operand);
+    if (definition == null || operand.getBlock() == null || !order.containsKey(operand.getBlock())) {
+      problem(SsaFunction.dump(user) + " uses " + operand + ", which is not defined in the function");
+      return;
+    }
+    if (!operand.hasValue()) {
+      problem(SsaFunction.dump(user) + " uses " + operand + ", which has no value");
+      return;
+    }
+    boolean dominates = operand.getBlock() == block ? definition < position
+        : dominates(operand.getBlock(), block);
+    if (!dominates) {
+      problem(SsaFunction.dump(user) + " uses " + operand + " in " + block + ", which its definition in "
+          + operand.getBlock() + " does not dominate");
+    }
+  }
+
+  /** Check the operand types an operation requires. */
+  private void checkTypes(SsaFunction.Instruction instruction) {
+    List<SsaFunction.Instruction> operands = instruction.getOperands();
+    int expected = switch (instruction.getOp()) {
+      case CONST, UNDEF, PARAM, GLOBAL, STRING, ALLOCA, JUMP -> 0;
+      case NEG, CONVERT, LOAD, BRANCH -> 1;
+      case ADD, SUB, MUL, DIV, REM, EQ, NE, LT, LE, GT, GE, STORE -> 2;
+      case RETURN -> function.getReturnType().equals(SsaFunction.VOID) ? 0 : 1;
+      case CALL, PHI -> operands.size();
+    };
+    if (operands.size() != expected) {
+      problem(SsaFunction.dump(instruction) + " has " + operands.size() + " operands, expected " + expected);
+      return;
+    }
+    int nTargets = switch (instruction.getOp()) {
+      case JUMP -> 1;
+      case BRANCH -> 2;
+      default -> 0;
+    };
+    if (instruction.getTargets().size() != nTargets) {
+      problem(SsaFunction.dump(instruction) + " has " + instruction.getTargets().size() + " targets, expected "
+          + nTargets);
+    }
+    Types.Type type = instruction.getType();
+    switch (instruction.getOp()) {
+      case GLOBAL, STRING, ALLOCA -> expect(instruction, type.isPointer(), "a pointer type");
+      case LOAD -> expect(instruction, operands.get(0).getType().isPointer()
+          && operands.get(0).getType().pointee().equals(type), "a pointer to its type");
+      case STORE -> expect(instruction, operands.get(0).getType().isPointer()
+          && operands.get(0).getType().pointee().equals(operands.get(1).getType()),
+          "a pointer to the stored value's type");
+      case MUL, DIV, REM, NEG -> expect(instruction, !type.isPointer()
+          && operands.stream().noneMatch(operand -> operand.getType().isPointer()), "integers");
+      case EQ, NE, LT, LE, GT, GE -> expect(instruction, type.equals(Types.C_INT), "a C int result");
+      case PHI -> expect(instruction, operands.stream().allMatch(operand -> operand.getType().equals(type)),
+          "operands of its type");
+      case RETURN -> expect(instruction, operands.isEmpty()
+          || operands.get(0).getType().equals(function.getReturnType()), "a value of the return type");
+      default -> {
+      }
+    }
+  }
+
+  private void expect(SsaFunction.Instruction instruction, boolean condition, String what) {
+    if (!condition) {
+      problem(SsaFunction.dump(instruction) + " expects " + what);
+    }
+  }
+
+  // ===================== dominators =====================
+
+  private void computeDominators(List<SsaFunction.Block> blocks) {
+    ArrayList<SsaFunction.Block> postorder = new ArrayList<>();
+    // iterative depth-first search, remembering the next successor of each block on the stack
+    HashSet<SsaFunction.Block> visited = new HashSet<>();
+    ArrayList<SsaFunction.Block> stack = new ArrayList<>();
+    ArrayList<Integer> next = new ArrayList<>();
+    stack.add(blocks.get(0));
+    next.add(0);
+    visited.add(blocks.get(0));
+    while (!stack.isEmpty()) {
+      int top = stack.size() - 1;
+      List<SsaFunction.Block> successors = stack.get(top).getSuccessors();
+      int i = next.get(top);
+      if (i < successors.size()) {
+        next.set(top, i + 1);
+        if (visited.add(successors.get(i))) {
+          stack.add(successors.get(i));
+          next.add(0);
+        }
+      } else {
+        postorder.add(stack.remove(top));
+        next.remove(top);
+      }
+    }
+    int n = postorder.size();
+    for (int i = 0; i < n; i++) {
+      order.put(postorder.get(n - 1 - i), i);
+    }
+
+    dominators = new int[n];
+    Arrays.fill(dominators, -1);
+    dominators[0] = 0;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int i = 1; i < n; i++) {
+        int idom = -1;
+        for (SsaFunction.Block predecessor : postorder.get(n - 1 - i).getPredecessors()) {
+          Integer p = order.get(predecessor);
+          if (p == null || dominators[p] < 0) {
+            continue;
+          }
+          idom = idom < 0 ? p : intersect(p, idom);
+        }
+        if (idom != dominators[i]) {
+          dominators[i] = idom;
+          changed = true;
+        }
+      }
+    }
+  }
+
+  private int intersect(int a, int b) {
+    while (a != b) {
+      while (a > b) {
+        a = dominators[a];
+      }
+      while (b > a) {
+        b = dominators[b];
+      }
+    }
+    return a;
+  }
+
+  /** Return true iff block {@code a} dominates block {@code b}. */
+  private boolean dominates(SsaFunction.Block a, SsaFunction.Block b) {
+    int target = order.get(a);
+    int current = order.get(b);
+    while (current > target) {
+      current = dominators[current];
+    }
+    return current == target;
+  }
+
+  private void problem(String text) {
+    problems.add(function.getFunction().getName() + ": " + text);
+  }
+}
@@ -22,13 +22,33 @@ public sealed interface Statement
   /**
    * Loop statement.
    *
-   * @param cond    - loop condition
-   * @param body    - body of loop
-   * @param lineIdx - line index of first token
-   * @param charIdx - character index of first token
+   * @param cond     - loop condition
+   * @param body     - body of loop
+   * @param parallel - how the iterations of a {@code parfor} may run in
+   *                 parallel, or null for a sequential loop
+   * @param lineIdx  - line index of first token
+   * @param charIdx  - character index of first token
    */
-  public record Loop(Factor cond, Statement[] body, int lineIdx, int charIdx)
+  public record Loop(Factor cond, Statement[] body, Parallel parallel, int lineIdx, int charIdx)
       implements Statement {
+
+    // Convenience ctor for sequential loops
+    public Loop(Factor cond, Statement[] body, int lineIdx, int charIdx) {
+      this(cond, body, null, lineIdx, charIdx);
+    }
+  }
+
+  /**
+   * What a {@code parfor} promises about its loop. The parser lowers
+   * {@code parfor (i = lo; hi) { body }} to {@code i = lo;} followed by
+   * {@code while (i < hi) { body i = i + 1; }}, tagged with this, so a
+   * backend that ignores the tag runs it sequentially.
+   *
+   * @param induction  - the loop's induction variable
+   * @param reductions - variables the body only adds to, which each thread
+   *                   may accumulate separately and sum at the end
+   */
+  public record Parallel(Variable induction, Variable[] reductions) {
   }
 
   /**
@@ -0,0 +1,288 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * Strength reduction of products of induction variables (see
+ * {@link CountedLoop}).
+ *
+ * While {@code i} only changes by {@code i = i + c}, a product {@code i * k}
+ * with a constant or loop invariant {@code k} only changes by {@code c * k}.
+ * It is computed once before the loop into a temporary, which is advanced
+ * right after each increment of {@code i}, so each use costs an addition per
+ * increment instead of a multiplication. A subscript {@code a[i * k]} keeps a
+ * pointer to the element instead, so no address is computed at all:
+ *
+ * <pre>
+ * while (i &lt; n) { s = s + a[i * 3]; i = i + 1; }
+ * shc_sr_0 = a + i * 3;
+ * while (i &lt; n) { s = s + ^shc_sr_0; i = i + 1; shc_sr_0 = shc_sr_0 + 3; }
+ * </pre>
+ *
+ * A variable {@code k} is only taken when every increment is by 1, so that
+ * advancing needs no multiplication.
+ */
+public final class StrengthReduction extends ASTRewriter {
+  /** prefix of the temporaries introduced by this pass */
+  private static final String TEMP_PREFIX = "shc_sr_";
+
+  private final HashMap<String, FunctionAttributes> attributes;
+  private final HashSet<Variable> globals;
+  private final Set<Variable> addressTaken;
+  private final ArrayList<String> reduced = new ArrayList<>();
+  private int nTemps = 0;
+
+  private StrengthReduction(HashMap<String, FunctionAttributes> attributes, HashSet<Variable> globals,
+      Set<Variable> addressTaken) {
+    this.attributes = attributes;
+    this.globals = globals;
+    this.addressTaken = addressTaken;
+  }
+
+  /**
+   * Run the pass over a program.
+   *
+   * @param program      - functions of the program
+   * @param globals      - global variables
+   * @param addressTaken - variables whose address the program takes
+   * @param options      - command line options
+   * @param reporter     - reporter for the report
+   * @return the transformed functions
+   */
+  public static ArrayList<Function> run(ArrayList<Function> program, ArrayList<Variable> globals,
+      Set<Variable> addressTaken, Options options, Reporter reporter) {
+    HashMap<String, FunctionAttributes> attributes = FunctionAttributes.infer(program, globals);
+    HashSet<Variable> globalSet = new HashSet<>(globals);
+    ArrayList<Function> result = new ArrayList<>();
+    for (Function function : program) {
+      StrengthReduction pass = new StrengthReduction(attributes, globalSet, addressTaken);
+      result.add(function.withBody(pass.rewriteBody(function.getBody())));
+      if (options.isReport() && !pass.reduced.isEmpty()) {
+        reporter.printNote("strength reduction: `" + function.getName() + "`: " + String.join(", ", pass.reduced));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Statement[] rewriteStatement(Statement statement) {
+    Statement[] rewritten = super.rewriteStatement(statement);
+    if (!(statement instanceof Statement.Loop) || !(rewritten[0] instanceof Statement.Loop loop)
+        || loop.parallel() != null) {
+      return rewritten;
+    }
+    Reducer reducer = new Reducer(loop, LoopEffects.of(loop, attributes, globals, addressTaken));
+    Statement[] body = reducer.rewriteBody(loop.body());
+    if (reducer.temps.isEmpty()) {
+      return rewritten;
+    }
+
+    int line = loop.lineIdx(), col = loop.charIdx();
+    ArrayList<Statement> result = new ArrayList<>();
+    for (Temp temp : reducer.temps.values()) {
+      result.add(new Statement.Decl(temp.variable(), line, col));
+      result.add(ASTUtil.assign(new Factor.Var(temp.variable(), 0, line, col), temp.start()));
+      reduced.add("`" + temp.source() + "` (line " + line + ")");
+    }
+    ArrayList<Statement> advanced = new ArrayList<>();
+    for (Statement s : body) {
+      advanced.add(s);
+      for (Temp temp : reducer.temps.values()) {
+        Long c = ASTUtil.stepOf(s, temp.counter());
+        if (c != null) {
+          advanced.add(advance(temp, c, line, col));
+        }
+      }
+    }
+    result.add(new Statement.Loop(loop.cond(), advanced.toArray(Statement[]::new), line, col));
+    return result.toArray(Statement[]::new);
+  }
+
+  /** Build {@code t = t + c * k}, with {@code c * k} folded. */
+  private static Statement advance(Temp temp, long c, int line, int col) {
+    Factor by = temp.multiplier() instanceof Factor.Var k ? new Factor.Var(k.getVariable(), 0, line, col)
+        : new Factor.Const((int) (c * ASTUtil.constantValue(temp.multiplier())), line, col);
+    AdditiveExpression sum = new AdditiveExpression(ASTUtil.addOf(new Factor.Var(temp.variable(), 0, line, col)),
+        SHC.ADD, ASTUtil.mulOf(ASTUtil.unaryOf(by)), line, col);
+    return ASTUtil.assign(new Factor.Var(temp.variable(), 0, line, col), ASTUtil.orOf(sum));
+  }
+
+  /**
+   * A temporary holding {@code i * k}, or a pointer to {@code a[i * k]}.
+   *
+   * @param variable   - the temporary
+   * @param counter    - induction variable {@code i}
+   * @param multiplier - {@code k}, a constant or a variable
+   * @param start      - value before the loop
+   * @param source     - source text of what it replaces, for the report
+   */
+  private record Temp(Variable variable, Variable counter, Factor multiplier, OrExpression start, String source) {
+  }
+
+  /**
+   * What a temporary replaces: the product {@code i * k}, or with a base, the
+   * element {@code base[i * k]}.
+   *
+   * @param base    - array or pointer subscripted, or null
+   * @param product - source text of the product
+   */
+  private record Key(Variable base, String product) {
+  }
+
+  /**
+   * Replaces the reducible products of one loop with temporaries.
+   */
+  private final class Reducer extends ASTRewriter {
+    private final Statement.Loop loop;
+    private final LoopEffects effects;
+    /** temporaries, by what they replace */
+    final LinkedHashMap<Key, Temp> temps = new LinkedHashMap<>();
+    /** largest increment of each variable looked up, or null if it is not an induction variable */
+    private final HashMap<Variable, Long> largestSteps = new HashMap<>();
+
+    Reducer(Statement.Loop loop, LoopEffects effects) {
+      this.loop = loop;
+      this.effects = effects;
+    }
+
+    @Override
+    public MultiplicativeExpression rewriteMultiplicativeExpression(MultiplicativeExpression expression) {
+      Temp temp = tempFor(null, expression);
+      if (temp != null) {
+        return ASTUtil.mulOf(ASTUtil.unaryOf(new Factor.Var(temp.variable(), 0, expression.getLineIdx(),
+            expression.getCharIdx())));
+      }
+      return super.rewriteMultiplicativeExpression(expression);
+    }
+
+    @Override
+    public Factor rewriteFactor(Factor factor) {
+      if (factor instanceof Factor.Index index) {
+        Temp temp = pointerFor(index.element(), index.index());
+        if (temp != null) {
+          return new Factor.Var(temp.variable(), index.element().getNReferences(), index.lineIdx(),
+              index.charIdx());
+        }
+      }
+      return super.rewriteFactor(factor);
+    }
+
+    @Override
+    public Assignment rewriteAssignment(Assignment assignment) {
+      if (assignment.hasIndex()) {
+        Temp temp = pointerFor(assignment.getAssignee(), assignment.getIndex());
+        if (temp != null) {
+          Factor.Var assignee = assignment.getAssignee();
+          Factor.Var target = new Factor.Var(temp.variable(), assignee.getNReferences(), assignee.getLineIdx(),
+              assignee.getCharIdx());
+          return new Assignment(target, rewriteOrExpression(assignment.getValue()), assignment.getLineIdx(),
+              assignment.getCharIdx());
+        }
+      }
+      return super.rewriteAssignment(assignment);
+    }
+
+    /**
+     * Return the pointer temporary replacing the element {@code a[index]},
+     * or null if the index is not a reducible product or {@code a} may
+     * change in the loop.
+     */
+    private Temp pointerFor(Factor.Var element, Expression index) {
+      Variable base = element.getVariable();
+      Factor.Var read = new Factor.Var(base, 0, element.getLineIdx(), element.getCharIdx());
+      AdditiveExpression sum = index.getExpressions().length == 1 && !index.getExpressions()[0].hasAssignee()
+          ? ASTUtil.asAdditive(index.getExpressions()[0].getValue()) : null;
+      if (sum == null || sum.hasLeft() || base.getNReferences() == 0
+          || !base.isArray() && !effects.check(read).invariant()) {
+        return null;
+      }
+      return tempFor(base, sum.getRight());
+    }
+
+    /**
+     * Return the temporary for the product {@code i * k}, or for a pointer to
+     * {@code base[i * k]}, creating it if needed; null if the expression is
+     * not such a product.
+     */
+    private Temp tempFor(Variable base, MultiplicativeExpression product) {
+      if (!product.hasLeft() || product.getOperator() != SHC.MULTIPLY || product.getLeft().hasLeft()
+          || product.getLeft().getRight().hasOperator() || product.getRight().hasOperator()) {
+        return null;
+      }
+      Factor left = ASTUtil.asFactor(product.getLeft().getRight().getFactor());
+      Factor right = ASTUtil.asFactor(product.getRight().getFactor());
+      Variable counter = inductionVariable(left);
+      Factor multiplier = right;
+      if (counter == null || !isMultiplier(multiplier, counter)) {
+        counter = inductionVariable(right);
+        multiplier = left;
+      }
+      if (counter == null || !isMultiplier(multiplier, counter)) {
+        return null;
+      }
+      Key key = new Key(base, product.toString());
+      Temp temp = temps.get(key);
+      if (temp == null) {
+        int line = loop.lineIdx(), col = loop.charIdx();
+        String name = TEMP_PREFIX + nTemps++;
+        OrExpression start;
+        String source;
+        Variable variable;
+        if (base == null) {
+          variable = new Variable(name, SHC.INT, 0, line, col);
+          start = ASTUtil.orOf(ASTUtil.addOf(product));
+          source = product.toString();
+        } else {
+          variable = new Variable(name, base.getType(), base.getNReferences(), line, col);
+          start = ASTUtil.orOf(new AdditiveExpression(ASTUtil.addOf(new Factor.Var(base, 0, line, col)), SHC.ADD,
+              product, line, col));
+          source = base + "[" + product + "]";
+        }
+        temp = new Temp(variable, counter, multiplier, start, source);
+        temps.put(key, temp);
+      }
+      return temp;
+    }
+
+    /** Return the variable a factor reads if it is an induction variable of the loop, else null. */
+    private Variable inductionVariable(Factor factor) {
+      if (!(factor instanceof Factor.Var var) || var.getNReferences() != 0) {
+        return null;
+      }
+      Variable variable = var.getVariable();
+      if (!largestSteps.containsKey(variable)) {
+        Long step = CountedLoop.stepOf(loop, variable, globals, addressTaken);
+        if (step != null) {
+          // each advance adds c * k for one increment c, so bound it by the largest
+          long largest = 0;
+          for (Statement statement : loop.body()) {
+            Long c = ASTUtil.stepOf(statement, variable);
+            largest = c != null ? Math.max(largest, c) : largest;
+          }
+          step = largest;
+        }
+        largestSteps.put(variable, step);
+      }
+      return largestSteps.get(variable) != null ? variable : null;
+    }
+
+    /**
+     * Return true iff a factor can be {@code k} in a product with
+     * {@code counter}: a constant of at least 2 whose multiples by each
+     * increment fit a constant, or an invariant {@code int} variable when
+     * every increment is by 1.
+     */
+    private boolean isMultiplier(Factor factor, Variable counter) {
+      long largest = largestSteps.get(counter);
+      if (factor instanceof Factor.Const) {
+        Long k = ASTUtil.constantValue(factor);
+        return k != null && k >= 2 && k * largest <= Integer.MAX_VALUE;
+      }
+      return factor instanceof Factor.Var var && var.getNReferences() == 0 && !var.getVariable().isArray()
+          && var.getVariable() != counter && Types.of(var.getVariable()).equals(Types.INT) && largest == 1
+          && effects.check(factor).invariant();
+    }
+  }
+}
@@ -0,0 +1,279 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Structural hash of a function, the key under which the {@link Compiler}
+ * caches the C it generates for it.
+ *
+ * The hash covers the function's signature and body and the signatures of
+ * the functions it calls, but no source positions, so moving a function or
+ * editing another one leaves it unchanged. Variables are hashed by name,
+ * type, and whether they are global. Whatever else the generated code
+ * depends on, such as inferred attributes, is passed in as a context string.
+ */
+public final class StructuralHash {
+  /** bump whenever the generated C changes for the same AST */
+  private static final int VERSION = 3;
+
+  private final DataOutputStream out;
+  private final Set<Variable> globals;
+  private final TreeSet<String> callees = new TreeSet<>();
+
+  private StructuralHash(OutputStream sink, Collection<Variable> globals) {
+    this.out = new DataOutputStream(sink);
+    this.globals = Collections.newSetFromMap(new IdentityHashMap<>());
+    this.globals.addAll(globals);
+  }
+
+  /**
+   * Return the structural hash of a function as a hex string.
+   *
+   * @param function  - function to hash
+   * @param functions - functions of the program, by name
+   * @param globals   - global variables
+   * @param context   - anything else the code generated for the function depends on
+   */
+  public static String of(Function function, Map<String, Function> functions, Collection<Variable> globals,
+      String context) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    StructuralHash hash = new StructuralHash(new DigestOutputStream(OutputStream.nullOutputStream(), digest), globals);
+    try {
+      hash.out.writeInt(VERSION);
+      hash.out.writeUTF(context);
+      hash.signature(function);
+      hash.body(function.getBody());
+      for (String callee : hash.callees) {
+        Function definition = functions.get(callee);
+        if (definition != null) {
+          hash.signature(definition);
+        }
+      }
+      hash.out.flush();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+
+  private void signature(Function function) throws IOException {
+    out.writeUTF(function.getName());
+    out.writeUTF(function.getReturnType().name());
+    out.writeInt(function.getNReturnReferences());
+    out.writeInt(function.getArguments().length);
+    for (Variable argument : function.getArguments()) {
+      variable(argument);
+    }
+  }
+
+  private void variable(Variable variable) throws IOException {
+    out.writeUTF(variable.getName());
+    out.writeUTF(variable.getType().name());
+    out.writeInt(variable.getNReferences());
+    out.writeInt(variable.getArrayLength());
+    out.writeBoolean(globals.contains(variable));
+  }
+
+  private void body(Statement[] body) throws IOException {
+    if (body == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(body.length);
+    for (Statement statement : body) {
+      statement(statement);
+    }
+  }
+
+  private void statement(Statement statement) throws IOException {
+    switch (statement) {
+      case Statement.If ifStatement -> {
+        out.writeByte('i');
+        factor(ifStatement.cond());
+        body(ifStatement.body());
+        body(ifStatement.otherBody());
+      }
+      case Statement.Loop loop -> {
+        out.writeByte(loop.parallel() != null ? 'p' : 'w');
+        if (loop.parallel() != null) {
+          variable(loop.parallel().induction());
+          out.writeInt(loop.parallel().reductions().length);
+          for (Variable reduction : loop.parallel().reductions()) {
+            variable(reduction);
+          }
+        }
+        factor(loop.cond());
+        body(loop.body());
+      }
+      case Statement.Decl decl -> {
+        out.writeByte('d');
+        variable(decl.variable());
+      }
+      case Statement.Call call -> {
+        out.writeByte('c');
+        call(call.function().getName(), call.arguments());
+      }
+      case Statement.Jump jump -> {
+        out.writeByte('j');
+        out.writeUTF(jump.type().name());
+        out.writeBoolean(jump.hasValue());
+        if (jump.hasValue()) {
+          expression(jump.value());
+        }
+      }
+      case Statement.Assign assign -> {
+        out.writeByte('a');
+        assignment(assign.assignment());
+      }
+    }
+  }
+
+  private void expression(Expression expression) throws IOException {
+    Assignment[] assignments = expression.getExpressions();
+    out.writeInt(assignments.length);
+    for (Assignment assignment : assignments) {
+      assignment(assignment);
+    }
+  }
+
+  private void assignment(Assignment assignment) throws IOException {
+    out.writeBoolean(assignment.hasAssignee());
+    if (assignment.hasAssignee()) {
+      var(assignment.getAssignee());
+    }
+    out.writeBoolean(assignment.hasIndex());
+    if (assignment.hasIndex()) {
+      expression(assignment.getIndex());
+    }
+    or(assignment.getValue());
+  }
+
+  private void or(OrExpression expression) throws IOException {
+    out.writeBoolean(expression.hasLeft());
+    if (expression.hasLeft()) {
+      or(expression.getLeft());
+    }
+    and(expression.getRight());
+  }
+
+  private void and(AndExpression expression) throws IOException {
+    out.writeBoolean(expression.hasLeft());
+    if (expression.hasLeft()) {
+      and(expression.getLeft());
+    }
+    equality(expression.getRight());
+  }
+
+  private void equality(EqualityExpression expression) throws IOException {
+    out.writeBoolean(expression.hasLeft());
+    if (expression.hasLeft()) {
+      equality(expression.getLeft());
+      out.writeUTF(expression.getOperator().name());
+    }
+    relational(expression.getRight());
+  }
+
+  private void relational(RelationalExpression expression) throws IOException {
+    out.writeBoolean(expression.hasLeft());
+    if (expression.hasLeft()) {
+      relational(expression.getLeft());
+      out.writeUTF(expression.getOperator().name());
+    }
+    additive(expression.getRight());
+  }
+
+  private void additive(AdditiveExpression expression) throws IOException {
+    out.writeBoolean(expression.hasLeft());
+    if (expression.hasLeft()) {
+      additive(expression.getLeft());
+      out.writeUTF(expression.getOperator().name());
+    }
+    multiplicative(expression.getRight());
+  }
+
+  private void multiplicative(MultiplicativeExpression expression) throws IOException {
+    out.writeBoolean(expression.hasLeft());
+    if (expression.hasLeft()) {
+      multiplicative(expression.getLeft());
+      out.writeUTF(expression.getOperator().name());
+    }
+    unary(expression.getRight());
+  }
+
+  private void unary(UnaryExpression expression) throws IOException {
+    out.writeBoolean(expression.hasOperator());
+    if (expression.hasOperator()) {
+      out.writeUTF(expression.getOperator().name());
+      unary(expression.getUnaryExpression());
+    } else {
+      factor(expression.getFactor());
+    }
+  }
+
+  private void factor(Factor factor) throws IOException {
+    switch (factor) {
+      case Factor.Var var -> {
+        out.writeByte('v');
+        var(var);
+      }
+      case Factor.Const constant -> {
+        // a named constant is spelled by its name in the C
+        out.writeByte(constant.name() != null ? 'n' : 'k');
+        out.writeInt(constant.constant());
+        if (constant.name() != null) {
+          out.writeUTF(constant.name());
+        }
+      }
+      case Factor.Str string -> {
+        out.writeByte('s');
+        // writeUTF is limited to 64K of encoded text
+        byte[] bytes = string.string().getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+      case Factor.Parentheses parentheses -> {
+        out.writeByte('p');
+        expression(parentheses.expression());
+      }
+      case Factor.Call call -> {
+        out.writeByte('c');
+        call(call.fun().getName(), call.arguments());
+      }
+      case Factor.Index index -> {
+        out.writeByte('x');
+        var(index.element());
+        expression(index.index());
+      }
+    }
+  }
+
+  private void var(Factor.Var var) throws IOException {
+    out.writeInt(var.getNReferences());
+    variable(var.getVariable());
+  }
+
+  private void call(String name, Expression[] arguments) throws IOException {
+    callees.add(name);
+    out.writeUTF(name);
+    out.writeInt(arguments.length);
+    for (Expression argument : arguments) {
+      expression(argument);
+    }
+  }
+}
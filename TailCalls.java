@@ -0,0 +1,120 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Self tail calls: {@code return f(...)} inside {@code f} itself.
+ *
+ * Nothing of the caller's frame is needed after such a call, so the backends
+ * compile it as reassigning the parameters and jumping back to the start of
+ * the function, which turns recursion over lists and token streams into a
+ * loop that cannot overflow the stack. {@code main} is left alone, since
+ * its parameters have the types the C runtime passes. So is a function that
+ * takes the address of a local or parameter or declares a local array: the
+ * loop reuses the frame, so a pointer into it that reaches the next
+ * iteration, e.g. {@code return f(n - 1, ^x)}, would see the variable
+ * reassigned instead of the caller's value.
+ */
+public final class TailCalls {
+  private TailCalls() {
+  }
+
+  /**
+   * Return the self tail calls of a function.
+   *
+   * @param function - function to search
+   * @return the {@code return} statements whose value is a call to {@code function}
+   */
+  public static Set<Statement.Jump> find(Function function) {
+    Set<Statement.Jump> result = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (function.getName().equals("main") || pointsIntoFrame(function)) {
+      return result;
+    }
+    new ASTVisitor() {
+      @Override
+      public void visitStatement(Statement statement) {
+        if (statement instanceof Statement.Jump jump && isTailCall(function, jump)) {
+          result.add(jump);
+        }
+        super.visitStatement(statement);
+      }
+    }.visitBody(function.getBody());
+    return result;
+  }
+
+  /**
+   * Return the arguments of a self tail call, or null if {@code jump} is not one.
+   *
+   * @param function - function containing {@code jump}
+   * @param jump     - statement to inspect
+   */
+  public static Expression[] arguments(Function function, Statement.Jump jump) {
+    if (jump.type() != SHC.RETURN || !jump.hasValue()) {
+      return null;
+    }
+    Factor.Call call = ASTUtil.asCall(jump.value());
+    if (call == null || !call.fun().getName().equals(function.getName())
+        || call.arguments().length != function.getArguments().length) {
+      return null;
+    }
+    return call.arguments();
+  }
+
+  /**
+   * Return true iff a pointer into the frame of {@code function} can exist:
+   * it takes the address of a local or parameter, or declares an array.
+   */
+  private static boolean pointsIntoFrame(Function function) {
+    HashSet<Variable> frame = new HashSet<>(List.of(function.getArguments()));
+    HashSet<Variable> addressed = new HashSet<>();
+    boolean[] declaresArray = { false };
+    new ASTVisitor() {
+      @Override
+      public void visitDecl(Variable variable) {
+        frame.add(variable);
+        declaresArray[0] |= variable.isArray();
+      }
+
+      @Override
+      public void visitVar(Factor.Var var) {
+        if (var.getVariable().getNReferences() == 0 && var.getNReferences() == 1) {
+          addressed.add(var.getVariable());
+        }
+      }
+
+      @Override
+      public void visitAssignee(Factor.Var assignee) {
+        visitVar(assignee);
+      }
+    }.visitBody(function.getBody());
+    addressed.retainAll(frame);
+    return declaresArray[0] || !addressed.isEmpty();
+  }
+
+  /** Return true iff {@code jump} is a self tail call of {@code function}. */
+  public static boolean isTailCall(Function function, Statement.Jump jump) {
+    return !function.getName().equals("main") && arguments(function, jump) != null;
+  }
+
+  /**
+   * Report the functions whose tail calls become loops.
+   *
+   * @param program  - functions of the program
+   * @param reporter - reporter for the report
+   */
+  public static void report(ArrayList<Function> program, Reporter reporter) {
+    ArrayList<String> transformed = new ArrayList<>();
+    for (Function function : program) {
+      int n = find(function).size();
+      if (n > 0) {
+        transformed.add("`" + function.getName() + "` (" + n + (n == 1 ? " call)" : " calls)"));
+      }
+    }
+    if (!transformed.isEmpty()) {
+      reporter.printNote("tail calls turned into loops: " + String.join(", ", transformed));
+    }
+  }
+}
@@ -0,0 +1,272 @@
+import java.util.Map;
+
+/**
+ * Static types of SHC expressions, following the C the compiler emits.
+ *
+ * {@code int} is {@code uint64_t}, {@code char} is {@code uint8_t}, the sized
+ * integers {@code i8}, {@code i16}, {@code i32} and {@code u32} are the
+ * matching {@code <stdint.h>} types, and every pointer is 8 bytes. Literals,
+ * comparisons, logical operators and arithmetic on the narrow types have the C
+ * type {@code int}, which is represented by the base {@code INT_LITERAL};
+ * arithmetic involving a {@code u32} is {@code uint32_t}.
+ */
+public final class Types {
+  /**
+   * Type of a value.
+   *
+   * @param base        - INT, CHAR, I8, I16, I32, U32, VOID, or INT_LITERAL
+   *                      for a C int
+   * @param nReferences - pointer depth
+   */
+  public record Type(SHC base, int nReferences) {
+    /** Return true iff this is a pointer type. */
+    public boolean isPointer() {
+      return nReferences > 0;
+    }
+
+    /** Return true iff this is the 64 bit unsigned SHC int. */
+    public boolean isWide() {
+      return nReferences == 0 && base == SHC.INT;
+    }
+
+    /** Return true iff this is the 32 bit unsigned {@code u32}. */
+    public boolean isUnsigned32() {
+      return nReferences == 0 && base == SHC.U32;
+    }
+
+    /** Return the type this pointer points to. */
+    public Type pointee() {
+      return new Type(base, nReferences - 1);
+    }
+  }
+
+  /** the C type {@code int} */
+  public static final Type C_INT = new Type(SHC.INT_LITERAL, 0);
+  /** the SHC type {@code int} */
+  public static final Type INT = new Type(SHC.INT, 0);
+  /** the SHC type {@code u32} */
+  public static final Type U32 = new Type(SHC.U32, 0);
+
+  /** return types of external functions, {@code void *} stands for any pointer */
+  private static final Map<String, Type> EXTERNALS = Map.ofEntries(
+      Map.entry("malloc", new Type(SHC.VOID, 1)),
+      Map.entry("calloc", new Type(SHC.VOID, 1)),
+      Map.entry("realloc", new Type(SHC.VOID, 1)),
+      Map.entry("fopen", new Type(SHC.VOID, 1)),
+      Map.entry("memset", new Type(SHC.VOID, 1)),
+      Map.entry("memcpy", new Type(SHC.VOID, 1)),
+      Map.entry("memmove", new Type(SHC.VOID, 1)),
+      Map.entry("strlen", INT),
+      Map.entry("fread", INT),
+      Map.entry("ftell", INT),
+      Map.entry("mapFile", new Type(SHC.CHAR, 1)));
+
+  private Types() {
+  }
+
+  /**
+   * Return the size in bytes of a value of the given type.
+   *
+   * @param base        - base type
+   * @param nReferences - pointer depth
+   */
+  public static int sizeOf(SHC base, int nReferences) {
+    if (nReferences > 0) {
+      return 8;
+    }
+    return switch (base) {
+      case INT -> 8;
+      case INT_LITERAL, I32, U32 -> 4;
+      case I16 -> 2;
+      default -> 1;
+    };
+  }
+
+  /**
+   * Return a 64 bit register value as a value of the given type holds it:
+   * truncated to the type's size, then sign-extended for the signed types and
+   * zero-extended for the unsigned ones. Pointers and {@code int} are kept.
+   *
+   * @param value - value to convert
+   * @param type  - type to convert to
+   */
+  public static long convert(long value, Type type) {
+    if (type.isPointer()) {
+      return value;
+    }
+    return switch (type.base()) {
+      case CHAR -> value & 0xFF;
+      case I8 -> (byte) value;
+      case I16 -> (short) value;
+      case I32, INT_LITERAL -> (int) value;
+      case U32 -> value & 0xFFFFFFFFL;
+      default -> value;
+    };
+  }
+
+  /** Return true iff values of the type compare and divide as unsigned. */
+  public static boolean isUnsigned(Type type) {
+    return type.isWide() || type.isPointer() || type.isUnsigned32();
+  }
+
+  /** Return the size in bytes of a value of the given type. */
+  public static int sizeOf(Type type) {
+    return sizeOf(type.base(), type.nReferences());
+  }
+
+  /** Return the declared type of a variable. */
+  public static Type of(Variable variable) {
+    return new Type(variable.getType(), variable.getNReferences());
+  }
+
+  /**
+   * Return the size in bytes of the storage of an array variable: its
+   * elements, one after another.
+   */
+  public static int sizeOfArray(Variable variable) {
+    return variable.getArrayLength() * sizeOf(of(variable).pointee());
+  }
+
+  /**
+   * Return the type of an external function's result, or null if unknown.
+   *
+   * @param name - function name
+   */
+  public static Type ofExternal(String name) {
+    return EXTERNALS.get(name);
+  }
+
+  /**
+   * Return the type a variable usage evaluates to, following
+   * {@code Compiler.compileFactor}: {@code ^x} on a non-pointer takes its
+   * address, otherwise each {@code ^} dereferences once.
+   *
+   * @param var - variable usage
+   */
+  public static Type typeOf(Factor.Var var) {
+    Variable variable = var.getVariable();
+    int varRefs = variable.getNReferences();
+    int usageRefs = var.getNReferences();
+    if (varRefs == 0 && usageRefs == 1) {
+      return new Type(variable.getType(), 1);
+    }
+    if (usageRefs > varRefs) {
+      return null;
+    }
+    return new Type(variable.getType(), varRefs - usageRefs);
+  }
+
+  /**
+   * Return the type of an expression, or null if it cannot be determined.
+   *
+   * @param expression - expression to type
+   * @param functions  - functions defined in the program, by name
+   */
+  public static Type typeOf(Expression expression, Map<String, Function> functions) {
+    Assignment[] assignments = expression.getExpressions();
+    Assignment last = assignments[assignments.length - 1];
+    if (last.hasAssignee()) {
+      return typeOf(last.getAssignee());
+    }
+    return typeOf(last.getValue(), functions);
+  }
+
+  /** Return the type of an or expression, or null. */
+  public static Type typeOf(OrExpression expression, Map<String, Function> functions) {
+    if (expression.hasLeft()) {
+      return C_INT;
+    }
+    AndExpression and = expression.getRight();
+    if (and.hasLeft()) {
+      return C_INT;
+    }
+    EqualityExpression eq = and.getRight();
+    if (eq.hasLeft()) {
+      return C_INT;
+    }
+    RelationalExpression rel = eq.getRight();
+    if (rel.hasLeft()) {
+      return C_INT;
+    }
+    return typeOf(rel.getRight(), functions);
+  }
+
+  /** Return the type of an additive expression, or null. */
+  public static Type typeOf(AdditiveExpression expression, Map<String, Function> functions) {
+    Type right = typeOf(expression.getRight(), functions);
+    if (!expression.hasLeft()) {
+      return right;
+    }
+    Type left = typeOf(expression.getLeft(), functions);
+    if (left == null || right == null) {
+      return null;
+    }
+    if (left.isPointer() && right.isPointer()) {
+      // pointer difference is a signed ptrdiff_t, which SHC has no type for
+      return null;
+    }
+    if (left.isPointer()) {
+      return left;
+    }
+    if (right.isPointer()) {
+      return expression.getOperator() == SHC.ADD ? right : null;
+    }
+    return arithmetic(left, right);
+  }
+
+  /** Return the type of a multiplicative expression, or null. */
+  public static Type typeOf(MultiplicativeExpression expression, Map<String, Function> functions) {
+    Type right = typeOf(expression.getRight(), functions);
+    if (!expression.hasLeft()) {
+      return right;
+    }
+    Type left = typeOf(expression.getLeft(), functions);
+    if (left == null || right == null || left.isPointer() || right.isPointer()) {
+      return null;
+    }
+    return arithmetic(left, right);
+  }
+
+  /** Return the type of a unary expression, or null. */
+  public static Type typeOf(UnaryExpression expression, Map<String, Function> functions) {
+    if (!expression.hasOperator()) {
+      return typeOf(expression.getFactor(), functions);
+    }
+    Type inner = typeOf(expression.getUnaryExpression(), functions);
+    if (inner == null || inner.isPointer()) {
+      return null;
+    }
+    return promote(inner);
+  }
+
+  /** Return the type of a factor, or null. */
+  public static Type typeOf(Factor factor, Map<String, Function> functions) {
+    return switch (factor) {
+      case Factor.Var var -> typeOf(var);
+      case Factor.Index index -> typeOf(index.element());
+      case Factor.Const constFactor -> C_INT;
+      case Factor.Str str -> new Type(SHC.CHAR, 1);
+      case Factor.Parentheses parentheses -> typeOf(parentheses.expression(), functions);
+      case Factor.Call call -> {
+        Function callee = functions.get(call.fun().getName());
+        if (callee == null) {
+          yield ofExternal(call.fun().getName());
+        }
+        yield new Type(callee.getReturnType(), callee.getNReturnReferences());
+      }
+    };
+  }
+
+  /** Return the type an integer operand is promoted to. */
+  public static Type promote(Type type) {
+    return type.isWide() ? INT : type.isUnsigned32() ? U32 : C_INT;
+  }
+
+  /** Apply the usual arithmetic conversions to two integer types. */
+  public static Type arithmetic(Type left, Type right) {
+    if (left.isWide() || right.isWide()) {
+      return INT;
+    }
+    return left.isUnsigned32() || right.isUnsigned32() ? U32 : C_INT;
+  }
+}
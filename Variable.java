@@ -10,6 +10,8 @@ public final class Variable extends Parsable {
 	private SHC type;
 	/** number of references */
 	private int nReferences;
+	/** number of elements if the variable is an array, else 0 */
+	private int arrayLength;
 
 	/**
 	 * Constructor for the {@code Variable} class.
@@ -27,6 +29,24 @@ public final class Variable extends Parsable {
 		this.nReferences = nReferences;
 	}
 
+	/**
+	 * Constructor for an array variable. An array of {@code arrayLength}
+	 * elements of type {@code ^^..type} is typed as a pointer to its first
+	 * element, one reference more than its elements, and reads of the
+	 * variable evaluate to the address of its storage.
+	 *
+	 * @param name        - the name of the variable
+	 * @param type        - the base type of the elements
+	 * @param nReferences - the number of references away from the data
+	 * @param arrayLength - the number of elements
+	 * @param lineIdx     - index of the line {@code Parsable} starts at
+	 * @param charIdx     - char index in the line {@code Parsable} starts at
+	 */
+	public Variable(String name, SHC type, int nReferences, int arrayLength, int lineIdx, int charIdx) {
+		this(name, type, nReferences, lineIdx, charIdx);
+		this.arrayLength = arrayLength;
+	}
+
 	/** getter method for {@code name} */
 	public String getName() {
 		return name;
@@ -46,6 +66,18 @@ public final class Variable extends Parsable {
 		return nReferences;
 	}
 
+	/**
+	 * Getter method for {@code arrayLength}
+	 */
+	public int getArrayLength() {
+		return arrayLength;
+	}
+
+	/** Is this variable a fixed-size array? */
+	public boolean isArray() {
+		return arrayLength > 0;
+	}
+
 	/**
 	 * toString override.
 	 */
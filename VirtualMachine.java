@@ -0,0 +1,391 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Register machine for SHC {@link Bytecode}.
+ *
+ * Runs the same programs as the {@link Interpreter}, with the same
+ * {@link Memory} and {@link Builtins}, but over code lowered once by the
+ * {@link BytecodeCompiler} instead of the AST. Registers are one
+ * {@code long[]} shared by all calls, each call using a window of it, and
+ * calls push onto explicit stacks rather than the Java stack, so the
+ * dispatch loop allocates nothing and deep recursion needs no large thread
+ * stack.
+ */
+public final class VirtualMachine {
+  /** initial size of the register file */
+  private static final int INITIAL_REGISTERS = 1 << 16;
+  /** largest register file, in registers */
+  private static final int MAX_REGISTERS = 1 << 23;
+  /** initial depth of the call stack */
+  private static final int INITIAL_DEPTH = 1 << 10;
+  /** deepest call stack */
+  private static final int MAX_DEPTH = 1 << 22;
+
+  private final Bytecode.Program program;
+  private final Memory memory;
+  private final Builtins builtins;
+  private long[] registers = new long[INITIAL_REGISTERS];
+
+  // call stack: the caller's state for each active call
+
+  private int[] callerChunks = new int[INITIAL_DEPTH];
+  private int[] callerPcs = new int[INITIAL_DEPTH];
+  private int[] callerBases = new int[INITIAL_DEPTH];
+  private long[] callerFrames = new long[INITIAL_DEPTH];
+  private int[] stackMarks = new int[INITIAL_DEPTH];
+  /** argument arrays for builtins, by count, reused across calls */
+  private long[][] builtinArguments = new long[8][];
+
+  private VirtualMachine(Bytecode.Program program, Memory memory) {
+    this.program = program;
+    this.memory = memory;
+    this.builtins = new Builtins(memory);
+  }
+
+  /**
+   * Run a program's {@code main}.
+   *
+   * @param program   - functions of the program
+   * @param globals   - global variables
+   * @param arguments - {@code argv}, starting with the program name
+   * @return the exit status
+   * @throws ExecutionError if the program faults
+   */
+  public static int run(ArrayList<Function> program, ArrayList<Variable> globals, List<String> arguments) {
+    Memory memory = new Memory();
+    VirtualMachine machine = new VirtualMachine(BytecodeCompiler.compile(program, globals, memory), memory);
+    try {
+      return machine.runMain(arguments);
+    } catch (Builtins.Exit exit) {
+      return exit.getStatus();
+    } finally {
+      machine.builtins.flush();
+    }
+  }
+
+  private int runMain(List<String> arguments) {
+    int main = program.main();
+    if (main < 0) {
+      throw new ExecutionError("line 0: no `main` function");
+    }
+    int nParameters = program.chunks()[main].nParameters();
+    if (nParameters >= 2) {
+      long argv = memory.allocate(8L * (arguments.size() + 1));
+      for (int i = 0; i < arguments.size(); i++) {
+        memory.store(argv + 8L * i, 8, memory.intern(arguments.get(i)));
+      }
+      registers[0] = arguments.size();
+      registers[1] = argv;
+    } else if (nParameters == 1) {
+      registers[0] = arguments.size();
+    }
+    return (int) execute(main);
+  }
+
+  /**
+   * Run a function to completion.
+   *
+   * @param entry - index of the function's chunk; its arguments are in the
+   *              first registers
+   * @return its result
+   */
+  private long execute(int entry) {
+    Bytecode.Chunk[] chunks = program.chunks();
+    long[] constants = program.constants();
+    String[] names = program.names();
+    Memory memory = this.memory;
+
+    int chunk = entry;
+    int[] code = chunks[chunk].code();
+    long[] r = ensureRegisters(chunks[chunk].nRegisters());
+    int base = 0;
+    int pc = 0;
+    int depth = 0;
+    long frame = enter(chunks[chunk], base, r, chunks[chunk].nParameters());
+
+    try {
+      while (true) {
+        int word = code[pc];
+        int x = word >>> Bytecode.OPCODE_BITS;
+        switch (word & Bytecode.OPCODE_MASK) {
+          case Bytecode.MOV -> {
+            r[base + x] = r[base + code[pc + 1]];
+            pc += 2;
+          }
+          case Bytecode.CONST -> {
+            r[base + x] = code[pc + 1];
+            pc += 2;
+          }
+          case Bytecode.LOADK -> {
+            r[base + x] = constants[code[pc + 1]];
+            pc += 2;
+          }
+          case Bytecode.ADD -> {
+            r[base + x] = r[base + code[pc + 1]] + r[base + code[pc + 2]];
+            pc += 3;
+          }
+          case Bytecode.SUB -> {
+            r[base + x] = r[base + code[pc + 1]] - r[base + code[pc + 2]];
+            pc += 3;
+          }
+          case Bytecode.MUL -> {
+            r[base + x] = r[base + code[pc + 1]] * r[base + code[pc + 2]];
+            pc += 3;
+          }
+          case Bytecode.ADDI -> {
+            r[base + x] = r[base + code[pc + 1]] + code[pc + 2];
+            pc += 3;
+          }
+          case Bytecode.MULI -> {
+            r[base + x] = r[base + code[pc + 1]] * code[pc + 2];
+            pc += 3;
+          }
+          case Bytecode.DIVI -> {
+            r[base + x] = r[base + code[pc + 1]] / code[pc + 2];
+            pc += 3;
+          }
+          case Bytecode.DIVU -> {
+            long divisor = r[base + code[pc + 2]];
+            if (divisor == 0) {
+              throw new ExecutionError("division by zero");
+            }
+            r[base + x] = Long.divideUnsigned(r[base + code[pc + 1]], divisor);
+            pc += 3;
+          }
+          case Bytecode.REMU -> {
+            long divisor = r[base + code[pc + 2]];
+            if (divisor == 0) {
+              throw new ExecutionError("division by zero");
+            }
+            r[base + x] = Long.remainderUnsigned(r[base + code[pc + 1]], divisor);
+            pc += 3;
+          }
+          case Bytecode.DIV -> {
+            int divisor = (int) r[base + code[pc + 2]];
+            if (divisor == 0) {
+              throw new ExecutionError("division by zero");
+            }
+            r[base + x] = (int) r[base + code[pc + 1]] / divisor;
+            pc += 3;
+          }
+          case Bytecode.REM -> {
+            int divisor = (int) r[base + code[pc + 2]];
+            if (divisor == 0) {
+              throw new ExecutionError("division by zero");
+            }
+            r[base + x] = (int) r[base + code[pc + 1]] % divisor;
+            pc += 3;
+          }
+          case Bytecode.NEG -> {
+            r[base + x] = -r[base + code[pc + 1]];
+            pc += 2;
+          }
+          case Bytecode.I32 -> {
+            r[base + x] = (int) r[base + code[pc + 1]];
+            pc += 2;
+          }
+          case Bytecode.U8 -> {
+            r[base + x] = r[base + code[pc + 1]] & 0xFF;
+            pc += 2;
+          }
+          case Bytecode.I8 -> {
+            r[base + x] = (byte) r[base + code[pc + 1]];
+            pc += 2;
+          }
+          case Bytecode.I16 -> {
+            r[base + x] = (short) r[base + code[pc + 1]];
+            pc += 2;
+          }
+          case Bytecode.U32 -> {
+            r[base + x] = r[base + code[pc + 1]] & 0xFFFFFFFFL;
+            pc += 2;
+          }
+          case Bytecode.EQ -> {
+            r[base + x] = r[base + code[pc + 1]] == r[base + code[pc + 2]] ? 1 : 0;
+            pc += 3;
+          }
+          case Bytecode.NE -> {
+            r[base + x] = r[base + code[pc + 1]] != r[base + code[pc + 2]] ? 1 : 0;
+            pc += 3;
+          }
+          case Bytecode.LT -> {
+            r[base + x] = r[base + code[pc + 1]] < r[base + code[pc + 2]] ? 1 : 0;
+            pc += 3;
+          }
+          case Bytecode.LE -> {
+            r[base + x] = r[base + code[pc + 1]] <= r[base + code[pc + 2]] ? 1 : 0;
+            pc += 3;
+          }
+          case Bytecode.LTU -> {
+            r[base + x] = Long.compareUnsigned(r[base + code[pc + 1]], r[base + code[pc + 2]]) < 0 ? 1 : 0;
+            pc += 3;
+          }
+          case Bytecode.LEU -> {
+            r[base + x] = Long.compareUnsigned(r[base + code[pc + 1]], r[base + code[pc + 2]]) <= 0 ? 1 : 0;
+            pc += 3;
+          }
+          case Bytecode.JMP -> pc = x;
+          case Bytecode.JZ -> pc = r[base + x] == 0 ? code[pc + 1] : pc + 2;
+          case Bytecode.JNZ -> pc = r[base + x] != 0 ? code[pc + 1] : pc + 2;
+          case Bytecode.JEQ -> pc = r[base + x] == r[base + code[pc + 1]] ? code[pc + 2] : pc + 3;
+          case Bytecode.JNE -> pc = r[base + x] != r[base + code[pc + 1]] ? code[pc + 2] : pc + 3;
+          case Bytecode.JLT -> pc = r[base + x] < r[base + code[pc + 1]] ? code[pc + 2] : pc + 3;
+          case Bytecode.JGE -> pc = r[base + x] >= r[base + code[pc + 1]] ? code[pc + 2] : pc + 3;
+          case Bytecode.JLTU ->
+            pc = Long.compareUnsigned(r[base + x], r[base + code[pc + 1]]) < 0 ? code[pc + 2] : pc + 3;
+          case Bytecode.JGEU ->
+            pc = Long.compareUnsigned(r[base + x], r[base + code[pc + 1]]) >= 0 ? code[pc + 2] : pc + 3;
+          case Bytecode.LD8 -> {
+            r[base + x] = memory.load(r[base + code[pc + 1]], 1);
+            pc += 2;
+          }
+          case Bytecode.LD64 -> {
+            r[base + x] = memory.load(r[base + code[pc + 1]], 8);
+            pc += 2;
+          }
+          case Bytecode.ST8 -> {
+            memory.store(r[base + x], 1, r[base + code[pc + 1]]);
+            pc += 2;
+          }
+          case Bytecode.ST64 -> {
+            memory.store(r[base + x], 8, r[base + code[pc + 1]]);
+            pc += 2;
+          }
+          case Bytecode.LD16 -> {
+            r[base + x] = memory.load(r[base + code[pc + 1]], 2);
+            pc += 2;
+          }
+          case Bytecode.LD32 -> {
+            r[base + x] = memory.load(r[base + code[pc + 1]], 4);
+            pc += 2;
+          }
+          case Bytecode.ST16 -> {
+            memory.store(r[base + x], 2, r[base + code[pc + 1]]);
+            pc += 2;
+          }
+          case Bytecode.ST32 -> {
+            memory.store(r[base + x], 4, r[base + code[pc + 1]]);
+            pc += 2;
+          }
+          case Bytecode.GLD8 -> {
+            r[base + x] = memory.load(code[pc + 1], 1);
+            pc += 2;
+          }
+          case Bytecode.GLD64 -> {
+            r[base + x] = memory.load(code[pc + 1], 8);
+            pc += 2;
+          }
+          case Bytecode.GST8 -> {
+            memory.store(code[pc + 1], 1, r[base + x]);
+            pc += 2;
+          }
+          case Bytecode.GST64 -> {
+            memory.store(code[pc + 1], 8, r[base + x]);
+            pc += 2;
+          }
+          case Bytecode.FRAME -> {
+            r[base + x] = frame + code[pc + 1];
+            pc += 2;
+          }
+          case Bytecode.CALL -> {
+            if (depth + 1 == callerChunks.length) {
+              growCallStack();
+            }
+            Bytecode.Chunk callee = chunks[code[pc + 1]];
+            int calleeBase = base + code[pc + 2];
+            r = ensureRegisters(calleeBase + callee.nRegisters());
+            callerChunks[depth] = chunk;
+            callerPcs[depth] = pc;
+            callerBases[depth] = base;
+            callerFrames[depth] = frame;
+            stackMarks[depth] = memory.getStackPointer();
+            frame = enter(callee, calleeBase, r, code[pc + 3]);
+            depth++;
+            chunk = code[pc + 1];
+            base = calleeBase;
+            code = callee.code();
+            pc = 0;
+          }
+          case Bytecode.CALLB -> {
+            int n = code[pc + 3];
+            long[] arguments = builtinArguments(n);
+            System.arraycopy(r, base + code[pc + 2], arguments, 0, n);
+            r[base + x] = builtins.call(names[code[pc + 1]], arguments);
+            pc += 4;
+          }
+          case Bytecode.RET -> {
+            long value = r[base + x];
+            if (depth == 0) {
+              return value;
+            }
+            depth--;
+            memory.popFrame(stackMarks[depth]);
+            chunk = callerChunks[depth];
+            base = callerBases[depth];
+            frame = callerFrames[depth];
+            code = chunks[chunk].code();
+            pc = callerPcs[depth];
+            r[base + (code[pc] >>> Bytecode.OPCODE_BITS)] = value;
+            pc += 4;
+          }
+          case Bytecode.FAIL -> throw new ExecutionError(names[x]);
+          default -> throw new IllegalStateException("bad opcode " + (word & Bytecode.OPCODE_MASK));
+        }
+      }
+    } catch (ExecutionError e) {
+      throw new ExecutionError("line " + chunks[chunk].lines()[pc] + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Set up a call's register window and memory frame.
+   *
+   * @param callee     - function called
+   * @param base       - first register of its window
+   * @param r          - the register file
+   * @param nArguments - number of arguments already in the window
+   * @return the address of its memory frame
+   */
+  private long enter(Bytecode.Chunk callee, int base, long[] r, int nArguments) {
+    // locals, and parameters the caller did not pass, start out zero
+    Arrays.fill(r, base + Math.min(nArguments, callee.nParameters()), base + callee.nRegisters(), 0);
+    return callee.frameSize() > 0 ? memory.pushFrame(callee.frameSize()) : 0;
+  }
+
+  /** Return the register file, grown to at least {@code size} registers. */
+  private long[] ensureRegisters(int size) {
+    if (size > registers.length) {
+      if (size > MAX_REGISTERS) {
+        throw new ExecutionError("stack overflow");
+      }
+      registers = Arrays.copyOf(registers, Math.max(size, Math.min(MAX_REGISTERS, registers.length * 2)));
+    }
+    return registers;
+  }
+
+  private void growCallStack() {
+    if (callerChunks.length == MAX_DEPTH) {
+      throw new ExecutionError("stack overflow");
+    }
+    int depth = callerChunks.length * 2;
+    callerChunks = Arrays.copyOf(callerChunks, depth);
+    callerPcs = Arrays.copyOf(callerPcs, depth);
+    callerBases = Arrays.copyOf(callerBases, depth);
+    callerFrames = Arrays.copyOf(callerFrames, depth);
+    stackMarks = Arrays.copyOf(stackMarks, depth);
+  }
+
+  private long[] builtinArguments(int n) {
+    if (n >= builtinArguments.length) {
+      builtinArguments = Arrays.copyOf(builtinArguments, n + 1);
+    }
+    long[] arguments = builtinArguments[n];
+    if (arguments == null) {
+      arguments = new long[n];
+      builtinArguments[n] = arguments;
+    }
+    return arguments;
+  }
+}